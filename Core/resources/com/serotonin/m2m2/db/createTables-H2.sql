@@ -253,6 +253,24 @@ CREATE TABLE pointValues (
 );
 CREATE index pointValuesIdx1 on pointValues (dataPointId, ts);
 
+CREATE TABLE pointValueRollups (
+  dataPointId int NOT NULL,
+  tier bigint NOT NULL,
+  ts bigint NOT NULL,
+  valueCount int NOT NULL,
+  valueSum double,
+  minimumValue double,
+  minimumTs bigint,
+  maximumValue double,
+  maximumTs bigint,
+  firstValue double,
+  firstTs bigint,
+  lastValue double,
+  lastTs bigint,
+  integral double,
+  PRIMARY KEY (dataPointId, tier, ts)
+);
+
 CREATE TABLE pointValueAnnotations (
   pointValueId bigint NOT NULL,
   textPointValueShort varchar(128),
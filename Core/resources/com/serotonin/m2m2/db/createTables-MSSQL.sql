@@ -255,6 +255,24 @@ create table pointValues (
 );
 create index pointValuesIdx1 on pointValues (dataPointId, ts);
 
+create table pointValueRollups (
+  dataPointId int not null,
+  tier bigint not null,
+  ts bigint not null,
+  valueCount int not null,
+  valueSum float,
+  minimumValue float,
+  minimumTs bigint,
+  maximumValue float,
+  maximumTs bigint,
+  firstValue float,
+  firstTs bigint,
+  lastValue float,
+  lastTs bigint,
+  integral float,
+  primary key (dataPointId, tier, ts)
+);
+
 create table pointValueAnnotations (
   pointValueId bigint not null,
   textPointValueShort nvarchar(128),
@@ -259,6 +259,24 @@ create table pointValues (
 ) engine=InnoDB;
 create index pointValuesIdx1 on pointValues (dataPointId, ts);
 
+create table pointValueRollups (
+  dataPointId int not null,
+  tier bigint not null,
+  ts bigint not null,
+  valueCount int not null,
+  valueSum double,
+  minimumValue double,
+  minimumTs bigint,
+  maximumValue double,
+  maximumTs bigint,
+  firstValue double,
+  firstTs bigint,
+  lastValue double,
+  lastTs bigint,
+  integral double,
+  primary key (dataPointId, tier, ts)
+) engine=InnoDB;
+
 create table pointValueAnnotations (
   pointValueId bigint not null,
   textPointValueShort varchar(128),
@@ -255,6 +255,24 @@ CREATE TABLE pointValues (
 );
 CREATE INDEX pointValuesIdx1 ON pointValues (dataPointId, ts);
 
+CREATE TABLE pointValueRollups (
+  dataPointId integer NOT NULL,
+  tier bigint NOT NULL,
+  ts bigint NOT NULL,
+  valueCount integer NOT NULL,
+  valueSum double precision,
+  minimumValue double precision,
+  minimumTs bigint,
+  maximumValue double precision,
+  maximumTs bigint,
+  firstValue double precision,
+  firstTs bigint,
+  lastValue double precision,
+  lastTs bigint,
+  integral double precision,
+  PRIMARY KEY (dataPointId, tier, ts)
+);
+
 CREATE TABLE pointValueAnnotations (
   pointValueId bigint NOT NULL,
   textPointValueShort varchar(128),
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2020 Infinite Automation Systems Inc. All rights reserved.
+ *
+ * @author Terry Packer
+ */
+package com.infiniteautomation.mango.emport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.infiniteautomation.mango.spring.service.DataPointService;
+import com.infiniteautomation.mango.spring.service.DataSourceService;
+import com.infiniteautomation.mango.spring.service.EventDetectorsService;
+import com.infiniteautomation.mango.spring.service.EventHandlerService;
+import com.infiniteautomation.mango.spring.service.JsonDataService;
+import com.infiniteautomation.mango.spring.service.MailingListService;
+import com.infiniteautomation.mango.spring.service.PublisherService;
+import com.infiniteautomation.mango.spring.service.RoleService;
+import com.infiniteautomation.mango.spring.service.SystemPermissionService;
+import com.infiniteautomation.mango.spring.service.UsersService;
+import com.serotonin.json.JsonReader;
+import com.serotonin.json.JsonWriter;
+import com.serotonin.json.type.JsonArray;
+import com.serotonin.json.type.JsonObject;
+import com.serotonin.json.type.JsonString;
+import com.serotonin.json.type.JsonValue;
+import com.serotonin.m2m2.Common;
+import com.serotonin.m2m2.MangoTestBase;
+import com.serotonin.m2m2.MockRuntimeManager;
+import com.serotonin.m2m2.db.dao.DataPointDao;
+import com.serotonin.m2m2.db.dao.DataSourceDao;
+import com.serotonin.m2m2.db.dao.UserDao;
+import com.serotonin.m2m2.i18n.ProcessMessage;
+import com.serotonin.m2m2.rt.RuntimeManager;
+import com.serotonin.m2m2.vo.DataPointVO;
+import com.serotonin.m2m2.vo.dataPoint.DataPointWithEventDetectors;
+import com.serotonin.m2m2.vo.dataSource.DataSourceVO;
+
+/**
+ * An element that fails must not leave what was started or cached for the rest of its batch out of step with the
+ * database
+ *
+ * @author Terry Packer
+ */
+public class StreamingImportTaskTest extends MangoTestBase {
+
+    private static final String DATA_SOURCE_XID = "DS_997094";
+    private static final String BAD_POINT_XID = "DP_BAD_REFERENCE";
+
+    @Test
+    public void testFailedElementInBatch() throws Exception {
+        JsonObject root;
+        try (Reader reader = new InputStreamReader(getClass().getResourceAsStream("/testMangoConfig.json"), StandardCharsets.UTF_8)) {
+            root = new JsonReader(reader).read(JsonObject.class);
+        }
+
+        //One data source, its points and a point in the same batch that references a missing data source
+        JsonObject config = new JsonObject();
+        JsonArray dataSources = new JsonArray();
+        for (JsonValue ds : root.getJsonArray("dataSources"))
+            if (DATA_SOURCE_XID.equals(ds.toJsonObject().getString("xid")))
+                dataSources.add(ds);
+        JsonArray dataPoints = new JsonArray();
+        List<String> pointXids = new ArrayList<>();
+        for (JsonValue dp : root.getJsonArray("dataPoints")) {
+            JsonObject point = dp.toJsonObject();
+            if (DATA_SOURCE_XID.equals(point.getString("dataSourceXid"))) {
+                dataPoints.add(point);
+                pointXids.add(point.getString("xid"));
+                if (pointXids.size() == 1) {
+                    JsonObject bad = new JsonObject();
+                    bad.putAll(point);
+                    bad.put("xid", new JsonString(BAD_POINT_XID));
+                    bad.put("dataSourceXid", new JsonString("DS_MISSING"));
+                    dataPoints.add(bad);
+                }
+            }
+        }
+        assertFalse(pointXids.isEmpty());
+        config.put("dataSources", dataSources);
+        config.put("dataPoints", dataPoints);
+
+        Path file = Files.createTempFile("streamingImport", ".json");
+        RuntimeManager original = Common.runtimeManager;
+        RecordingRuntimeManager recorder = new RecordingRuntimeManager();
+        Common.runtimeManager = recorder;
+        try {
+            try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                new JsonWriter(Common.JSON_CONTEXT, writer).writeObject(config);
+            }
+
+            StreamingImportTask task = new StreamingImportTask(file,
+                    Common.getTranslations(),
+                    UserDao.getInstance().getByXid("admin"),
+                    Common.getBean(RoleService.class),
+                    Common.getBean(UsersService.class),
+                    Common.getBean(MailingListService.class),
+                    Common.getBean(DataSourceService.class),
+                    Common.getBean(DataPointService.class),
+                    Common.getBean(PublisherService.class),
+                    Common.getBean(EventHandlerService.class),
+                    Common.getBean(JsonDataService.class),
+                    Common.getBean(EventDetectorsService.class),
+                    Common.getBean(SystemPermissionService.class),
+                    null, false);
+            task.run(Common.timer.currentTimeMillis());
+
+            boolean reported = false;
+            for (ProcessMessage message : task.getResponse().getMessages())
+                if (message.getLevel() == ProcessMessage.Level.error && message.toString(Common.getTranslations()).contains(BAD_POINT_XID))
+                    reported = true;
+            assertTrue(reported);
+
+            assertNull(DataPointDao.getInstance().getByXid(BAD_POINT_XID));
+            assertFalse(recorder.startedPoints.contains(BAD_POINT_XID));
+            for (String xid : pointXids)
+                assertNotNull(DataPointDao.getInstance().getByXid(xid));
+
+            //Everything that was started was saved
+            assertEquals(1, recorder.insertedDataSources.size());
+            for (String xid : recorder.insertedDataSources)
+                assertNotNull(DataSourceDao.getInstance().getByXid(xid));
+            for (String xid : recorder.startedPoints) {
+                DataPointVO vo = DataPointDao.getInstance().getByXid(xid);
+                assertNotNull(vo);
+                assertTrue(vo.isEnabled());
+            }
+        } finally {
+            Common.runtimeManager = original;
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static class RecordingRuntimeManager extends MockRuntimeManager {
+        final List<String> insertedDataSources = new ArrayList<>();
+        final List<String> startedPoints = new ArrayList<>();
+
+        RecordingRuntimeManager() {
+            super(true);
+        }
+
+        @Override
+        public void insertDataSource(DataSourceVO vo) {
+            super.insertDataSource(vo);
+            insertedDataSources.add(vo.getXid());
+        }
+
+        @Override
+        public void startDataPoint(DataPointWithEventDetectors vo) {
+            super.startDataPoint(vo);
+            startedPoints.add(vo.getDataPoint().getXid());
+        }
+    }
+}
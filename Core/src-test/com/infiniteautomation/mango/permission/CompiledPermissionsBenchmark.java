@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2020 Infinite Automation Systems Inc. All rights reserved.
+ *
+ * @author Terry Packer
+ */
+package com.infiniteautomation.mango.permission;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import com.serotonin.m2m2.vo.role.Role;
+
+/**
+ * Compares checking permissions by walking the role sets against the compiled bitsets.
+ * Run manually, there is no assertion on the result.
+ */
+public class CompiledPermissionsBenchmark {
+
+    private static final int ROLES = 100;
+    private static final int HOLDERS = 50;
+    private static final int PERMISSIONS = 1000;
+    private static final int ITERATIONS = 2000;
+
+    public static void main(String[] args) {
+        Random random = new Random(42);
+        List<Role> roles = new ArrayList<>();
+        for (int i = 0; i < ROLES; i++)
+            roles.add(new Role(i + 10, "role" + i));
+
+        List<Set<Role>> holders = new ArrayList<>();
+        for (int i = 0; i < HOLDERS; i++)
+            holders.add(randomRoles(random, roles, 1 + random.nextInt(8)));
+
+        List<MangoPermission> permissions = new ArrayList<>();
+        for (int i = 0; i < PERMISSIONS; i++) {
+            Set<Set<Role>> terms = new HashSet<>();
+            int termCount = 1 + random.nextInt(4);
+            for (int j = 0; j < termCount; j++)
+                terms.add(randomRoles(random, roles, 1 + random.nextInt(3)));
+            permissions.add(new MangoPermission(terms));
+        }
+
+        CompiledPermissions compiled = new CompiledPermissions();
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            int granted = 0;
+            for (int i = 0; i < ITERATIONS; i++) {
+                Set<Role> held = holders.get(i % HOLDERS);
+                for (MangoPermission permission : permissions) {
+                    if (isGranted(held, permission))
+                        granted++;
+                }
+            }
+            long sets = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int compiledGranted = 0;
+            for (int i = 0; i < ITERATIONS; i++) {
+                Set<Role> held = holders.get(i % HOLDERS);
+                for (MangoPermission permission : permissions) {
+                    if (compiled.isGranted(held, permission))
+                        compiledGranted++;
+                }
+            }
+            long bits = System.nanoTime() - start;
+
+            long checks = (long) ITERATIONS * PERMISSIONS;
+            System.out.println(String.format("round %d: sets %.1f ns/check, bitsets %.1f ns/check, granted %d/%d",
+                    round, (double) sets / checks, (double) bits / checks, granted, compiledGranted));
+        }
+    }
+
+    /**
+     * The check as done before the permissions were compiled
+     */
+    private static boolean isGranted(Set<Role> held, MangoPermission permission) {
+        for (Set<Role> term : permission.getRoles()) {
+            if (!term.isEmpty() && held.containsAll(term))
+                return true;
+        }
+        return false;
+    }
+
+    private static Set<Role> randomRoles(Random random, List<Role> roles, int count) {
+        Set<Role> result = new HashSet<>();
+        while (result.size() < count)
+            result.add(roles.get(random.nextInt(roles.size())));
+        return result;
+    }
+}
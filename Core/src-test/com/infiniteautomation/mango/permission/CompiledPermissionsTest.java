@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2020 Infinite Automation Systems Inc. All rights reserved.
+ *
+ * @author Terry Packer
+ */
+package com.infiniteautomation.mango.permission;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.serotonin.m2m2.vo.role.Role;
+
+public class CompiledPermissionsTest {
+
+    private final Role a = new Role(10, "a");
+    private final Role b = new Role(11, "b");
+    private final Role c = new Role(12, "c");
+
+    private Set<Role> roles(Role... roles) {
+        return new HashSet<>(Arrays.asList(roles));
+    }
+
+    @Test
+    public void testOrAndSets() {
+        CompiledPermissions compiled = new CompiledPermissions();
+        Set<Set<Role>> terms = new HashSet<>();
+        terms.add(roles(a, b));
+        terms.add(roles(c));
+        MangoPermission permission = new MangoPermission(terms);
+
+        assertTrue(compiled.isGranted(roles(a, b), permission));
+        assertTrue(compiled.isGranted(roles(c), permission));
+        assertFalse(compiled.isGranted(roles(a), permission));
+        assertFalse(compiled.isGranted(roles(b), permission));
+        assertFalse(compiled.isGranted(Collections.emptySet(), permission));
+    }
+
+    @Test
+    public void testEmptyPermissions() {
+        CompiledPermissions compiled = new CompiledPermissions();
+        assertFalse(compiled.isGranted(roles(a), new MangoPermission()));
+        assertFalse(compiled.isGranted(roles(a), MangoPermission.createAndSet(Collections.emptySet())));
+    }
+
+    @Test
+    public void testManyRoles() {
+        CompiledPermissions compiled = new CompiledPermissions();
+        Set<Role> held = new HashSet<>();
+        for (int i = 0; i < 200; i++)
+            held.add(new Role(100 + i, "role" + i));
+        Role last = new Role(1000, "last");
+
+        MangoPermission permission = MangoPermission.createAndSet(new Role(299, "role199"), last);
+        assertFalse(compiled.isGranted(held, permission));
+        assertTrue(compiled.isGranted(roles(new Role(299, "role199"), last), permission));
+        assertEquals(201, compiled.getRoleCount());
+
+        //The same set instance with another role must be recompiled
+        held.add(last);
+        assertTrue(compiled.isGranted(held, permission));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRole() {
+        new CompiledPermissions().isGranted(roles(a), MangoPermission.createOrSet(new Role(5, "")));
+    }
+}
@@ -16,6 +16,7 @@ import com.infiniteautomation.mango.db.query.QueryCancelledException;
 import com.infiniteautomation.mango.statistics.AnalogStatistics;
 import com.infiniteautomation.mango.util.datetime.NextTimePeriodAdjuster;
 import com.serotonin.m2m2.Common.TimePeriods;
+import com.serotonin.m2m2.DataTypes;
 import com.serotonin.m2m2.rt.dataImage.IdPointValueTime;
 import com.serotonin.m2m2.rt.dataImage.types.NumericValue;
 
@@ -709,4 +710,49 @@ public class AnalogStatisticsQuantizerTest extends BaseQuantizerTest{
         quantizer.done();
         Assert.assertEquals(Integer.valueOf(31), counter.getValue());
     }
+
+    @Test
+    public void testPrimitiveValuesMatchObjectValues() throws QueryCancelledException {
+        //Generate 10 values per day starting at 12 noon
+        NextTimePeriodAdjuster adjuster = new NextTimePeriodAdjuster(TimePeriods.DAYS, 1);
+        NextTimePeriodAdjuster hourlyAdjuster = new NextTimePeriodAdjuster(TimePeriods.HOURS, 1);
+
+        time = ZonedDateTime.of(2017, 01, 01, 12, 00, 00, 0, zoneId);
+        List<IdPointValueTime> data = new ArrayList<>();
+        double value = 1.0;
+        while(time.toInstant().isBefore(to.toInstant())) {
+            ZonedDateTime daily = ZonedDateTime.ofInstant(time.toInstant(), zoneId);
+            for(int i=0; i<10; i++) {
+                data.add(new IdPointValueTime(1, new NumericValue(value), daily.toInstant().toEpochMilli()));
+                daily = (ZonedDateTime)hourlyAdjuster.adjustInto(daily);
+                value = value * -1.5d;
+            }
+            time = (ZonedDateTime) adjuster.adjustInto(time);
+        }
+        long start = from.minusHours(3).toInstant().toEpochMilli();
+
+        List<String> objectStats = new ArrayList<>();
+        AnalogStatisticsQuantizer quantizer = new AnalogStatisticsQuantizer(new TimePeriodBucketCalculator(from, to, TimePeriods.DAYS, 1),
+                stats -> objectStats.add(stats.toString()));
+        quantizer.firstValue(new IdPointValueTime(1, new NumericValue(0.5), start), 0, true);
+        for(int count = 0; count < data.size(); count++)
+            quantizer.row(data.get(count), count + 1);
+        quantizer.lastValue(data.get(data.size() - 1), data.size() + 1, true);
+        quantizer.done();
+
+        List<String> primitiveStats = new ArrayList<>();
+        quantizer = new AnalogStatisticsQuantizer(new TimePeriodBucketCalculator(from, to, TimePeriods.DAYS, 1),
+                stats -> primitiveStats.add(stats.toString()));
+        quantizer.firstValue(1, DataTypes.NUMERIC, 0.5, start, 0, true);
+        for(int count = 0; count < data.size(); count++) {
+            IdPointValueTime pvt = data.get(count);
+            quantizer.row(1, DataTypes.NUMERIC, pvt.getDoubleValue(), pvt.getTime(), count + 1);
+        }
+        IdPointValueTime last = data.get(data.size() - 1);
+        quantizer.lastValue(1, DataTypes.NUMERIC, last.getDoubleValue(), last.getTime(), data.size() + 1, true);
+        quantizer.done();
+
+        Assert.assertEquals(31, objectStats.size());
+        Assert.assertEquals(objectStats, primitiveStats);
+    }
 }
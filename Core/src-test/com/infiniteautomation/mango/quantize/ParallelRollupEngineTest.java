@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2020 Infinite Automation Systems Inc. All rights reserved.
+ *
+ * @author Terry Packer
+ */
+package com.infiniteautomation.mango.quantize;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.serotonin.m2m2.Common;
+import com.serotonin.m2m2.Common.TimePeriods;
+import com.serotonin.m2m2.DataTypes;
+import com.serotonin.m2m2.MangoTestBase;
+import com.serotonin.m2m2.db.dao.PointValueDao;
+import com.serotonin.m2m2.rt.dataImage.PointValueTime;
+import com.serotonin.m2m2.rt.dataImage.types.AlphanumericValue;
+import com.serotonin.m2m2.rt.dataImage.types.BinaryValue;
+import com.serotonin.m2m2.rt.dataImage.types.DataValue;
+import com.serotonin.m2m2.rt.dataImage.types.MultistateValue;
+import com.serotonin.m2m2.rt.dataImage.types.NumericValue;
+import com.serotonin.m2m2.view.stats.StatisticsGenerator;
+import com.serotonin.m2m2.vo.DataPointVO;
+import com.serotonin.m2m2.vo.dataPoint.MockPointLocatorVO;
+import com.serotonin.m2m2.vo.dataSource.mock.MockDataSourceVO;
+
+/**
+ * Golden tests, the parallel rollups must produce exactly the same statistics as one quantizer per point
+ * over the whole range.
+ *
+ * @author Terry Packer
+ */
+public class ParallelRollupEngineTest extends MangoTestBase {
+
+    private final ZoneId zoneId = ZoneId.of("America/Denver");
+    private ForkJoinPool pool;
+    private PointValueDao dao;
+    private List<DataPointVO> points;
+
+    @Before
+    public void setupPoints() {
+        pool = new ForkJoinPool(4);
+        dao = Common.databaseProxy.newPointValueDao();
+        MockDataSourceVO ds = createMockDataSource();
+        points = new ArrayList<>();
+        points.add(createMockDataPoint(ds, new MockPointLocatorVO(DataTypes.NUMERIC, true)));
+        points.add(createMockDataPoint(ds, new MockPointLocatorVO(DataTypes.BINARY, true)));
+        points.add(createMockDataPoint(ds, new MockPointLocatorVO(DataTypes.MULTISTATE, true)));
+        points.add(createMockDataPoint(ds, new MockPointLocatorVO(DataTypes.ALPHANUMERIC, true)));
+    }
+
+    @After
+    public void shutdownPool() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testDailyRollupsOverMonths() {
+        ZonedDateTime from = ZonedDateTime.of(2019, 12, 1, 0, 0, 0, 0, zoneId);
+        ZonedDateTime to = ZonedDateTime.of(2020, 4, 1, 0, 0, 0, 0, zoneId);
+        //Values start before the range so every slice has a start value
+        insertData(from.minusDays(2), to.plusDays(1), 1);
+        assertGolden(from, to, TimePeriods.DAYS, 1, 1);
+        assertGolden(from, to, TimePeriods.DAYS, 1, 7);
+    }
+
+    @Test
+    public void testRangeNotOnPeriodBoundaries() {
+        ZonedDateTime from = ZonedDateTime.of(2020, 1, 3, 7, 13, 0, 0, zoneId);
+        ZonedDateTime to = ZonedDateTime.of(2020, 3, 17, 19, 41, 0, 0, zoneId);
+        insertData(from.minusDays(2), to.plusDays(1), 2);
+        assertGolden(from, to, TimePeriods.DAYS, 1, 1);
+        assertGolden(from, to, TimePeriods.HOURS, 6, 3);
+    }
+
+    @Test
+    public void testDataStartsAfterRange() {
+        //No start value for the first slices, the start value must carry over from the first value
+        ZonedDateTime from = ZonedDateTime.of(2020, 1, 1, 0, 0, 0, 0, zoneId);
+        ZonedDateTime to = ZonedDateTime.of(2020, 3, 1, 0, 0, 0, 0, zoneId);
+        insertData(from.plusDays(20).plusHours(5), from.plusDays(30), 3);
+        assertGolden(from, to, TimePeriods.DAYS, 1, 1);
+    }
+
+    @Test
+    public void testNoData() {
+        ZonedDateTime from = ZonedDateTime.of(2020, 1, 1, 0, 0, 0, 0, zoneId);
+        ZonedDateTime to = ZonedDateTime.of(2020, 2, 1, 0, 0, 0, 0, zoneId);
+        assertGolden(from, to, TimePeriods.DAYS, 1, 1);
+    }
+
+    @Test
+    public void testResultsInTimeOrder() {
+        ZonedDateTime from = ZonedDateTime.of(2020, 1, 1, 0, 0, 0, 0, zoneId);
+        ZonedDateTime to = ZonedDateTime.of(2020, 2, 1, 0, 0, 0, 0, zoneId);
+        insertData(from, to, 4);
+
+        List<StatisticsGenerator> results = new ArrayList<>();
+        new ParallelRollupEngine(dao, pool, 1).execute(points, new TimePeriodBucketCalculator(from, to, TimePeriods.DAYS, 1),
+                (vo, stats) -> results.add(stats));
+        assertEquals(31 * points.size(), results.size());
+        for(int i = 1; i < results.size(); i++)
+            assertTrue(results.get(i - 1).getPeriodStartTime() <= results.get(i).getPeriodStartTime());
+    }
+
+    /**
+     * Compare the parallel rollup to a sequential quantizer for every point
+     */
+    private void assertGolden(ZonedDateTime from, ZonedDateTime to, int periodType, int periods, int minPeriodsPerSlice) {
+        Map<Integer, List<String>> expected = new HashMap<>();
+        for(DataPointVO vo : points) {
+            List<String> stats = new ArrayList<>();
+            AbstractPointValueTimeQuantizer<?> quantizer = createQuantizer(vo, new TimePeriodBucketCalculator(from, to, periodType, periods), stats);
+            dao.wideBookendQuery(Collections.singletonList(vo), from.toInstant().toEpochMilli(), to.toInstant().toEpochMilli(), false, null, quantizer);
+            quantizer.done();
+            expected.put(vo.getId(), stats);
+        }
+
+        Map<Integer, List<String>> actual = new HashMap<>();
+        ParallelRollupEngine engine = new ParallelRollupEngine(dao, pool, minPeriodsPerSlice);
+        engine.execute(points, new TimePeriodBucketCalculator(from, to, periodType, periods),
+                (vo, stats) -> actual.computeIfAbsent(vo.getId(), k -> new ArrayList<>()).add(stats.toString()));
+
+        for(DataPointVO vo : points)
+            assertEquals(expected.get(vo.getId()), actual.get(vo.getId()));
+    }
+
+    private AbstractPointValueTimeQuantizer<?> createQuantizer(DataPointVO vo, BucketCalculator bc, List<String> stats) {
+        switch(vo.getPointLocator().getDataTypeId()) {
+            case DataTypes.NUMERIC:
+                return new AnalogStatisticsQuantizer(bc, s -> stats.add(s.toString()));
+            case DataTypes.BINARY:
+            case DataTypes.MULTISTATE:
+                return new StartsAndRuntimeListQuantizer(bc, s -> stats.add(s.toString()));
+            default:
+                return new ValueChangeCounterQuantizer(bc, s -> stats.add(s.toString()));
+        }
+    }
+
+    /**
+     * Insert random values every few hours, some exactly on the hour so they land on period boundaries
+     */
+    private void insertData(ZonedDateTime from, ZonedDateTime to, long seed) {
+        Random random = new Random(seed);
+        long end = to.toInstant().toEpochMilli();
+        for(DataPointVO vo : points) {
+            long time = from.toInstant().toEpochMilli();
+            while(time < end) {
+                dao.savePointValueSync(vo, new PointValueTime(randomValue(vo, random), time), null);
+                if(random.nextBoolean())
+                    time += (1 + random.nextInt(8)) * 3600000L;
+                else
+                    time += random.nextInt(8 * 3600000);
+            }
+        }
+    }
+
+    private DataValue randomValue(DataPointVO vo, Random random) {
+        switch(vo.getPointLocator().getDataTypeId()) {
+            case DataTypes.NUMERIC:
+                return new NumericValue(random.nextDouble() * 1000d - 500d);
+            case DataTypes.BINARY:
+                return new BinaryValue(random.nextBoolean());
+            case DataTypes.MULTISTATE:
+                return new MultistateValue(random.nextInt(4));
+            default:
+                return new AlphanumericValue("value " + random.nextInt(3));
+        }
+    }
+}
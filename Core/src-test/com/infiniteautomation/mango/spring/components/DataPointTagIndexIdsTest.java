@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2020 Infinite Automation Systems Inc. All rights reserved.
+ *
+ * @author Terry Packer
+ */
+package com.infiniteautomation.mango.spring.components;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import com.infiniteautomation.mango.spring.components.DataPointTagIndex.Ids;
+
+/**
+ * The point id sets of the tag index, as arrays and after they switch to bitmaps
+ *
+ * @author Terry Packer
+ */
+public class DataPointTagIndexIdsTest {
+
+    @Test
+    public void testSparse() {
+        Ids ids = new Ids();
+        ids.add(100000);
+        ids.add(5);
+        ids.add(70000);
+        ids.add(5);
+        assertEquals(3, ids.size());
+
+        BitSet other = bits(5, 6, 7);
+        assertTrue(ids.intersects(other));
+        assertEquals(bits(5), ids.and(other));
+        assertFalse(ids.intersects(bits(6, 7)));
+
+        ids.remove(5);
+        ids.remove(8);
+        assertEquals(2, ids.size());
+        assertEquals(bits(70000, 100000), ids.toBitSet());
+        assertTrue(ids.containsAll(bits(70000)));
+        assertFalse(ids.containsAll(bits(70000, 5)));
+    }
+
+    @Test
+    public void testMatchesSet() {
+        Random random = new Random(1);
+        Ids ids = new Ids();
+        TreeSet<Integer> expected = new TreeSet<>();
+        // Grows dense enough to become a bitmap part way through
+        for (int i = 0; i < 5000; i++) {
+            int id = random.nextInt(20000);
+            if (random.nextInt(4) == 0) {
+                ids.remove(id);
+                expected.remove(id);
+            } else {
+                ids.add(id);
+                expected.add(id);
+            }
+            assertEquals(expected.size(), ids.size());
+        }
+
+        BitSet expectedBits = new BitSet();
+        expected.forEach(expectedBits::set);
+        assertEquals(expectedBits, ids.toBitSet());
+
+        BitSet filter = new BitSet();
+        filter.set(0, 10000);
+        BitSet intersection = (BitSet) expectedBits.clone();
+        intersection.and(filter);
+        assertEquals(intersection, ids.and((BitSet) filter.clone()));
+        assertTrue(ids.containsAll(intersection));
+    }
+
+    private static BitSet bits(int... ids) {
+        BitSet bits = new BitSet();
+        for (int id : ids)
+            bits.set(id);
+        return bits;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2020 Infinite Automation Systems Inc. All rights reserved.
+ *
+ * @author Terry Packer
+ */
+package com.infiniteautomation.mango.spring.components;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.infiniteautomation.mango.permission.MangoPermission;
+import com.serotonin.m2m2.Common;
+import com.serotonin.m2m2.MangoTestBase;
+import com.serotonin.m2m2.db.dao.DataPointDao;
+import com.serotonin.m2m2.db.dao.DataPointTagsDao;
+import com.serotonin.m2m2.db.dao.DataSourceDao;
+import com.serotonin.m2m2.vo.DataPointVO;
+import com.serotonin.m2m2.vo.User;
+import com.serotonin.m2m2.vo.dataPoint.MockPointLocatorVO;
+import com.serotonin.m2m2.vo.dataSource.mock.MockDataSourceVO;
+import com.serotonin.m2m2.vo.permission.PermissionHolder;
+import com.serotonin.m2m2.vo.role.RoleVO;
+
+/**
+ * The tag index, maintained by the DAOs as changes commit, must answer as the database queries do
+ *
+ * @author Terry Packer
+ */
+public class DataPointTagIndexTest extends MangoTestBase {
+
+    private DataPointTagIndex index;
+    private DataPointTagsDao dao;
+    private List<User> users;
+    private List<DataPointVO> points;
+    private MockDataSourceVO restricted;
+
+    @Before
+    public void createTaggedPoints() {
+        index = Common.getBean(DataPointTagIndex.class);
+        dao = DataPointTagsDao.getInstance();
+
+        RoleVO roleA = createRole("roleA", "roleA");
+        RoleVO roleB = createRole("roleB", "roleB");
+        users = new ArrayList<>();
+        users.add(createUser("Admin", "tagAdmin", "password", "tagAdmin@yourMangoDomain.com", PermissionHolder.SUPERADMIN_ROLE));
+        users.add(createUser("A", "tagUserA", "password", "tagUserA@yourMangoDomain.com", roleA.getRole()));
+        users.add(createUser("B", "tagUserB", "password", "tagUserB@yourMangoDomain.com", roleB.getRole()));
+
+        // Loaded before the points exist so they are added from the events
+        index.setEnabled(true);
+        dao.getTagKeys(users.get(0));
+
+        restricted = createMockDataSource("restricted", "restricted", false, new MangoPermission(), new MangoPermission());
+        MockDataSourceVO shared = createMockDataSource("shared", "shared", false,
+                MangoPermission.createOrSet(roleB.getRole()), new MangoPermission());
+
+        points = new ArrayList<>();
+        points.add(createPoint(restricted, MangoPermission.createOrSet(roleA.getRole()), new MangoPermission(), "site", "A", "type", "temp"));
+        points.add(createPoint(restricted, new MangoPermission(), new MangoPermission(), "site", "A", "type", "humidity"));
+        points.add(createPoint(restricted, new MangoPermission(), MangoPermission.createOrSet(roleA.getRole()), "site", "B"));
+        points.add(createPoint(restricted, MangoPermission.createOrSet(roleA.getRole()), new MangoPermission(), "site", "B", "type", "temp"));
+        points.add(createPoint(shared, new MangoPermission(), new MangoPermission(), "site", "C", "type", "flow"));
+    }
+
+    @After
+    public void disableIndex() {
+        index.setEnabled(false);
+        index.invalidate();
+    }
+
+    @Test
+    public void testMatchesDatabase() {
+        assertMatchesDatabase();
+    }
+
+    @Test
+    public void testUpdatedAndDeleted() {
+        DataPointVO point = points.get(1);
+        point.setTags(tags("site", "B", "type", "flow"));
+        dao.saveDataPointTags(point);
+        DataPointDao.getInstance().delete(points.get(3));
+        assertMatchesDatabase();
+
+        DataSourceDao.getInstance().delete(restricted);
+        assertMatchesDatabase();
+    }
+
+    @Test
+    public void testRolledBack() {
+        DataPointDao.getInstance().doInTransaction(status -> {
+            DataPointVO point = points.get(0);
+            point.setTags(tags("site", "rolledBack"));
+            dao.saveDataPointTags(point);
+            DataPointDao.getInstance().delete(points.get(4));
+            status.setRollbackOnly();
+        });
+
+        assertFalse(dao.getTagValuesForKey("site", users.get(0)).contains("rolledBack"));
+        assertMatchesDatabase();
+    }
+
+    @Test
+    public void testAppliedAfterCommit() {
+        DataPointDao.getInstance().doInTransaction(status -> {
+            DataPointVO point = points.get(0);
+            point.setTags(tags("site", "committed"));
+            dao.saveDataPointTags(point);
+            assertFalse(dao.getTagValuesForKey("site", users.get(0)).contains("committed"));
+        });
+
+        assertTrue(dao.getTagValuesForKey("site", users.get(0)).contains("committed"));
+        assertMatchesDatabase();
+    }
+
+    @Test
+    public void testLateChange() {
+        DataPointVO point = points.get(2);
+        DataPointDao.getInstance().delete(point);
+        // Reported again after the delete, as a late update would be
+        dao.dataPointChanged(point.getId());
+        dao.dataSourceChanged(restricted.getId());
+        assertMatchesDatabase();
+    }
+
+    private void assertMatchesDatabase() {
+        List<Function<User, Set<String>>> queries = new ArrayList<>();
+        queries.add(dao::getTagKeys);
+        for (String key : new String[] {"site", "type", DataPointTagsDao.NAME_TAG_KEY, "missing"})
+            queries.add(user -> dao.getTagValuesForKey(key, user));
+        queries.add(user -> dao.getTagValuesForKey("type", tags("site", "A"), user));
+        queries.add(user -> dao.getTagValuesForKey("type", tags("site", "B"), user));
+        queries.add(user -> dao.getTagValuesForKey("site", tags("type", "temp"), user));
+        queries.add(user -> dao.getTagValuesForKey("site", tags("site", "B", "type", "temp"), user));
+        queries.add(user -> dao.getTagValuesForKey("type", tags("site", "unknown"), user));
+
+        for (User user : users) {
+            for (int i = 0; i < queries.size(); i++) {
+                index.setEnabled(false);
+                Set<String> expected = queries.get(i).apply(user);
+                // The index as the events left it, it is not loaded again
+                index.setEnabled(true);
+                Set<String> actual = queries.get(i).apply(user);
+                assertEquals("Query " + i + " for " + user.getUsername(), expected, actual);
+            }
+        }
+    }
+
+    private DataPointVO createPoint(MockDataSourceVO ds, MangoPermission readPermission, MangoPermission setPermission, String... tags) {
+        String name = UUID.randomUUID().toString();
+        DataPointVO vo = createMockDataPoint(Common.NEW_ID, UUID.randomUUID().toString(), name, ds.getName() + " " + name,
+                false, ds.getId(), ds.getXid(), readPermission, setPermission, new MockPointLocatorVO());
+        vo.setTags(tags(tags));
+        dao.saveDataPointTags(vo);
+        return vo;
+    }
+
+    private static Map<String, String> tags(String... keysAndValues) {
+        Map<String, String> tags = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2)
+            tags.put(keysAndValues[i], keysAndValues[i + 1]);
+        return tags;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2020 Infinite Automation Systems Inc. All rights reserved.
+ *
+ * @author Terry Packer
+ */
+package com.infiniteautomation.mango.spring.components;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.serotonin.m2m2.Common;
+import com.serotonin.m2m2.MangoTestBase;
+import com.serotonin.m2m2.rt.event.type.AuditEventType;
+import com.serotonin.m2m2.rt.event.type.DuplicateHandling;
+import com.serotonin.m2m2.rt.event.type.MockEventType;
+import com.serotonin.m2m2.vo.User;
+import com.serotonin.m2m2.vo.event.audit.AuditEventInstanceVO;
+import com.serotonin.m2m2.vo.permission.PermissionHolder;
+
+/**
+ * The subscription cache must not grow with every event raised
+ *
+ * @author Terry Packer
+ */
+public class EventSubscriptionIndexTest extends MangoTestBase {
+
+    @Test
+    public void testAuditEventsShareSubscription() {
+        List<User> admins = createUsers(1, PermissionHolder.SUPERADMIN_ROLE);
+        EventSubscriptionIndex index = Common.getBean(EventSubscriptionIndex.class);
+        index.invalidate();
+
+        for (int i = 1; i <= 1000; i++) {
+            AuditEventType type = new AuditEventType(AuditEventType.TYPE_DATA_POINT,
+                    AuditEventInstanceVO.CHANGE_TYPE_MODIFY, i % 10, null, i);
+            List<User> users = index.getSubscription(type).getUsers();
+            assertTrue(users.stream().anyMatch(u -> u.getId() == admins.get(0).getId()));
+        }
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void testBounded() {
+        EventSubscriptionIndex index = Common.getBean(EventSubscriptionIndex.class);
+        index.invalidate();
+
+        for (int i = 0; i < EventSubscriptionIndex.MAX_SUBSCRIPTIONS + 100; i++)
+            index.getSubscription(new MockEventType(DuplicateHandling.ALLOW, null, i, i, null));
+        assertEquals(EventSubscriptionIndex.MAX_SUBSCRIPTIONS, index.size());
+    }
+}
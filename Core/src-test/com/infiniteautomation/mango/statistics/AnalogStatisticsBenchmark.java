@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2020 Infinite Automation Systems Inc. All rights reserved.
+ *
+ * @author Terry Packer
+ */
+package com.infiniteautomation.mango.statistics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import com.serotonin.m2m2.rt.dataImage.PointValueTime;
+
+/**
+ * Measures the cost per value of AnalogStatistics when values are added as doubles and as point values,
+ * and the time to compute the statistics of a large period in one pass compared to combining partial
+ * statistics of partitions computed in parallel.
+ * Run manually, there is no assertion on the result.
+ */
+public class AnalogStatisticsBenchmark {
+
+    private static final int VALUES = 5_000_000;
+    private static final int PARTITIONS = 16;
+
+    public static void main(String[] args) {
+        Random random = new Random(0);
+        double[] values = new double[VALUES];
+        long[] times = new long[VALUES];
+        List<PointValueTime> pointValues = new ArrayList<>(VALUES);
+        long time = 0;
+        for (int i = 0; i < VALUES; i++) {
+            time += 1 + random.nextInt(1000);
+            values[i] = random.nextDouble() * 100;
+            times[i] = time;
+            pointValues.add(new PointValueTime(values[i], time));
+        }
+        long periodEnd = time + 1;
+
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            AnalogStatistics primitive = new AnalogStatistics(0, periodEnd);
+            for (int i = 0; i < VALUES; i++)
+                primitive.addValue(values[i], times[i]);
+            primitive.done();
+            report("addValue", start, primitive);
+
+            start = System.nanoTime();
+            AnalogStatistics boxed = new AnalogStatistics(0, periodEnd);
+            for (PointValueTime value : pointValues)
+                boxed.addValueTime(value);
+            boxed.done();
+            report("addValueTime", start, boxed);
+
+            start = System.nanoTime();
+            AnalogStatistics combined = IntStream.range(0, PARTITIONS).parallel()
+                    .mapToObj(p -> partition(p, values, times, periodEnd))
+                    .reduce(AnalogStatistics::combine).get();
+            combined.done();
+            report("combine " + PARTITIONS + " partitions", start, combined);
+        }
+    }
+
+    /**
+     * Statistics of the values of one partition, the start value is the value before the partition
+     */
+    private static AnalogStatistics partition(int partition, double[] values, long[] times, long periodEnd) {
+        int from = (int) ((long) VALUES * partition / PARTITIONS);
+        int to = (int) ((long) VALUES * (partition + 1) / PARTITIONS);
+        AnalogStatistics statistics = new AnalogStatistics(partition == 0 ? 0 : times[from],
+                partition == PARTITIONS - 1 ? periodEnd : times[to]);
+        for (int i = from; i < to; i++)
+            statistics.addValue(values[i], times[i]);
+        return statistics;
+    }
+
+    private static void report(String name, long start, AnalogStatistics statistics) {
+        long elapsed = System.nanoTime() - start;
+        System.out.println(name + ": " + String.format("%.2f", (double) elapsed / VALUES) + " ns per value, average "
+                + statistics.getAverage());
+    }
+}
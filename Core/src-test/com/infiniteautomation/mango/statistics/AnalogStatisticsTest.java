@@ -9,6 +9,7 @@ import static org.junit.Assert.assertEquals;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.Test;
 
@@ -494,4 +495,116 @@ public class AnalogStatisticsTest {
         assertEquals(4d, stats.getDelta(), 0.001);
     }
 
+    /**
+     * Split random data into random partitions and merge the partial statistics in a random grouping,
+     * the result must be the same as one pass over all of the data
+     */
+    @Test
+    public void testCombineEqualsSinglePass() {
+        for (int seed = 0; seed < 500; seed++) {
+            Random random = new Random(seed);
+            long periodEnd = 1 + random.nextInt(10000);
+            Double start = random.nextBoolean() ? random.nextDouble() * 100 - 50 : null;
+            List<PointValueTime> values = new ArrayList<>();
+            long time = random.nextInt(200);
+            while (time < periodEnd) {
+                values.add(new PointValueTime(random.nextDouble() * 100 - 50, time));
+                time += 1 + random.nextInt(random.nextBoolean() ? 20 : 2000);
+            }
+
+            AnalogStatistics expected = createStatistics(0, periodEnd, start, values);
+            expected.done();
+
+            // Boundaries are often exactly on a value
+            List<Long> boundaries = new ArrayList<>();
+            boundaries.add(0L);
+            int partitions = 1 + random.nextInt(8);
+            for (int i = 1; i < partitions; i++) {
+                long boundary = values.isEmpty() || random.nextBoolean() ? random.nextInt((int) periodEnd)
+                        : values.get(random.nextInt(values.size())).getTime();
+                if (boundary > boundaries.get(boundaries.size() - 1))
+                    boundaries.add(boundary);
+            }
+            boundaries.add(periodEnd);
+
+            List<AnalogStatistics> partial = new ArrayList<>();
+            for (int i = 0; i < boundaries.size() - 1; i++) {
+                long from = boundaries.get(i);
+                long to = boundaries.get(i + 1);
+                // The value at the start of the partition, otherwise the last value before it
+                Double partitionStart = start;
+                List<PointValueTime> inside = new ArrayList<>();
+                for (PointValueTime value : values) {
+                    if (value.getTime() <= from && i > 0)
+                        partitionStart = value.getDoubleValue();
+                    if (value.getTime() >= from && value.getTime() < to)
+                        inside.add(value);
+                }
+                partial.add(createStatistics(from, to, partitionStart, inside));
+            }
+
+            while (partial.size() > 1) {
+                int i = random.nextInt(partial.size() - 1);
+                partial.set(i, partial.get(i).combine(partial.remove(i + 1)));
+            }
+            AnalogStatistics combined = partial.get(0);
+            combined.done();
+
+            String message = "seed " + seed;
+            assertEquals(message, expected.getPeriodStartTime(), combined.getPeriodStartTime());
+            assertEquals(message, expected.getPeriodEndTime(), combined.getPeriodEndTime());
+            assertEquals(message, expected.getCount(), combined.getCount());
+            assertEquals(message, expected.getStartValue(), combined.getStartValue());
+            assertEquals(message, expected.getFirstValue(), combined.getFirstValue());
+            assertEquals(message, expected.getFirstTime(), combined.getFirstTime());
+            assertEquals(message, expected.getLastValue(), combined.getLastValue());
+            assertEquals(message, expected.getLastTime(), combined.getLastTime());
+            assertEquals(message, expected.getMinimumValue(), combined.getMinimumValue());
+            assertEquals(message, expected.getMinimumTime(), combined.getMinimumTime());
+            assertEquals(message, expected.getMaximumValue(), combined.getMaximumValue());
+            assertEquals(message, expected.getMaximumTime(), combined.getMaximumTime());
+            assertEquals(message, expected.getSum(), combined.getSum(), 1e-9);
+            assertEquals(message, expected.getAverage(), combined.getAverage(), 1e-9);
+            assertEquals(message, expected.getIntegral(), combined.getIntegral(), 1e-9);
+            assertEquals(message, expected.getDelta(), combined.getDelta(), 1e-9);
+        }
+    }
+
+    @Test
+    public void testCombineIsAssociative() {
+        List<PointValueTime> values = getEvenlySpacedData();
+        AnalogStatistics a = createStatistics(0, 250, 50D, values.subList(0, 2));
+        AnalogStatistics b = createStatistics(250, 650, 100D, values.subList(2, 6));
+        AnalogStatistics c = createStatistics(650, 1000, 100D, values.subList(6, 9));
+
+        AnalogStatistics left = a.combine(b).combine(c);
+        AnalogStatistics right = a.combine(b.combine(c));
+        left.done();
+        right.done();
+        assertEquals(left.getCount(), right.getCount());
+        assertEquals(left.getAverage(), right.getAverage(), 0.001D);
+        assertEquals(left.getIntegral(), right.getIntegral(), 0.001D);
+        assertEquals(left.getDelta(), right.getDelta(), 0.001D);
+
+        // 50 for 100ms then 100 for 900ms
+        assertEquals(95D, left.getAverage(), 0.001D);
+        assertEquals(95D, left.getIntegral(), 0.001D);
+        assertEquals(50D, left.getDelta(), 0.001D);
+        assertEquals(9, left.getCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCombineNotAdjacent() {
+        new AnalogStatistics(0, 100).combine(new AnalogStatistics(200, 300));
+    }
+
+    private AnalogStatistics createStatistics(long periodStart, long periodEnd, Double startValue, List<PointValueTime> values) {
+        AnalogStatistics statistics = new AnalogStatistics(periodStart, periodEnd);
+        if (startValue != null)
+            statistics.setStartValue(startValue);
+        for (PointValueTime value : values)
+            statistics.addValue(value.getDoubleValue(), value.getTime());
+        return statistics;
+    }
+
 }
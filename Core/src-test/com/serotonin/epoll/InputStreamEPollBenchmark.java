@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2020 Infinite Automation Systems Inc. All rights reserved.
+ *
+ * @author Terry Packer
+ */
+package com.serotonin.epoll;
+
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Measures the time from a write until the callback receives it, for an input stream checked every poll period and
+ * for a socket channel on the selector. Writes are spaced out so the epoll thread is idle before each one, as it
+ * is for a quiet serial port or socket. Run manually, there is no assertion on the result.
+ */
+public class InputStreamEPollBenchmark {
+
+    private static final int WRITES = 2000;
+    private static final long IDLE_MS = 2;
+
+    public static void main(String[] args) throws Exception {
+        InputStreamEPoll epoll = new InputStreamEPoll();
+        Thread thread = new Thread(epoll, "InputStreamEPoll");
+        thread.start();
+
+        BlockingQueue<Long> received = new LinkedBlockingQueue<>();
+        InputStreamCallback callback = new Callback(received);
+
+        PipedOutputStream out = new PipedOutputStream();
+        epoll.add(new PipedInputStream(out), callback);
+
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress("127.0.0.1", 0));
+            SocketChannel client = SocketChannel.open(server.getLocalAddress());
+            epoll.add(server.accept(), callback);
+
+            for (int round = 0; round < 3; round++) {
+                report("stream", measure(received, () -> {
+                    out.write(1);
+                    out.flush();
+                }));
+                report("socket", measure(received, () -> client.write(ByteBuffer.wrap(new byte[] {1}))));
+            }
+            client.close();
+        }
+        out.close();
+        epoll.terminate();
+        thread.join();
+    }
+
+    private static long[] measure(BlockingQueue<Long> received, Write write) throws Exception {
+        long[] latencies = new long[WRITES];
+        for (int i = 0; i < WRITES; i++) {
+            Thread.sleep(IDLE_MS);
+            long start = System.nanoTime();
+            write.write();
+            latencies[i] = received.take() - start;
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private static void report(String name, long[] latencies) {
+        System.out.println(name + ": median " + latencies[latencies.length / 2] / 1000 + "us, 99th percentile "
+                + latencies[latencies.length * 99 / 100] / 1000 + "us, max " + latencies[latencies.length - 1] / 1000
+                + "us");
+    }
+
+    @FunctionalInterface
+    private interface Write {
+        void write() throws IOException;
+    }
+
+    private static class Callback implements InputStreamCallback {
+        private final BlockingQueue<Long> received;
+
+        Callback(BlockingQueue<Long> received) {
+            this.received = received;
+        }
+
+        @Override
+        public void input(byte[] buf, int len) {
+            long now = System.nanoTime();
+            for (int i = 0; i < len; i++)
+                received.add(now);
+        }
+
+        @Override
+        public void closed() {
+        }
+
+        @Override
+        public void ioException(IOException e) {
+            e.printStackTrace();
+        }
+
+        @Override
+        public void terminated() {
+        }
+    }
+}
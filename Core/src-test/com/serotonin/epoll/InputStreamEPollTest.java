@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2020 Infinite Automation Systems Inc. All rights reserved.
+ *
+ * @author Terry Packer
+ */
+package com.serotonin.epoll;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Removing a socket channel waits for a read into the callback's buffer, so the buffer can be reused. An input stream
+ * that returns -1 when it has nothing to read, as the serial port streams do, stays registered.
+ *
+ * @author Terry Packer
+ */
+public class InputStreamEPollTest {
+
+    @Test(timeout = 10000)
+    public void testRemoveWaitsForRead() throws Exception {
+        InputStreamEPoll epoll = new InputStreamEPoll();
+        Thread thread = new Thread(epoll, "InputStreamEPoll");
+        thread.start();
+        CountDownLatch release = new CountDownLatch(1);
+
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            try (SocketChannel client = SocketChannel.open(server.getLocalAddress());
+                    SocketChannel accepted = server.accept()) {
+
+                CountDownLatch reading = new CountDownLatch(1);
+                AtomicInteger reads = new AtomicInteger();
+                ByteBuffer buffer = ByteBuffer.allocate(64);
+                epoll.add(accepted, new ByteBufferCallback() {
+                    @Override
+                    public ByteBuffer getInputBuffer() {
+                        reads.incrementAndGet();
+                        reading.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return buffer;
+                    }
+
+                    @Override
+                    public void input(int len) {
+                    }
+
+                    @Override
+                    public void closed() {
+                    }
+
+                    @Override
+                    public void ioException(IOException e) {
+                    }
+
+                    @Override
+                    public void terminated() {
+                    }
+                });
+
+                client.write(ByteBuffer.wrap(new byte[] {1, 2, 3}));
+                assertTrue(reading.await(5, TimeUnit.SECONDS));
+
+                AtomicBoolean removed = new AtomicBoolean();
+                Thread remover = new Thread(() -> {
+                    epoll.remove(accepted);
+                    removed.set(true);
+                });
+                remover.start();
+                remover.join(200);
+                assertFalse(removed.get());
+
+                release.countDown();
+                remover.join(5000);
+                assertTrue(removed.get());
+
+                // Not read again once removed
+                client.write(ByteBuffer.wrap(new byte[] {4}));
+                Thread.sleep(100);
+                assertEquals(1, reads.get());
+            }
+        } finally {
+            release.countDown();
+            epoll.terminate();
+            thread.join(5000);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testEmptyStreamNotClosed() throws Exception {
+        InputStreamEPoll epoll = new InputStreamEPoll();
+        Thread thread = new Thread(epoll, "InputStreamEPoll");
+        thread.start();
+
+        try {
+            ConcurrentLinkedQueue<Integer> data = new ConcurrentLinkedQueue<>();
+            AtomicInteger reads = new AtomicInteger();
+            InputStream stream = new InputStream() {
+                @Override
+                public int read() {
+                    reads.incrementAndGet();
+                    Integer b = data.poll();
+                    return b == null ? -1 : b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    int i = 0;
+                    int next;
+                    while (i < len && (next = read()) >= 0)
+                        b[off + i++] = (byte) next;
+                    return i == 0 ? -1 : i;
+                }
+
+                @Override
+                public int available() {
+                    return data.size();
+                }
+            };
+
+            CountDownLatch received = new CountDownLatch(2);
+            AtomicBoolean closed = new AtomicBoolean();
+            epoll.add(stream, new InputStreamCallback() {
+                @Override
+                public void input(byte[] buf, int len) {
+                    for (int i = 0; i < len; i++)
+                        received.countDown();
+                }
+
+                @Override
+                public void closed() {
+                    closed.set(true);
+                }
+
+                @Override
+                public void ioException(IOException e) {
+                }
+
+                @Override
+                public void terminated() {
+                }
+            });
+
+            data.add(1);
+            Thread.sleep(200);
+            data.add(2);
+            assertTrue(received.await(5, TimeUnit.SECONDS));
+            assertFalse(closed.get());
+
+            // Only read when there is input
+            int count = reads.get();
+            Thread.sleep(200);
+            assertEquals(count, reads.get());
+            assertEquals(1, epoll.getInputStreamCount());
+        } finally {
+            epoll.terminate();
+            thread.join(5000);
+        }
+    }
+}
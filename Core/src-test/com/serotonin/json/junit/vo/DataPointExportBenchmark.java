@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2020 Infinite Automation Systems Inc. All rights reserved.
+ *
+ * @author Terry Packer
+ */
+package com.serotonin.json.junit.vo;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+
+import com.serotonin.json.JsonContext;
+import com.serotonin.json.JsonReader;
+import com.serotonin.json.JsonWriter;
+import com.serotonin.json.type.JsonArray;
+import com.serotonin.json.type.JsonTypeWriter;
+import com.serotonin.json.type.JsonValue;
+import com.serotonin.m2m2.MangoTestBase;
+import com.serotonin.m2m2.view.text.BaseTextRenderer;
+import com.serotonin.m2m2.view.text.TextRenderer;
+import com.serotonin.m2m2.vo.DataPointVO;
+import com.serotonin.m2m2.vo.IDataPoint;
+import com.serotonin.m2m2.vo.dataPoint.MockPointLocatorVO;
+
+/**
+ * Compares exporting and importing data points with the reflective property accessors against the generated
+ * accessors. Not run with the tests, run manually from the main method, there is no assertion on the timing.
+ *
+ * @author Terry Packer
+ */
+public class DataPointExportBenchmark extends MangoTestBase {
+
+    private static final int POINTS = 5000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        JUnitCore.main(DataPointExportBenchmark.class.getName());
+    }
+
+    @Test
+    public void benchmarkExport() throws Exception {
+        List<IDataPoint> points = createMockDataPoints(POINTS);
+
+        for (int round = 0; round < ROUNDS; round++) {
+            for (boolean generated : new boolean[] {false, true}) {
+                //A new context so the converters are created again
+                JsonContext context = new JsonContext();
+                context.addResolver(new BaseTextRenderer.Resolver(), TextRenderer.class);
+                context.setGeneratedAccessors(generated);
+
+                long start = System.nanoTime();
+                JsonValue exported = new JsonTypeWriter(context).writeObject(points);
+                StringWriter stringWriter = new StringWriter();
+                new JsonWriter(context, stringWriter).writeObject(exported);
+                long exportTime = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                List<DataPointVO> imported = new ArrayList<>(POINTS);
+                JsonReader reader = new JsonReader(context, exported);
+                for (JsonValue value : (JsonArray) exported) {
+                    DataPointVO vo = new DataPointVO();
+                    vo.setPointLocator(new MockPointLocatorVO());
+                    reader.readInto(vo, value);
+                    imported.add(vo);
+                }
+                long importTime = System.nanoTime() - start;
+                assertEquals(POINTS, imported.size());
+
+                System.out.println((generated ? "generated" : "reflective") + " accessors: export " + exportTime / 1000000
+                        + "ms (" + stringWriter.getBuffer().length() + " chars), import " + importTime / 1000000 + "ms for "
+                        + POINTS + " points");
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2020 Infinite Automation Systems Inc. All rights reserved.
+ *
+ * @author Terry Packer
+ */
+package com.serotonin.json.type;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Reading a document one member and element at a time
+ *
+ * @author Terry Packer
+ */
+public class JsonTypeReaderTest {
+
+    @Test
+    public void testStreamedRead() throws Exception {
+        JsonTypeReader reader = new JsonTypeReader("{\"dataPoints\": [{\"xid\":\"DP_1\", \"tags\":{\"a\":\"]}\"}}, "
+                + "null, {\"xid\":\"DP_2\"}], \"skipped\": [[1, {\"x\": [2]}], \"s\"], "
+                + "\"systemSettings\": {\"a\": true}, \"empty\": []}");
+
+        reader.beginObject();
+        assertEquals("dataPoints", reader.nextName());
+        assertTrue(reader.isNextArray());
+        reader.beginArray();
+        List<JsonValue> points = new ArrayList<>();
+        while (reader.hasNextElement())
+            points.add(reader.read());
+        assertEquals(3, points.size());
+        assertEquals("DP_1", points.get(0).toJsonObject().getString("xid"));
+        assertEquals("]}", points.get(0).toJsonObject().getJsonObject("tags").getString("a"));
+        assertNull(points.get(1));
+        assertEquals("DP_2", points.get(2).toJsonObject().getString("xid"));
+
+        assertEquals("skipped", reader.nextName());
+        reader.skipValue();
+
+        assertEquals("systemSettings", reader.nextName());
+        assertTrue(reader.isNextObject());
+        assertTrue(reader.read().toJsonObject().getBoolean("a"));
+
+        assertEquals("empty", reader.nextName());
+        reader.beginArray();
+        assertFalse(reader.hasNextElement());
+
+        assertNull(reader.nextName());
+    }
+
+    @Test
+    public void testSkipElements() throws Exception {
+        JsonTypeReader reader = new JsonTypeReader("[{\"a\": [1, 2]}, \"b\", 3, {\"d\": {}}]");
+        reader.beginArray();
+        List<JsonValue> kept = new ArrayList<>();
+        for (int i = 0; reader.hasNextElement(); i++) {
+            if (i % 2 == 1)
+                reader.skipValue();
+            else
+                kept.add(reader.read());
+        }
+        assertEquals(2, kept.size());
+        assertEquals(2, kept.get(0).toJsonObject().getJsonArray("a").size());
+        assertEquals(3, kept.get(1).toNumber().intValue());
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2020 Infinite Automation Systems Inc. All rights reserved.
+ *
+ * @author Terry Packer
+ */
+package com.serotonin.json.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * Generated accessors must behave like the reflective ones
+ *
+ * @author Terry Packer
+ */
+public class PropertyAccessorsTest {
+
+    @Test
+    public void testPublicClass() throws Exception {
+        assertReadWrite(new PublicBean(), PublicBean.class);
+    }
+
+    @Test
+    public void testPackagePrivateClass() throws Exception {
+        assertReadWrite(new PackageBean(), PackageBean.class);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testExceptionNotWrapped() throws Exception {
+        SerializableProperty property = property(PublicBean.class, "getFailure", null, null);
+        property.generateAccessors();
+        property.read(new PublicBean());
+    }
+
+    private void assertReadWrite(Object bean, Class<?> clazz) throws Exception {
+        SerializableProperty reflective = property(clazz, "getCount", "setCount", long.class);
+        SerializableProperty generated = property(clazz, "getCount", "setCount", long.class);
+        generated.generateAccessors();
+
+        generated.write(bean, 42L);
+        assertEquals(42L, reflective.read(bean));
+        reflective.write(bean, 7L);
+        assertEquals(7L, generated.read(bean));
+
+        SerializableProperty name = property(clazz, "getName", "setName", String.class);
+        name.generateAccessors();
+        name.write(bean, "name");
+        assertEquals("name", name.read(bean));
+        name.write(bean, null);
+        assertNull(name.read(bean));
+    }
+
+    private SerializableProperty property(Class<?> clazz, String read, String write, Class<?> type) throws Exception {
+        SerializableProperty property = new SerializableProperty();
+        property.setReadMethod(clazz.getMethod(read));
+        if (write != null)
+            property.setWriteMethod(clazz.getMethod(write, type));
+        return property;
+    }
+
+    public static class PublicBean {
+        private long count;
+        private String name;
+
+        public long getCount() {
+            return count;
+        }
+        public void setCount(long count) {
+            this.count = count;
+        }
+        public String getName() {
+            return name;
+        }
+        public void setName(String name) {
+            this.name = name;
+        }
+        public String getFailure() {
+            throw new IllegalStateException();
+        }
+    }
+
+    static class PackageBean {
+        private long count;
+        private String name;
+
+        public long getCount() {
+            return count;
+        }
+        public void setCount(long count) {
+            this.count = count;
+        }
+        public String getName() {
+            return name;
+        }
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+}
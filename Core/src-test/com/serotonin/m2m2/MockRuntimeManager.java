@@ -8,6 +8,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.function.LongConsumer;
 
 import com.serotonin.m2m2.db.dao.DataPointDao;
 import com.serotonin.m2m2.db.dao.DataSourceDao;
@@ -253,6 +254,12 @@ public class MockRuntimeManager implements RuntimeManager {
         return 0;
     }
 
+    @Override
+    public long purgeDataPointValues(List<DataPointVO> vos, long before, int chunkSize, LongConsumer chunkDeleted) {
+
+        return 0;
+    }
+
     @Override
     public long purgeDataPointValuesBetween(DataPointVO vo, long startTime, long endTime) {
 
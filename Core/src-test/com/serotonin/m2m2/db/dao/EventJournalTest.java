@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2020 Infinite Automation Systems Inc. All rights reserved.
+ *
+ * @author Terry Packer
+ */
+package com.serotonin.m2m2.db.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.infiniteautomation.mango.spring.service.EventInstanceService;
+import com.serotonin.m2m2.Common;
+import com.serotonin.m2m2.MangoTestBase;
+import com.serotonin.m2m2.MockBackgroundProcessing;
+import com.serotonin.m2m2.i18n.TranslatableMessage;
+import com.serotonin.m2m2.rt.event.AlarmLevels;
+import com.serotonin.m2m2.rt.event.EventInstance;
+import com.serotonin.m2m2.rt.event.ReturnCause;
+import com.serotonin.m2m2.rt.event.type.DuplicateHandling;
+import com.serotonin.m2m2.rt.event.type.MockEventType;
+import com.serotonin.m2m2.rt.maint.BackgroundProcessing;
+import com.serotonin.m2m2.rt.maint.work.WorkItem;
+import com.serotonin.m2m2.vo.User;
+import com.serotonin.m2m2.vo.event.EventInstanceVO;
+import com.serotonin.m2m2.vo.permission.PermissionHolder;
+
+/**
+ * Inserts and returns to normal written through the event journal, and read before they are written
+ *
+ * @author Terry Packer
+ */
+public class EventJournalTest extends MangoTestBase {
+
+    @Test
+    public void testInsertAndReturnToNormal() {
+        EventJournal journal = new EventJournal(EventDao.getInstance());
+        List<EventInstance> events = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            EventInstance event = createEvent(i);
+            journal.insert(event);
+            events.add(event);
+        }
+        // Ids are assigned in order when queued
+        for (int i = 1; i < events.size(); i++)
+            assertEquals(events.get(i - 1).getId() + 1, events.get(i).getId());
+
+        // Folded into the insert of the same batch
+        returnToNormal(journal, events.get(0), 1000);
+        journal.flush();
+        assertEquals(0, journal.size());
+
+        // Written as an update to an inserted row
+        returnToNormal(journal, events.get(1), 2000);
+        journal.flush();
+
+        EventInstance first = EventDao.getInstance().get(events.get(0).getId());
+        assertNotNull(first);
+        assertFalse(first.isActive());
+        assertEquals(1000L, (long) first.getRtnTimestamp());
+        assertEquals(ReturnCause.RETURN_TO_NORMAL, first.getRtnCause());
+
+        EventInstance second = EventDao.getInstance().get(events.get(1).getId());
+        assertFalse(second.isActive());
+        assertEquals(2000L, (long) second.getRtnTimestamp());
+
+        for (int i = 2; i < events.size(); i++) {
+            EventInstance active = EventDao.getInstance().get(events.get(i).getId());
+            assertNotNull(active);
+            assertTrue(active.isActive());
+            assertEquals(events.get(i).getActiveTimestamp(), active.getActiveTimestamp());
+        }
+    }
+
+    @Test
+    public void testIdsFollowExistingRows() {
+        EventInstance existing = createEvent(0);
+        EventDao.getInstance().saveEvent(existing);
+
+        EventJournal journal = new EventJournal(EventDao.getInstance());
+        EventInstance event = createEvent(1);
+        journal.insert(event);
+        journal.awaitWritten(event.getId());
+        assertTrue(event.getId() > existing.getId());
+        assertNotNull(EventDao.getInstance().get(event.getId()));
+    }
+
+    @Test
+    public void testReadBeforeWritten() {
+        User admin = createUsers(1, PermissionHolder.SUPERADMIN_ROLE).get(0);
+        EventDao dao = EventDao.getInstance();
+        EventJournal journal = new EventJournal(dao);
+        BackgroundProcessing backgroundProcessing = Common.backgroundProcessing;
+        // Nothing is written in the background, only when a reader needs it
+        Common.backgroundProcessing = new MockBackgroundProcessing() {
+            @Override
+            public void addWorkItem(WorkItem item) {
+            }
+        };
+        dao.setJournal(journal);
+        try {
+            EventInstance acked = createEvent(0);
+            dao.saveEvent(acked);
+            assertEquals(1, journal.size());
+
+            EventInstanceService service = Common.getBean(EventInstanceService.class);
+            EventInstanceVO vo = service.getPermissionService().runAsSystemAdmin(
+                    () -> service.acknowledgeEventById(acked.getId(), admin, null));
+            assertEquals(acked.getId(), vo.getId());
+            assertEquals(0, journal.size());
+
+            EventInstance queried = createEvent(1);
+            dao.saveEvent(queried);
+            List<EventInstanceVO> found = EventInstanceDao.getInstance().query(admin, "eq(id," + queried.getId() + ")");
+            assertEquals(1, found.size());
+            assertEquals(0, journal.size());
+        } finally {
+            dao.setJournal(null);
+            Common.backgroundProcessing = backgroundProcessing;
+        }
+    }
+
+    private EventInstance createEvent(int ref1) {
+        MockEventType type = new MockEventType(DuplicateHandling.ALLOW, null, ref1, -1, null);
+        return new EventInstance(type, timer.currentTimeMillis() + ref1, true, AlarmLevels.URGENT,
+                new TranslatableMessage("common.default", "journaled"), null);
+    }
+
+    private void returnToNormal(EventJournal journal, EventInstance event, long time) {
+        event.returnToNormal(time, ReturnCause.RETURN_TO_NORMAL);
+        journal.returnToNormal(event.getId(), time, ReturnCause.RETURN_TO_NORMAL.value());
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2020 Infinite Automation Systems Inc. All rights reserved.
+ *
+ * @author Terry Packer
+ */
+package com.serotonin.m2m2.db.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.serotonin.m2m2.Common;
+import com.serotonin.m2m2.DataTypes;
+import com.serotonin.m2m2.MangoTestBase;
+import com.serotonin.m2m2.rt.dataImage.PointValueTime;
+import com.serotonin.m2m2.rt.dataImage.types.NumericValue;
+import com.serotonin.m2m2.vo.DataPointVO;
+import com.serotonin.m2m2.vo.dataPoint.MockPointLocatorVO;
+import com.serotonin.m2m2.vo.dataSource.mock.MockDataSourceVO;
+
+/**
+ * The window query that fills the caches of many points at once must return what the per point query does
+ *
+ * @author Terry Packer
+ */
+public class PointValueCachePreloadTest extends MangoTestBase {
+
+    @Test
+    public void testMatchesPerPointQuery() {
+        PointValueDao dao = Common.databaseProxy.newPointValueDao();
+        MockDataSourceVO ds = createMockDataSource();
+
+        int[] cacheSizes = {1, 3, 5, 3, 0, 10};
+        int[] valueCounts = {4, 2, 8, 0, 5, 10};
+        List<DataPointVO> points = new ArrayList<>();
+        for (int i = 0; i < cacheSizes.length; i++) {
+            DataPointVO vo = createMockDataPoint(ds, new MockPointLocatorVO(DataTypes.NUMERIC, true));
+            vo.setDefaultCacheSize(cacheSizes[i]);
+            for (int v = 0; v < valueCounts[i]; v++)
+                dao.savePointValueSync(vo, new PointValueTime(new NumericValue(i * 100 + v), 1000 + v * 1000 + i), null);
+            points.add(vo);
+        }
+
+        long before = 7000;
+        Map<Integer, List<PointValueTime>> preloaded = dao.getLatestPointValuesForCache(points, before);
+        for (DataPointVO vo : points) {
+            List<PointValueTime> expected = vo.getDefaultCacheSize() > 0 ? dao.getLatestPointValues(vo, vo.getDefaultCacheSize(), before) : new ArrayList<>();
+            List<PointValueTime> actual = preloaded.get(vo.getId());
+            if (expected.isEmpty()) {
+                assertFalse(preloaded.containsKey(vo.getId()));
+                continue;
+            }
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getTime(), actual.get(i).getTime());
+                assertEquals(expected.get(i).getDoubleValue(), actual.get(i).getDoubleValue(), 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2020 Infinite Automation Systems Inc. All rights reserved.
+ *
+ * @author Terry Packer
+ */
+package com.serotonin.m2m2.db.dao;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.infiniteautomation.mango.quantize.AnalogStatisticsQuantizer;
+import com.infiniteautomation.mango.quantize.RollupTierQuantizer;
+import com.infiniteautomation.mango.quantize.TimePeriodBucketCalculator;
+import com.infiniteautomation.mango.statistics.AnalogStatistics;
+import com.serotonin.m2m2.Common;
+import com.serotonin.m2m2.Common.TimePeriods;
+import com.serotonin.m2m2.DataTypes;
+import com.serotonin.m2m2.MangoTestBase;
+import com.serotonin.m2m2.rt.dataImage.PointValueTime;
+import com.serotonin.m2m2.rt.dataImage.types.NumericValue;
+import com.serotonin.m2m2.vo.DataPointVO;
+import com.serotonin.m2m2.vo.dataPoint.MockPointLocatorVO;
+import com.serotonin.m2m2.vo.dataSource.mock.MockDataSourceVO;
+
+/**
+ * Statistics answered from the rollup tiers must match the statistics computed from the raw values
+ *
+ * @author Terry Packer
+ */
+public class PointValueRollupStoreTest extends MangoTestBase {
+
+    private final ZoneId utc = ZoneId.of("UTC");
+    private PointValueDao dao;
+    private PointValueRollupStore store;
+    private DataPointVO vo;
+
+    @Before
+    public void setupStore() {
+        dao = Common.databaseProxy.newPointValueDao();
+        MockDataSourceVO ds = createMockDataSource();
+        vo = createMockDataPoint(ds, new MockPointLocatorVO(DataTypes.NUMERIC, true));
+        store = new PointValueRollupStore(PointValueRollupStore.parseTiers("60000,3600000,86400000"));
+        //Starts the back fill, there is no data yet
+        store.process();
+    }
+
+    @Test
+    public void testParseTiers() {
+        assertArrayEquals(new long[] {60000, 3600000, 86400000}, PointValueRollupStore.parseTiers("3600000, 60000,86400000"));
+        //1 hour is not a multiple of 7 minutes
+        assertArrayEquals(new long[] {60000, 420000}, PointValueRollupStore.parseTiers("60000,420000,3600000"));
+    }
+
+    @Test
+    public void testCoveringTier() {
+        long day = ZonedDateTime.of(2020, 1, 2, 0, 0, 0, 0, utc).toInstant().toEpochMilli();
+        assertEquals(86400000L, store.getCoveringTier(day, day + 86400000L));
+        assertEquals(3600000L, store.getCoveringTier(day, day + 3600000L));
+        assertEquals(60000L, store.getCoveringTier(day, day + 60000L));
+        assertEquals(-1L, store.getCoveringTier(day, day + 1000L));
+    }
+
+    @Test
+    public void testInOrderValues() {
+        ZonedDateTime from = ZonedDateTime.of(2020, 1, 1, 0, 0, 0, 0, utc);
+        ZonedDateTime to = ZonedDateTime.of(2020, 1, 11, 0, 0, 0, 0, utc);
+        insertData(from.minusHours(3), to.plusHours(3), 1, false);
+        assertMatchesRaw(from, to, TimePeriods.DAYS, 1);
+        assertMatchesRaw(from, to, TimePeriods.HOURS, 1);
+        assertMatchesRaw(from, to, TimePeriods.MINUTES, 15);
+        //Not aligned to UTC days but aligned to hours
+        assertMatchesRaw(from.withZoneSameLocal(ZoneId.of("America/Denver")), to.withZoneSameLocal(ZoneId.of("America/Denver")), TimePeriods.DAYS, 1);
+    }
+
+    @Test
+    public void testBackdatedValues() {
+        ZonedDateTime from = ZonedDateTime.of(2020, 1, 1, 0, 0, 0, 0, utc);
+        ZonedDateTime to = ZonedDateTime.of(2020, 1, 11, 0, 0, 0, 0, utc);
+        insertData(from, to, 2, true);
+        assertMatchesRaw(from, to, TimePeriods.DAYS, 1);
+        assertMatchesRaw(from, to, TimePeriods.HOURS, 1);
+    }
+
+    @Test
+    public void testDeletedValues() {
+        ZonedDateTime from = ZonedDateTime.of(2020, 1, 1, 0, 0, 0, 0, utc);
+        ZonedDateTime to = ZonedDateTime.of(2020, 1, 11, 0, 0, 0, 0, utc);
+        insertData(from, to, 3, false);
+
+        long start = from.plusDays(2).plusMinutes(7).toInstant().toEpochMilli();
+        long end = from.plusDays(5).plusHours(3).toInstant().toEpochMilli();
+        dao.deletePointValuesBetween(vo, start, end);
+        store.valuesDeleted(vo.getId(), start, end);
+        assertMatchesRaw(from, to, TimePeriods.DAYS, 1);
+        assertMatchesRaw(from, to, TimePeriods.HOURS, 1);
+
+        long before = from.plusDays(1).plusHours(5).toInstant().toEpochMilli();
+        dao.deletePointValuesBefore(vo, before);
+        store.valuesDeleted(vo.getId(), Long.MIN_VALUE, before);
+        assertMatchesRaw(from, to, TimePeriods.HOURS, 1);
+    }
+
+    @Test
+    public void testValuesSavedBeforeRestart() {
+        ZonedDateTime from = ZonedDateTime.of(2020, 1, 1, 0, 0, 0, 0, utc);
+        ZonedDateTime restart = ZonedDateTime.of(2020, 1, 5, 13, 0, 0, 0, utc);
+        ZonedDateTime to = ZonedDateTime.of(2020, 1, 8, 0, 0, 0, 0, utc);
+        insertData(from, restart, 4, false);
+        //Values saved before the restart are not in the new store's live bucket until the task loads it
+        store = new PointValueRollupStore(PointValueRollupStore.parseTiers("60000,3600000,86400000"));
+        store.process();
+        insertData(restart, to, 5, false);
+        assertMatchesRaw(from, to, TimePeriods.DAYS, 1);
+        assertMatchesRaw(from, to, TimePeriods.HOURS, 1);
+        store.process();
+        assertMatchesRaw(from, to, TimePeriods.MINUTES, 15);
+    }
+
+    @Test
+    public void testNotCoveredUntilBackfilled() {
+        PointValueRollupStore fresh = new PointValueRollupStore(PointValueRollupStore.parseTiers("60000"));
+        assertFalse(fresh.prepare(vo.getId()));
+        fresh.process();
+        assertTrue(fresh.prepare(vo.getId()));
+    }
+
+    private void assertMatchesRaw(ZonedDateTime from, ZonedDateTime to, int periodType, int periods) {
+        List<AnalogStatistics> expected = new ArrayList<>();
+        AnalogStatisticsQuantizer quantizer = new AnalogStatisticsQuantizer(new TimePeriodBucketCalculator(from, to, periodType, periods), expected::add);
+        dao.wideBookendQuery(Collections.singletonList(vo), from.toInstant().toEpochMilli(), to.toInstant().toEpochMilli(), false, null, quantizer);
+        quantizer.done();
+
+        List<AnalogStatistics> actual = new ArrayList<>();
+        assertTrue(new RollupTierQuantizer(store, dao).quantize(vo, new TimePeriodBucketCalculator(from, to, periodType, periods), actual::add));
+
+        assertEquals(expected.size(), actual.size());
+        for(int i = 0; i < expected.size(); i++) {
+            AnalogStatistics e = expected.get(i);
+            AnalogStatistics a = actual.get(i);
+            assertEquals(e.getPeriodStartTime(), a.getPeriodStartTime());
+            assertEquals(e.getPeriodEndTime(), a.getPeriodEndTime());
+            assertEquals(e.getCount(), a.getCount());
+            assertEquals(e.getStartValue(), a.getStartValue());
+            assertEquals(e.getFirstValue(), a.getFirstValue());
+            assertEquals(e.getFirstTime(), a.getFirstTime());
+            assertEquals(e.getLastValue(), a.getLastValue());
+            assertEquals(e.getLastTime(), a.getLastTime());
+            assertEquals(e.getMinimumValue(), a.getMinimumValue());
+            assertEquals(e.getMinimumTime(), a.getMinimumTime());
+            assertEquals(e.getMaximumValue(), a.getMaximumValue());
+            assertEquals(e.getMaximumTime(), a.getMaximumTime());
+            assertEquals(e.getSum(), a.getSum(), 1e-6);
+            assertEquals(e.getAverage(), a.getAverage(), 1e-6);
+            assertEquals(e.getIntegral(), a.getIntegral(), Math.abs(e.getIntegral()) * 1e-9);
+            assertEquals(e.getDelta(), a.getDelta(), 1e-6);
+        }
+    }
+
+    /**
+     * Insert random values every few minutes, some exactly on the hour. When backdating about a third of the
+     * values are saved after all the others.
+     */
+    private void insertData(ZonedDateTime from, ZonedDateTime to, long seed, boolean backdate) {
+        Random random = new Random(seed);
+        long start = from.toInstant().toEpochMilli();
+        long end = to.toInstant().toEpochMilli();
+        List<Long> skipped = new ArrayList<>();
+        long time = start;
+        while(time < end) {
+            if(backdate && random.nextInt(3) == 0)
+                skipped.add(time);
+            else
+                save(time, random);
+            if(random.nextBoolean())
+                time += (1 + random.nextInt(3)) * 3600000L;
+            else
+                time += random.nextInt(40 * 60000);
+        }
+        for(Long t : skipped)
+            save(t, random);
+    }
+
+    private void save(long time, Random random) {
+        double value = random.nextDouble() * 1000d - 500d;
+        dao.savePointValueSync(vo, new PointValueTime(new NumericValue(value), time), null);
+        //The store in the test is not the one the dao updates
+        store.valueSaved(vo.getId(), Common.databaseProxy.applyBounds(value), time);
+    }
+}
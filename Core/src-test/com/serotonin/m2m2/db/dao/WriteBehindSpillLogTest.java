@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2020 Infinite Automation Systems Inc. All rights reserved.
+ *
+ * @author Terry Packer
+ */
+package com.serotonin.m2m2.db.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WriteBehindSpillLogTest {
+
+    private Path directory;
+
+    @Before
+    public void before() throws IOException {
+        directory = Files.createTempDirectory("writeBehindSpill");
+    }
+
+    @After
+    public void after() throws IOException {
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Test
+    public void testReplayInTimestampOrder() throws IOException {
+        WriteBehindSpillLog log = new WriteBehindSpillLog(directory, 10);
+        log.append(1, 3, 1.0, 300);
+        log.append(2, 3, 2.0, 100);
+        log.append(3, 3, 3.0, 200);
+        assertEquals(3, log.size());
+
+        List<Long> times = new ArrayList<>();
+        List<Integer> ids = new ArrayList<>();
+        int replayed = log.replaySegment((id, dataType, value, time, segment) -> {
+            ids.add(id);
+            times.add(time);
+        });
+
+        assertEquals(3, replayed);
+        assertEquals(100L, (long)times.get(0));
+        assertEquals(200L, (long)times.get(1));
+        assertEquals(300L, (long)times.get(2));
+        assertEquals(2, (int)ids.get(0));
+        assertTrue(log.isEmpty());
+        assertEquals(0, log.replaySegment((id, dataType, value, time, segment) -> {}));
+    }
+
+    @Test
+    public void testSegmentsReplayOldestFirst() throws IOException {
+        WriteBehindSpillLog log = new WriteBehindSpillLog(directory, 2);
+        for (int i = 0; i < 5; i++)
+            log.append(i, 3, i, 1000 - i);
+
+        assertEquals(2, log.peekSegmentSize());
+        List<Integer> ids = new ArrayList<>();
+        while (!log.isEmpty())
+            log.replaySegment((id, dataType, value, time, segment) -> ids.add(id));
+
+        assertEquals(5, ids.size());
+        assertEquals(1, (int)ids.get(0));
+        assertEquals(0, (int)ids.get(1));
+        assertEquals(3, (int)ids.get(2));
+        assertEquals(2, (int)ids.get(3));
+        assertEquals(4, (int)ids.get(4));
+    }
+
+    @Test
+    public void testRecoverAfterCrash() throws IOException {
+        WriteBehindSpillLog log = new WriteBehindSpillLog(directory, 100);
+        log.append(7, 3, 7.5, 700);
+        log.append(8, 3, 8.5, 800);
+        //Simulate a torn write by appending half a record to the open segment
+        try (FileChannel channel = FileChannel.open(directory.resolve(WriteBehindSpillLog.FILE_PREFIX + 0 + WriteBehindSpillLog.FILE_SUFFIX), StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.allocate(WriteBehindSpillLog.RECORD_SIZE / 2));
+        }
+
+        WriteBehindSpillLog recovered = new WriteBehindSpillLog(directory, 100);
+        assertEquals(2, recovered.size());
+        List<Double> values = new ArrayList<>();
+        recovered.replaySegment((id, dataType, value, time, segment) -> values.add(value));
+        assertEquals(7.5, values.get(0), 0);
+        assertEquals(8.5, values.get(1), 0);
+
+        //New segments must not reuse a recovered sequence number
+        recovered.append(9, 3, 9.5, 900);
+        assertEquals(1, recovered.size());
+    }
+
+    @Test
+    public void testRecoverReplayedBeforeCommit() throws IOException {
+        WriteBehindSpillLog log = new WriteBehindSpillLog(directory, 2);
+        for (int i = 0; i < 4; i++)
+            log.append(i, 3, i, 100 + i);
+
+        AtomicReference<WriteBehindSpillLog.ReplayedSegment> replayed = new AtomicReference<>();
+        log.replaySegment((id, dataType, value, time, segment) -> replayed.set(segment));
+        assertEquals(2, log.size());
+        //Only one value reached the database before the crash
+        replayed.get().committed(1);
+
+        WriteBehindSpillLog recovered = new WriteBehindSpillLog(directory, 2);
+        assertEquals(4, recovered.size());
+
+        //Committing everything removes the segment
+        List<WriteBehindSpillLog.ReplayedSegment> segments = new ArrayList<>();
+        while (!recovered.isEmpty())
+            recovered.replaySegment((id, dataType, value, time, segment) -> {
+                if (!segments.contains(segment))
+                    segments.add(segment);
+            });
+        assertEquals(2, segments.size());
+        for (WriteBehindSpillLog.ReplayedSegment segment : segments)
+            segment.committed(2);
+        assertTrue(new WriteBehindSpillLog(directory, 2).isEmpty());
+    }
+
+    @Test
+    public void testFailedSegmentKept() throws IOException {
+        WriteBehindSpillLog log = new WriteBehindSpillLog(directory, 10);
+        log.append(1, 3, 1.0, 100);
+        log.append(2, 3, 2.0, 200);
+
+        AtomicReference<WriteBehindSpillLog.ReplayedSegment> replayed = new AtomicReference<>();
+        log.replaySegment((id, dataType, value, time, segment) -> replayed.set(segment));
+        replayed.get().committed(1);
+        replayed.get().failed(1);
+        assertEquals(0, replayed.get().getUncommitted());
+
+        WriteBehindSpillLog recovered = new WriteBehindSpillLog(directory, 10);
+        assertFalse(recovered.isEmpty());
+        assertEquals(2, recovered.size());
+    }
+}
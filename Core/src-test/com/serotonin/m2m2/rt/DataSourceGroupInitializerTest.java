@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2020 Infinite Automation Systems Inc. All rights reserved.
+ *
+ * @author Terry Packer
+ */
+package com.serotonin.m2m2.rt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.serotonin.m2m2.Common;
+import com.serotonin.m2m2.MangoTestBase;
+import com.serotonin.m2m2.MockRuntimeManager;
+import com.serotonin.m2m2.module.DataSourceDefinition.StartPriority;
+import com.serotonin.m2m2.vo.dataPoint.MockPointLocatorVO;
+import com.serotonin.m2m2.vo.dataSource.DataSourceVO;
+import com.serotonin.m2m2.vo.dataSource.mock.MockDataSourceVO;
+
+/**
+ * Data sources are initialized largest first and a failure does not stop the rest of the group
+ *
+ * @author Terry Packer
+ */
+public class DataSourceGroupInitializerTest extends MangoTestBase {
+
+    @Test
+    public void testLargestFirstAndFailures() {
+        MockDataSourceVO small = createDataSource(1);
+        MockDataSourceVO large = createDataSource(5);
+        MockDataSourceVO failing = createDataSource(3);
+        MockDataSourceVO medium = createDataSource(2);
+
+        List<Integer> initialized = Collections.synchronizedList(new ArrayList<>());
+        RuntimeManager original = Common.runtimeManager;
+        Common.runtimeManager = new MockRuntimeManager() {
+            @Override
+            public boolean initializeDataSourceStartup(DataSourceVO vo) {
+                initialized.add(vo.getId());
+                if (vo.getId() == failing.getId())
+                    throw new RuntimeException("Failed to start");
+                return vo.getId() != small.getId();
+            }
+        };
+        try {
+            List<DataSourceVO> group = new ArrayList<>();
+            group.add(small);
+            group.add(large);
+            group.add(failing);
+            group.add(medium);
+            // One thread so the pool runs the data sources in the order they were submitted
+            List<DataSourceVO> polling = new DataSourceGroupInitializer(StartPriority.NORMAL, group, false, 1).initialize();
+
+            assertEquals(4, initialized.size());
+            assertEquals(large.getId(), (int) initialized.get(0));
+            assertEquals(failing.getId(), (int) initialized.get(1));
+            assertEquals(medium.getId(), (int) initialized.get(2));
+            assertEquals(small.getId(), (int) initialized.get(3));
+
+            assertEquals(2, polling.size());
+            assertEquals(large.getId(), polling.get(0).getId());
+            assertEquals(medium.getId(), polling.get(1).getId());
+
+            // Timed even when it failed
+            for (DataSourceVO vo : group)
+                assertNotNull(Common.MONITORED_VALUES.getMonitor(DataSourceGroupInitializer.INIT_TIME_MONITOR_ID_PREFIX + vo.getXid()));
+        } finally {
+            Common.runtimeManager = original;
+        }
+    }
+
+    @Test
+    public void testParallel() {
+        List<DataSourceVO> group = new ArrayList<>();
+        for (int i = 0; i < 8; i++)
+            group.add(createDataSource(i));
+
+        List<Integer> initialized = Collections.synchronizedList(new ArrayList<>());
+        RuntimeManager original = Common.runtimeManager;
+        Common.runtimeManager = new MockRuntimeManager() {
+            @Override
+            public boolean initializeDataSourceStartup(DataSourceVO vo) {
+                initialized.add(vo.getId());
+                return true;
+            }
+        };
+        try {
+            List<DataSourceVO> polling = new DataSourceGroupInitializer(StartPriority.NORMAL, group, false, 4).initialize();
+            assertEquals(8, initialized.size());
+            assertEquals(8, polling.size());
+            // Returned largest first whatever order they finished in
+            for (int i = 0; i < polling.size(); i++)
+                assertTrue(polling.get(i).getId() == group.get(group.size() - 1 - i).getId());
+        } finally {
+            Common.runtimeManager = original;
+        }
+    }
+
+    private MockDataSourceVO createDataSource(int points) {
+        MockDataSourceVO ds = createMockDataSource();
+        for (int i = 0; i < points; i++)
+            createMockDataPoint(ds, new MockPointLocatorVO(), true);
+        return ds;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2020 Infinite Automation Systems Inc. All rights reserved.
+ *
+ * @author Terry Packer
+ */
+package com.serotonin.m2m2.rt.dataImage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.serotonin.m2m2.DataTypes;
+import com.serotonin.m2m2.MangoTestBase;
+import com.serotonin.m2m2.i18n.TranslatableMessage;
+import com.serotonin.m2m2.rt.dataImage.types.NumericValue;
+import com.serotonin.m2m2.vo.DataPointVO;
+import com.serotonin.m2m2.vo.dataPoint.MockPointLocatorVO;
+
+/**
+ * The ring buffer of the numeric point value cache
+ *
+ * @author Terry Packer
+ */
+public class NumericPointValueCacheTest extends MangoTestBase {
+
+    @Test
+    public void testWraparound() {
+        NumericPointValueCache cache = new NumericPointValueCache(createPoint(), 5, new ArrayList<>());
+        for (int i = 1; i <= 12; i++)
+            cache.savePointValue(new PointValueTime((double) i, i * 1000), null, false, false);
+
+        assertTimes(cache.getCacheContents(), 12, 11, 10, 9, 8);
+        assertEquals(12.0, cache.getLatestPointValue().getDoubleValue(), 0);
+        assertTimes(cache.getLatestPointValues(2), 12, 11);
+    }
+
+    @Test
+    public void testBackdated() {
+        NumericPointValueCache cache = new NumericPointValueCache(createPoint(), 5, new ArrayList<>());
+        for (int time : new int[] {10, 20, 30, 40})
+            cache.savePointValue(new PointValueTime(1.0, time), null, false, false);
+
+        cache.savePointValue(new PointValueTime(2.0, 25), null, false, false);
+        assertTimes(cache.getCacheContents(), 40, 30, 25, 20, 10);
+
+        // Full, older than everything in the cache
+        cache.savePointValue(new PointValueTime(3.0, 5), null, false, false);
+        assertTimes(cache.getCacheContents(), 40, 30, 25, 20, 10);
+
+        // Full, the oldest value is dropped
+        cache.savePointValue(new PointValueTime(4.0, 35), null, false, false);
+        assertTimes(cache.getCacheContents(), 40, 35, 30, 25, 20);
+        assertEquals(4.0, cache.getCacheContents().get(1).getDoubleValue(), 0);
+    }
+
+    @Test
+    public void testAnnotatedKept() {
+        NumericPointValueCache cache = new NumericPointValueCache(createPoint(), 3, new ArrayList<>());
+        PointValueTime annotated = new AnnotatedPointValueTime(new NumericValue(1.0), 100,
+                new TranslatableMessage("common.default", "source"));
+        cache.savePointValue(annotated, null, false, false);
+        cache.savePointValue(new PointValueTime(2.0, 200), null, false, false);
+
+        assertSame(annotated, cache.getCacheContents().get(1));
+    }
+
+    @Test
+    public void testViewStable() {
+        NumericPointValueCache cache = new NumericPointValueCache(createPoint(), 3, new ArrayList<>());
+        cache.savePointValue(new PointValueTime(1.0, 100), null, false, false);
+        cache.savePointValue(new PointValueTime(2.0, 200), null, false, false);
+
+        List<PointValueTime> view = cache.getCacheContents();
+        // Re-used until the cache is modified, as are its values
+        assertSame(view, cache.getCacheContents());
+        assertSame(view.get(0), cache.getCacheContents().get(0));
+
+        cache.savePointValue(new PointValueTime(3.0, 300), null, false, false);
+        cache.savePointValue(new PointValueTime(4.0, 400), null, false, false);
+        cache.savePointValue(new PointValueTime(0.5, 50), null, false, false);
+        assertTimes(view, 200, 100);
+        assertTimes(cache.getCacheContents(), 400, 300, 200);
+    }
+
+    @Test
+    public void testViewKeptWhenRingWraps() {
+        NumericPointValueCache cache = new NumericPointValueCache(createPoint(), 3, new ArrayList<>());
+        for (int i = 1; i <= 4; i++)
+            cache.savePointValue(new PointValueTime((double) i, i * 1000), null, false, false);
+
+        List<PointValueTime> view = cache.getCacheContents();
+        List<PointValueTime> partlyRead = cache.getLatestPointValues(2);
+        assertEquals(4.0, partlyRead.get(0).getDoubleValue(), 0);
+        // Enough to wrap the ring several times
+        for (int i = 5; i <= 20; i++) {
+            cache.savePointValue(new PointValueTime((double) i, i * 1000), null, false, false);
+            List<PointValueTime> latest = cache.getCacheContents();
+            assertTimes(latest, i * 1000, (i - 1) * 1000, (i - 2) * 1000);
+            assertEquals((double) i, latest.get(0).getDoubleValue(), 0);
+        }
+        assertTimes(view, 4000, 3000, 2000);
+        assertEquals(2.0, view.get(2).getDoubleValue(), 0);
+        assertTimes(partlyRead, 4000, 3000);
+        assertEquals(3.0, partlyRead.get(1).getDoubleValue(), 0);
+    }
+
+    @Test
+    public void testCapacityGrows() {
+        DataPointVO vo = createPoint();
+        NumericPointValueCache cache = new NumericPointValueCache(vo, 2, new ArrayList<>());
+        for (int i = 1; i <= 4; i++)
+            cache.savePointValue(new PointValueTime((double) i, i * 1000), null, true, false);
+        assertTimes(cache.getCacheContents(), 4000, 3000);
+
+        // Loaded from the database, the cache now keeps 4 values
+        assertTimes(cache.getLatestPointValues(4), 4000, 3000, 2000, 1000);
+        cache.savePointValue(new PointValueTime(5.0, 5000), null, false, false);
+        cache.savePointValue(new PointValueTime(2.5, 2500), null, false, false);
+        assertTimes(cache.getCacheContents(), 5000, 4000, 3000, 2500);
+    }
+
+    private DataPointVO createPoint() {
+        return createMockDataPoint(createMockDataSource(), new MockPointLocatorVO(DataTypes.NUMERIC, true));
+    }
+
+    private static void assertTimes(List<PointValueTime> values, long... times) {
+        assertEquals(times.length, values.size());
+        for (int i = 0; i < times.length; i++)
+            assertEquals(times[i], values.get(i).getTime());
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2020 Infinite Automation Systems Inc. All rights reserved.
+ *
+ * @author Terry Packer
+ */
+package com.serotonin.m2m2.rt.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.serotonin.m2m2.i18n.TranslatableMessage;
+import com.serotonin.m2m2.rt.event.type.DataPointEventType;
+import com.serotonin.m2m2.rt.event.type.DuplicateHandling;
+import com.serotonin.m2m2.rt.event.type.EventType;
+
+public class EventInstanceIndexTest {
+
+    private EventInstance createEvent(EventType type, long time, AlarmLevels level, int id) {
+        EventInstance evt = new EventInstance(type, time, true, level, new TranslatableMessage("common.default", id), null);
+        evt.setId(id);
+        return evt;
+    }
+
+    @Test
+    public void testGetAndRemoveByType() {
+        EventInstanceIndex index = new EventInstanceIndex(1000);
+        DataPointEventType type = new DataPointEventType(1, 2, 3, DuplicateHandling.ALLOW);
+        EventInstance first = createEvent(type, 100, AlarmLevels.URGENT, 1);
+        EventInstance second = createEvent(new DataPointEventType(1, 2, 3, DuplicateHandling.ALLOW), 200, AlarmLevels.CRITICAL, 2);
+        EventInstance other = createEvent(new DataPointEventType(1, 4, 5, DuplicateHandling.ALLOW), 300, AlarmLevels.WARNING, 3);
+        index.add(first);
+        index.add(second);
+        index.add(other);
+
+        assertEquals(3, index.size());
+        assertSame(first, index.get(type));
+        assertEquals(2, index.getAll(type).size());
+        assertSame(other, index.getById(3));
+        assertEquals(AlarmLevels.CRITICAL.value().intValue(), index.getHighestAlarmLevel());
+
+        assertSame(first, index.remove(type));
+        assertSame(second, index.remove(type));
+        assertNull(index.remove(type));
+        assertNull(index.get(type));
+        assertNull(index.getById(1));
+        assertEquals(AlarmLevels.WARNING.value().intValue(), index.getHighestAlarmLevel());
+    }
+
+    @Test
+    public void testRemoveForSources() {
+        EventInstanceIndex index = new EventInstanceIndex(1000);
+        index.add(createEvent(new DataPointEventType(1, 2, 3, DuplicateHandling.ALLOW), 100, AlarmLevels.URGENT, 1));
+        index.add(createEvent(new DataPointEventType(1, 2, 4, DuplicateHandling.ALLOW), 100, AlarmLevels.URGENT, 2));
+        index.add(createEvent(new DataPointEventType(5, 6, 7, DuplicateHandling.ALLOW), 100, AlarmLevels.URGENT, 3));
+
+        List<EventInstance> removed = index.removeForDataPoint(2);
+        assertEquals(2, removed.size());
+        assertEquals(1, index.size());
+        assertEquals(0, index.removeForDataSource(1).size());
+        assertEquals(1, index.removeForDataSource(5).size());
+        assertEquals(0, index.size());
+        assertEquals(0, index.getHighestAlarmLevel());
+    }
+
+    @Test
+    public void testRemoveBefore() {
+        EventInstanceIndex index = new EventInstanceIndex(1000);
+        for (int i = 0; i < 10; i++)
+            index.add(createEvent(new DataPointEventType(1, i, i, DuplicateHandling.ALLOW), i * 500, i % 2 == 0 ? AlarmLevels.URGENT : AlarmLevels.INFORMATION, i + 1));
+
+        List<EventInstance> removed = index.removeBefore(2250, e -> e.getAlarmLevel() == AlarmLevels.URGENT);
+        //0, 1000 and 2000
+        assertEquals(3, removed.size());
+        assertEquals(7, index.size());
+
+        removed = index.removeBefore(2250, e -> true);
+        //500 and 1500
+        assertEquals(2, removed.size());
+        assertEquals(5, index.getAll().size());
+    }
+
+    @Test
+    public void testGetAllInAddOrder() {
+        EventInstanceIndex index = new EventInstanceIndex(1000);
+        EventInstance[] events = new EventInstance[50];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = createEvent(new DataPointEventType(1, i, i, DuplicateHandling.ALLOW), 1000 - i, AlarmLevels.URGENT, i + 1);
+            index.add(events[i]);
+        }
+        index.removeForDataPoint(10);
+        index.add(events[10]);
+
+        List<EventInstance> all = index.getAll();
+        assertEquals(events.length, all.size());
+        int position = 0;
+        for (int i = 0; i < events.length; i++) {
+            if (i != 10)
+                assertSame(events[i], all.get(position++));
+        }
+        //Re-added last
+        assertSame(events[10], all.get(events.length - 1));
+    }
+}
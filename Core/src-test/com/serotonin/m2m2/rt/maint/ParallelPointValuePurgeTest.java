@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2020 Infinite Automation Systems Inc. All rights reserved.
+ *
+ * @author Terry Packer
+ */
+package com.serotonin.m2m2.rt.maint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.LongConsumer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.serotonin.m2m2.Common;
+import com.serotonin.m2m2.MangoTestBase;
+import com.serotonin.m2m2.MockRuntimeManager;
+import com.serotonin.m2m2.db.dao.SystemSettingsDao;
+import com.serotonin.m2m2.rt.RuntimeManager;
+import com.serotonin.m2m2.vo.DataPointVO;
+
+/**
+ * Checkpointing and throttling of the parallel point value purge
+ *
+ * @author Terry Packer
+ */
+public class ParallelPointValuePurgeTest extends MangoTestBase {
+
+    private static final long RUNTIME = 100000;
+
+    private RuntimeManager original;
+    private RecordingRuntimeManager recorder;
+
+    @Before
+    public void setupRecorder() {
+        original = Common.runtimeManager;
+        recorder = new RecordingRuntimeManager();
+        Common.runtimeManager = recorder;
+        SystemSettingsDao.instance.setValue(ParallelPointValuePurge.CHECKPOINT, null);
+    }
+
+    @After
+    public void restoreRuntimeManager() {
+        Common.runtimeManager = original;
+    }
+
+    @Test
+    public void testCheckpointClearedOnCompletion() {
+        long deleted = new ParallelPointValuePurge(RUNTIME, 2, 2, 100, 10000).purge(createGroups());
+        assertEquals(8, recorder.purged.size());
+        assertEquals(8 * RecordingRuntimeManager.VALUES_PER_POINT, deleted);
+        assertNull(SystemSettingsDao.instance.getValue(ParallelPointValuePurge.CHECKPOINT));
+    }
+
+    @Test
+    public void testResume() {
+        SystemSettingsDao.instance.setValue(ParallelPointValuePurge.CHECKPOINT, RUNTIME + ";1000;3");
+        new ParallelPointValuePurge(RUNTIME, 2, 2, 100, 10000).purge(createGroups());
+        assertEquals(new TreeSet<>(ids(4, 5, 6, 7, 8)), new TreeSet<>(recorder.purged.keySet()));
+        assertEquals(2000L, (long) recorder.purged.get(6));
+        assertNull(SystemSettingsDao.instance.getValue(ParallelPointValuePurge.CHECKPOINT));
+    }
+
+    @Test
+    public void testCheckpointOfOtherRuntimeIgnored() {
+        SystemSettingsDao.instance.setValue(ParallelPointValuePurge.CHECKPOINT, (RUNTIME - 1) + ";2000;8");
+        new ParallelPointValuePurge(RUNTIME, 2, 2, 100, 10000).purge(createGroups());
+        assertEquals(8, recorder.purged.size());
+    }
+
+    @Test
+    public void testFailureLeavesCheckpoint() {
+        recorder.failing = 5;
+        // One at a time, batches are [1, 2] [3, 4] [5] [6, 7] [8]
+        new ParallelPointValuePurge(RUNTIME, 1, 2, 100, 10000).purge(createGroups());
+        assertEquals(RUNTIME + ";1000;4", SystemSettingsDao.instance.getValue(ParallelPointValuePurge.CHECKPOINT));
+
+        recorder.failing = -1;
+        recorder.purged.clear();
+        new ParallelPointValuePurge(RUNTIME, 1, 2, 100, 10000).purge(createGroups());
+        assertEquals(new TreeSet<>(ids(5, 6, 7, 8)), new TreeSet<>(recorder.purged.keySet()));
+        assertNull(SystemSettingsDao.instance.getValue(ParallelPointValuePurge.CHECKPOINT));
+    }
+
+    @Test
+    public void testAdaptiveLimit() {
+        ParallelPointValuePurge purge = new ParallelPointValuePurge(RUNTIME, 8, 2, 100, 50);
+        assertEquals(8, purge.getLimit());
+        purge.chunkDeleted(10, 100);
+        assertEquals(4, purge.getLimit());
+        purge.chunkDeleted(10, 100);
+        purge.chunkDeleted(10, 100);
+        assertEquals(1, purge.getLimit());
+        purge.chunkDeleted(10, 100);
+        assertEquals(1, purge.getLimit());
+
+        purge.chunkDeleted(10, 10);
+        assertEquals(2, purge.getLimit());
+        for (int i = 0; i < 10; i++)
+            purge.chunkDeleted(10, 50);
+        assertEquals(8, purge.getLimit());
+    }
+
+    /**
+     * Points 1 to 5 before 1000 and 6 to 8 before 2000, out of order
+     */
+    private Map<Long, List<DataPointVO>> createGroups() {
+        Map<Long, List<DataPointVO>> groups = new HashMap<>();
+        groups.put(2000L, points(8, 6, 7));
+        groups.put(1000L, points(3, 1, 5, 2, 4));
+        return groups;
+    }
+
+    private static List<DataPointVO> points(int... ids) {
+        List<DataPointVO> points = new ArrayList<>();
+        for (int id : ids) {
+            DataPointVO vo = new DataPointVO();
+            vo.setId(id);
+            points.add(vo);
+        }
+        return points;
+    }
+
+    private static List<Integer> ids(int... ids) {
+        List<Integer> list = new ArrayList<>();
+        for (int id : ids)
+            list.add(id);
+        return list;
+    }
+
+    private static class RecordingRuntimeManager extends MockRuntimeManager {
+        static final int VALUES_PER_POINT = 3;
+
+        // Point id to the cutoff it was purged with
+        final Map<Integer, Long> purged = new HashMap<>();
+        volatile int failing = -1;
+
+        @Override
+        public long purgeDataPointValues(List<DataPointVO> vos, long before, int chunkSize, LongConsumer chunkDeleted) {
+            long count = 0;
+            for (DataPointVO vo : vos) {
+                if (vo.getId() == failing)
+                    throw new RuntimeException("Failed to purge " + vo.getId());
+                synchronized (purged) {
+                    if (purged.put(vo.getId(), before) != null)
+                        throw new IllegalStateException("Purged twice " + vo.getId());
+                }
+                chunkDeleted.accept(VALUES_PER_POINT);
+                count += VALUES_PER_POINT;
+            }
+            return count;
+        }
+    }
+}
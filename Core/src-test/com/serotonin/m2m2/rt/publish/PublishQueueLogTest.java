@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2020 Infinite Automation Systems Inc. All rights reserved.
+ *
+ * @author Terry Packer
+ */
+package com.serotonin.m2m2.rt.publish;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.serotonin.m2m2.rt.dataImage.PointValueTime;
+import com.serotonin.m2m2.rt.dataImage.types.AlphanumericValue;
+import com.serotonin.m2m2.rt.dataImage.types.NumericValue;
+
+public class PublishQueueLogTest {
+
+    private Path directory;
+
+    @Before
+    public void before() throws IOException {
+        directory = Files.createTempDirectory("publishQueue");
+    }
+
+    @After
+    public void after() throws IOException {
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    private void fill(PublishQueueLog log, int start, int count) throws IOException {
+        for (int i = start; i < start + count; i++) {
+            PointValueTime pvt = i % 2 == 0 ? new PointValueTime((double) i, i * 10) : new PointValueTime(new AlphanumericValue("value " + i), i * 10);
+            assertTrue(log.append(i, pvt));
+        }
+    }
+
+    private List<PointValueTime> peek(PublishQueueLog log, int max) {
+        List<PointValueTime> values = new ArrayList<>();
+        log.peek(max, (id, value) -> {
+            assertEquals(id * 10, value.getTime());
+            values.add(value);
+        });
+        return values;
+    }
+
+    @Test
+    public void testPeekAndAck() throws IOException {
+        PublishQueueLog log = new PublishQueueLog(directory, 128);
+        fill(log, 0, 20);
+        assertEquals(20, log.size());
+
+        List<PointValueTime> values = peek(log, 5);
+        assertEquals(5, values.size());
+        assertEquals(new NumericValue(0), values.get(0).getValue());
+        assertEquals("value 1", values.get(1).getValue().getStringValue());
+        //Peek doesn't remove anything
+        assertEquals(20, log.size());
+
+        log.ack(3);
+        assertEquals(17, log.size());
+        assertEquals(30, peek(log, 1).get(0).getTime());
+
+        //More than was peeked
+        log.ack(10);
+        assertEquals(7, log.size());
+        assertEquals(130, peek(log, 1).get(0).getTime());
+
+        log.ack(100);
+        assertTrue(log.isEmpty());
+        assertEquals(0, peek(log, 10).size());
+        log.close();
+    }
+
+    @Test
+    public void testSurvivesRestart() throws IOException {
+        PublishQueueLog log = new PublishQueueLog(directory, 128);
+        fill(log, 0, 20);
+        peek(log, 4);
+        log.ack(4);
+        log.close();
+
+        log = new PublishQueueLog(directory, 128);
+        assertEquals(16, log.size());
+        List<PointValueTime> values = peek(log, 100);
+        assertEquals(16, values.size());
+        assertEquals(40, values.get(0).getTime());
+        assertEquals(190, values.get(15).getTime());
+
+        //Appends after a restart go after the recovered values
+        fill(log, 20, 1);
+        assertEquals(17, log.size());
+        log.ack(16);
+        assertEquals(200, peek(log, 10).get(0).getTime());
+        log.close();
+    }
+
+    @Test
+    public void testSegmentsDeletedWhenAcknowledged() throws IOException {
+        PublishQueueLog log = new PublishQueueLog(directory, 128);
+        fill(log, 0, 20);
+        int files = directory.toFile().list().length;
+        assertTrue(files > 3);
+
+        peek(log, 20);
+        log.ack(20);
+        //Cursor and the tail segment
+        assertEquals(2, directory.toFile().list().length);
+
+        fill(log, 20, 2);
+        log.clear();
+        assertTrue(log.isEmpty());
+        assertEquals(0, peek(log, 10).size());
+        log.close();
+    }
+
+    @Test
+    public void testSegmentSizeKept() throws IOException {
+        PublishQueueLog log = new PublishQueueLog(directory, 128);
+        fill(log, 0, 20);
+        peek(log, 4);
+        log.ack(4);
+        log.close();
+
+        //The queued values are read at the size they were written with
+        log = new PublishQueueLog(directory, 256);
+        assertEquals(16, log.size());
+        List<PointValueTime> values = peek(log, 100);
+        assertEquals(16, values.size());
+        assertEquals(190, values.get(15).getTime());
+        log.ack(16);
+        log.close();
+
+        //Empty so the new size is used
+        log = new PublishQueueLog(directory, 256);
+        assertTrue(log.isEmpty());
+        fill(log, 20, 2);
+        assertEquals(2, peek(log, 10).size());
+        assertEquals(256, Files.size(directory.resolve(Files.list(directory)
+                .filter(f -> f.getFileName().toString().startsWith(PublishQueueLog.FILE_PREFIX)).findFirst().get())));
+        log.close();
+    }
+
+    @Test
+    public void testTooLarge() throws IOException {
+        PublishQueueLog log = new PublishQueueLog(directory, 64);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 64; i++)
+            builder.append('x');
+        assertFalse(log.append(1, new PointValueTime(new AlphanumericValue(builder.toString()), 10)));
+        assertTrue(log.isEmpty());
+        log.close();
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2020 Infinite Automation Systems Inc. All rights reserved.
+ *
+ * @author Terry Packer
+ */
+package com.serotonin.messaging;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Framing of messages that arrive split, together and after unusable data
+ *
+ * @author Terry Packer
+ */
+public class BufferMessageControlTest {
+
+    private static final byte START = 0x7E;
+
+    private final List<byte[]> received = new ArrayList<>();
+    private final List<Exception> exceptions = new ArrayList<>();
+    private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+    private BufferMessageControl control;
+    private int frameLengthCalls;
+
+    @Before
+    public void start() throws IOException {
+        control = new BufferMessageControl(new ByteBufferPool(64, 1));
+        control.setExceptionHandler(exceptions::add);
+        control.start(new OutputTransport(), new Parser(), request -> {
+            received.add(((Message) request).payload);
+            return null;
+        }, null);
+    }
+
+    @Test
+    public void testSplitFrame() {
+        byte[] frame = frame(1, 2, 3, 4, 5);
+        control.data(frame, 1);
+        control.data(new byte[] {frame[1], frame[2]}, 2);
+        assertEquals(0, received.size());
+        int calls = frameLengthCalls;
+        // The length is known, the parser is not asked again for the rest of the frame
+        control.data(new byte[] {frame[3], frame[4]}, 2);
+        assertEquals(calls, frameLengthCalls);
+        control.data(new byte[] {frame[5], frame[6]}, 2);
+
+        assertEquals(1, received.size());
+        assertArrayEquals(new byte[] {1, 2, 3, 4, 5}, received.get(0));
+    }
+
+    @Test
+    public void testFramesTogether() {
+        byte[] first = frame(1);
+        byte[] second = frame(2, 3);
+        byte[] third = frame(4, 5, 6);
+        byte[] data = concat(first, new byte[] {9, 9}, second, third, new byte[] {START});
+        control.data(data, data.length);
+
+        assertEquals(3, received.size());
+        assertArrayEquals(new byte[] {1}, received.get(0));
+        assertArrayEquals(new byte[] {2, 3}, received.get(1));
+        assertArrayEquals(new byte[] {4, 5, 6}, received.get(2));
+        assertEquals(0, exceptions.size());
+
+        // The start of the next frame was kept
+        control.data(new byte[] {1, 7}, 2);
+        assertEquals(4, received.size());
+        assertArrayEquals(new byte[] {7}, received.get(3));
+    }
+
+    @Test
+    public void testDataLargerThanBuffer() {
+        List<byte[]> frames = new ArrayList<>();
+        for (int i = 0; i < 40; i++)
+            frames.add(frame(i, i, i));
+        byte[] data = concat(frames.toArray(new byte[frames.size()][]));
+        control.data(data, data.length);
+
+        assertEquals(40, received.size());
+        assertArrayEquals(new byte[] {39, 39, 39}, received.get(39));
+        assertEquals(0, exceptions.size());
+    }
+
+    @Test
+    public void testDirectRead() {
+        byte[] data = concat(frame(1, 2), frame(3));
+        ByteBuffer buffer = control.getInputBuffer();
+        buffer.put(data, 0, 3);
+        control.data(3);
+        buffer = control.getInputBuffer();
+        buffer.put(data, 3, data.length - 3);
+        control.data(data.length - 3);
+
+        assertEquals(2, received.size());
+        assertArrayEquals(new byte[] {3}, received.get(1));
+    }
+
+    @Test
+    public void testOversizedFrame() {
+        control.data(new byte[] {START, 100, 1, 2}, 4);
+        assertEquals(1, exceptions.size());
+
+        byte[] frame = frame(8);
+        control.data(frame, frame.length);
+        assertEquals(1, received.size());
+    }
+
+    @Test
+    public void testWrite() throws IOException {
+        control.send(new Message(new byte[] {1, 2}));
+        control.send(new Message(new byte[] {3}));
+        assertArrayEquals(new byte[] {1, 2, 3}, written.toByteArray());
+    }
+
+    @Test
+    public void testWriteFailureReportedToItsSender() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        BufferMessageControl control = new BufferMessageControl(new ByteBufferPool(64, 1));
+        control.start(new OutputTransport() {
+            @Override
+            public void write(byte[] data) throws IOException {
+                if (data[0] == 1) {
+                    writing.countDown();
+                    try {
+                        release.await();
+                    }
+                    catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                if (data[0] == 2)
+                    throw new IOException("Failed " + data[0]);
+                super.write(data);
+            }
+        }, new Parser(), request -> null, null);
+
+        List<Thread> threads = new ArrayList<>();
+        List<CompletableFuture<Exception>> results = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            byte[] payload = new byte[] {(byte) i};
+            CompletableFuture<Exception> result = new CompletableFuture<>();
+            Thread thread = new Thread(() -> {
+                try {
+                    control.send(new Message(payload));
+                    result.complete(null);
+                }
+                catch (Exception e) {
+                    result.complete(e);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+            results.add(result);
+            // The first sender writes everything queued while it is blocked
+            if (i == 1)
+                writing.await();
+            else
+                while (thread.getState() != Thread.State.WAITING)
+                    Thread.sleep(1);
+        }
+        release.countDown();
+
+        assertNull(get(results.get(0)));
+        assertEquals("Failed 2", get(results.get(1)).getMessage());
+        assertNull(get(results.get(2)));
+        assertArrayEquals(new byte[] {1, 3}, written.toByteArray());
+        for (Thread thread : threads)
+            thread.join();
+        control.close();
+    }
+
+    private static Exception get(CompletableFuture<Exception> result) throws InterruptedException, ExecutionException {
+        Exception e = result.get();
+        assertTrue(e == null || e instanceof IOException);
+        return e;
+    }
+
+    private static byte[] frame(int... payload) {
+        byte[] frame = new byte[payload.length + 2];
+        frame[0] = START;
+        frame[1] = (byte) payload.length;
+        for (int i = 0; i < payload.length; i++)
+            frame[i + 2] = (byte) payload[i];
+        return frame;
+    }
+
+    private static byte[] concat(byte[]... arrays) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] array : arrays)
+            out.write(array, 0, array.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * A start byte, a length byte and the payload
+     */
+    private class Parser implements BufferMessageParser {
+        @Override
+        public int frameLength(ByteBuffer buffer) {
+            frameLengthCalls++;
+            while (buffer.hasRemaining() && buffer.get(buffer.position()) != START)
+                buffer.get();
+            if (buffer.remaining() < 2)
+                return 0;
+            return buffer.get(buffer.position() + 1) + 2;
+        }
+
+        @Override
+        public IncomingMessage parseMessage(ByteBuffer frame) {
+            byte[] payload = new byte[frame.get(1)];
+            frame.position(2);
+            frame.get(payload);
+            return new Message(payload);
+        }
+    }
+
+    private static class Message implements IncomingRequestMessage, OutgoingResponseMessage {
+        final byte[] payload;
+
+        Message(byte[] payload) {
+            this.payload = payload;
+        }
+
+        @Override
+        public byte[] getMessageData() {
+            return payload;
+        }
+    }
+
+    private class OutputTransport implements Transport {
+        @Override
+        public void setConsumer(DataConsumer consumer) {
+        }
+
+        @Override
+        public void removeConsumer() {
+        }
+
+        @Override
+        public void write(byte[] data) throws IOException {
+            written.write(data, 0, data.length);
+        }
+
+        @Override
+        public void write(byte[] data, int len) {
+            written.write(data, 0, len);
+        }
+    }
+}
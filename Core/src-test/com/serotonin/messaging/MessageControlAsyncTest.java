@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2020 Infinite Automation Systems Inc. All rights reserved.
+ *
+ * @author Terry Packer
+ */
+package com.serotonin.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.serotonin.timer.SimulationTimer;
+import com.serotonin.util.queue.ByteQueue;
+
+/**
+ * Several asynchronous requests outstanding at once, their timeouts and the in-flight window
+ *
+ * @author Terry Packer
+ */
+public class MessageControlAsyncTest {
+
+    private final List<Byte> written = Collections.synchronizedList(new ArrayList<>());
+    private SimulationTimer timer;
+    private MessageControl control;
+
+    @Before
+    public void start() throws IOException {
+        timer = new SimulationTimer();
+        control = new MessageControl();
+        control.setTimer(timer);
+        control.setTimeSource(timer::currentTimeMillis);
+        control.setTimeout(100);
+        control.setRetries(0);
+        control.start(new RecordingTransport(), new Parser(), null, new KeyFactory());
+    }
+
+    @Test
+    public void testPipelined() throws Exception {
+        CompletableFuture<IncomingResponseMessage> first = control.sendAsync(new Request(1));
+        CompletableFuture<IncomingResponseMessage> second = control.sendAsync(new Request(2));
+        CompletableFuture<IncomingResponseMessage> third = control.sendAsync(new Request(3));
+        assertEquals(3, written.size());
+
+        // Answered out of order
+        respond(3);
+        respond(1);
+        assertTrue(first.isDone());
+        assertFalse(second.isDone());
+        assertEquals(3, ((Response) third.get()).id);
+        respond(2);
+
+        assertEquals(1, ((Response) first.get()).id);
+        assertEquals(2, ((Response) second.get()).id);
+    }
+
+    @Test
+    public void testDuplicateKey() throws Exception {
+        control.sendAsync(new Request(1));
+        CompletableFuture<IncomingResponseMessage> duplicate = control.sendAsync(new Request(1));
+        try {
+            duplicate.get();
+            fail("Duplicate key was accepted");
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof WaitingRoomException);
+        }
+        assertEquals(1, written.size());
+    }
+
+    @Test
+    public void testTimeoutRetries() throws Exception {
+        CompletableFuture<IncomingResponseMessage> future = control.sendAsync(new Request(1), 100, 1);
+        timer.fastForwardTo(150);
+        // Resent after the first timeout
+        assertEquals(2, written.size());
+        assertFalse(future.isDone());
+
+        timer.fastForwardTo(300);
+        try {
+            future.get();
+            fail("Request did not time out");
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+
+        // The key can be used again
+        CompletableFuture<IncomingResponseMessage> again = control.sendAsync(new Request(1));
+        respond(1);
+        assertEquals(1, ((Response) again.get()).id);
+    }
+
+    @Test
+    public void testWindow() throws Exception {
+        control.setMaxInFlight(1);
+        CompletableFuture<IncomingResponseMessage> first = control.sendAsync(new Request(1));
+        Thread sender = new Thread(() -> control.sendAsync(new Request(2)));
+        sender.start();
+        sender.join(200);
+        // Waiting for the first response
+        assertTrue(sender.isAlive());
+        assertEquals(1, written.size());
+
+        respond(1);
+        sender.join(5000);
+        assertFalse(sender.isAlive());
+        assertEquals(2, written.size());
+        assertTrue(first.isDone());
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        CompletableFuture<IncomingResponseMessage> future = control.sendAsync(new Request(1));
+        control.close();
+        try {
+            future.get();
+            fail("Request outlived the message control");
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    private void respond(int id) {
+        control.data(new byte[] {(byte) id}, 1);
+    }
+
+    private static class Request implements OutgoingRequestMessage {
+        final byte id;
+
+        Request(int id) {
+            this.id = (byte) id;
+        }
+
+        @Override
+        public byte[] getMessageData() {
+            return new byte[] {id};
+        }
+
+        @Override
+        public boolean expectsResponse() {
+            return true;
+        }
+    }
+
+    private static class Response implements IncomingResponseMessage {
+        final byte id;
+
+        Response(byte id) {
+            this.id = id;
+        }
+    }
+
+    private static class Key implements WaitingRoomKey {
+        private final byte id;
+
+        Key(byte id) {
+            this.id = id;
+        }
+
+        @Override
+        public int hashCode() {
+            return id;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && ((Key) obj).id == id;
+        }
+    }
+
+    private static class KeyFactory implements WaitingRoomKeyFactory {
+        @Override
+        public WaitingRoomKey createWaitingRoomKey(OutgoingRequestMessage request) {
+            return new Key(((Request) request).id);
+        }
+
+        @Override
+        public WaitingRoomKey createWaitingRoomKey(IncomingResponseMessage response) {
+            return new Key(((Response) response).id);
+        }
+    }
+
+    /**
+     * Each byte is a response carrying its id
+     */
+    private static class Parser implements MessageParser {
+        @Override
+        public IncomingMessage parseMessage(ByteQueue queue) {
+            if (queue.size() == 0)
+                return null;
+            return new Response(queue.pop());
+        }
+    }
+
+    private class RecordingTransport implements Transport {
+        @Override
+        public void setConsumer(DataConsumer consumer) {
+        }
+
+        @Override
+        public void removeConsumer() {
+        }
+
+        @Override
+        public void write(byte[] data) {
+            write(data, data.length);
+        }
+
+        @Override
+        public void write(byte[] data, int len) {
+            for (int i = 0; i < len; i++)
+                written.add(data[i]);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2020 Infinite Automation Systems Inc. All rights reserved.
+ *
+ * @author Terry Packer
+ */
+package com.serotonin.messaging;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+
+import com.serotonin.epoll.InputStreamEPoll;
+import com.serotonin.timer.RealTimeTimer;
+import com.serotonin.util.queue.ByteQueue;
+
+/**
+ * Compares request/response throughput over a loopback socket of the MessageControl with a stream transport and a
+ * ByteQueue parser against the BufferMessageControl with a channel transport and a buffer parser. Many threads send
+ * requests at once, each waiting for its response, like a data source polling many devices through one bridge. The
+ * last run has a single thread keep a window of asynchronous requests outstanding instead. Run manually, there is no assertion on the result.
+ */
+public class MessageControlBenchmark {
+
+    private static final byte START = 0x7E;
+    private static final int THREADS = 32;
+    private static final int REQUESTS_PER_THREAD = 5000;
+    private static final int REQUEST_SIZE = 8;
+    private static final int RESPONSE_SIZE = 200;
+
+    public static void main(String[] args) throws Exception {
+        InputStreamEPoll epoll = new InputStreamEPoll();
+        Thread epollThread = new Thread(epoll, "InputStreamEPoll");
+        epollThread.start();
+        RealTimeTimer timer = new RealTimeTimer();
+        timer.init();
+
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress("127.0.0.1", 0));
+            for (int round = 0; round < 3; round++) {
+                run("stream/ByteQueue", server, epoll, false);
+                run("channel/ByteBuffer", server, epoll, true);
+                runAsync("channel/ByteBuffer async", server, epoll, timer);
+            }
+        }
+        timer.cancel();
+        epoll.terminate();
+        epollThread.join();
+    }
+
+    private static void run(String name, ServerSocketChannel server, InputStreamEPoll epoll, boolean buffers)
+            throws Exception {
+        SocketChannel client = SocketChannel.open(server.getLocalAddress());
+        client.socket().setTcpNoDelay(true);
+        Socket device = server.accept().socket();
+        device.setTcpNoDelay(true);
+        Thread responder = new Thread(() -> respond(device), "Benchmark device");
+        responder.start();
+
+        MessageControl control;
+        if (buffers) {
+            BufferMessageControl bufferControl = new BufferMessageControl();
+            bufferControl.start(new ChannelTransport(client, epoll), new BufferParser(), null, new KeyFactory());
+            control = bufferControl;
+        } else {
+            control = new MessageControl();
+            control.start(new EpollStreamTransport(client.socket().getInputStream(), client.socket().getOutputStream(),
+                    epoll), new QueueParser(), null, new KeyFactory());
+        }
+        control.setTimeout(5000);
+
+        CountDownLatch done = new CountDownLatch(THREADS);
+        long start = System.nanoTime();
+        for (int t = 0; t < THREADS; t++) {
+            byte id = (byte) t;
+            new Thread(() -> {
+                try {
+                    for (int i = 0; i < REQUESTS_PER_THREAD; i++)
+                        control.send(new Request(id));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+
+        control.close();
+        client.close();
+        device.close();
+        responder.join();
+
+        long requests = (long) THREADS * REQUESTS_PER_THREAD;
+        System.out.println(name + ": " + requests * 1_000_000_000L / elapsed + " requests per second, "
+                + requests * (REQUEST_SIZE + RESPONSE_SIZE) * 1_000_000_000L / elapsed / 1024 + " KB/s");
+    }
+
+    private static void runAsync(String name, ServerSocketChannel server, InputStreamEPoll epoll, RealTimeTimer timer)
+            throws Exception {
+        SocketChannel client = SocketChannel.open(server.getLocalAddress());
+        client.socket().setTcpNoDelay(true);
+        Socket device = server.accept().socket();
+        device.setTcpNoDelay(true);
+        Thread responder = new Thread(() -> respond(device), "Benchmark device");
+        responder.start();
+
+        BufferMessageControl control = new BufferMessageControl();
+        control.setTimeout(5000);
+        control.setTimer(timer);
+        // The device answers in order so an id is free again once the window has room
+        control.setMaxInFlight(THREADS);
+        control.start(new ChannelTransport(client, epoll), new BufferParser(), null, new KeyFactory());
+
+        long requests = (long) THREADS * REQUESTS_PER_THREAD;
+        Semaphore done = new Semaphore(0);
+        long start = System.nanoTime();
+        for (long i = 0; i < requests; i++) {
+            CompletableFuture<IncomingResponseMessage> response = control.sendAsync(new Request((byte) (i % THREADS)));
+            response.whenComplete((r, e) -> {
+                if (e != null)
+                    e.printStackTrace();
+                done.release();
+            });
+        }
+        done.acquire((int) requests);
+        long elapsed = System.nanoTime() - start;
+
+        control.close();
+        client.close();
+        device.close();
+        responder.join();
+
+        System.out.println(name + ": " + requests * 1_000_000_000L / elapsed + " requests per second, "
+                + requests * (REQUEST_SIZE + RESPONSE_SIZE) * 1_000_000_000L / elapsed / 1024 + " KB/s");
+    }
+
+    /**
+     * Answer each request with a response carrying its id, flushing when no more requests are waiting
+     */
+    private static void respond(Socket device) {
+        try {
+            DataInputStream in = new DataInputStream(device.getInputStream());
+            OutputStream out = new BufferedOutputStream(device.getOutputStream(), 64 * 1024);
+            byte[] request = new byte[REQUEST_SIZE];
+            byte[] response = new byte[RESPONSE_SIZE];
+            response[0] = START;
+            response[1] = (byte) (RESPONSE_SIZE - 2);
+            while (true) {
+                in.readFully(request);
+                response[2] = request[2];
+                out.write(response);
+                if (in.available() == 0)
+                    out.flush();
+            }
+        } catch (IOException e) {
+            // Closed
+        }
+    }
+
+    private static class Request implements OutgoingRequestMessage {
+        private final byte id;
+
+        Request(byte id) {
+            this.id = id;
+        }
+
+        @Override
+        public byte[] getMessageData() {
+            byte[] data = new byte[REQUEST_SIZE];
+            data[0] = START;
+            data[1] = REQUEST_SIZE - 2;
+            data[2] = id;
+            return data;
+        }
+
+        @Override
+        public boolean expectsResponse() {
+            return true;
+        }
+    }
+
+    private static class Response implements IncomingResponseMessage {
+        private final byte id;
+
+        Response(byte id) {
+            this.id = id;
+        }
+    }
+
+    private static class Key implements WaitingRoomKey {
+        private final byte id;
+
+        Key(byte id) {
+            this.id = id;
+        }
+
+        @Override
+        public int hashCode() {
+            return id;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && ((Key) obj).id == id;
+        }
+    }
+
+    private static class KeyFactory implements WaitingRoomKeyFactory {
+        @Override
+        public WaitingRoomKey createWaitingRoomKey(OutgoingRequestMessage request) {
+            return new Key(((Request) request).id);
+        }
+
+        @Override
+        public WaitingRoomKey createWaitingRoomKey(IncomingResponseMessage response) {
+            return new Key(((Response) response).id);
+        }
+    }
+
+    private static class QueueParser implements MessageParser {
+        @Override
+        public IncomingMessage parseMessage(ByteQueue queue) {
+            while (queue.size() > 0 && queue.peek(0) != START)
+                queue.pop();
+            if (queue.size() < 2 || queue.size() < (queue.peek(1) & 0xff) + 2)
+                return null;
+
+            queue.pop();
+            int length = queue.popU1B();
+            byte[] payload = new byte[length];
+            queue.pop(payload);
+            return new Response(payload[0]);
+        }
+    }
+
+    private static class BufferParser implements BufferMessageParser {
+        @Override
+        public int frameLength(ByteBuffer buffer) {
+            while (buffer.hasRemaining() && buffer.get(buffer.position()) != START)
+                buffer.get();
+            if (buffer.remaining() < 2)
+                return 0;
+            return (buffer.get(buffer.position() + 1) & 0xff) + 2;
+        }
+
+        @Override
+        public IncomingMessage parseMessage(ByteBuffer frame) {
+            return new Response(frame.get(2));
+        }
+    }
+}
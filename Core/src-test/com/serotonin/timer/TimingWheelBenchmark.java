@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2020 Infinite Automation Systems Inc. All rights reserved.
+ *
+ * @author Terry Packer
+ */
+package com.serotonin.timer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Compares schedule and cancel throughput of the binary heap timer against the timing wheel timer with
+ * many threads rescheduling timeouts, the way timeout detectors do when values arrive.
+ * Run manually, there is no assertion on the result.
+ */
+public class TimingWheelBenchmark {
+
+    private static final int THREADS = 8;
+    private static final int TIMEOUTS_PER_THREAD = 12_500;
+    private static final int RESCHEDULES = 20;
+
+    public static void main(String[] args) throws Exception {
+        for (int round = 0; round < 5; round++) {
+            run("heap", new OrderedRealTimeTimer());
+            run("wheel", new TimingWheelTimer());
+        }
+    }
+
+    private static void run(String name, RealTimeTimer timer) throws Exception {
+        timer.init();
+        CountDownLatch ready = new CountDownLatch(THREADS);
+        CountDownLatch go = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            int seed = t;
+            new Thread(() -> {
+                Random random = new Random(seed);
+                List<TimerTask> tasks = new ArrayList<>(TIMEOUTS_PER_THREAD);
+                ready.countDown();
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < TIMEOUTS_PER_THREAD; i++)
+                    tasks.add(timer.schedule(createTask(10_000 + random.nextInt(600_000))));
+                // Cancel and replace each timeout, like a timeout detector receiving a value
+                for (int r = 0; r < RESCHEDULES; r++) {
+                    for (int i = 0; i < TIMEOUTS_PER_THREAD; i++) {
+                        tasks.get(i).cancel();
+                        tasks.set(i, timer.schedule(createTask(10_000 + random.nextInt(600_000))));
+                    }
+                }
+                done.countDown();
+            }).start();
+        }
+
+        ready.await();
+        long start = System.nanoTime();
+        go.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - start;
+
+        long operations = (long) THREADS * TIMEOUTS_PER_THREAD * (1 + 2 * RESCHEDULES);
+        System.out.println(name + ": " + (operations * 1_000_000_000L / elapsed) + " schedule or cancel per second, "
+                + timer.size() + " tasks held for " + THREADS * TIMEOUTS_PER_THREAD + " live timeouts");
+        timer.cancel();
+        timer.getExecutorService().shutdown();
+    }
+
+    private static TimerTask createTask(long delay) {
+        return new TimerTask(new OneTimeTrigger(delay), "Benchmark timeout") {
+            @Override
+            public void run(long runtime) {
+            }
+
+            @Override
+            public void rejected(RejectedTaskReason reason) {
+            }
+        };
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2020 Infinite Automation Systems Inc. All rights reserved.
+ *
+ * @author Terry Packer
+ */
+package com.serotonin.timer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class TimingWheelTest {
+
+    private TimerTask createTask(long time) {
+        TimerTask task = new TimerTask(new OneTimeTrigger(new Date(time)), "Test task") {
+            @Override
+            public void run(long runtime) {
+            }
+
+            @Override
+            public void rejected(RejectedTaskReason reason) {
+            }
+        };
+        task.trigger.nextExecutionTime = time;
+        return task;
+    }
+
+    @Test
+    public void testExpireInOrder() {
+        long start = 1_600_000_000_000L;
+        TimingWheel wheel = new TimingWheel(start);
+        TimerTask soon = createTask(start + 5);
+        TimerTask later = createTask(start + 5_000);
+        TimerTask muchLater = createTask(start + 86_400_000L * 30);
+        wheel.add(muchLater);
+        wheel.add(later);
+        wheel.add(soon);
+        assertEquals(3, wheel.size());
+
+        List<TimerTask> due = new ArrayList<>();
+        wheel.expire(start + 4, due);
+        assertTrue(due.isEmpty());
+        assertEquals(start + 5, wheel.nextExpiry());
+
+        wheel.expire(start + 10_000, due);
+        assertEquals(2, due.size());
+        assertTrue(due.get(0) == soon);
+        assertTrue(due.get(1) == later);
+        assertEquals(1, wheel.size());
+
+        due.clear();
+        wheel.expire(start + 86_400_000L * 30, due);
+        assertEquals(1, due.size());
+        assertTrue(wheel.isEmpty());
+        assertEquals(Long.MAX_VALUE, wheel.nextExpiry());
+    }
+
+    @Test
+    public void testRemoveAndPastTimes() {
+        long start = 1_000_000;
+        TimingWheel wheel = new TimingWheel(start);
+        TimerTask removed = createTask(start + 100);
+        TimerTask kept = createTask(start + 100);
+        wheel.add(removed);
+        wheel.add(kept);
+        assertTrue(wheel.remove(removed));
+        assertFalse(wheel.remove(removed));
+
+        List<TimerTask> due = new ArrayList<>();
+        wheel.expire(start + 200, due);
+        assertEquals(1, due.size());
+        assertTrue(due.get(0) == kept);
+
+        //A task added for a time that was already processed is due immediately
+        due.clear();
+        wheel.add(createTask(start));
+        assertTrue(wheel.nextExpiry() <= start + 200);
+        wheel.expire(start + 200, due);
+        assertEquals(1, due.size());
+    }
+
+    @Test
+    public void testTimeGoesBackwards() {
+        long start = 10_000_000;
+        TimingWheel wheel = new TimingWheel(start);
+        List<TimerTask> due = new ArrayList<>();
+        wheel.expire(start + 1000, due);
+
+        wheel.add(createTask(start + 500));
+        wheel.expire(start + 1000, due);
+        assertEquals(1, due.size());
+
+        //Clock moved back, nothing should fire until it catches up
+        due.clear();
+        wheel.expire(start, due);
+        wheel.add(createTask(start + 500));
+        wheel.expire(start + 499, due);
+        assertTrue(due.isEmpty());
+        wheel.expire(start + 500, due);
+        assertEquals(1, due.size());
+    }
+
+    @Test
+    public void testMatchesSortedOrder() {
+        Random random = new Random(42);
+        long now = 1_600_000_000_000L;
+        TimingWheel wheel = new TimingWheel(now);
+        Set<TimerTask> scheduled = new HashSet<>();
+        List<TimerTask> due = new ArrayList<>();
+
+        for (int round = 0; round < 2000; round++) {
+            for (int i = 0; i < 20; i++) {
+                long delay;
+                switch (random.nextInt(4)) {
+                    case 0: delay = random.nextInt(64); break;
+                    case 1: delay = random.nextInt(10_000); break;
+                    case 2: delay = (long) random.nextInt(Integer.MAX_VALUE) * 100; break;
+                    default: delay = -random.nextInt(100); break;
+                }
+                TimerTask task = createTask(now + delay);
+                wheel.add(task);
+                scheduled.add(task);
+            }
+            if (!scheduled.isEmpty() && random.nextBoolean()) {
+                TimerTask task = scheduled.iterator().next();
+                assertTrue(wheel.remove(task));
+                scheduled.remove(task);
+            }
+
+            long processed = now;
+            now += random.nextInt(5) == 0 ? random.nextInt(1_000_000) : random.nextInt(100);
+            due.clear();
+            wheel.expire(now, due);
+
+            long previous = Long.MIN_VALUE;
+            for (TimerTask task : due) {
+                long time = task.trigger.nextExecutionTime;
+                assertTrue(time <= now);
+                //Tasks added for a time that was already processed are due first in any order
+                if (time > processed) {
+                    assertTrue(time >= previous);
+                    previous = time;
+                }
+                assertTrue(scheduled.remove(task));
+            }
+            for (TimerTask task : scheduled)
+                assertTrue(task.trigger.nextExecutionTime > now);
+            assertEquals(scheduled.size(), wheel.size());
+        }
+    }
+}
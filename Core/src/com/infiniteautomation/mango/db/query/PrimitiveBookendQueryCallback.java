@@ -0,0 +1,48 @@
+/**
+ * Copyright (C) 2020 Infinite Automation Software. All rights reserved.
+ */
+package com.infiniteautomation.mango.db.query;
+
+/**
+ * Bookend query callback that receives the value as primitives, see PrimitivePVTQueryCallback
+ *
+ * @author Terry Packer
+ */
+public interface PrimitiveBookendQueryCallback extends PrimitivePVTQueryCallback {
+
+    /**
+     * Called with the value at or before the query period start, the data type is DataTypes.UNKNOWN
+     *  if there is no value
+     *
+     * If an exception is thrown the query should be aborted
+     *
+     * @param dataPointId
+     * @param dataType
+     * @param value
+     * @param time
+     * @param index of current row
+     * @param bookend - true if the value is virtual i.e. added as a point to match the exact query start time for charting
+     * @throws QueryCancelledException to abort query
+     */
+    default void firstValue(int dataPointId, int dataType, double value, long time, int index, boolean bookend) throws QueryCancelledException {
+        row(dataPointId, dataType, value, time, index);
+    }
+
+    /**
+     * Called with the last value before the query period end, the data type is DataTypes.UNKNOWN
+     *  if there is no value
+     *
+     * If an exception is thrown the query should be aborted
+     *
+     * @param dataPointId
+     * @param dataType
+     * @param value
+     * @param time
+     * @param index of current row
+     * @param bookend - true if the value is virtual i.e. added as a point to match the exact query end time
+     * @throws QueryCancelledException to abort query
+     */
+    default void lastValue(int dataPointId, int dataType, double value, long time, int index, boolean bookend) throws QueryCancelledException {
+        row(dataPointId, dataType, value, time, index);
+    }
+}
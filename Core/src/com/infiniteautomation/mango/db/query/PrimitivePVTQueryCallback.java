@@ -0,0 +1,29 @@
+/**
+ * Copyright (C) 2020 Infinite Automation Software. All rights reserved.
+ */
+package com.infiniteautomation.mango.db.query;
+
+/**
+ * Point value query callback that receives the value as primitives so no objects are created for each row.
+ * Numeric, binary (0 or 1) and multistate values are provided as a double, alphanumeric and image values are
+ * provided as NaN so this is only useful for points that have a double representation.
+ *
+ * @author Terry Packer
+ */
+@FunctionalInterface
+public interface PrimitivePVTQueryCallback {
+
+    /**
+     * Values within the query
+     *
+     * If an exception is thrown the query should be aborted
+     *
+     * @param dataPointId
+     * @param dataType - DataTypes.UNKNOWN if there is no value (bookends only)
+     * @param value
+     * @param time
+     * @param index
+     * @throws QueryCancelledException to abort query
+     */
+    void row(int dataPointId, int dataType, double value, long time, int index) throws QueryCancelledException;
+}
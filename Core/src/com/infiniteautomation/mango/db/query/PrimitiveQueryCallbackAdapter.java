@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2020 Infinite Automation Software. All rights reserved.
+ */
+package com.infiniteautomation.mango.db.query;
+
+import com.serotonin.m2m2.DataTypes;
+import com.serotonin.m2m2.rt.dataImage.IdPointValueTime;
+import com.serotonin.m2m2.rt.dataImage.types.DataValue;
+
+/**
+ * Passes values from a point value query to a primitive callback, for point value stores that do not
+ * read values as primitives themselves.
+ *
+ * @author Terry Packer
+ */
+public class PrimitiveQueryCallbackAdapter implements BookendQueryCallback<IdPointValueTime> {
+
+    private final PrimitivePVTQueryCallback callback;
+    private final PrimitiveBookendQueryCallback bookendCallback;
+
+    public PrimitiveQueryCallbackAdapter(PrimitivePVTQueryCallback callback) {
+        this.callback = callback;
+        this.bookendCallback = callback instanceof PrimitiveBookendQueryCallback ? (PrimitiveBookendQueryCallback) callback : null;
+    }
+
+    @Override
+    public void row(IdPointValueTime value, int index) throws QueryCancelledException {
+        callback.row(value.getId(), getDataType(value.getValue()), getDoubleValue(value.getValue()), value.getTime(), index);
+    }
+
+    @Override
+    public void firstValue(IdPointValueTime value, int index, boolean bookend) throws QueryCancelledException {
+        if (bookendCallback == null)
+            row(value, index);
+        else
+            bookendCallback.firstValue(value.getId(), getDataType(value.getValue()), getDoubleValue(value.getValue()), value.getTime(), index, bookend);
+    }
+
+    @Override
+    public void lastValue(IdPointValueTime value, int index, boolean bookend) throws QueryCancelledException {
+        if (bookendCallback == null)
+            row(value, index);
+        else
+            bookendCallback.lastValue(value.getId(), getDataType(value.getValue()), getDoubleValue(value.getValue()), value.getTime(), index, bookend);
+    }
+
+    private static int getDataType(DataValue value) {
+        return value == null ? DataTypes.UNKNOWN : value.getDataType();
+    }
+
+    private static double getDoubleValue(DataValue value) {
+        return value != null && value.hasDoubleRepresentation() ? value.getDoubleValue() : Double.NaN;
+    }
+}
@@ -0,0 +1,403 @@
+/**
+ * Copyright (C) 2020 Infinite Automation Software. All rights reserved.
+ */
+package com.infiniteautomation.mango.emport;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.infiniteautomation.mango.spring.service.DataPointService;
+import com.infiniteautomation.mango.spring.service.DataSourceService;
+import com.infiniteautomation.mango.spring.service.EventDetectorsService;
+import com.infiniteautomation.mango.spring.service.EventHandlerService;
+import com.infiniteautomation.mango.spring.service.JsonDataService;
+import com.infiniteautomation.mango.spring.service.MailingListService;
+import com.infiniteautomation.mango.spring.service.PermissionService;
+import com.infiniteautomation.mango.spring.service.PublisherService;
+import com.infiniteautomation.mango.spring.service.RoleService;
+import com.infiniteautomation.mango.spring.service.SystemPermissionService;
+import com.infiniteautomation.mango.spring.service.UsersService;
+import com.infiniteautomation.mango.util.ConfigurationExportData;
+import com.infiniteautomation.mango.util.exception.ValidationException;
+import com.serotonin.json.JsonException;
+import com.serotonin.json.JsonReader;
+import com.serotonin.json.type.JsonObject;
+import com.serotonin.json.type.JsonTypeReader;
+import com.serotonin.json.type.JsonValue;
+import com.serotonin.m2m2.Common;
+import com.serotonin.m2m2.i18n.ProcessResult;
+import com.serotonin.m2m2.i18n.Translations;
+import com.serotonin.m2m2.module.EmportDefinition;
+import com.serotonin.m2m2.module.ModuleRegistry;
+import com.serotonin.m2m2.util.timeout.ProgressiveTask;
+import com.serotonin.m2m2.vo.dataPoint.DataPointWithEventDetectors;
+import com.serotonin.m2m2.vo.event.detector.AbstractPointEventDetectorVO;
+import com.serotonin.m2m2.vo.permission.PermissionHolder;
+import com.serotonin.util.ProgressiveTaskListener;
+
+/**
+ * Imports a configuration file without reading it into memory first. The top level arrays are read one element at
+ * a time and imported in batches so only a batch of elements is held at once. Like {@link ImportTask}
+ * each element is saved on its own, not in a transaction, as saving starts what was imported and updates the caches.
+ *
+ * The file is read in passes:
+ *  1. The core sections (data sources, data points, event detectors etc.) and the global scripts
+ *  2. The module sections that were found in the first pass
+ *  3. The elements that failed because they reference something further down the file, by their position in
+ *     their section. Repeated while a pass imports something, the failure messages of the last pass are reported.
+ *
+ * @author Terry Packer
+ */
+public class StreamingImportTask extends ProgressiveTask {
+
+    private static final Log LOG = LogFactory.getLog(StreamingImportTask.class);
+
+    private static final String GLOBAL_SCRIPTS = "sstGlobalScripts";
+
+    private static final int CORE_PASS = 0;
+    private static final int MODULE_PASS = 1;
+    private static final int RETRY_PASS = 2;
+
+    private final Path file;
+    private final PermissionHolder user;
+    private final int batchSize;
+    private final ImportContext importContext;
+    private final DataPointService dataPointService;
+    private final EventDetectorsService eventDetectorService;
+
+    private final Map<String, Function<JsonObject, Importer>> sections = new HashMap<>();
+    private final Map<String, EmportDefinition> moduleSections = new HashMap<>();
+    private final Set<String> moduleSectionsFound = new HashSet<>();
+    private final Map<String, DataPointWithEventDetectors> eventDetectorPoints = new HashMap<>();
+
+    //Positions of the elements to import in this pass and of those that failed in it, by section
+    private Map<String, BitSet> deferred = new HashMap<>();
+    private Map<String, BitSet> failed = new HashMap<>();
+    //Failure messages of this pass, only reported if nothing is imported by it
+    private ProcessResult passFailures = new ProcessResult();
+    private boolean passSuccess;
+    private int pass = CORE_PASS;
+
+    private long fileSize;
+    private JsonTypeReader reader;
+    private Reader source;
+    //The array being read and the position of the next element in it
+    private String section;
+    private int position;
+
+    public StreamingImportTask(Path file,
+            Translations translations,
+            PermissionHolder user,
+            RoleService roleService,
+            UsersService usersService,
+            MailingListService mailingListService,
+            DataSourceService dataSourceService,
+            DataPointService dataPointService,
+            PublisherService publisherService,
+            EventHandlerService eventHandlerService,
+            JsonDataService jsonDataService,
+            EventDetectorsService eventDetectorService,
+            SystemPermissionService permissionService,
+            ProgressiveTaskListener listener, boolean schedule) {
+        super("JSON import task", "JsonImport", 10, listener);
+        this.file = file;
+        this.user = user;
+        this.batchSize = Math.max(1, Common.envProps.getInt("emport.import.batchSize", 100));
+        this.dataPointService = dataPointService;
+        this.eventDetectorService = eventDetectorService;
+        //The importers read into objects from the values they are given, the reader's root is not used
+        JsonReader jsonReader = new JsonReader(Common.JSON_CONTEXT, new JsonObject());
+        this.importContext = new ImportContext(jsonReader, new ProcessResult(), translations);
+
+        sections.put(ConfigurationExportData.ROLES, json -> new RoleImporter(json, roleService));
+        sections.put(ConfigurationExportData.PERMISSIONS, json -> new PermissionImporter(json, permissionService));
+        sections.put(ConfigurationExportData.USERS, json -> new UserImporter(json, usersService, user));
+        sections.put(ConfigurationExportData.DATA_SOURCES, json -> new DataSourceImporter(json, dataSourceService));
+        sections.put(ConfigurationExportData.DATA_POINTS, json -> new DataPointImporter(json, eventDetectorPoints, dataPointService, dataSourceService));
+        sections.put(ConfigurationExportData.MAILING_LISTS, json -> new MailingListImporter(json, mailingListService));
+        sections.put(ConfigurationExportData.PUBLISHERS, json -> new PublisherImporter(json, publisherService));
+        sections.put(ConfigurationExportData.EVENT_HANDLERS, json -> new EventHandlerImporter(json, eventHandlerService));
+        sections.put(ConfigurationExportData.SYSTEM_SETTINGS, json -> new SystemSettingsImporter(json, user, permissionService, roleService));
+        sections.put(ConfigurationExportData.VIRTUAL_SERIAL_PORTS, json -> new VirtualSerialPortImporter(json));
+        sections.put(ConfigurationExportData.JSON_DATA, json -> new JsonDataImporter(json, jsonDataService));
+        sections.put(ConfigurationExportData.EVENT_DETECTORS, json -> new EventDetectorImporter(json, eventDetectorPoints, dataPointService));
+
+        for (EmportDefinition def : ModuleRegistry.getDefinitions(EmportDefinition.class))
+            moduleSections.put(def.getElementId(), def);
+
+        if(schedule)
+            Common.backgroundProcessing.execute(this);
+    }
+
+    public ProcessResult getResponse() {
+        return importContext.getResult();
+    }
+
+    @Override
+    public synchronized boolean cancel() {
+        boolean result = super.cancel();
+        close();
+        return result;
+    }
+
+    @Override
+    protected void runImpl() {
+        Common.getBean(PermissionService.class).runAsSystemAdmin(this::runImplAsAdmin);
+    }
+
+    protected synchronized void runImplAsAdmin() {
+        if (isCancelled())
+            return;
+        try {
+            if (reader == null)
+                open();
+
+            List<Element> batch = new ArrayList<>(batchSize);
+            boolean more = readBatch(batch);
+            importBatch(batch);
+
+            if (!more)
+                finishPass();
+        } catch (IOException | JsonException e) {
+            LOG.error("Import of " + file + " failed", e);
+            addException(importContext, e);
+            close();
+            completed = true;
+        } finally {
+            if (!completed)
+                declareProgress(getProgress());
+        }
+    }
+
+    /**
+     * Read the elements of this pass until the batch is full
+     * @return false if the end of the file was reached
+     */
+    private boolean readBatch(List<Element> batch) throws IOException, JsonException {
+        while (batch.size() < batchSize) {
+            if (section == null) {
+                String name = reader.nextName();
+                if (name == null)
+                    return false;
+
+                if (!isIncluded(name)) {
+                    reader.skipValue();
+                } else if (reader.isNextArray() && isStreamed(name)) {
+                    reader.beginArray();
+                    section = name;
+                    position = 0;
+                } else {
+                    add(batch, name, 0, reader.read());
+                }
+                continue;
+            }
+
+            if (!reader.hasNextElement()) {
+                section = null;
+            } else if (isSelected(section, position)) {
+                add(batch, section, position++, reader.read());
+            } else {
+                reader.skipValue();
+                position++;
+            }
+        }
+        return true;
+    }
+
+    private void add(List<Element> batch, String name, int index, JsonValue value) {
+        if (value != null)
+            batch.add(new Element(name, index, value));
+    }
+
+    private boolean isIncluded(String name) {
+        switch (pass) {
+            case CORE_PASS:
+                if (moduleSections.containsKey(name) && !GLOBAL_SCRIPTS.equals(name)) {
+                    moduleSectionsFound.add(name);
+                    return false;
+                }
+                return sections.containsKey(name) || GLOBAL_SCRIPTS.equals(name);
+            case MODULE_PASS:
+                return moduleSectionsFound.contains(name);
+            default:
+                return deferred.containsKey(name);
+        }
+    }
+
+    private boolean isStreamed(String name) {
+        EmportDefinition def = moduleSections.get(name);
+        return def == null || def.importAsList();
+    }
+
+    private boolean isSelected(String name, int index) {
+        return pass != RETRY_PASS || deferred.get(name).get(index);
+    }
+
+    /**
+     * Import a batch, each element is saved on its own
+     */
+    private void importBatch(List<Element> batch) {
+        if (batch.isEmpty())
+            return;
+
+        ImportContext failureContext = new ImportContext(importContext.getReader(), new ProcessResult(), importContext.getTranslations());
+        for (Element element : batch) {
+            Boolean success = importElement(element, importContext, failureContext);
+            if (success == Boolean.TRUE)
+                passSuccess = true;
+            else if (success == Boolean.FALSE)
+                failed.computeIfAbsent(element.section, k -> new BitSet()).set(element.position);
+        }
+        processUpdatedDetectors(importContext);
+        failureContext.getResult().copyTo(passFailures);
+    }
+
+    /**
+     * @return true if imported, false if it failed and can be tried again, null if it cannot be imported
+     */
+    private Boolean importElement(Element element, ImportContext context, ImportContext failureContext) {
+        EmportDefinition def = moduleSections.get(element.section);
+        if (def != null) {
+            try {
+                def.doImport(element.value, context, user);
+            } catch (JsonException e) {
+                addException(context, e);
+            }
+            return null;
+        }
+
+        Importer importer = sections.get(element.section).apply(element.value.toJsonObject());
+        importer.setImportContext(context);
+        importer.setImporters(new ArrayList<>());
+        try {
+            importer.doImport();
+        } catch (Exception e) {
+            LOG.error(e.getMessage(), e);
+            addException(context, e);
+            return null;
+        }
+
+        if (importer.success())
+            return true;
+        importer.setImportContext(failureContext);
+        importer.copyMessages();
+        return false;
+    }
+
+    private void finishPass() {
+        close();
+        if (pass == CORE_PASS && !moduleSectionsFound.isEmpty()) {
+            pass = MODULE_PASS;
+        } else if (failed.isEmpty()) {
+            completed = true;
+        } else if (pass != RETRY_PASS || passSuccess) {
+            // Something was imported that the failed elements may have been waiting for
+            deferred = failed;
+            failed = new HashMap<>();
+            passFailures = new ProcessResult();
+            passSuccess = false;
+            pass = RETRY_PASS;
+        } else {
+            // Nothing was imported in the last pass so what is left will always fail
+            passFailures.copyTo(importContext.getResult());
+            completed = true;
+        }
+    }
+
+    private void open() throws IOException, JsonException {
+        fileSize = Files.size(file);
+        source = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+        reader = new JsonTypeReader(source);
+        reader.beginObject();
+        section = null;
+    }
+
+    private void close() {
+        if (source != null) {
+            try {
+                source.close();
+            } catch (IOException e) {
+                LOG.warn("Failed to close " + file, e);
+            }
+        }
+        source = null;
+        reader = null;
+    }
+
+    /**
+     * The first pass takes most of the time, the others only import what is left
+     */
+    private float getProgress() {
+        float read = reader == null || fileSize == 0 ? 1f : Math.min(1f, (float) reader.getCharacterCount() / fileSize);
+        switch (pass) {
+            case CORE_PASS:
+                return 70f * read;
+            case MODULE_PASS:
+                return 70f + 10f * read;
+            default:
+                return 80f + 20f * read;
+        }
+    }
+
+    /**
+     * Save the event detectors of the data points and detectors imported in the batch
+     */
+    private void processUpdatedDetectors(ImportContext context) {
+        try {
+            for(DataPointWithEventDetectors dp : eventDetectorPoints.values()) {
+                for(AbstractPointEventDetectorVO ed : dp.getEventDetectors()) {
+                    try {
+                        if(ed.isNew()) {
+                            eventDetectorService.insertAndReload(ed, false);
+                            context.addSuccessMessage(true, "emport.eventDetector.prefix", ed.getXid());
+                        }else {
+                            eventDetectorService.updateAndReload(ed.getXid(), ed, false);
+                            context.addSuccessMessage(false, "emport.eventDetector.prefix", ed.getXid());
+                        }
+                        dataPointService.reloadDataPoint(dp.getDataPoint().getXid());
+                    }catch(ValidationException e) {
+                        context.copyValidationMessages(e.getValidationResult(), "emport.eventDetector.prefix", ed.getXid());
+                    }
+                }
+            }
+        } finally {
+            eventDetectorPoints.clear();
+        }
+    }
+
+    private void addException(ImportContext context, Exception e) {
+        String msg = e.getMessage();
+        Throwable t = e;
+        while ((t = t.getCause()) != null)
+            msg += ", " + context.getTranslations().translate("emport.causedBy") + " '" + t.getMessage() + "'";
+        if(msg == null)
+            msg = e.getClass().getCanonicalName();
+        context.getResult().addGenericMessage("common.default", msg);
+    }
+
+    private static class Element {
+        final String section;
+        final int position;
+        final JsonValue value;
+
+        Element(String section, int position, JsonValue value) {
+            this.section = section;
+            this.position = position;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2020 Infinite Automation Software. All rights reserved.
+ */
+package com.infiniteautomation.mango.permission;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.serotonin.m2m2.vo.role.Role;
+
+/**
+ * Compiles permissions and held roles into bitsets so a permission check is a few word AND operations
+ * instead of set lookups. Roles are interned into dense indexes the first time they are seen.
+ *
+ * A compiled permission is kept on the MangoPermission itself, compiled held roles are cached by the
+ * identity of the held role set with weak keys so the holders are not kept alive. This relies on both being
+ * effectively immutable, which is the case for MangoPermission and for the inherited roles of a permission
+ * holder.
+ *
+ * @author Terry Packer
+ */
+public class CompiledPermissions {
+
+    private final ConcurrentMap<Role, Integer> roleIndexes = new ConcurrentHashMap<>();
+    private final AtomicInteger nextIndex = new AtomicInteger();
+    private final Cache<Set<Role>, HeldRoles> heldRoles = CacheBuilder.newBuilder().weakKeys().build();
+
+    /**
+     * Does a holder with these roles have every role of at least one of the permission's role sets. An empty
+     * role set is never granted.
+     *
+     * @param held - all inherited roles of the holder
+     * @param permission
+     * @return
+     */
+    public boolean isGranted(Set<Role> held, MangoPermission permission) {
+        long[] heldBits = getHeld(held);
+        for (long[] required : getPermission(permission)) {
+            if (containsAll(heldBits, required))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of distinct roles that have been interned
+     */
+    public int getRoleCount() {
+        return nextIndex.get();
+    }
+
+    private long[][] getPermission(MangoPermission permission) {
+        CompiledPermission compiled = permission.compiled;
+        if (compiled == null || compiled.owner != this) {
+            Set<Set<Role>> roles = permission.getRoles();
+            long[][] terms = new long[roles.size()][];
+            int i = 0;
+            for (Set<Role> required : roles)
+                terms[i++] = required.isEmpty() ? null : compile(required);
+            compiled = new CompiledPermission(this, terms);
+            permission.compiled = compiled;
+        }
+        return compiled.terms;
+    }
+
+    private long[] getHeld(Set<Role> held) {
+        HeldRoles compiled = heldRoles.getIfPresent(held);
+        // The size is checked in case a holder modified its set of roles
+        if (compiled == null || compiled.size != held.size()) {
+            compiled = new HeldRoles(held.size(), compile(held));
+            heldRoles.put(held, compiled);
+        }
+        return compiled.bits;
+    }
+
+    private long[] compile(Set<Role> roles) {
+        long[] bits = new long[0];
+        for (Role role : roles) {
+            if (role == null || role.getXid().isEmpty())
+                throw new IllegalArgumentException("Role in set cannot be null or have empty role");
+
+            int index = roleIndexes.computeIfAbsent(role, r -> nextIndex.getAndIncrement());
+            int word = index >>> 6;
+            if (word >= bits.length) {
+                long[] grown = new long[word + 1];
+                System.arraycopy(bits, 0, grown, 0, bits.length);
+                bits = grown;
+            }
+            bits[word] |= 1L << index;
+        }
+        return bits;
+    }
+
+    /**
+     * A null required set represents an empty role set which only a superadmin is granted,
+     * superadmins are expected to be checked before calling this.
+     */
+    private static boolean containsAll(long[] held, long[] required) {
+        if (required == null || required.length > held.length)
+            return false;
+        for (int i = 0; i < required.length; i++) {
+            if ((held[i] & required[i]) != required[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Bitsets for each role set of a permission, only valid for the instance that compiled them
+     */
+    static final class CompiledPermission {
+        private final CompiledPermissions owner;
+        private final long[][] terms;
+
+        CompiledPermission(CompiledPermissions owner, long[][] terms) {
+            this.owner = owner;
+            this.terms = terms;
+        }
+    }
+
+    private static final class HeldRoles {
+        private final int size;
+        private final long[] bits;
+
+        HeldRoles(int size, long[] bits) {
+            this.size = size;
+            this.bits = bits;
+        }
+    }
+}
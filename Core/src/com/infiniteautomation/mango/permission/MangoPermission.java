@@ -25,6 +25,11 @@ public class MangoPermission {
     @JsonProperty
     protected final Set<Set<Role>> roles;
 
+    /**
+     * Bitset form of the roles, set by {@link CompiledPermissions}
+     */
+    transient volatile CompiledPermissions.CompiledPermission compiled;
+
     public MangoPermission(Integer id) {
         this(Collections.emptySet());
         this.id = id;
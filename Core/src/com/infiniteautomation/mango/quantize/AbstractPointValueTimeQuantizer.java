@@ -8,8 +8,15 @@ import java.io.IOException;
 import java.time.Instant;
 
 import com.infiniteautomation.mango.db.query.BookendQueryCallback;
+import com.infiniteautomation.mango.db.query.PrimitiveBookendQueryCallback;
 import com.infiniteautomation.mango.db.query.QueryCancelledException;
+import com.serotonin.m2m2.DataTypes;
 import com.serotonin.m2m2.rt.dataImage.IdPointValueTime;
+import com.serotonin.m2m2.rt.dataImage.PointValueTime;
+import com.serotonin.m2m2.rt.dataImage.types.BinaryValue;
+import com.serotonin.m2m2.rt.dataImage.types.DataValue;
+import com.serotonin.m2m2.rt.dataImage.types.MultistateValue;
+import com.serotonin.m2m2.rt.dataImage.types.NumericValue;
 import com.serotonin.m2m2.view.stats.IValueTime;
 import com.serotonin.m2m2.view.stats.StatisticsGenerator;
 
@@ -25,9 +32,13 @@ import com.serotonin.m2m2.view.stats.StatisticsGenerator;
  * 3. quantizer.lastValue() *optional
  * 4. quantizer.done() - must call to produce statistics
  *
+ * Values can also be provided as primitives from a primitive point value query, in that case a value object is
+ * only created when a period starts with it. Subclasses can override dataInPeriod(dataType, value, time) to avoid
+ * creating one for each value.
+ *
  * @author Terry Packer
  */
-abstract public class AbstractPointValueTimeQuantizer<T extends StatisticsGenerator> implements BookendQueryCallback<IdPointValueTime>{
+abstract public class AbstractPointValueTimeQuantizer<T extends StatisticsGenerator> implements BookendQueryCallback<IdPointValueTime>, PrimitiveBookendQueryCallback {
 
     private final BucketCalculator bucketCalculator;
     private final StatisticsGeneratorQuantizerCallback<T> callback;
@@ -39,6 +50,11 @@ abstract public class AbstractPointValueTimeQuantizer<T extends StatisticsGenera
     private Instant periodTo;
     private long periodToMillis; //For performance
     private IValueTime lastValue;
+    //Last value received as a primitive, only turned into lastValue when needed
+    private boolean lastValuePrimitive;
+    private int lastDataType;
+    private double lastDoubleValue;
+    private long lastTime;
 
     public AbstractPointValueTimeQuantizer(BucketCalculator bucketCalculator, StatisticsGeneratorQuantizerCallback<T> callback) {
         this.bucketCalculator = bucketCalculator;
@@ -66,6 +82,27 @@ abstract public class AbstractPointValueTimeQuantizer<T extends StatisticsGenera
         dataInPeriod(vt);
 
         lastValue = vt;
+        lastValuePrimitive = false;
+    }
+
+    @Override
+    public void row(int dataPointId, int dataType, double value, long time, int index) throws QueryCancelledException {
+        if (time < startTime)
+            throw new IllegalArgumentException("Data is before start time");
+
+        if (time >= endTime)
+            throw new IllegalArgumentException("Data is after end time");
+
+        while (time >= periodToMillis)
+            //The value is only used if it is exactly at the start of the next period
+            nextPeriod(periodToMillis == time ? new PointValueTime(createDataValue(dataType, value), time) : null, time);
+
+        dataInPeriod(dataType, value, time);
+
+        lastValuePrimitive = true;
+        lastDataType = dataType;
+        lastDoubleValue = value;
+        lastTime = time;
     }
 
     @Override
@@ -81,18 +118,31 @@ abstract public class AbstractPointValueTimeQuantizer<T extends StatisticsGenera
             row(value, index);
     }
 
+    @Override
+    public void firstValue(int dataPointId, int dataType, double value, long time, int index, boolean bookend) throws QueryCancelledException {
+        openPeriod(periodFrom, periodTo, dataType == DataTypes.UNKNOWN ? null : new PointValueTime(createDataValue(dataType, value), time));
+        if(!bookend)
+            row(dataPointId, dataType, value, time, index);
+    }
+
+    @Override
+    public void lastValue(int dataPointId, int dataType, double value, long time, int index, boolean bookend) throws QueryCancelledException {
+        if(!bookend)
+            row(dataPointId, dataType, value, time, index);
+    }
+
     /**
      * Called when no further data will be added to the Quantizer
      * @throws IOException
      */
     public void done() throws QueryCancelledException {
         //Special case where there is no data
-        if(lastValue == null && periodFrom.equals(bucketCalculator.getStartTime().toInstant()))
+        if(lastValue == null && !lastValuePrimitive && periodFrom.equals(bucketCalculator.getStartTime().toInstant()))
             openPeriod(periodFrom, periodTo, lastValue);
 
         Instant endInstant = bucketCalculator.getEndTime().toInstant();
         while (periodTo.isBefore(endInstant))
-            nextPeriod(lastValue, periodTo.toEpochMilli());
+            nextPeriod(getLastValue(), periodTo.toEpochMilli());
         closePeriod();
     }
 
@@ -108,7 +158,7 @@ abstract public class AbstractPointValueTimeQuantizer<T extends StatisticsGenera
         periodFrom = periodTo;
         periodTo = bucketCalculator.getNextPeriodTo().toInstant();
         periodToMillis = periodTo.toEpochMilli();
-        openPeriod(periodFrom, periodTo, periodFrom.toEpochMilli() == time ? endValue : lastValue);
+        openPeriod(periodFrom, periodTo, periodFrom.toEpochMilli() == time ? endValue : getLastValue());
     }
 
     /**
@@ -118,7 +168,18 @@ abstract public class AbstractPointValueTimeQuantizer<T extends StatisticsGenera
      */
     public void fastForward(long time) throws QueryCancelledException {
         while (periodToMillis <= time)
-            nextPeriod(lastValue, periodTo.toEpochMilli());
+            nextPeriod(getLastValue(), periodTo.toEpochMilli());
+    }
+
+    /**
+     * Get the latest value, creating it if it was received as a primitive
+     */
+    private IValueTime getLastValue() {
+        if (lastValuePrimitive) {
+            lastValue = new PointValueTime(createDataValue(lastDataType, lastDoubleValue), lastTime);
+            lastValuePrimitive = false;
+        }
+        return lastValue;
     }
 
     /**
@@ -150,6 +211,7 @@ abstract public class AbstractPointValueTimeQuantizer<T extends StatisticsGenera
      */
     protected void openPeriod(Instant start, Instant end, IValueTime startValue) {
         this.lastValue = startValue;
+        this.lastValuePrimitive = false;
         this.statistics = createStatistics(start, end, startValue);
     }
 
@@ -163,6 +225,41 @@ abstract public class AbstractPointValueTimeQuantizer<T extends StatisticsGenera
         statistics.addValueTime(vt);
     }
 
+    /**
+     * A value received as a primitive that occurred in the period. Data will be provided to this method in
+     * chronological order.
+     *
+     * @param dataType
+     * @param value
+     * @param time
+     */
+    protected void dataInPeriod(int dataType, double value, long time) {
+        dataInPeriod(new PointValueTime(createDataValue(dataType, value), time));
+    }
+
+    /**
+     * Access to the statistics of the current period for subclasses
+     */
+    protected T getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Create a value of a point with a double representation from a primitive query
+     */
+    protected static DataValue createDataValue(int dataType, double value) {
+        switch (dataType) {
+            case DataTypes.BINARY:
+                return new BinaryValue(value == 1);
+            case DataTypes.MULTISTATE:
+                return new MultistateValue((int) value);
+            case DataTypes.NUMERIC:
+                return new NumericValue(value);
+            default:
+                throw new IllegalArgumentException("Data type " + dataType + " can't be created from a primitive value");
+        }
+    }
+
     /**
      * Tells the quantizer that there is no more data for the period.
      *
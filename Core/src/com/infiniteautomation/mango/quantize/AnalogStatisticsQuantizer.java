@@ -23,5 +23,10 @@ public class AnalogStatisticsQuantizer extends AbstractPointValueTimeQuantizer<A
     protected AnalogStatistics createStatistics(Instant start, Instant end, IValueTime startValue) {
         return new AnalogStatistics(start.toEpochMilli(), end.toEpochMilli(), startValue);
     }
+
+    @Override
+    protected void dataInPeriod(int dataType, double value, long time) {
+        getStatistics().addValue(value, time);
+    }
     
 }
@@ -0,0 +1,243 @@
+/**
+ * Copyright (C) 2020 Infinite Automation Software. All rights reserved.
+ */
+package com.infiniteautomation.mango.quantize;
+
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import com.infiniteautomation.mango.db.query.QueryCancelledException;
+import com.infiniteautomation.mango.spring.components.executors.MangoForkJoinWorkerThreadFactory;
+import com.serotonin.m2m2.Common;
+import com.serotonin.m2m2.DataTypes;
+import com.serotonin.m2m2.db.dao.PointValueDao;
+import com.serotonin.m2m2.db.dao.PointValueRollupStore;
+import com.serotonin.m2m2.view.stats.StatisticsGenerator;
+import com.serotonin.m2m2.vo.DataPointVO;
+
+/**
+ * Rollup of many points over a long range that runs on a fork join pool. The request is partitioned by point
+ * and by time into slices of whole periods, each partition is a bookend query of one point with its own
+ * quantizer.
+ *
+ * Slices are only cut at period boundaries so the statistics of a period are never split between partitions.
+ * The start value of a slice is the first value bookend of its query, which is the same value the sequential
+ * quantizer carries over from the end of the previous period, so the results are identical to running one
+ * quantizer per point over the whole range.
+ *
+ * The results are delivered on the calling thread in time order, for each period the points are delivered in
+ * the order they were given.
+ *
+ * Numeric points are answered from the rollup tiers when they are enabled and line up with the periods.
+ *
+ * @author Terry Packer
+ */
+public class ParallelRollupEngine {
+
+    private static volatile ForkJoinPool sharedPool;
+
+    /**
+     * Receives the statistics of each point for each period
+     */
+    @FunctionalInterface
+    public interface ParallelRollupCallback {
+        void quantizedStatistics(DataPointVO vo, StatisticsGenerator statistics) throws QueryCancelledException;
+    }
+
+    private final PointValueDao dao;
+    private final ForkJoinPool pool;
+    private final int minPeriodsPerSlice;
+    private final PointValueRollupStore rollupStore;
+
+    /**
+     * @param dao - used to query the values of each partition
+     * @param pool - runs the partitions
+     * @param minPeriodsPerSlice - a point is not split into slices with fewer periods than this
+     */
+    public ParallelRollupEngine(PointValueDao dao, ForkJoinPool pool, int minPeriodsPerSlice) {
+        this.dao = dao;
+        this.pool = pool;
+        this.minPeriodsPerSlice = Math.max(1, minPeriodsPerSlice);
+        this.rollupStore = PointValueRollupStore.getInstance();
+    }
+
+    /**
+     * Rollup the points over the periods of the bucket calculator
+     *
+     * @param vos
+     * @param bucketCalculator - only used to compute the periods, it is not shared with the partitions
+     * @param callback
+     * @throws QueryCancelledException
+     */
+    public void execute(List<DataPointVO> vos, BucketCalculator bucketCalculator, ParallelRollupCallback callback) throws QueryCancelledException {
+        if(vos.isEmpty())
+            return;
+
+        List<ZonedDateTime> boundaries = computeBoundaries(bucketCalculator);
+        ZonedDateTime end = bucketCalculator.getEndTime();
+        int periods = boundaries.size() - 1;
+        int slices = sliceCount(vos.size(), periods);
+
+        //Submit every partition, slices of the same point are independent of each other
+        List<List<ForkJoinTask<List<StatisticsGenerator>>>> tasks = new ArrayList<>(slices);
+        for(int slice = 0; slice < slices; slice++) {
+            int first = firstPeriod(slice, slices, periods);
+            int last = firstPeriod(slice + 1, slices, periods);
+            List<ForkJoinTask<List<StatisticsGenerator>>> sliceTasks = new ArrayList<>(vos.size());
+            for(DataPointVO vo : vos)
+                sliceTasks.add(pool.submit(() -> rollup(vo, boundaries, first, last, end)));
+            tasks.add(sliceTasks);
+        }
+
+        try {
+            for(int slice = 0; slice < slices; slice++) {
+                List<ForkJoinTask<List<StatisticsGenerator>>> sliceTasks = tasks.get(slice);
+                List<List<StatisticsGenerator>> results = new ArrayList<>(sliceTasks.size());
+                for(ForkJoinTask<List<StatisticsGenerator>> task : sliceTasks)
+                    results.add(task.join());
+
+                int count = firstPeriod(slice + 1, slices, periods) - firstPeriod(slice, slices, periods);
+                for(int period = 0; period < count; period++)
+                    for(int i = 0; i < vos.size(); i++)
+                        callback.quantizedStatistics(vos.get(i), results.get(i).get(period));
+                //Release the delivered slice
+                tasks.set(slice, null);
+            }
+        }finally {
+            for(List<ForkJoinTask<List<StatisticsGenerator>>> sliceTasks : tasks)
+                if(sliceTasks != null)
+                    for(ForkJoinTask<List<StatisticsGenerator>> task : sliceTasks)
+                        task.cancel(false);
+        }
+    }
+
+    /**
+     * Rollup one point over one slice
+     */
+    private List<StatisticsGenerator> rollup(DataPointVO vo, List<ZonedDateTime> boundaries, int first, int last, ZonedDateTime end) throws QueryCancelledException {
+        int periods = boundaries.size() - 1;
+        ZonedDateTime sliceStart = boundaries.get(first);
+        ZonedDateTime sliceEnd = last == periods ? end : boundaries.get(last);
+        List<ZonedDateTime> periodEnds = boundaries.subList(first + 1, last + 1);
+        BucketCalculator calculator = new SliceBucketCalculator(sliceStart, sliceEnd, periodEnds);
+
+        List<StatisticsGenerator> results = new ArrayList<>(last - first);
+        List<DataPointVO> point = Collections.singletonList(vo);
+        long from = sliceStart.toInstant().toEpochMilli();
+        long to = sliceEnd.toInstant().toEpochMilli();
+        AbstractPointValueTimeQuantizer<?> quantizer;
+        switch(vo.getPointLocator().getDataTypeId()) {
+            case DataTypes.ALPHANUMERIC:
+            case DataTypes.IMAGE:
+                quantizer = new ValueChangeCounterQuantizer(calculator, results::add);
+                dao.wideBookendQuery(point, from, to, false, null, quantizer);
+                break;
+            case DataTypes.BINARY:
+            case DataTypes.MULTISTATE:
+                quantizer = new StartsAndRuntimeListQuantizer(calculator, results::add);
+                dao.wideBookendQueryPrimitive(point, from, to, false, null, quantizer);
+                break;
+            case DataTypes.NUMERIC:
+                if(rollupStore != null && new RollupTierQuantizer(rollupStore, dao).quantize(vo, new SliceBucketCalculator(sliceStart, sliceEnd, periodEnds), results::add))
+                    return results;
+                quantizer = new AnalogStatisticsQuantizer(calculator, results::add);
+                dao.wideBookendQueryPrimitive(point, from, to, false, null, quantizer);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown Data Type: " + vo.getPointLocator().getDataTypeId());
+        }
+        quantizer.done();
+        return results;
+    }
+
+    /**
+     * Number of slices per point, enough to keep every thread of the pool busy with a few partitions each
+     * without slices becoming smaller than the minimum
+     */
+    int sliceCount(int points, int periods) {
+        int target = pool.getParallelism() * 4;
+        int slices = (target + points - 1) / points;
+        return Math.max(1, Math.min(slices, periods / minPeriodsPerSlice));
+    }
+
+    /**
+     * Index of the first period of a slice, periods are divided as evenly as possible
+     */
+    static int firstPeriod(int slice, int slices, int periods) {
+        return (int) ((long) slice * periods / slices);
+    }
+
+    /**
+     * Compute the start time of the range followed by the end of each period, the same way the quantizer
+     * would use the bucket calculator. The last period can end after the end time.
+     */
+    static List<ZonedDateTime> computeBoundaries(BucketCalculator bucketCalculator) {
+        List<ZonedDateTime> boundaries = new ArrayList<>();
+        boundaries.add(bucketCalculator.getStartTime());
+        Instant end = bucketCalculator.getEndTime().toInstant();
+        ZonedDateTime to;
+        do {
+            to = bucketCalculator.getNextPeriodTo();
+            boundaries.add(to);
+        }while(to.toInstant().isBefore(end));
+        return boundaries;
+    }
+
+    /**
+     * The pool shared by rollups in Mango, the number of threads is set with runtime.rollup.parallelism
+     */
+    public static ForkJoinPool getSharedPool() {
+        ForkJoinPool pool = sharedPool;
+        if(pool == null) {
+            synchronized(ParallelRollupEngine.class) {
+                pool = sharedPool;
+                if(pool == null) {
+                    int parallelism = Common.envProps.getInt("runtime.rollup.parallelism", 0);
+                    if(parallelism <= 0)
+                        parallelism = Runtime.getRuntime().availableProcessors();
+                    sharedPool = pool = new ForkJoinPool(parallelism, new MangoForkJoinWorkerThreadFactory(), null, false);
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Replays precomputed period ends for one slice
+     */
+    static class SliceBucketCalculator implements BucketCalculator {
+        private final ZonedDateTime startTime;
+        private final ZonedDateTime endTime;
+        private final List<ZonedDateTime> periodEnds;
+        private int next;
+
+        SliceBucketCalculator(ZonedDateTime startTime, ZonedDateTime endTime, List<ZonedDateTime> periodEnds) {
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.periodEnds = periodEnds;
+        }
+
+        @Override
+        public ZonedDateTime getStartTime() {
+            return startTime;
+        }
+
+        @Override
+        public ZonedDateTime getNextPeriodTo() {
+            if(next >= periodEnds.size())
+                throw new NoSuchElementException("No more periods in slice");
+            return periodEnds.get(next++);
+        }
+
+        @Override
+        public ZonedDateTime getEndTime() {
+            return endTime;
+        }
+    }
+}
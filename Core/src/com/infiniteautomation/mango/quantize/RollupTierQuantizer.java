@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2020 Infinite Automation Software. All rights reserved.
+ */
+package com.infiniteautomation.mango.quantize;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.infiniteautomation.mango.db.query.QueryCancelledException;
+import com.infiniteautomation.mango.statistics.AnalogStatistics;
+import com.infiniteautomation.mango.statistics.AnalogStatisticsBucket;
+import com.serotonin.m2m2.db.dao.PointValueDao;
+import com.serotonin.m2m2.db.dao.PointValueRollupStore;
+import com.serotonin.m2m2.rt.dataImage.PointValueTime;
+import com.serotonin.m2m2.vo.DataPointVO;
+
+/**
+ * Produces the same AnalogStatistics as an AnalogStatisticsQuantizer fed by a bookend query, but from the
+ * pre-aggregated buckets of the coarsest rollup tier that lines up with every period instead of the raw values.
+ *
+ * The start value of a period is the value exactly at its start if there is one, which is the first value of
+ * its first bucket, otherwise the last value of the previous buckets. The first period gets the value before
+ * the range from the point value dao. The sums and integrals are added bucket by bucket so they can differ from
+ * the raw values in the last bits.
+ *
+ * @author Terry Packer
+ */
+public class RollupTierQuantizer {
+
+    private final PointValueRollupStore store;
+    private final PointValueDao dao;
+
+    public RollupTierQuantizer(PointValueRollupStore store, PointValueDao dao) {
+        this.store = store;
+        this.dao = dao;
+    }
+
+    /**
+     * Quantize a numeric point from the rollup tiers
+     *
+     * @param vo
+     * @param bucketCalculator
+     * @param callback
+     * @return false if no tier lines up with the periods or the tiers don't cover the point yet, nothing was
+     *  sent to the callback
+     * @throws QueryCancelledException
+     */
+    public boolean quantize(DataPointVO vo, BucketCalculator bucketCalculator,
+            StatisticsGeneratorQuantizerCallback<AnalogStatistics> callback) throws QueryCancelledException {
+        List<ZonedDateTime> boundaries = ParallelRollupEngine.computeBoundaries(bucketCalculator);
+        int periods = boundaries.size() - 1;
+        long[] times = new long[periods + 1];
+        for (int i = 0; i <= periods; i++)
+            times[i] = boundaries.get(i).toInstant().toEpochMilli();
+        //Values after the end time are not part of the last period
+        long[] aligned = times.clone();
+        aligned[periods] = Math.min(times[periods], bucketCalculator.getEndTime().toInstant().toEpochMilli());
+
+        long tier = store.getCoveringTier(aligned);
+        if (tier <= 0 || !store.prepare(vo.getId()))
+            return false;
+
+        List<AnalogStatisticsBucket> buckets = new ArrayList<>();
+        store.query(vo.getId(), tier, aligned[0], aligned[periods], buckets::add);
+
+        PointValueTime before = dao.getPointValueBefore(vo, times[0]);
+        boolean hasLast = before != null && before.getValue() != null;
+        double last = hasLast ? before.getDoubleValue() : 0;
+
+        int next = 0;
+        for (int period = 0; period < periods; period++) {
+            AnalogStatistics statistics = new AnalogStatistics(times[period], times[period + 1]);
+            boolean started = false;
+            while (next < buckets.size() && buckets.get(next).getPeriodStart() < aligned[period + 1]) {
+                AnalogStatisticsBucket bucket = buckets.get(next++);
+                if (!started) {
+                    if (bucket.getFirstTime() == times[period])
+                        statistics.setStartValue(bucket.getFirstValue());
+                    else if (hasLast)
+                        statistics.setStartValue(last);
+                    started = true;
+                }
+                statistics.addBucket(bucket);
+                last = bucket.getLastValue();
+                hasLast = true;
+            }
+            if (!started && hasLast)
+                statistics.setStartValue(last);
+            statistics.done();
+            callback.quantizedStatistics(statistics);
+        }
+        return true;
+    }
+}
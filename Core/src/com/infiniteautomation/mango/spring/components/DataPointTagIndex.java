@@ -0,0 +1,533 @@
+/**
+ * Copyright (C) 2020 Infinite Automation Software. All rights reserved.
+ */
+package com.infiniteautomation.mango.spring.components;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.infiniteautomation.mango.permission.MangoPermission;
+import com.infiniteautomation.mango.spring.service.PermissionService;
+import com.serotonin.m2m2.Common;
+import com.serotonin.m2m2.db.dao.DataPointTagsDao;
+import com.serotonin.m2m2.db.dao.PermissionDao;
+import com.serotonin.m2m2.vo.permission.PermissionHolder;
+import com.serotonin.m2m2.vo.role.Role;
+
+/**
+ * In memory inverted index of the data point tags, tag key to tag value to the ids of the data points
+ * with that tag. Used by the {@link DataPointTagsDao} to answer tag key and value queries without pivoting
+ * the tags table, enabled by the env property db.tagIndex.enabled.
+ *
+ * The index is loaded from the database on first use. The DAOs then have each changed data point and data source
+ * reloaded once its transaction commits, so a rolled back change is never applied. This is done on the saving thread
+ * rather than from the DAO events, which are delivered on a pool with no transaction bound and in no particular
+ * order. A user may read the points whose read or set permission, or whose data source's read or edit permission,
+ * they have. The readable points are computed once for each set of held roles and are dropped on any change.
+ *
+ * @author Terry Packer
+ */
+@Component
+public class DataPointTagIndex {
+
+    private final PermissionService permissionService;
+    private final PermissionDao permissionDao;
+    private volatile boolean enabled = Common.envProps.getBoolean("db.tagIndex.enabled", false);
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Guarded by lock
+    private boolean loaded;
+    private final Map<Integer, Point> points = new HashMap<>();
+    private final Map<Integer, DataSource> dataSources = new HashMap<>();
+    private final Map<String, Key> keys = new HashMap<>();
+    // Points by their read and set permission ids
+    private final Map<Integer, Ids> pointPermissions = new HashMap<>();
+
+    private final ConcurrentMap<Set<Role>, BitSet> readable = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, MangoPermission> permissions = new ConcurrentHashMap<>();
+
+    @Autowired
+    public DataPointTagIndex(PermissionService permissionService, PermissionDao permissionDao) {
+        this.permissionService = permissionService;
+        this.permissionDao = permissionDao;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Switch between the index and the database queries. A loaded index is kept up to date while it is not used.
+     */
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Load the index if it is not loaded yet
+     *
+     * @param source - called with a loader to fill the index from the database
+     */
+    public void ensureLoaded(Consumer<Loader> source) {
+        lock.readLock().lock();
+        try {
+            if (loaded)
+                return;
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (!loaded) {
+                source.accept(new Loader());
+                loaded = true;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drop the index, it is loaded again on next use
+     */
+    public void invalidate() {
+        lock.writeLock().lock();
+        try {
+            loaded = false;
+            points.clear();
+            dataSources.clear();
+            keys.clear();
+            pointPermissions.clear();
+            readable.clear();
+            permissions.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public Set<String> getTagKeys(PermissionHolder user) {
+        lock.readLock().lock();
+        try {
+            BitSet filter = readablePoints(user);
+            return keys.entrySet().stream()
+                    .filter(e -> filter == null || e.getValue().points.intersects(filter))
+                    .map(Entry::getKey)
+                    .collect(Collectors.toSet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The values of a tag key on the points that have all of the restriction tags. If some of these points do not
+     * have the tag key the result contains null, as the database query does.
+     */
+    public Set<String> getTagValuesForKey(String tagKey, Map<String, String> restrictions, PermissionHolder user) {
+        lock.readLock().lock();
+        try {
+            BitSet filter = readablePoints(user);
+            Key key = keys.get(tagKey);
+
+            if (restrictions.isEmpty()) {
+                if (key == null)
+                    return new HashSet<>();
+                return key.values.entrySet().stream()
+                        .filter(e -> filter == null || e.getValue().intersects(filter))
+                        .map(Entry::getKey)
+                        .collect(Collectors.toSet());
+            }
+
+            Ids[] restricted = new Ids[restrictions.size()];
+            int i = 0;
+            for (Entry<String, String> restriction : restrictions.entrySet()) {
+                Key restrictionKey = keys.get(restriction.getKey());
+                Ids ids = restrictionKey == null ? null : restrictionKey.values.get(restriction.getValue());
+                if (ids == null)
+                    return new HashSet<>();
+                restricted[i++] = ids;
+            }
+            // Start from the smallest so the candidates shrink quickly
+            Arrays.sort(restricted, Comparator.comparingInt(Ids::size));
+
+            BitSet candidates = restricted[0].toBitSet();
+            if (filter != null)
+                candidates.and(filter);
+            for (i = 1; i < restricted.length && !candidates.isEmpty(); i++)
+                candidates = restricted[i].and(candidates);
+
+            Set<String> result = new HashSet<>();
+            if (candidates.isEmpty())
+                return result;
+
+            if (key == null || candidates.cardinality() < key.values.size()) {
+                for (int id = candidates.nextSetBit(0); id >= 0; id = candidates.nextSetBit(id + 1))
+                    result.add(points.get(id).tags.get(tagKey));
+            } else {
+                for (Entry<String, Ids> value : key.values.entrySet()) {
+                    if (value.getValue().intersects(candidates))
+                        result.add(value.getKey());
+                }
+                if (key.points.size() < candidates.cardinality() || !key.points.containsAll(candidates))
+                    result.add(null);
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the points the user may read, null for all points
+     */
+    private BitSet readablePoints(PermissionHolder user) {
+        if (permissionService.hasAdminRole(user))
+            return null;
+        if (!permissionService.isValidPermissionHolder(user))
+            return new BitSet();
+
+        return readable.computeIfAbsent(user.getAllInheritedRoles(), roles -> {
+            BitSet bits = new BitSet();
+            for (Entry<Integer, Ids> entry : pointPermissions.entrySet()) {
+                if (hasPermission(user, entry.getKey()))
+                    entry.getValue().orInto(bits);
+            }
+            for (DataSource ds : dataSources.values()) {
+                if (hasPermission(user, ds.readPermissionId) || hasPermission(user, ds.editPermissionId))
+                    ds.points.orInto(bits);
+            }
+            return bits;
+        });
+    }
+
+    private boolean hasPermission(PermissionHolder user, Integer permissionId) {
+        if (permissionId == null)
+            return false;
+        // Not cached if it was deleted
+        MangoPermission permission = permissions.computeIfAbsent(permissionId, permissionDao::get);
+        return permission != null && permissionService.hasPermission(user, permission);
+    }
+
+    /**
+     * Reload from the database once the current transaction commits, or now if there is none. The changed rows are
+     * read under the index lock, so each reload sees what the ones before it saw or later and the index ends up as
+     * the database is whatever order the changes are reported in.
+     *
+     * @param source - called with a loader to reload the changed data sources and points
+     */
+    public void reloadAfterCommit(Consumer<Loader> source) {
+        afterCommit(() -> update(() -> source.accept(new Loader())));
+    }
+
+    /**
+     * Drop the permissions read from the database once the current transaction commits, or now if there is none
+     */
+    public void permissionsChanged() {
+        afterCommit(this::dropPermissions);
+    }
+
+    private void afterCommit(Runnable change) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    change.run();
+                }
+            });
+        } else {
+            change.run();
+        }
+    }
+
+    private void dropPermissions() {
+        lock.writeLock().lock();
+        try {
+            readable.clear();
+            permissions.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Apply a change if the index is loaded
+     */
+    private void update(Runnable change) {
+        lock.writeLock().lock();
+        try {
+            if (loaded) {
+                change.run();
+                readable.clear();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void addPoint(int id, int dataSourceId, Integer readPermissionId, Integer setPermissionId,
+            Map<String, String> tags) {
+        Point point = new Point(dataSourceId, readPermissionId, setPermissionId, tags);
+        points.put(id, point);
+        dataSources.computeIfAbsent(dataSourceId, k -> new DataSource()).points.add(id);
+        if (readPermissionId != null)
+            pointPermissions.computeIfAbsent(readPermissionId, k -> new Ids()).add(id);
+        if (setPermissionId != null)
+            pointPermissions.computeIfAbsent(setPermissionId, k -> new Ids()).add(id);
+        for (Entry<String, String> tag : tags.entrySet())
+            addTag(id, tag.getKey(), tag.getValue());
+    }
+
+    private void addTag(int id, String tagKey, String tagValue) {
+        Key key = keys.computeIfAbsent(tagKey, k -> new Key());
+        key.points.add(id);
+        key.values.computeIfAbsent(tagValue, k -> new Ids()).add(id);
+    }
+
+    private void removePoint(int id) {
+        Point point = points.remove(id);
+        if (point == null)
+            return;
+
+        DataSource ds = dataSources.get(point.dataSourceId);
+        if (ds != null)
+            ds.points.remove(id);
+        removeId(pointPermissions, point.readPermissionId, id);
+        removeId(pointPermissions, point.setPermissionId, id);
+
+        for (Entry<String, String> tag : point.tags.entrySet()) {
+            Key key = keys.get(tag.getKey());
+            if (key == null)
+                continue;
+            key.points.remove(id);
+            removeId(key.values, tag.getValue(), id);
+            if (key.values.isEmpty())
+                keys.remove(tag.getKey());
+        }
+    }
+
+    private static <K> void removeId(Map<K, Ids> map, K key, int id) {
+        if (key == null)
+            return;
+        Ids ids = map.get(key);
+        if (ids != null) {
+            ids.remove(id);
+            if (ids.size() == 0)
+                map.remove(key);
+        }
+    }
+
+    /**
+     * Fills the index, only valid while the index is being loaded or reloaded
+     */
+    public class Loader {
+        private Loader() {
+        }
+
+        /**
+         * Remove a data source and its points, before it is loaded again if it still exists
+         */
+        public void removeDataSource(int id) {
+            DataSource removed = dataSources.remove(id);
+            if (removed != null) {
+                BitSet ids = removed.points.toBitSet();
+                for (int pointId = ids.nextSetBit(0); pointId >= 0; pointId = ids.nextSetBit(pointId + 1))
+                    removePoint(pointId);
+            }
+        }
+
+        /**
+         * Update a data source's permissions, its points are kept
+         */
+        public void dataSource(int id, Integer readPermissionId, Integer editPermissionId) {
+            DataSource ds = dataSources.computeIfAbsent(id, k -> new DataSource());
+            ds.readPermissionId = readPermissionId;
+            ds.editPermissionId = editPermissionId;
+        }
+
+        /**
+         * Remove a data point and its tags, before it is loaded again if it still exists
+         */
+        public void removeDataPoint(int id) {
+            removePoint(id);
+        }
+
+        /**
+         * Add a data point, it keeps the tags it already has
+         */
+        public void dataPoint(int id, int dataSourceId, Integer readPermissionId, Integer setPermissionId) {
+            Point existing = points.get(id);
+            Map<String, String> tags = existing == null ? Collections.emptyMap() : existing.tags;
+            removePoint(id);
+            addPoint(id, dataSourceId, readPermissionId, setPermissionId, new HashMap<>(tags));
+        }
+
+        /**
+         * Add a tag, the point must already be loaded
+         */
+        public void tag(int dataPointId, String tagKey, String tagValue) {
+            Point point = points.get(dataPointId);
+            if (point != null && point.tags.put(tagKey, tagValue) == null)
+                addTag(dataPointId, tagKey, tagValue);
+        }
+    }
+
+    private static class Point {
+        final int dataSourceId;
+        final Integer readPermissionId;
+        final Integer setPermissionId;
+        final Map<String, String> tags;
+
+        Point(int dataSourceId, Integer readPermissionId, Integer setPermissionId, Map<String, String> tags) {
+            this.dataSourceId = dataSourceId;
+            this.readPermissionId = readPermissionId;
+            this.setPermissionId = setPermissionId;
+            this.tags = tags;
+        }
+    }
+
+    private static class DataSource {
+        Integer readPermissionId;
+        Integer editPermissionId;
+        final Ids points = new Ids();
+    }
+
+    private static class Key {
+        // Points with any value for the key
+        final Ids points = new Ids();
+        final Map<String, Ids> values = new HashMap<>();
+    }
+
+    /**
+     * A set of point ids, a sorted array while that is smaller than a bitmap up to the highest id. Most tag values
+     * (i.e. names) have very few points and a bitmap for each would use far more memory than the tags themselves.
+     */
+    static class Ids {
+        private int[] array = new int[4];
+        private int size;
+        private BitSet bits;
+
+        void add(int id) {
+            if (bits != null) {
+                if (!bits.get(id)) {
+                    bits.set(id);
+                    size++;
+                }
+                return;
+            }
+
+            int index = Arrays.binarySearch(array, 0, size, id);
+            if (index >= 0)
+                return;
+            index = -index - 1;
+            if (size == array.length)
+                array = Arrays.copyOf(array, size * 2);
+            System.arraycopy(array, index, array, index + 1, size - index);
+            array[index] = id;
+            size++;
+
+            // The array takes 32 bits per id, the bitmap 1 bit for every id up to the highest
+            if (size * 32L > array[size - 1]) {
+                bits = new BitSet(array[size - 1] + 1);
+                for (int i = 0; i < size; i++)
+                    bits.set(array[i]);
+                array = null;
+            }
+        }
+
+        void remove(int id) {
+            if (bits != null) {
+                if (bits.get(id)) {
+                    bits.clear(id);
+                    size--;
+                }
+                return;
+            }
+
+            int index = Arrays.binarySearch(array, 0, size, id);
+            if (index < 0)
+                return;
+            System.arraycopy(array, index + 1, array, index, size - index - 1);
+            size--;
+        }
+
+        int size() {
+            return size;
+        }
+
+        boolean intersects(BitSet other) {
+            if (bits != null)
+                return bits.intersects(other);
+            for (int i = 0; i < size; i++) {
+                if (other.get(array[i]))
+                    return true;
+            }
+            return false;
+        }
+
+        boolean containsAll(BitSet other) {
+            if (bits != null) {
+                BitSet missing = (BitSet) other.clone();
+                missing.andNot(bits);
+                return missing.isEmpty();
+            }
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (other.get(array[i]))
+                    count++;
+            }
+            return count == other.cardinality();
+        }
+
+        /**
+         * Remove the ids that are not in this set from other
+         *
+         * @return the remaining ids, may be other itself
+         */
+        BitSet and(BitSet other) {
+            if (bits != null) {
+                other.and(bits);
+                return other;
+            }
+            BitSet result = new BitSet();
+            for (int i = 0; i < size; i++) {
+                if (other.get(array[i]))
+                    result.set(array[i]);
+            }
+            return result;
+        }
+
+        void orInto(BitSet other) {
+            if (bits != null) {
+                other.or(bits);
+                return;
+            }
+            for (int i = 0; i < size; i++)
+                other.set(array[i]);
+        }
+
+        BitSet toBitSet() {
+            BitSet result = new BitSet();
+            orInto(result);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright (C) 2020 Infinite Automation Software. All rights reserved.
+ */
+package com.infiniteautomation.mango.spring.components;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.script.CompiledScript;
+
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.infiniteautomation.mango.monitor.ValueMonitor;
+import com.infiniteautomation.mango.spring.events.DaoEvent;
+import com.infiniteautomation.mango.spring.events.DaoEventType;
+import com.infiniteautomation.mango.util.script.CompiledMangoJavaScript;
+import com.serotonin.m2m2.Common;
+import com.serotonin.m2m2.i18n.TranslatableMessage;
+import com.serotonin.m2m2.rt.script.ScriptError;
+import com.serotonin.m2m2.vo.event.AbstractEventHandlerVO;
+
+/**
+ * Compiled event handler scripts by handler XID and script so an event does not need to compile the
+ * handler's script again. A compiled script shares its engine scope with everything run in the engine so
+ * it is leased to one event at a time, events that run the same script at once compile another copy which
+ * is kept for later events. A leased script gets a fresh engine scope before it is initialized.
+ *
+ * The scripts of a handler are dropped when the handler is updated or deleted.
+ *
+ * @author Terry Packer
+ */
+@Component
+public class EventHandlerScriptCache {
+
+    public static final String HIT_RATE_MONITOR_ID = "com.infiniteautomation.mango.spring.components.EventHandlerScriptCache.HIT_RATE";
+    public static final String COMPILE_TIME_MONITOR_ID = "com.infiniteautomation.mango.spring.components.EventHandlerScriptCache.COMPILE_TIME";
+
+    private final ValueMonitor<Double> hitRateMonitor = Common.MONITORED_VALUES.<Double>create(HIT_RATE_MONITOR_ID)
+            .name(new TranslatableMessage("internal.monitor.EVENT_HANDLER_SCRIPT_CACHE_HIT_RATE"))
+            .value(0D)
+            .build();
+    private final ValueMonitor<Long> compileTimeMonitor = Common.MONITORED_VALUES.<Long>create(COMPILE_TIME_MONITOR_ID)
+            .name(new TranslatableMessage("internal.monitor.EVENT_HANDLER_SCRIPT_COMPILE_TIME"))
+            .value(0L)
+            .build();
+
+    private final ConcurrentMap<String, ConcurrentMap<String, Entry>> scripts = new ConcurrentHashMap<>();
+
+    // Guarded by this
+    private long hits;
+    private long misses;
+    private long compileTime;
+
+    /**
+     * Compile the script into the container or reuse a compiled copy, the lease must be closed when the
+     * script is done executing so the copy can be used by the next event.
+     *
+     * @param xid - of the handler, if null the script is compiled and not cached
+     * @param script
+     * @param container - not yet compiled
+     * @return
+     * @throws ScriptError
+     */
+    public Lease lease(String xid, String script, CompiledMangoJavaScript container) throws ScriptError {
+        if (xid == null) {
+            compile(script, container);
+            return new Lease(null, container);
+        }
+
+        Entry entry = scripts.computeIfAbsent(xid, k -> new ConcurrentHashMap<>()).computeIfAbsent(script, k -> new Entry());
+        CompiledScript compiled = entry.idle.poll();
+        if (compiled != null) {
+            container.useCompiledScript(compiled, true);
+            hit();
+        } else {
+            compile(script, container);
+        }
+        return new Lease(entry, container);
+    }
+
+    /**
+     * Drop the compiled scripts of a handler
+     * @param xid
+     */
+    public void evict(String xid) {
+        ConcurrentMap<String, Entry> removed = scripts.remove(xid);
+        if (removed != null) {
+            for (Entry entry : removed.values()) {
+                entry.evicted = true;
+                entry.idle.clear();
+            }
+        }
+    }
+
+    @EventListener
+    protected void handleEventHandlerEvent(DaoEvent<? extends AbstractEventHandlerVO> event) {
+        if (event.getType() == DaoEventType.CREATE)
+            return;
+        evict(event.getVo().getXid());
+        if (event.getType() == DaoEventType.UPDATE)
+            evict(event.getOriginalVo().getXid());
+    }
+
+    private void compile(String script, CompiledMangoJavaScript container) throws ScriptError {
+        long start = System.nanoTime();
+        container.compile(script, true);
+        miss((System.nanoTime() - start) / 1000000);
+    }
+
+    private synchronized void hit() {
+        hits++;
+        hitRateMonitor.setValue(hits * 100D / (hits + misses));
+    }
+
+    private synchronized void miss(long elapsed) {
+        misses++;
+        compileTime += elapsed;
+        hitRateMonitor.setValue(hits * 100D / (hits + misses));
+        compileTimeMonitor.setValue(compileTime / misses);
+    }
+
+    private static class Entry {
+        final Queue<CompiledScript> idle = new ConcurrentLinkedQueue<>();
+        volatile boolean evicted;
+    }
+
+    /**
+     * A compiled script in use by one event
+     */
+    public static class Lease implements AutoCloseable {
+        private final Entry entry;
+        private final CompiledMangoJavaScript container;
+
+        private Lease(Entry entry, CompiledMangoJavaScript container) {
+            this.entry = entry;
+            this.container = container;
+        }
+
+        /**
+         * Return the compiled script so the next event can use it
+         */
+        @Override
+        public void close() {
+            if (entry != null && !entry.evicted)
+                entry.idle.offer(container.getCompiledScript());
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/**
+ * Copyright (C) 2020 Infinite Automation Software. All rights reserved.
+ */
+package com.infiniteautomation.mango.spring.components;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Predicate;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.infiniteautomation.mango.spring.events.DaoEvent;
+import com.infiniteautomation.mango.spring.events.DaoEventType;
+import com.infiniteautomation.mango.spring.service.PermissionService;
+import com.serotonin.m2m2.db.dao.RoleDao.RoleDeletedDaoEvent;
+import com.serotonin.m2m2.db.dao.UserDao;
+import com.serotonin.m2m2.rt.event.AlarmLevels;
+import com.serotonin.m2m2.rt.event.type.AuditEventType;
+import com.serotonin.m2m2.rt.event.type.EventType;
+import com.serotonin.m2m2.rt.event.type.EventTypeKey;
+import com.serotonin.m2m2.vo.DataPointVO;
+import com.serotonin.m2m2.vo.User;
+import com.serotonin.m2m2.vo.dataSource.DataSourceVO;
+import com.serotonin.m2m2.vo.role.RoleVO;
+
+/**
+ * Index of the active users that may view each event type, along with the email addresses of those users
+ * by the alarm level they have chosen to receive emails for. Used by the event manager so raising an event
+ * does not need to check the permission of every user.
+ *
+ * Subscriptions are computed the first time an event type is seen and are then maintained from the user,
+ * role, data point and data source DAO events. A change to a single user only re-checks that user against
+ * the cached event types, anything that may change the permissions of many users drops the affected
+ * subscriptions so they are computed again on next use.
+ *
+ * Audit events are only visible to admins and each has its own reference ids, so they share one subscription
+ * per audit type. Past {@link #MAX_SUBSCRIPTIONS} event types new subscriptions are computed but not cached.
+ *
+ * @author Terry Packer
+ */
+@Component
+public class EventSubscriptionIndex {
+
+    static final int MAX_SUBSCRIPTIONS = 10000;
+
+    private final UserDao userDao;
+    private final PermissionService permissionService;
+
+    private final ConcurrentMap<EventTypeKey, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private volatile Map<Integer, User> activeUsers;
+    /**
+     * Incremented on every change, used to avoid caching a subscription that was computed from stale data
+     */
+    private volatile long version;
+
+    @Autowired
+    public EventSubscriptionIndex(UserDao userDao, PermissionService permissionService) {
+        this.userDao = userDao;
+        this.permissionService = permissionService;
+    }
+
+    /**
+     * Get the users that may view this event type
+     */
+    public Subscription getSubscription(EventType type) {
+        EventTypeKey key = key(type);
+        Subscription subscription = subscriptions.get(key);
+        if (subscription != null)
+            return subscription;
+
+        long current = version;
+        subscription = createSubscription(type, getActiveUsers().values());
+        synchronized (this) {
+            if (current == version && subscriptions.size() < MAX_SUBSCRIPTIONS) {
+                Subscription existing = subscriptions.putIfAbsent(key, subscription);
+                if (existing != null)
+                    subscription = existing;
+            }
+        }
+        return subscription;
+    }
+
+    /**
+     * @return the number of cached subscriptions
+     */
+    int size() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Drop everything, for changes that may affect the permissions of any user (i.e. a system permission)
+     */
+    public synchronized void invalidate() {
+        version++;
+        activeUsers = null;
+        subscriptions.clear();
+    }
+
+    @EventListener
+    protected void handleUserEvent(DaoEvent<User> event) {
+        User user = event.getVo();
+        if (event.getType() == DaoEventType.UPDATE && !subscriptionChanged(event.getOriginalVo(), user))
+            return;
+
+        boolean active = event.getType() != DaoEventType.DELETE && !user.isDisabled();
+        synchronized (this) {
+            version++;
+            Map<Integer, User> users = activeUsers;
+            if (users == null) {
+                subscriptions.clear();
+                return;
+            }
+
+            Map<Integer, User> updated = new HashMap<>(users);
+            updated.remove(user.getId());
+            if (active)
+                updated.put(user.getId(), user);
+            activeUsers = Collections.unmodifiableMap(updated);
+
+            subscriptions.replaceAll((key, subscription) -> subscription.update(user,
+                    active && permissionService.hasEventTypePermission(user, subscription.getEventType())));
+        }
+    }
+
+    @EventListener
+    protected void handleRoleEvent(DaoEvent<RoleVO> event) {
+        if (event.getType() != DaoEventType.CREATE)
+            invalidate();
+    }
+
+    @EventListener
+    protected void handleRoleDeletedEvent(RoleDeletedDaoEvent event) {
+        invalidate();
+    }
+
+    @EventListener
+    protected void handleDataPointEvent(DaoEvent<DataPointVO> event) {
+        if (event.getType() != DaoEventType.CREATE) {
+            int id = event.getVo().getId();
+            remove(s -> s.getEventType().getDataPointId() == id);
+        }
+    }
+
+    @EventListener
+    protected void handleDataSourceEvent(DaoEvent<? extends DataSourceVO> event) {
+        if (event.getType() != DaoEventType.CREATE) {
+            int id = event.getVo().getId();
+            remove(s -> s.getEventType().getDataSourceId() == id);
+        }
+    }
+
+    private synchronized void remove(Predicate<Subscription> filter) {
+        version++;
+        subscriptions.values().removeIf(filter);
+    }
+
+    private static EventTypeKey key(EventType type) {
+        if (type instanceof AuditEventType)
+            return new EventTypeKey(type.getEventType(), type.getEventSubtype(), 0, 0);
+        return new EventTypeKey(type);
+    }
+
+    private Map<Integer, User> getActiveUsers() {
+        Map<Integer, User> users = activeUsers;
+        if (users != null)
+            return users;
+
+        long current = version;
+        Map<Integer, User> loaded = new HashMap<>();
+        for (User user : userDao.getActiveUsers())
+            loaded.put(user.getId(), user);
+        users = Collections.unmodifiableMap(loaded);
+        synchronized (this) {
+            if (current == version)
+                activeUsers = users;
+        }
+        return users;
+    }
+
+    private Subscription createSubscription(EventType type, Collection<User> users) {
+        List<User> subscribed = new ArrayList<>();
+        for (User user : users) {
+            if (permissionService.hasEventTypePermission(user, type))
+                subscribed.add(user);
+        }
+        return new Subscription(type, subscribed);
+    }
+
+    /**
+     * Only changes to these fields affect the subscriptions, most user updates (i.e. logging in) do not
+     */
+    private static boolean subscriptionChanged(User original, User user) {
+        return original.isDisabled() != user.isDisabled()
+                || !Objects.equals(original.getRoles(), user.getRoles())
+                || !Objects.equals(original.getEmail(), user.getEmail())
+                || original.getReceiveAlarmEmails() != user.getReceiveAlarmEmails();
+    }
+
+    /**
+     * Immutable set of users subscribed to an event type
+     */
+    public static final class Subscription {
+        private final EventType eventType;
+        private final List<User> users;
+        private final Map<AlarmLevels, Set<String>> emailAddresses;
+
+        private Subscription(EventType eventType, List<User> users) {
+            this.eventType = eventType;
+            this.users = Collections.unmodifiableList(users);
+            this.emailAddresses = new EnumMap<>(AlarmLevels.class);
+            for (AlarmLevels level : AlarmLevels.values()) {
+                Set<String> addresses = new LinkedHashSet<>();
+                for (User user : users) {
+                    if (receivesEmail(user, level))
+                        addresses.add(user.getEmail());
+                }
+                emailAddresses.put(level, Collections.unmodifiableSet(addresses));
+            }
+        }
+
+        /**
+         * @return the event type the subscription was created for
+         */
+        public EventType getEventType() {
+            return eventType;
+        }
+
+        public List<User> getUsers() {
+            return users;
+        }
+
+        /**
+         * @return the email addresses of the subscribed users that receive alarm emails at this level
+         */
+        public Set<String> getEmailAddresses(AlarmLevels level) {
+            return emailAddresses.get(level);
+        }
+
+        /**
+         * Has this user been configured to receive emails for events at this level
+         */
+        public static boolean receivesEmail(User user, AlarmLevels level) {
+            AlarmLevels threshold = user.getReceiveAlarmEmails();
+            return threshold.value() > AlarmLevels.IGNORE.value() && level.value() >= threshold.value()
+                    && !StringUtils.isEmpty(user.getEmail());
+        }
+
+        private Subscription update(User user, boolean subscribed) {
+            List<User> updated = new ArrayList<>(users.size() + 1);
+            for (User u : users) {
+                if (u.getId() != user.getId())
+                    updated.add(u);
+            }
+            if (subscribed)
+                updated.add(user);
+            else if (updated.size() == users.size())
+                return this;
+            return new Subscription(eventType, updated);
+        }
+    }
+}
@@ -6,12 +6,14 @@ package com.infiniteautomation.mango.spring.service;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.file.Path;
 import java.util.Map;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import com.infiniteautomation.mango.emport.ImportTask;
+import com.infiniteautomation.mango.emport.StreamingImportTask;
 import com.infiniteautomation.mango.util.ConfigurationExportData;
 import com.serotonin.ShouldNeverHappenException;
 import com.serotonin.json.JsonException;
@@ -93,6 +95,29 @@ public class EmportService {
                 listener, schedule);
     }
 
+    /**
+     * Create an import task that reads a JSON file as it imports instead of reading it into memory first,
+     *  for configurations too large to hold in memory
+     * @param file
+     * @return
+     */
+    public StreamingImportTask getStreamingImportTask(Path file, ProgressiveTaskListener listener, boolean schedule, Translations translations, PermissionHolder user) {
+        return new StreamingImportTask(file,
+                translations,
+                user,
+                roleService,
+                usersService,
+                mailingListService,
+                dataSourceService,
+                dataPointService,
+                publisherService,
+                eventHandlerService,
+                jsonDataService,
+                eventDetectorService,
+                systemPermissionService,
+                listener, schedule);
+    }
+
     /**
      * Export JSON as a String
      * @param prettyIndent
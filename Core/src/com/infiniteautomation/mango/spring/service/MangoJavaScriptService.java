@@ -37,6 +37,7 @@ import com.infiniteautomation.mango.util.script.MangoJavaScript;
 import com.infiniteautomation.mango.util.script.MangoJavaScriptAction;
 import com.infiniteautomation.mango.util.script.MangoJavaScriptError;
 import com.infiniteautomation.mango.util.script.MangoJavaScriptResult;
+import com.infiniteautomation.mango.util.script.ScriptEnginePool;
 import com.infiniteautomation.mango.util.script.ScriptUtility;
 import com.serotonin.ShouldNeverHappenException;
 import com.serotonin.db.pair.IntStringPair;
@@ -110,10 +111,18 @@ public class MangoJavaScriptService {
     private static final Object globalFunctionsLock = new Object();
 
     private final PermissionService permissionService;
+    private final ScriptEnginePool enginePool;
+    private final ScriptEnginePool noJavaEnginePool;
 
     @Autowired
     public MangoJavaScriptService(PermissionService permissionService) {
         this.permissionService = permissionService;
+        int poolSize = Common.envProps.getInt("runtime.javascript.enginePoolSize", 0);
+        if(poolSize <= 0)
+            poolSize = Runtime.getRuntime().availableProcessors();
+        NashornScriptEngineFactory factory = new NashornScriptEngineFactory();
+        this.enginePool = new ScriptEnginePool(poolSize, () -> factory.getScriptEngine());
+        this.noJavaEnginePool = new ScriptEnginePool(poolSize, () -> factory.getScriptEngine(new NoJavaFilter()));
     }
 
     /**
@@ -335,7 +344,7 @@ public class MangoJavaScriptService {
      */
     public CompiledScript compile(String script, boolean wrapInFunction) throws ScriptError {
         try {
-            final ScriptEngine engine = newEngine();
+            final ScriptEngine engine = getPooledEngine();
 
             // Add constants to the context
             Bindings globalBindings = new SimpleBindings();
@@ -432,7 +441,7 @@ public class MangoJavaScriptService {
         engineScope.put(ScriptLog.CONTEXT_KEY, script.getLog());
 
         try {
-            script.getEngine().eval(getGlobalFunctions());
+            ScriptEnginePool.evalLibrary(script.getEngine(), getGlobalFunctions());
         } catch (ScriptException e) {
             throw ScriptError.create(e, script.isWrapInFunction());
         } catch (RuntimeException e) {
@@ -568,6 +577,21 @@ public class MangoJavaScriptService {
             return factory.getScriptEngine(new NoJavaFilter());
     }
 
+    /**
+     * Get an engine with its own bindings that shares a pooled engine, with the same access restrictions
+     * as newEngine()
+     * @return
+     */
+    public ScriptEngine getPooledEngine() {
+        PermissionHolder holder = Common.getUser();
+        Objects.requireNonNull(holder, "Permission holder must be set in security context");
+
+        if(permissionService.hasAdminRole(holder))
+            return enginePool.getEngine();
+        else
+            return noJavaEnginePool.getEngine();
+    }
+
     private static class NoJavaFilter implements ClassFilter {
 
         @Override
@@ -627,6 +651,8 @@ public class MangoJavaScriptService {
         synchronized(globalFunctionsLock) {
             FUNCTIONS = null;
         }
+        enginePool.clearLibraries();
+        noJavaEnginePool.clearLibraries();
     }
 
     /**
@@ -17,17 +17,22 @@ import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.event.EventListener;
 import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.web.authentication.preauth.PreAuthenticatedAuthenticationToken;
 import org.springframework.stereotype.Service;
 
+import com.infiniteautomation.mango.permission.CompiledPermissions;
 import com.infiniteautomation.mango.permission.MangoPermission;
 import com.infiniteautomation.mango.permission.UserRolesDetails;
 import com.infiniteautomation.mango.spring.MangoRuntimeContextConfiguration;
+import com.infiniteautomation.mango.spring.events.DaoEvent;
+import com.infiniteautomation.mango.spring.events.DaoEventType;
 import com.serotonin.m2m2.Common;
 import com.serotonin.m2m2.db.dao.PermissionDao;
 import com.serotonin.m2m2.db.dao.RoleDao;
+import com.serotonin.m2m2.db.dao.RoleDao.RoleDeletedDaoEvent;
 import com.serotonin.m2m2.i18n.ProcessResult;
 import com.serotonin.m2m2.i18n.TranslatableMessage;
 import com.serotonin.m2m2.module.ModuleRegistry;
@@ -56,6 +61,7 @@ public class PermissionService {
     private final DataSourcePermissionDefinition dataSourcePermission;
     private final PermissionHolder systemSuperadmin;
     private final EventsViewPermissionDefinition eventsViewPermission;
+    private volatile CompiledPermissions compiledPermissions = new CompiledPermissions();
 
     @Autowired
     public PermissionService(PermissionDao permissionDao, RoleDao roleDao,
@@ -70,6 +76,22 @@ public class PermissionService {
         this.eventsViewPermission = eventsView;
     }
 
+    /**
+     * Roles were changed, drop the compiled permissions
+     * @param event
+     */
+    @EventListener
+    protected void handleRoleEvent(DaoEvent<RoleVO> event) {
+        if(event.getType() != DaoEventType.CREATE) {
+            this.compiledPermissions = new CompiledPermissions();
+        }
+    }
+
+    @EventListener
+    protected void handleRoleDeletedEvent(RoleDeletedDaoEvent event) {
+        this.compiledPermissions = new CompiledPermissions();
+    }
+
     /**
      * Run a command as superadmin
      * @param command
@@ -183,14 +205,11 @@ public class PermissionService {
      */
     public boolean hasPermission(PermissionHolder user, MangoPermission permission) {
         if (!isValidPermissionHolder(user)) return false;
-        if(hasAdminRole(user)) return true;
 
-        for(Set<Role> group : permission.getRoles()) {
-            if(hasAllRoles(user, group)) {
-                return true;
-            }
-        }
-        return false;
+        Set<Role> heldRoles = user.getAllInheritedRoles();
+        if(heldRoles.contains(PermissionHolder.SUPERADMIN_ROLE)) return true;
+
+        return compiledPermissions.isGranted(heldRoles, permission);
     }
 
     /**
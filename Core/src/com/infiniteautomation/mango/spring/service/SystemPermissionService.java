@@ -11,6 +11,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import com.infiniteautomation.mango.permission.MangoPermission;
+import com.infiniteautomation.mango.spring.components.EventSubscriptionIndex;
 import com.infiniteautomation.mango.util.exception.NotFoundException;
 import com.infiniteautomation.mango.util.exception.ValidationException;
 import com.serotonin.m2m2.Common;
@@ -32,13 +33,16 @@ public class SystemPermissionService {
     private final PermissionService permissionService;
     private final RoleService roleService;
     private final UserDao userDao;
+    private final EventSubscriptionIndex eventSubscriptionIndex;
 
     @Autowired
-    public SystemPermissionService(SystemPermissionDao dao, PermissionService permissionService, RoleService roleService, UserDao userDao) {
+    public SystemPermissionService(SystemPermissionDao dao, PermissionService permissionService, RoleService roleService, UserDao userDao,
+            EventSubscriptionIndex eventSubscriptionIndex) {
         this.dao = dao;
         this.permissionService = permissionService;
         this.roleService = roleService;
         this.userDao = userDao;
+        this.eventSubscriptionIndex = eventSubscriptionIndex;
     }
 
     /**
@@ -76,5 +80,7 @@ public class SystemPermissionService {
         def.update(permission);
         //notify user cache
         this.userDao.permissionChanged();
+        //notify event subscriptions
+        this.eventSubscriptionIndex.invalidate();
     }
 }
@@ -24,27 +24,36 @@ public class AnalogStatistics implements StatisticsGenerator {
     private final long periodEnd;
     private boolean done = false;
     
-    // Calculated values.
-    private Double minimumValue = Double.NaN;
-    private Long minimumTime;
-    private Double maximumValue = Double.NaN;
-    private Long maximumTime;
-    private Double average = Double.NaN;
-    private Double integral = Double.NaN;
+    // Calculated values, kept as primitives so adding a value does not allocate.
+    private double minimumValue = Double.NaN;
+    private long minimumTime;
+    private boolean hasMinimumTime;
+    private double maximumValue = Double.NaN;
+    private long maximumTime;
+    private boolean hasMaximumTime;
+    private double average = Double.NaN;
+    private double integral = Double.NaN;
     private double sum;
-    private Double firstValue;
-    private Long firstTime;
-    private Double lastValue;
-    private Long lastTime;
-    private Double startValue;
+    private double firstValue;
+    private long firstTime;
+    private double lastValue;
+    private long lastTime;
+    private boolean hasValues;
+    private double startValue;
+    private boolean hasStartValue;
     private int count;
-    private Double delta = Double.NaN;
+    private double delta = Double.NaN;
 
     // State values used for calculating weighted average.
-    private Double latestValue;
+    private double latestValue;
+    private boolean hasLatestValue;
     private long latestTime;
     private long totalDuration;
 
+    // Weighted sum and duration between the values added, without the start value, used by combine().
+    private double valueIntegral;
+    private long valueDuration;
+
     public AnalogStatistics(long periodStart, long periodEnd, IValueTime startVT,
             List<? extends IValueTime> values) {
         this(periodStart, periodEnd, startVT);
@@ -55,15 +64,60 @@ public class AnalogStatistics implements StatisticsGenerator {
 
 
     public AnalogStatistics(long periodStart, long periodEnd, IValueTime startValue) {
+        this(periodStart, periodEnd);
+        //Check for null and also bookend values
+        if (startValue != null && startValue.getValue() != null)
+            setStartValue(startValue.getValue().getDoubleValue());
+    }
+
+    /**
+     * Create statistics for a period without a start value, use setStartValue() if there is one
+     * @param periodStart
+     * @param periodEnd
+     */
+    public AnalogStatistics(long periodStart, long periodEnd) {
         this.periodStart = periodStart;
         this.periodEnd = periodEnd;
-        //Check for null and also bookend values
-        if (startValue != null && startValue.getValue() != null) {
-            minimumValue = maximumValue = latestValue = this.startValue = startValue.getValue().getDoubleValue();
-            minimumTime = maximumTime = latestTime = periodStart;
-        }
     }
 
+    /**
+     * Copy the state of statistics that are not done into a longer period
+     */
+    private AnalogStatistics(AnalogStatistics from, long periodEnd) {
+        this(from.periodStart, periodEnd);
+        minimumValue = from.minimumValue;
+        minimumTime = from.minimumTime;
+        hasMinimumTime = from.hasMinimumTime;
+        maximumValue = from.maximumValue;
+        maximumTime = from.maximumTime;
+        hasMaximumTime = from.hasMaximumTime;
+        average = from.average;
+        sum = from.sum;
+        firstValue = from.firstValue;
+        firstTime = from.firstTime;
+        lastValue = from.lastValue;
+        lastTime = from.lastTime;
+        hasValues = from.hasValues;
+        startValue = from.startValue;
+        hasStartValue = from.hasStartValue;
+        count = from.count;
+        latestValue = from.latestValue;
+        hasLatestValue = from.hasLatestValue;
+        latestTime = from.latestTime;
+        totalDuration = from.totalDuration;
+        valueIntegral = from.valueIntegral;
+        valueDuration = from.valueDuration;
+    }
+
+    /**
+     * Set the value that was in force at the start of the period, must be called before any values are added
+     * @param value
+     */
+    public void setStartValue(double value) {
+        minimumValue = maximumValue = latestValue = startValue = value;
+        minimumTime = maximumTime = latestTime = periodStart;
+        hasMinimumTime = hasMaximumTime = hasLatestValue = hasStartValue = true;
+    }
 
     @Override
     public void addValueTime(IValueTime vt) {
@@ -73,34 +127,145 @@ public class AnalogStatistics implements StatisticsGenerator {
     public void addValueTime(DataValue value, long time) {
         if (value == null)
             return;
+        addValue(value.getDoubleValue(), time);
+    }
 
-        double doubleValue = value.getDoubleValue();
-
+    /**
+     * Add a value without wrapping it in a DataValue
+     * @param doubleValue
+     * @param time
+     */
+    public void addValue(double doubleValue, long time) {
         count++;
 
-        if (firstValue == null) {
+        if (!hasValues) {
             firstValue = doubleValue;
             firstTime = time;
+            hasValues = true;
+        } else {
+            long duration = time - lastTime;
+            if (duration > 0) {
+                valueIntegral += lastValue * (double)duration;
+                valueDuration += duration;
+            }
         }
 
-        if (minimumValue.isNaN() || minimumValue > doubleValue) {
+        if (Double.isNaN(minimumValue) || minimumValue > doubleValue) {
             minimumValue = doubleValue;
             minimumTime = time;
+            hasMinimumTime = true;
         }
 
-        if (maximumValue.isNaN() || maximumValue < doubleValue) {
+        if (Double.isNaN(maximumValue) || maximumValue < doubleValue) {
             maximumValue = doubleValue;
             maximumTime = time;
+            hasMaximumTime = true;
         }
 
         updateAverage(doubleValue, time);
 
-        sum += value.getDoubleValue();
+        sum += doubleValue;
 
-        lastValue = value.getDoubleValue();
+        lastValue = doubleValue;
         lastTime = time;
     }
 
+    /**
+     * Add the values of a pre-aggregated bucket as if each of them was added with addValue(),
+     * buckets must be added in time order and must not overlap any values already added
+     * @param bucket
+     */
+    public void addBucket(AnalogStatisticsBucket bucket) {
+        if (bucket.isEmpty())
+            return;
+        append(bucket.getCount(), bucket.getSum(),
+                bucket.getMinimumValue(), bucket.getMinimumTime(), bucket.getMaximumValue(), bucket.getMaximumTime(),
+                bucket.getFirstValue(), bucket.getFirstTime(), bucket.getLastValue(), bucket.getLastTime(),
+                bucket.getIntegral(), bucket.getLastTime() - bucket.getFirstTime());
+    }
+
+    /**
+     * Merge these statistics with the statistics of the period that follows them, the result is the same as
+     * one pass over both periods with the start value of this period. Neither of the statistics is modified and
+     * done() must not have been called on them. The start value of the later period, if it has one, is
+     * expected to be the last value of this period so it is not used.
+     *
+     * Combining is associative, so the partial statistics of parallel scans or of several sources can be
+     * merged in any grouping as long as the order of the periods is kept. The sums and integrals are
+     * added in a different order than one pass so they can differ in the last bits.
+     *
+     * @param later - statistics of the period starting at the end of this one
+     * @return new statistics from the start of this period to the end of the later one, done() is not called
+     */
+    public AnalogStatistics combine(AnalogStatistics later) {
+        if (done || later.done)
+            throw new ShouldNeverHappenException("Can't combine statistics after done() was called.");
+        if (later.periodStart != periodEnd)
+            throw new IllegalArgumentException("Statistics for " + later.periodStart + " to " + later.periodEnd
+                    + " do not start at the end of " + periodStart + " to " + periodEnd);
+
+        AnalogStatistics combined = new AnalogStatistics(this, later.periodEnd);
+        if (later.hasValues)
+            combined.append(later.count, later.sum,
+                    later.minimumValue, later.minimumTime, later.maximumValue, later.maximumTime,
+                    later.firstValue, later.firstTime, later.lastValue, later.lastTime,
+                    later.valueIntegral, later.valueDuration);
+        return combined;
+    }
+
+    /**
+     * Add values that were aggregated separately and all come after the values already added
+     * @param integral - weighted sum between the first and last value
+     * @param duration - time covered by the integral
+     */
+    private void append(int count, double sum, double minimumValue, long minimumTime,
+            double maximumValue, long maximumTime, double firstValue, long firstTime,
+            double lastValue, long lastTime, double integral, long duration) {
+        this.count += count;
+
+        if (!hasValues) {
+            this.firstValue = firstValue;
+            this.firstTime = firstTime;
+            hasValues = true;
+        } else {
+            long gap = firstTime - this.lastTime;
+            if (gap > 0) {
+                valueIntegral += this.lastValue * (double)gap;
+                valueDuration += gap;
+            }
+        }
+
+        if (Double.isNaN(this.minimumValue) || this.minimumValue > minimumValue) {
+            this.minimumValue = minimumValue;
+            this.minimumTime = minimumTime;
+            hasMinimumTime = true;
+        }
+
+        if (Double.isNaN(this.maximumValue) || this.maximumValue < maximumValue) {
+            this.maximumValue = maximumValue;
+            this.maximumTime = maximumTime;
+            hasMaximumTime = true;
+        }
+
+        // Time from the latest value to the first value, then the time covered between the values
+        updateAverage(firstValue, firstTime);
+        if (duration > 0) {
+            if (Double.isNaN(average))
+                average = 0D;
+            average = average + integral;
+            totalDuration += duration;
+            valueIntegral += integral;
+            valueDuration += duration;
+        }
+        latestValue = lastValue;
+        latestTime = lastTime;
+
+        this.sum += sum;
+
+        this.lastValue = lastValue;
+        this.lastTime = lastTime;
+    }
+
     @Override
     public void done() {
         if(done)
@@ -110,7 +275,7 @@ public class AnalogStatistics implements StatisticsGenerator {
         updateAverage(Double.NaN, periodEnd);
         // Average will not be NaN when we have at least one value in period AND an end value
         // OR more than 1 value in the period
-        if (!average.isNaN()) {
+        if (!Double.isNaN(average)) {
             integral = average / 1000D; // integrate over seconds not msecs
             average /= totalDuration;
         } else {
@@ -118,24 +283,24 @@ public class AnalogStatistics implements StatisticsGenerator {
             // data set, we will
             // have a latest value, and a duration of zero. For this value we set the average equal
             // to that value.
-            if(lastValue != null) {
+            if(hasValues) {
                 average = lastValue;
                 // Nothing to integrate
                 integral = 0D;
             }
         }
 
-        if (firstValue != null) {
-            if(startValue != null)
+        if (hasValues) {
+            if(hasStartValue)
                 delta = lastValue - startValue;
             else
                 delta = lastValue - firstValue;
-        }else if(startValue != null)
+        }else if(hasStartValue)
             delta = 0.0D; //No data but a start value
     }
 
     private void updateAverage(double value, long time) {
-        if (latestValue != null) {
+        if (hasLatestValue) {
             // The duration for which the last value was in force.
             long duration = time - latestTime;
 
@@ -143,7 +308,7 @@ public class AnalogStatistics implements StatisticsGenerator {
                 // Determine the weighted average of the latest value. The average value at this
                 // point still needs to
                 // be divided by the total duration of the period.
-                if (average.isNaN())
+                if (Double.isNaN(average))
                     average = 0D;
                 average = average + ( latestValue * (double)duration);
                 totalDuration += duration;
@@ -152,6 +317,7 @@ public class AnalogStatistics implements StatisticsGenerator {
 
         // Reset the latest value.
         latestValue = value;
+        hasLatestValue = true;
         latestTime = time;
     }
 
@@ -170,7 +336,7 @@ public class AnalogStatistics implements StatisticsGenerator {
     }
 
     public Long getMinimumTime() {
-        return minimumTime;
+        return hasMinimumTime ? minimumTime : null;
     }
 
     public Double getMaximumValue() {
@@ -178,7 +344,7 @@ public class AnalogStatistics implements StatisticsGenerator {
     }
 
     public Long getMaximumTime() {
-        return maximumTime;
+        return hasMaximumTime ? maximumTime : null;
     }
 
     public Double getAverage() {
@@ -194,23 +360,23 @@ public class AnalogStatistics implements StatisticsGenerator {
     }
 
     public Double getStartValue() {
-        return startValue;
+        return hasStartValue ? startValue : null;
     }
 
     public Double getFirstValue() {
-        return firstValue;
+        return hasValues ? firstValue : null;
     }
 
     public Long getFirstTime() {
-        return firstTime;
+        return hasValues ? firstTime : null;
     }
 
     public Double getLastValue() {
-        return lastValue;
+        return hasValues ? lastValue : null;
     }
 
     public Long getLastTime() {
-        return lastTime;
+        return hasValues ? lastTime : null;
     }
 
     public int getCount() {
@@ -228,19 +394,19 @@ public class AnalogStatistics implements StatisticsGenerator {
     @Override
     public String toString() {
         return "{minimumValue: " + minimumValue + 
-                ", minimumTime: " + minimumTime + 
+                ", minimumTime: " + getMinimumTime() + 
                 ", maximumValue: " + maximumValue + 
-                ", maximumTime: " + maximumTime + 
+                ", maximumTime: " + getMaximumTime() + 
                 ", average: " + average + 
                 ", sum: " + sum + 
                 ", count: " + count + 
                 ", delta: " + delta + 
                 ", integral: " + integral + 
-                ", startValue: " + startValue +
-                ", firstValue: " + firstValue + 
-                ", firstTime: " + firstTime + 
-                ", lastValue: " + lastValue + 
-                ", lastTime: " + lastTime + 
+                ", startValue: " + getStartValue() +
+                ", firstValue: " + getFirstValue() + 
+                ", firstTime: " + getFirstTime() + 
+                ", lastValue: " + getLastValue() + 
+                ", lastTime: " + getLastTime() + 
                 ", periodStartTime: " + periodStart
                 + ", periodEndTime: " + periodEnd + "}";
     }
@@ -0,0 +1,173 @@
+/**
+ * Copyright (C) 2020 Infinite Automation Software. All rights reserved.
+ */
+package com.infiniteautomation.mango.statistics;
+
+/**
+ * Pre-aggregated statistics of the numeric values of one point inside a fixed bucket of time. Unlike the
+ * AnalogStatistics of a period a bucket has no start value, it only knows about the values inside it, so it
+ * does not depend on any other bucket and a late value only changes the bucket it falls in.
+ *
+ * The integral is the sum of each value multiplied by the ms until the next value in the bucket, the time
+ * between the last value of a bucket and the first value of the next one is accounted for when the buckets
+ * are added to AnalogStatistics.
+ *
+ * Values must be added in time order.
+ *
+ * @author Terry Packer
+ */
+public class AnalogStatisticsBucket {
+
+    private final long periodStart;
+    private final long period;
+
+    private int count;
+    private double sum;
+    private double minimumValue;
+    private long minimumTime;
+    private double maximumValue;
+    private long maximumTime;
+    private double firstValue;
+    private long firstTime;
+    private double lastValue;
+    private long lastTime;
+    private double integral;
+
+    /**
+     * @param periodStart - start of the bucket (inclusive)
+     * @param period - length of the bucket in ms
+     */
+    public AnalogStatisticsBucket(long periodStart, long period) {
+        this.periodStart = periodStart;
+        this.period = period;
+    }
+
+    /**
+     * Restore a bucket that was stored
+     */
+    public AnalogStatisticsBucket(long periodStart, long period, int count, double sum,
+            double minimumValue, long minimumTime, double maximumValue, long maximumTime,
+            double firstValue, long firstTime, double lastValue, long lastTime, double integral) {
+        this(periodStart, period);
+        this.count = count;
+        this.sum = sum;
+        this.minimumValue = minimumValue;
+        this.minimumTime = minimumTime;
+        this.maximumValue = maximumValue;
+        this.maximumTime = maximumTime;
+        this.firstValue = firstValue;
+        this.firstTime = firstTime;
+        this.lastValue = lastValue;
+        this.lastTime = lastTime;
+        this.integral = integral;
+    }
+
+    /**
+     * Add a value, it must not be before the last value added
+     * @param value
+     * @param time
+     */
+    public void addValue(double value, long time) {
+        if (count == 0) {
+            firstValue = minimumValue = maximumValue = value;
+            firstTime = minimumTime = maximumTime = time;
+        } else {
+            if (minimumValue > value) {
+                minimumValue = value;
+                minimumTime = time;
+            }
+            if (maximumValue < value) {
+                maximumValue = value;
+                maximumTime = time;
+            }
+            integral += lastValue * (double)(time - lastTime);
+        }
+        count++;
+        sum += value;
+        lastValue = value;
+        lastTime = time;
+    }
+
+    /**
+     * @return true if the time is inside this bucket
+     */
+    public boolean contains(long time) {
+        return time >= periodStart && time < periodStart + period;
+    }
+
+    public long getPeriodStart() {
+        return periodStart;
+    }
+
+    public long getPeriod() {
+        return period;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public double getMinimumValue() {
+        return minimumValue;
+    }
+
+    public long getMinimumTime() {
+        return minimumTime;
+    }
+
+    public double getMaximumValue() {
+        return maximumValue;
+    }
+
+    public long getMaximumTime() {
+        return maximumTime;
+    }
+
+    public double getFirstValue() {
+        return firstValue;
+    }
+
+    public long getFirstTime() {
+        return firstTime;
+    }
+
+    public double getLastValue() {
+        return lastValue;
+    }
+
+    public long getLastTime() {
+        return lastTime;
+    }
+
+    /**
+     * @return the sum of value * ms from the first to the last value of the bucket
+     */
+    public double getIntegral() {
+        return integral;
+    }
+
+    @Override
+    public String toString() {
+        return "{periodStart: " + periodStart +
+                ", period: " + period +
+                ", count: " + count +
+                ", sum: " + sum +
+                ", minimumValue: " + minimumValue +
+                ", minimumTime: " + minimumTime +
+                ", maximumValue: " + maximumValue +
+                ", maximumTime: " + maximumTime +
+                ", firstValue: " + firstValue +
+                ", firstTime: " + firstTime +
+                ", lastValue: " + lastValue +
+                ", lastTime: " + lastTime +
+                ", integral: " + integral + "}";
+    }
+}
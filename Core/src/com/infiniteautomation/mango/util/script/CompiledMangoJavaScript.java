@@ -9,6 +9,7 @@ import java.util.List;
 import java.util.Map;
 
 import javax.script.CompiledScript;
+import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
 
@@ -40,7 +41,7 @@ import com.serotonin.m2m2.vo.permission.PermissionHolder;
  *
  * Usage:
  * 1. Constructe compiled script
- * 2. call compile()
+ * 2. call compile() or useCompiledScript()
  * 3. call initialize() (anytime the context changes but now while executing the script)
  * 4. call execute() when you desire to compute a result from the script
  *
@@ -167,6 +168,20 @@ public class CompiledMangoJavaScript {
         }
     }
 
+    /**
+     * Use a script compiled for an earlier container instead of compiling, the engine scope is replaced
+     * with fresh bindings so nothing is left over from the previous run.
+     *
+     * @param compiledScript - must not be in use by another container
+     * @param wrapInFunction - was the script wrapped in a function when compiled
+     */
+    public void useCompiledScript(CompiledScript compiledScript, boolean wrapInFunction) {
+        ScriptEngine engine = compiledScript.getEngine();
+        engine.setBindings(engine.createBindings(), ScriptContext.ENGINE_SCOPE);
+        this.compiledScript = compiledScript;
+        this.wrapInFunction = wrapInFunction;
+    }
+
     /**
      * Clear the engine scope and initialize it with an expandable context which is returned
      *
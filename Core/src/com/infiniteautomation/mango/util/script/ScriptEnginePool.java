@@ -0,0 +1,189 @@
+/**
+ * Copyright (C) 2020 Infinite Automation Software. All rights reserved.
+ */
+package com.infiniteautomation.mango.util.script;
+
+import java.io.Reader;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleScriptContext;
+
+/**
+ * A fixed number of shared script engines with the same configuration (i.e. class filter). Each call to
+ * getEngine() returns a light weight engine with its own context and bindings that compiles and evaluates
+ * using one of the shared engines, so many scripts can be compiled and run without creating an engine for
+ * each of them. The shared engine must support evaluating with separate contexts from multiple threads,
+ * as Nashorn does when each context has its own global bindings.
+ *
+ * A library (i.e. the module defined global functions) is compiled once per shared engine and evaluated
+ * into the context of each engine that needs it.
+ *
+ * @author Terry Packer
+ */
+public class ScriptEnginePool {
+
+    private final Supplier<ScriptEngine> factory;
+    private final Slot[] slots;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * @param size - number of shared engines, created on first use
+     * @param factory - creates a shared engine, must be Compilable
+     */
+    public ScriptEnginePool(int size, Supplier<ScriptEngine> factory) {
+        this.factory = factory;
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; i++)
+            slots[i] = new Slot();
+    }
+
+    /**
+     * Get an engine with fresh engine scope bindings and no global scope bindings
+     * @return
+     */
+    public ScriptEngine getEngine() {
+        Slot slot = slots[Math.floorMod(next.getAndIncrement(), slots.length)];
+        return new PooledScriptEngine(slot.getEngine(factory), slot);
+    }
+
+    /**
+     * Evaluate a library into the context of an engine, if the engine is from a pool the library is compiled
+     * the first time it is used with each shared engine and again if the source changes.
+     *
+     * @param engine
+     * @param source
+     * @throws ScriptException
+     */
+    public static void evalLibrary(ScriptEngine engine, String source) throws ScriptException {
+        if (engine instanceof PooledScriptEngine) {
+            PooledScriptEngine pooled = (PooledScriptEngine) engine;
+            pooled.slot.getLibrary(pooled.delegate, source).eval(pooled.getContext());
+        } else {
+            engine.eval(source);
+        }
+    }
+
+    /**
+     * Drop the compiled libraries so they are compiled again on next use
+     */
+    public void clearLibraries() {
+        for (Slot slot : slots)
+            slot.library = null;
+    }
+
+    private static class Slot {
+        private volatile ScriptEngine engine;
+        private volatile Library library;
+
+        ScriptEngine getEngine(Supplier<ScriptEngine> factory) {
+            ScriptEngine result = engine;
+            if (result == null) {
+                synchronized (this) {
+                    result = engine;
+                    if (result == null)
+                        engine = result = factory.get();
+                }
+            }
+            return result;
+        }
+
+        CompiledScript getLibrary(ScriptEngine engine, String source) throws ScriptException {
+            Library result = library;
+            if (result == null || !result.source.equals(source)) {
+                result = new Library(source, ((Compilable) engine).compile(source));
+                library = result;
+            }
+            return result.compiled;
+        }
+    }
+
+    private static class Library {
+        final String source;
+        final CompiledScript compiled;
+
+        Library(String source, CompiledScript compiled) {
+            this.source = source;
+            this.compiled = compiled;
+        }
+    }
+
+    /**
+     * Engine with its own context that delegates to a shared engine
+     */
+    private static class PooledScriptEngine extends AbstractScriptEngine implements Compilable {
+
+        private final ScriptEngine delegate;
+        private final Slot slot;
+
+        PooledScriptEngine(ScriptEngine delegate, Slot slot) {
+            this.delegate = delegate;
+            this.slot = slot;
+            ScriptContext context = new SimpleScriptContext();
+            context.setBindings(delegate.createBindings(), ScriptContext.ENGINE_SCOPE);
+            setContext(context);
+        }
+
+        @Override
+        public Object eval(String script, ScriptContext context) throws ScriptException {
+            return delegate.eval(script, context);
+        }
+
+        @Override
+        public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+            return delegate.eval(reader, context);
+        }
+
+        @Override
+        public Bindings createBindings() {
+            return delegate.createBindings();
+        }
+
+        @Override
+        public ScriptEngineFactory getFactory() {
+            return delegate.getFactory();
+        }
+
+        @Override
+        public CompiledScript compile(String script) throws ScriptException {
+            return new PooledCompiledScript(this, ((Compilable) delegate).compile(script));
+        }
+
+        @Override
+        public CompiledScript compile(Reader script) throws ScriptException {
+            return new PooledCompiledScript(this, ((Compilable) delegate).compile(script));
+        }
+    }
+
+    /**
+     * Script compiled by the shared engine that is evaluated in the context of a pooled engine by default
+     */
+    private static class PooledCompiledScript extends CompiledScript {
+
+        private final PooledScriptEngine engine;
+        private final CompiledScript delegate;
+
+        PooledCompiledScript(PooledScriptEngine engine, CompiledScript delegate) {
+            this.engine = engine;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Object eval(ScriptContext context) throws ScriptException {
+            return delegate.eval(context);
+        }
+
+        @Override
+        public ScriptEngine getEngine() {
+            return engine;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2020 Infinite Automation Software. All rights reserved.
+ */
+package com.serotonin.epoll;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A callback for socket channels that provides the buffer the channel is read into, so the content does not have
+ * to be copied out of a shared array.
+ *
+ * @author Terry Packer
+ */
+public interface ByteBufferCallback extends InputStreamCallback {
+    /**
+     * Get the buffer to read into, it must be in write mode with space remaining.
+     */
+    ByteBuffer getInputBuffer();
+
+    /**
+     * Called when content was read into the buffer returned by getInputBuffer().
+     *
+     * @param len
+     *            the number of bytes read, the buffer's position was advanced past them
+     */
+    void input(int len);
+
+    @Override
+    default void input(byte[] buf, int len) {
+        getInputBuffer().put(buf, 0, len);
+        input(len);
+    }
+}
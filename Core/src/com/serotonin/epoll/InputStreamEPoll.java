@@ -5,153 +5,339 @@ package com.serotonin.epoll;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.serotonin.ShouldNeverHappenException;
+
 /**
- * Poll input streams for input in a single Thread
+ * Wait for input from input streams and socket channels and call their callbacks in a single Thread.
  *
+ * Socket channels are registered with a selector that the thread blocks on. Input streams, such as the non-blocking
+ * serial port streams that return -1 when they have nothing to read, are checked with available() and only read
+ * when it reports input. While any are registered the selector wait is limited to the poll period, so an idle
+ * stream is checked every 20 ms and a busy one again at once.
  */
 public class InputStreamEPoll implements Runnable {
     static final Log LOG = LogFactory.getLog(InputStreamEPoll.class);
 
+    private static final long STREAM_POLL_PERIOD_MS = 20;
+
     private final List<InputStreamWrapper> wrappers = new CopyOnWriteArrayList<InputStreamWrapper>();
+    private final List<ChannelWrapper> channels = new CopyOnWriteArrayList<ChannelWrapper>();
+    private final Queue<ChannelWrapper> registrations = new ConcurrentLinkedQueue<>();
+    private final Selector selector;
     private volatile boolean terminated;
 
     // Reusable buffer
     private final byte[] byteBuffer = new byte[1028];
-    private int readcount;
+    private final ByteBuffer channelBuffer = ByteBuffer.wrap(byteBuffer);
+
+    public InputStreamEPoll() {
+        try {
+            selector = Selector.open();
+        }
+        catch (IOException e) {
+            throw new ShouldNeverHappenException(e);
+        }
+    }
 
     public void add(InputStream inputStream, InputStreamCallback callback) {
         if (callback == null)
             callback = new NullCallback();
 
-        synchronized (this) {
-            wrappers.add(new InputStreamWrapper(inputStream, callback));
-            // Ensure that the thread is notified since it may be waiting.
-            notify();
-        }
+        wrappers.add(new InputStreamWrapper(inputStream, callback));
+        // Stop waiting on the selector without a timeout
+        selector.wakeup();
+    }
+
+    /**
+     * Add a socket channel to be read when it has input, the channel is made non-blocking. If the callback is a
+     * {@link ByteBufferCallback} the channel is read into its buffer.
+     *
+     * @param channel
+     * @param callback
+     */
+    public void add(SocketChannel channel, InputStreamCallback callback) {
+        if (callback == null)
+            callback = new NullCallback();
+
+        ChannelWrapper wrapper = new ChannelWrapper(channel, callback);
+        channels.add(wrapper);
+        registrations.add(wrapper);
+        selector.wakeup();
     }
 
     public void terminate() {
         terminated = true;
-        synchronized (this) {
-            notify();
-        }
+        selector.wakeup();
     }
 
     public InputStreamCallback getCallback(InputStream inputStream) {
-        synchronized (this) {
-            for (InputStreamWrapper wrapper : wrappers) {
-                if (wrapper.inputStream == inputStream)
-                    return wrapper.callback;
-            }
+        for (InputStreamWrapper wrapper : wrappers) {
+            if (wrapper.inputStream == inputStream)
+                return wrapper.callback;
+        }
+        return null;
+    }
+
+    public InputStreamCallback getCallback(SocketChannel channel) {
+        for (ChannelWrapper wrapper : channels) {
+            if (wrapper.channel == channel)
+                return wrapper.callback;
         }
         return null;
     }
 
+    /**
+     * Stop calling the callback of an input stream, the stream is not closed.
+     *
+     * @param inputStream
+     * @return
+     */
     public boolean remove(InputStream inputStream) {
-        synchronized (this) {
-            for (int i = 0; i < wrappers.size(); i++) {
-                InputStreamWrapper wrapper = wrappers.get(i);
-                if (wrapper.inputStream == inputStream) {
-                    wrappers.remove(i);
-                    return true;
-                }
+        for (InputStreamWrapper wrapper : wrappers) {
+            if (wrapper.inputStream == inputStream) {
+                remove(wrapper);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stop reading a socket channel, the channel is not closed. Once this returns the selector thread has finished any
+     * read from the channel and will not read it again, so the buffer of a {@link ByteBufferCallback} can be reused.
+     *
+     * @param channel
+     * @return
+     */
+    public boolean remove(SocketChannel channel) {
+        for (ChannelWrapper wrapper : channels) {
+            if (wrapper.channel == channel) {
+                remove(wrapper);
+                return true;
             }
         }
         return false;
     }
 
     public int getInputStreamCount() {
-        return wrappers.size();
+        return wrappers.size() + channels.size();
     }
 
     public void run() {
+        boolean activity = false;
         while (!terminated) {
-            if (wrappers.isEmpty()) {
-                // If there is nothing to do, wait until there is.
-                synchronized (this) {
-                    try {
-                        // Just check again to be sure.
-                        if (wrappers.isEmpty()) {
-                            wait();
-
-                            if (terminated)
-                                break;
-                        }
-                    }
-                    catch (InterruptedException e) {
-                        // no op
-                    }
-                }
+            try {
+                if (activity)
+                    selector.selectNow();
+                else if (wrappers.isEmpty())
+                    selector.select();
+                else
+                    selector.select(STREAM_POLL_PERIOD_MS);
+            }
+            catch (IOException e) {
+                LOG.error("Selector failed", e);
+                break;
+            }
+
+            if (terminated)
+                break;
+
+            registerChannels();
+
+            for (SelectionKey key : selector.selectedKeys()) {
+                if (key.isValid() && key.isReadable())
+                    readChannel(key);
             }
+            selector.selectedKeys().clear();
+
+            activity = false;
+            for (InputStreamWrapper wrapper : wrappers)
+                activity |= readStream(wrapper);
+        }
+
+        // Notify any remaining input streams of termination.
+        for (InputStreamWrapper wrapper : wrappers) {
+            remove(wrapper);
+            terminated(wrapper.callback);
+        }
+        for (ChannelWrapper channel : channels) {
+            remove(channel);
+            terminated(channel.callback);
+        }
+        registrations.clear();
 
-            boolean activity = false;
-            for (InputStreamWrapper wrapper : wrappers) {
-                // Check the input streams
+        try {
+            selector.close();
+        }
+        catch (IOException e) {
+            LOG.warn("Failed to close selector", e);
+        }
+    }
+
+    private void registerChannels() {
+        ChannelWrapper wrapper;
+        while ((wrapper = registrations.poll()) != null) {
+            if (wrapper.removed)
+                continue;
+            try {
+                wrapper.channel.configureBlocking(false);
+                SelectionKey key = wrapper.channel.register(selector, SelectionKey.OP_READ, wrapper);
+                // Removed while registering
+                if (wrapper.removed)
+                    key.cancel();
+            }
+            catch (IOException e) {
                 try {
-                    try {
-                        if (wrapper.inputStream.available() > 0) {
-                            readcount = wrapper.inputStream.read(byteBuffer);
-                            wrapper.callback.input(byteBuffer, readcount);
-                            activity = true;
-                        }
-                    }
-                    catch (IOException e) {
-                        activity = true;
-                        if (StringUtils.equals(e.getMessage(), "Stream closed.")) {
-                            wrappers.remove(wrapper);
-                            wrapper.callback.closed();
-                        }
-                        else
-                            wrapper.callback.ioException(e);
-                    }
+                    wrapper.callback.ioException(e);
                 }
-                catch (Exception e) {
-                    // Perhaps a problem in the callback.
-                    LOG.error("Input stream callback exception", e);
+                catch (Exception e2) {
+                    LOG.error("Input stream callback exception", e2);
                 }
             }
+        }
+    }
+
+    private void readChannel(SelectionKey key) {
+        ChannelWrapper wrapper = (ChannelWrapper) key.attachment();
+        // Held while reading so that removing the channel waits for the read to finish
+        synchronized (wrapper) {
+            if (!wrapper.removed)
+                readChannel(wrapper);
+        }
+    }
 
-            if (!activity) {
-                // If there was no activity, let's just wait for a bit.
-                synchronized (this) {
-                    try {
-                        wait(20);
-                    }
-                    catch (InterruptedException e) {
-                        // Ignore
-                    }
+    private void readChannel(ChannelWrapper wrapper) {
+        try {
+            try {
+                int readcount;
+                if (wrapper.callback instanceof ByteBufferCallback)
+                    readcount = wrapper.channel.read(((ByteBufferCallback) wrapper.callback).getInputBuffer());
+                else {
+                    channelBuffer.clear();
+                    readcount = wrapper.channel.read(channelBuffer);
+                }
+
+                if (readcount < 0) {
+                    remove(wrapper);
+                    wrapper.callback.closed();
+                }
+                else if (readcount > 0) {
+                    if (wrapper.callback instanceof ByteBufferCallback)
+                        ((ByteBufferCallback) wrapper.callback).input(readcount);
+                    else
+                        wrapper.callback.input(byteBuffer, readcount);
+                }
+            }
+            catch (IOException e) {
+                if (!wrapper.channel.isOpen()) {
+                    remove(wrapper);
+                    wrapper.callback.closed();
                 }
+                else
+                    wrapper.callback.ioException(e);
             }
         }
+        catch (Exception e) {
+            // Perhaps a problem in the callback.
+            LOG.error("Input stream callback exception", e);
+        }
+    }
 
-        // Notify any remaining input streams of termination.
-        for (InputStreamWrapper wrapper : wrappers) {
+    /**
+     * Read an input stream if it has input. A read that returns -1 is not the end of the stream, the serial
+     * streams return it when they are empty.
+     *
+     * @return true if there was input or an exception
+     */
+    private boolean readStream(InputStreamWrapper wrapper) {
+        if (wrapper.removed)
+            return false;
+        try {
             try {
-                wrapper.callback.terminated();
+                if (wrapper.inputStream.available() > 0) {
+                    int readcount = wrapper.inputStream.read(byteBuffer);
+                    if (readcount > 0)
+                        wrapper.callback.input(byteBuffer, readcount);
+                    return true;
+                }
             }
-            catch (Exception e) {
-                LOG.error("Input stream callback exception", e);
+            catch (IOException e) {
+                if (StringUtils.equals(e.getMessage(), "Stream closed.")) {
+                    remove(wrapper);
+                    wrapper.callback.closed();
+                }
+                else
+                    wrapper.callback.ioException(e);
+                return true;
             }
         }
+        catch (Exception e) {
+            // Perhaps a problem in the callback.
+            LOG.error("Input stream callback exception", e);
+            return true;
+        }
+        return false;
+    }
+
+    private void remove(InputStreamWrapper wrapper) {
+        wrapper.removed = true;
+        wrappers.remove(wrapper);
+    }
+
+    private void remove(ChannelWrapper wrapper) {
+        synchronized (wrapper) {
+            wrapper.removed = true;
+            channels.remove(wrapper);
+            SelectionKey key = wrapper.channel.keyFor(selector);
+            if (key != null)
+                key.cancel();
+        }
     }
 
-    private class InputStreamWrapper {
+    private void terminated(InputStreamCallback callback) {
+        try {
+            callback.terminated();
+        }
+        catch (Exception e) {
+            LOG.error("Input stream callback exception", e);
+        }
+    }
+
+    private static class InputStreamWrapper {
         final InputStream inputStream;
         final InputStreamCallback callback;
+        volatile boolean removed;
 
-        public InputStreamWrapper(InputStream inputStream, InputStreamCallback callback) {
+        InputStreamWrapper(InputStream inputStream, InputStreamCallback callback) {
             this.inputStream = inputStream;
             this.callback = callback;
         }
     }
 
+    private static class ChannelWrapper {
+        final SocketChannel channel;
+        final InputStreamCallback callback;
+        volatile boolean removed;
+
+        ChannelWrapper(SocketChannel channel, InputStreamCallback callback) {
+            this.channel = channel;
+            this.callback = callback;
+        }
+    }
+
     static class NullCallback implements InputStreamCallback {
         public void input(byte[] buf, int len) {
             if (LOG.isDebugEnabled())
@@ -5,7 +5,11 @@ import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -17,6 +21,9 @@ import com.serotonin.timer.Task;
 /**
  * Asynchronous process execution. An arbitrary number of processes can be added to an instance of this class. The
  * associated callback instance will be notified of process events when they occur.
+ *
+ * The output of each process is read by blocking reader threads that hand it to the thread running this task, which
+ * calls the callbacks as it arrives and handles timeouts and cancellations.
  * 
  * @author Matthew Lohbihler
  */
@@ -31,15 +38,17 @@ public class ProcessEPoll extends Task {
 	static final Log LOG = LogFactory.getLog(ProcessEPoll.class);
     private static final Charset UTF8_CS = Charset.forName("UTF-8");
 
+    // How long to wait for the output of an exited process to be read, a process that leaves a child running
+    // with its streams may not close them
+    private static final long STREAM_CLOSE_WAIT = 1000;
+
     private final List<ProcessWrapper> processes = new CopyOnWriteArrayList<ProcessWrapper>();
+    // Input, exits and wakeups from the reader threads and other threads to be handled in the epoll thread
+    private final BlockingQueue<Runnable> events = new LinkedBlockingQueue<>();
     private long nextId = 0;
     private volatile boolean terminated;
     private Thread thread;
 
-    // Reusable buffers
-    private final byte[] byteBuffer = new byte[1028];
-    private final StringBuilder stringBuffer = new StringBuilder();
-
     public long add(ProcessBuilder processBuilder, long timeout, ProcessCallback callback) throws IOException {
         checkReentrance();
 
@@ -47,12 +56,15 @@ public class ProcessEPoll extends Task {
             callback = new NullCallback();
 
         long id = -1;
+        ProcessWrapper pw;
         synchronized (this) {
             id = nextId++;
-            processes.add(new ProcessWrapper(id, processBuilder, timeout, callback));
-            // Ensure that the thread is notified since it may be waiting.
-            notify();
+            pw = new ProcessWrapper(id, processBuilder, timeout, callback);
+            processes.add(pw);
         }
+        pw.startReaders();
+        // Wake up the thread to schedule the timeout
+        events.add(() -> {});
 
         return id;
     }
@@ -76,20 +88,16 @@ public class ProcessEPoll extends Task {
     public void terminate() {
         checkReentrance();
 
-        synchronized (this) {
-            terminated = true;
-            notify();
-        }
+        terminated = true;
+        events.add(() -> {});
     }
 
     public ProcessCallback getCallback(long id) {
         checkReentrance();
 
-        synchronized (this) {
-            for (ProcessWrapper pw : processes) {
-                if (pw.id == id)
-                    return pw.callback;
-            }
+        for (ProcessWrapper pw : processes) {
+            if (pw.id == id)
+                return pw.callback;
         }
         return null;
     }
@@ -102,6 +110,7 @@ public class ProcessEPoll extends Task {
                 if (pw.id == id) {
                     if (!pw.cancelled) {
                         pw.cancelled = true;
+                        events.add(() -> {});
                         return true;
                     }
                     break;
@@ -120,12 +129,10 @@ public class ProcessEPoll extends Task {
         checkReentrance();
 
         ProcessWrapper processWrapper = null;
-        synchronized (this) {
-            for (ProcessWrapper pw : processes) {
-                if (pw.id == id) {
-                    processWrapper = pw;
-                    break;
-                }
+        for (ProcessWrapper pw : processes) {
+            if (pw.id == id) {
+                processWrapper = pw;
+                break;
             }
         }
 
@@ -138,11 +145,7 @@ public class ProcessEPoll extends Task {
     public void waitForAll() {
         checkReentrance();
 
-        List<ProcessWrapper> pws = new ArrayList<ProcessEPoll.ProcessWrapper>();
-        synchronized (this) {
-            pws.addAll(processes);
-        }
-
+        List<ProcessWrapper> pws = new ArrayList<ProcessEPoll.ProcessWrapper>(processes);
         for (ProcessWrapper pw : pws)
             pw.waitFor(0);
     }
@@ -172,118 +175,52 @@ public class ProcessEPoll extends Task {
         }
     }
 
+    /**
+     * Handle the events from the reader threads as they arrive, waking up for the next timeout
+     */
     private void runImpl() {
-
         while (!terminated) {
-            if (processes.isEmpty()) {
-                // If there is nothing to do, wait until there is.
-                synchronized (this) {
-                    try {
-                        // Just check again to be sure.
-                        if (processes.isEmpty() && !terminated) {
-                            wait();
-
-                            if (terminated)
-                                break;
-                        }
-                    }
-                    catch (InterruptedException e) {
-                        // no op
-                    }
-                }
-
-            }
-
             long now = System.currentTimeMillis();
-            boolean activity = false;
+            long nextTimeout = 0;
             for (ProcessWrapper pw : processes) {
-                // Check the input streams
-                try {
+                if (pw.cancelled || (pw.timeout > 0 && pw.timeout <= now)) {
+                    pw.process.destroy();
                     try {
-                        String s = readStream(pw.process.getInputStream());
-                        if (s != null) {
-                            try {
-                                pw.callback.input(s);
-                            }
-                            catch (Exception e) {
-                                LOG.warn("Callback exception", e);
-                            }
-                            activity = true;
-                        }
-
-                        s = readStream(pw.process.getErrorStream());
-                        if (s != null) {
-                            try {
-                                pw.callback.error(s);
-                            }
-                            catch (Exception e) {
-                                LOG.warn("Callback exception", e);
-                            }
-                            activity = true;
-                        }
+                        if (pw.cancelled)
+                            pw.callback.cancelled();
+                        else
+                            pw.callback.timeout();
                     }
                     catch (Exception e) {
-                        pw.process.destroy();
-                        try {
-                            pw.callback.exception(e);
-                        }
-                        catch (Exception e2) {
-                            LOG.warn("Callback exception", e2);
-                        }
-                        done(pw);
-                        activity = true;
-                    }
-
-                    // Check for finished processes.
-                    try {
-                        int exitValue = pw.process.exitValue();
-
-                        // If the above call did not throw an exception then the
-                        // process is done.
-                        try {
-                            pw.callback.finished(exitValue);
-                        }
-                        catch (Exception e) {
-                            LOG.warn("Callback exception", e);
-                        }
-                        done(pw);
-                        activity = true;
+                        LOG.warn("Callback exception", e);
                     }
-                    catch (IllegalThreadStateException e) {
-                        // Not done. Check for cancellation or timeout.
-                        if (pw.cancelled || (pw.timeout > 0 && pw.timeout < now)) {
-                            pw.process.destroy();
-                            try {
-                                if (pw.cancelled)
-                                    pw.callback.cancelled();
-                                else
-                                    pw.callback.timeout();
-                            }
-                            catch (Exception e2) {
-                                LOG.warn("Callback exception", e2);
-                            }
-                            done(pw);
-                            activity = true;
-                        }
-                    }
-                }
-                catch (Exception e) {
-                    // Perhaps a problem in the callback.
-                    LOG.error("Process callback exception", e);
+                    done(pw);
                 }
+                else if (pw.timeout > 0 && (nextTimeout == 0 || pw.timeout < nextTimeout))
+                    nextTimeout = pw.timeout;
             }
 
-            if (!activity) {
-                // If there was no activity, let's just wait for a bit.
-                synchronized (this) {
+            try {
+                Runnable event;
+                if (nextTimeout == 0)
+                    event = events.take();
+                else
+                    event = events.poll(nextTimeout - now, TimeUnit.MILLISECONDS);
+
+                while (event != null && !terminated) {
                     try {
-                        wait(20);
+                        event.run();
                     }
-                    catch (InterruptedException e) {
-                        // Ignore
+                    catch (Exception e) {
+                        // Perhaps a problem in the callback.
+                        LOG.error("Process callback exception", e);
                     }
+                    event = events.poll();
                 }
             }
+            catch (InterruptedException e) {
+                // no op
+            }
         }
 
         // Destroy any remaining processes
@@ -297,6 +234,7 @@ public class ProcessEPoll extends Task {
             }
             done(pw);
         }
+        events.clear();
     }
 
     private void done(ProcessWrapper pw) {
@@ -306,22 +244,20 @@ public class ProcessEPoll extends Task {
         pw.done();
     }
 
-    private String readStream(InputStream in) throws IOException {
-        int avail = in.available();
-        if (avail == 0)
-            return null;
-
-        while (true) {
-            int readCount = in.read(byteBuffer);
-            stringBuffer.append(new String(byteBuffer, 0, readCount, UTF8_CS));
-
-            if (in.available() == 0)
-                break;
-        }
-
-        String result = stringBuffer.toString();
-        stringBuffer.delete(0, stringBuffer.length());
-        return result;
+    /**
+     * Runs in the epoll thread, ignored if the process was already finished
+     */
+    private void dispatch(ProcessWrapper pw, Consumer<ProcessCallback> event) {
+        events.add(() -> {
+            if (!pw.done) {
+                try {
+                    event.accept(pw.callback);
+                }
+                catch (Exception e) {
+                    LOG.warn("Callback exception", e);
+                }
+            }
+        });
     }
 
     private class ProcessWrapper {
@@ -343,6 +279,66 @@ public class ProcessEPoll extends Task {
             this.callback = callback;
         }
 
+        /**
+         * Read the error stream in one thread and the input stream in another, the input stream's thread then
+         * waits for the process to exit
+         */
+        void startReaders() {
+            Thread errorReader = startThread("error", () -> {
+                readStream(process.getErrorStream(), s -> dispatch(this, c -> c.error(s)));
+            });
+
+            startThread("input", () -> {
+                if (!readStream(process.getInputStream(), s -> dispatch(this, c -> c.input(s))))
+                    return;
+
+                try {
+                    int exitValue = process.waitFor();
+                    errorReader.join(STREAM_CLOSE_WAIT);
+                    dispatch(this, c -> {
+                        c.finished(exitValue);
+                        ProcessEPoll.this.done(this);
+                    });
+                }
+                catch (InterruptedException e) {
+                    // no op
+                }
+            });
+        }
+
+        private Thread startThread(String stream, Runnable reader) {
+            Thread thread = new Thread(reader, "ProcessEPoll " + id + " " + stream + " reader");
+            thread.setDaemon(true);
+            thread.start();
+            return thread;
+        }
+
+        /**
+         * Read the stream until it closes
+         * @return false if it failed
+         */
+        private boolean readStream(InputStream in, Consumer<String> consumer) {
+            byte[] buffer = new byte[1028];
+            try {
+                int readCount;
+                while ((readCount = in.read(buffer)) >= 0) {
+                    if (readCount > 0)
+                        consumer.accept(new String(buffer, 0, readCount, UTF8_CS));
+                }
+                return true;
+            }
+            catch (IOException e) {
+                if (!done) {
+                    dispatch(this, c -> {
+                        process.destroy();
+                        c.exception(e);
+                        ProcessEPoll.this.done(this);
+                    });
+                }
+                return false;
+            }
+        }
+
         void waitFor(long waitTime) {
             synchronized (this) {
                 if (done)
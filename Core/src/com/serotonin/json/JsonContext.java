@@ -116,6 +116,12 @@ public class JsonContext {
      */
     private int maximumDocumentLength = -1;
 
+    /**
+     * Determines whether the properties of generated converters are accessed through generated accessors (true) or
+     * through reflection (false).
+     */
+    private boolean generatedAccessors;
+
     public JsonContext() {
         this(null);
     }
@@ -332,6 +338,10 @@ public class JsonContext {
 
         // Create a converter?
         if (jsonSerializable || jsonEntity || properties != null) {
+            if (generatedAccessors && properties != null) {
+                for (SerializableProperty property : properties)
+                    property.generateAccessors();
+            }
             converter = new JsonPropertyConverter(jsonSerializable, properties);
             classConverters.put(clazz, converter);
             return converter;
@@ -556,6 +566,18 @@ public class JsonContext {
         this.escapeForwardSlash = escapeForwardSlash;
     }
 
+    public boolean isGeneratedAccessors() {
+        return generatedAccessors;
+    }
+
+    /**
+     * Only affects converters that have not been created yet
+     * @param generatedAccessors
+     */
+    public void setGeneratedAccessors(boolean generatedAccessors) {
+        this.generatedAccessors = generatedAccessors;
+    }
+
     public int getMaximumDocumentLength() {
         return maximumDocumentLength;
     }
@@ -79,7 +79,7 @@ public class JsonPropertyConverter extends AbstractClassConverter {
 
                 Object propertyValue;
                 try {
-                    propertyValue = readMethod.invoke(value);
+                    propertyValue = prop.read(value);
                 }
                 catch (Exception e) {
                     throw new JsonException("Error reading '" + prop.getName() + "' from value " + value + " of class "
@@ -173,11 +173,23 @@ public class JsonPropertyConverter extends AbstractClassConverter {
                     if (propClass.isPrimitive() && propValue == null) {
                         if (propClass == Boolean.TYPE)
                             propValue = false;
+                        else if (propClass == Long.TYPE)
+                            propValue = 0L;
+                        else if (propClass == Double.TYPE)
+                            propValue = 0d;
+                        else if (propClass == Float.TYPE)
+                            propValue = 0f;
+                        else if (propClass == Short.TYPE)
+                            propValue = (short) 0;
+                        else if (propClass == Byte.TYPE)
+                            propValue = (byte) 0;
+                        else if (propClass == Character.TYPE)
+                            propValue = (char) 0;
                         else
                             propValue = 0;
                     }
 
-                    prop.getWriteMethod().invoke(obj, propValue);
+                    prop.write(obj, propValue);
                 }
                 catch (Exception e) {
                     throw new JsonException("JsonException writing property '" + prop.getName() + "' of class "
@@ -88,6 +88,98 @@ public class JsonTypeReader {
         }
     }
 
+    /**
+     * Start reading an object one member at a time, follow with calls to nextName() and a read of each value.
+     *
+     * @throws JsonException
+     */
+    public void beginObject() throws JsonException, IOException {
+        validateNextChar('{');
+    }
+
+    /**
+     * Read the name of the next member of an object started with beginObject(). The value must be read or skipped
+     * before the next call.
+     *
+     * @return the name, or null if the end of the object was reached
+     * @throws JsonException
+     */
+    public String nextName() throws JsonException, IOException {
+        discardOptionalComma();
+        if (testNextChar('}', true)) {
+            nextChar(true);
+            return null;
+        }
+        String name = readString(nextElement());
+        validateNextChar(':');
+        return name;
+    }
+
+    /**
+     * Start reading an array one element at a time, follow with calls to hasNextElement() and a read of each
+     * element.
+     *
+     * @throws JsonException
+     */
+    public void beginArray() throws JsonException, IOException {
+        validateNextChar('[');
+    }
+
+    /**
+     * @return true if there is another element in an array started with beginArray(), false if the end of the array
+     *         was reached
+     * @throws JsonException
+     */
+    public boolean hasNextElement() throws JsonException, IOException {
+        discardOptionalComma();
+        if (testNextChar(']', true)) {
+            nextChar(true);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the next value is an object
+     */
+    public boolean isNextObject() throws JsonException, IOException {
+        return testNextChar('{', true);
+    }
+
+    /**
+     * @return true if the next value is an array
+     */
+    public boolean isNextArray() throws JsonException, IOException {
+        return testNextChar('[', true);
+    }
+
+    /**
+     * Read past the next value without creating it
+     *
+     * @throws JsonException
+     */
+    public void skipValue() throws JsonException, IOException {
+        if (isNextObject()) {
+            beginObject();
+            while (nextName() != null)
+                skipValue();
+        }
+        else if (isNextArray()) {
+            beginArray();
+            while (hasNextElement())
+                skipValue();
+        }
+        else
+            nextElement();
+    }
+
+    /**
+     * @return the number of characters read so far
+     */
+    public int getCharacterCount() {
+        return tracker.getCharacterCount();
+    }
+
     private String nextChars(int length) throws JsonException, IOException {
         StringBuilder sb = new StringBuilder();
         while (length-- > 0)
@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2020 Infinite Automation Software. All rights reserved.
+ */
+package com.serotonin.json.util;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Creates accessors for the read and write methods of serializable properties that do not go through
+ * Method.invoke. Public methods of public classes that are visible to this class loader get a class generated
+ * by LambdaMetafactory that calls the method directly, other methods are called through a method handle.
+ *
+ * @author Terry Packer
+ */
+public class PropertyAccessors {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final MethodType READER = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType WRITER = MethodType.methodType(void.class, Object.class, Object.class);
+
+    /**
+     * Create a function that calls the read method
+     * @param method - a getter
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public static Function<Object, Object> reader(Method method) {
+        MethodHandle handle = unreflect(method);
+        if (canGenerate(method)) {
+            try {
+                MethodType instantiated = MethodType.methodType(box(method.getReturnType()), method.getDeclaringClass());
+                CallSite site = LambdaMetafactory.metafactory(LOOKUP, "apply", MethodType.methodType(Function.class),
+                        READER.erase(), handle, instantiated);
+                return (Function<Object, Object>) site.getTarget().invoke();
+            } catch (Throwable e) {
+                // Fall back to the method handle
+            }
+        }
+
+        MethodHandle generic = handle.asType(READER);
+        return obj -> {
+            try {
+                return generic.invokeExact(obj);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        };
+    }
+
+    /**
+     * Create a consumer that calls the write method
+     * @param method - a setter
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public static BiConsumer<Object, Object> writer(Method method) {
+        MethodHandle handle = unreflect(method);
+        if (canGenerate(method)) {
+            try {
+                MethodType instantiated = MethodType.methodType(void.class, method.getDeclaringClass(),
+                        box(method.getParameterTypes()[0]));
+                CallSite site = LambdaMetafactory.metafactory(LOOKUP, "accept", MethodType.methodType(BiConsumer.class),
+                        WRITER.erase(), handle, instantiated);
+                return (BiConsumer<Object, Object>) site.getTarget().invoke();
+            } catch (Throwable e) {
+                // Fall back to the method handle
+            }
+        }
+
+        MethodHandle generic = handle.asType(WRITER);
+        return (obj, value) -> {
+            try {
+                generic.invokeExact(obj, value);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        };
+    }
+
+    private static MethodHandle unreflect(Method method) {
+        try {
+            if (!method.isAccessible())
+                method.setAccessible(true);
+            return LOOKUP.unreflect(method);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Unable to access " + method, e);
+        }
+    }
+
+    /**
+     * The generated class is defined by this class loader and calls the method as this class would, so the
+     * method and every type in its signature must be accessible from here
+     */
+    private static boolean canGenerate(Method method) {
+        if (!Modifier.isPublic(method.getModifiers()) || Modifier.isStatic(method.getModifiers()))
+            return false;
+        if (!isVisible(method.getDeclaringClass()) || !isVisible(method.getReturnType()))
+            return false;
+        for (Class<?> type : method.getParameterTypes()) {
+            if (!isVisible(type))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isVisible(Class<?> type) {
+        while (type.isArray())
+            type = type.getComponentType();
+        if (type.isPrimitive())
+            return true;
+        for (Class<?> c = type; c != null; c = c.getDeclaringClass()) {
+            if (!Modifier.isPublic(c.getModifiers()))
+                return false;
+        }
+        try {
+            return Class.forName(type.getName(), false, PropertyAccessors.class.getClassLoader()) == type;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    private static Class<?> box(Class<?> type) {
+        return MethodType.methodType(type).wrap().returnType();
+    }
+}
@@ -1,6 +1,8 @@
 package com.serotonin.json.util;
 
 import java.lang.reflect.Method;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 /**
  * Describes how any given attribute of an object can be serialized/deserialized to/from JSON.
@@ -15,6 +17,8 @@ public class SerializableProperty {
     private boolean suppressDefaultValue;
     private String[] includeHints;
     private String[] readAliases;
+    private Function<Object, Object> reader;
+    private BiConsumer<Object, Object> writer;
 
     public boolean include(String includeHint) {
         // If no hints were specified, always include.
@@ -43,6 +47,7 @@ public class SerializableProperty {
 
     public void setReadMethod(Method readMethod) {
         this.readMethod = readMethod;
+        this.reader = null;
     }
 
     public Method getWriteMethod() {
@@ -51,6 +56,42 @@ public class SerializableProperty {
 
     public void setWriteMethod(Method writeMethod) {
         this.writeMethod = writeMethod;
+        this.writer = null;
+    }
+
+    /**
+     * Use generated accessors instead of reflection to call the read and write methods
+     */
+    public void generateAccessors() {
+        if (readMethod != null)
+            reader = PropertyAccessors.reader(readMethod);
+        if (writeMethod != null)
+            writer = PropertyAccessors.writer(writeMethod);
+    }
+
+    /**
+     * Read the property using the read method
+     * @param obj
+     * @return
+     * @throws Exception
+     */
+    public Object read(Object obj) throws Exception {
+        if (reader != null)
+            return reader.apply(obj);
+        return readMethod.invoke(obj);
+    }
+
+    /**
+     * Write the property using the write method
+     * @param obj
+     * @param value
+     * @throws Exception
+     */
+    public void write(Object obj, Object value) throws Exception {
+        if (writer != null)
+            writer.accept(obj, value);
+        else
+            writeMethod.invoke(obj, value);
     }
 
     public String getAlias() {
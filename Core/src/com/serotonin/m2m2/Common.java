@@ -83,6 +83,7 @@ import com.serotonin.provider.Providers;
 import com.serotonin.timer.AbstractTimer;
 import com.serotonin.timer.CronTimerTrigger;
 import com.serotonin.timer.OrderedRealTimeTimer;
+import com.serotonin.timer.TimingWheelTimer;
 import com.serotonin.util.properties.MangoProperties;
 
 import freemarker.template.Configuration;
@@ -149,9 +150,12 @@ public class Common {
 
     public static final String APPLICATION_LOGO = "/images/logo.png";
 
-    public static AbstractTimer timer = new OrderedRealTimeTimer();
+    public static AbstractTimer timer = envProps.getBoolean("runtime.realTimeTimer.timingWheel", false) ? new TimingWheelTimer() : new OrderedRealTimeTimer();
     public static final MonitoredValues MONITORED_VALUES = new MonitoredValues();
     public static final JsonContext JSON_CONTEXT = new JsonContext();
+    static {
+        JSON_CONTEXT.setGeneratedAccessors(envProps.getBoolean("json.generatedAccessors", false));
+    }
 
     public static final Pattern COMMA_SPLITTER = Pattern.compile("\\s*,\\s*");
 
@@ -271,7 +275,7 @@ public class Common {
     }
 
     public static final int getDatabaseSchemaVersion() {
-        return 30;
+        return 31;
     }
 
     public static File getLogsDir() {
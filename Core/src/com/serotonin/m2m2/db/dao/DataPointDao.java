@@ -349,6 +349,19 @@ public class DataPointDao extends AbstractVoDao<DataPointVO, DataPointTableDefin
                 + "WHERE ds.dataSourceType=?", new Object[] { dataSourceType }, 0);
     }
 
+    /**
+     * Count the enabled data points of each data source, used to start the largest data sources first
+     * @return map of data source id to point count, data sources without enabled points are not in the map
+     */
+    public Map<Integer, Integer> countEnabledPointsByDataSource() {
+        Map<Integer, Integer> counts = new HashMap<>();
+        ejt.query("SELECT dataSourceId, count(id) FROM dataPoints WHERE enabled=? GROUP BY dataSourceId",
+                new Object[] { boolToChar(true) }, rs -> {
+                    counts.put(rs.getInt(1), rs.getInt(2));
+                });
+        return counts;
+    }
+
     /**
      * Get a summary of a data point
      * @param xid
@@ -770,9 +783,17 @@ public class DataPointDao extends AbstractVoDao<DataPointVO, DataPointTableDefin
 
 
     protected void notifyTagsUpdated(DataPointVO dataPoint) {
+        dataPointTagsDao.dataPointChanged(dataPoint.getId());
         this.eventPublisher.publishEvent(new DataPointTagsUpdatedEvent(this, dataPoint));
     }
 
+    @Override
+    protected void publishEvent(DaoEvent<DataPointVO> event) {
+        //The events are delivered on another thread so the tag index is updated from here
+        dataPointTagsDao.dataPointChanged(event.getVo().getId());
+        super.publishEvent(event);
+    }
+
     @Override
     protected Map<String, Function<Object, Object>> createValueConverterMap() {
         Map<String, Function<Object, Object>> map = new HashMap<>(super.createValueConverterMap());
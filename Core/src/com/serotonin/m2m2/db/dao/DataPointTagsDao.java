@@ -5,6 +5,7 @@
 package com.serotonin.m2m2.db.dao;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -23,6 +24,8 @@ import org.jooq.Name;
 import org.jooq.Record;
 import org.jooq.Record1;
 import org.jooq.Record2;
+import org.jooq.Record3;
+import org.jooq.Record4;
 import org.jooq.Select;
 import org.jooq.SelectConditionStep;
 import org.jooq.SelectJoinStep;
@@ -35,6 +38,7 @@ import org.springframework.stereotype.Repository;
 import com.infiniteautomation.mango.db.query.ConditionSortLimit;
 import com.infiniteautomation.mango.db.query.ConditionSortLimitWithTagKeys;
 import com.infiniteautomation.mango.db.query.RQLToConditionWithTagKeys;
+import com.infiniteautomation.mango.spring.components.DataPointTagIndex;
 import com.infiniteautomation.mango.spring.db.DataPointTableDefinition;
 import com.infiniteautomation.mango.spring.db.DataSourceTableDefinition;
 import com.infiniteautomation.mango.spring.service.PermissionService;
@@ -71,12 +75,15 @@ public class DataPointTagsDao extends BaseDao {
     private final DataPointTableDefinition dataPointTable;
     private final DataSourceTableDefinition dataSourceTable;
     private final PermissionService permissionService;
+    private final DataPointTagIndex tagIndex;
 
     @Autowired
-    private DataPointTagsDao(DataPointTableDefinition dataPointTable, DataSourceTableDefinition dataSourceTable, PermissionService permissionService) {
+    private DataPointTagsDao(DataPointTableDefinition dataPointTable, DataSourceTableDefinition dataSourceTable, PermissionService permissionService,
+            DataPointTagIndex tagIndex) {
         this.dataPointTable = dataPointTable;
         this.dataSourceTable = dataSourceTable;
         this.permissionService = permissionService;
+        this.tagIndex = tagIndex;
     }
 
     /**
@@ -173,6 +180,10 @@ public class DataPointTagsDao extends BaseDao {
 
 
     public Set<String> getTagKeys(User user) {
+        if (tagIndex.isEnabled()) {
+            return loadedTagIndex().getTagKeys(user);
+        }
+
         Table<Record> fromTable = DATA_POINT_TAGS;
 
         SelectJoinStep<Record1<String>> query = this.create.selectDistinct(TAG_KEY)
@@ -195,6 +206,10 @@ public class DataPointTagsDao extends BaseDao {
     }
 
     public Set<String> getTagValuesForKey(String tagKey, User user) {
+        if (tagIndex.isEnabled()) {
+            return loadedTagIndex().getTagValuesForKey(tagKey, Collections.emptyMap(), user);
+        }
+
         Table<Record> fromTable = DATA_POINT_TAGS;
 
         SelectJoinStep<Record1<String>> query = this.create.selectDistinct(TAG_VALUE)
@@ -219,6 +234,9 @@ public class DataPointTagsDao extends BaseDao {
         if (restrictions.isEmpty()) {
             return getTagValuesForKey(tagKey, user);
         }
+        if (tagIndex.isEnabled()) {
+            return loadedTagIndex().getTagValuesForKey(tagKey, restrictions, user);
+        }
 
         Set<String> keys = new HashSet<>();
         keys.addAll(restrictions.keySet());
@@ -292,6 +310,94 @@ public class DataPointTagsDao extends BaseDao {
         }
     }
 
+    private DataPointTagIndex loadedTagIndex() {
+        tagIndex.ensureLoaded(this::loadTagIndex);
+        return tagIndex;
+    }
+
+    /**
+     * Reload a data point in the tag index once the current transaction commits, after it was saved, deleted or
+     * its tags changed
+     *
+     * @param dataPointId
+     */
+    public void dataPointChanged(int dataPointId) {
+        tagIndex.reloadAfterCommit(loader -> {
+            loader.removeDataPoint(dataPointId);
+            Select<Record4<Integer, Integer, Integer, Integer>> dataPoint = this.create.select(dataPointTable.getIdAlias(),
+                    dataPointTable.<Integer>getAlias("dataSourceId"),
+                    DataPointTableDefinition.READ_PERMISSION_ALIAS, DataPointTableDefinition.SET_PERMISSION_ALIAS)
+                    .from(dataPointTable.getTableAsAlias())
+                    .where(dataPointTable.getIdAlias().eq(dataPointId));
+            Record4<Integer, Integer, Integer, Integer> r = dataPoint.fetchOne();
+            if (r == null)
+                return;
+            loader.dataPoint(r.value1(), r.value2(), r.value3(), r.value4());
+
+            Select<Record3<Integer, String, String>> tags = this.create.select(DATA_POINT_ID, TAG_KEY, TAG_VALUE)
+                    .from(DATA_POINT_TAGS)
+                    .where(DATA_POINT_ID.eq(dataPointId));
+            try (Stream<Record3<Integer, String, String>> stream = tags.stream()) {
+                stream.forEach(t -> loader.tag(t.value1(), t.value2(), t.value3()));
+            }
+        });
+    }
+
+    /**
+     * Reload a data source in the tag index once the current transaction commits, its points are removed if it was
+     * deleted
+     *
+     * @param dataSourceId
+     */
+    public void dataSourceChanged(int dataSourceId) {
+        tagIndex.reloadAfterCommit(loader -> {
+            Select<Record3<Integer, Integer, Integer>> dataSource = this.create.select(dataSourceTable.getIdAlias(),
+                    DataSourceTableDefinition.READ_PERMISSION_ALIAS, DataSourceTableDefinition.EDIT_PERMISSION_ALIAS)
+                    .from(dataSourceTable.getTableAsAlias())
+                    .where(dataSourceTable.getIdAlias().eq(dataSourceId));
+            Record3<Integer, Integer, Integer> r = dataSource.fetchOne();
+            if (r == null)
+                loader.removeDataSource(dataSourceId);
+            else
+                loader.dataSource(r.value1(), r.value2(), r.value3());
+        });
+    }
+
+    /**
+     * Drop the permissions held by the tag index once the current transaction commits, after roles changed
+     */
+    public void permissionsChanged() {
+        tagIndex.permissionsChanged();
+    }
+
+    /**
+     * Fill the tag index with the data sources, data points and tags
+     *
+     * @param loader
+     */
+    private void loadTagIndex(DataPointTagIndex.Loader loader) {
+        Select<Record3<Integer, Integer, Integer>> dataSources = this.create.select(dataSourceTable.getIdAlias(),
+                DataSourceTableDefinition.READ_PERMISSION_ALIAS, DataSourceTableDefinition.EDIT_PERMISSION_ALIAS)
+                .from(dataSourceTable.getTableAsAlias());
+        try (Stream<Record3<Integer, Integer, Integer>> stream = dataSources.stream()) {
+            stream.forEach(r -> loader.dataSource(r.value1(), r.value2(), r.value3()));
+        }
+
+        Select<Record4<Integer, Integer, Integer, Integer>> dataPoints = this.create.select(dataPointTable.getIdAlias(),
+                dataPointTable.<Integer>getAlias("dataSourceId"),
+                DataPointTableDefinition.READ_PERMISSION_ALIAS, DataPointTableDefinition.SET_PERMISSION_ALIAS)
+                .from(dataPointTable.getTableAsAlias());
+        try (Stream<Record4<Integer, Integer, Integer, Integer>> stream = dataPoints.stream()) {
+            stream.forEach(r -> loader.dataPoint(r.value1(), r.value2(), r.value3(), r.value4()));
+        }
+
+        Select<Record3<Integer, String, String>> tags = this.create.select(DATA_POINT_ID, TAG_KEY, TAG_VALUE)
+                .from(DATA_POINT_TAGS);
+        try (Stream<Record3<Integer, String, String>> stream = tags.stream()) {
+            stream.forEach(r -> loader.tag(r.value1(), r.value2(), r.value3()));
+        }
+    }
+
     /**
      * This method does not filter the tags based on the data point permissions. It should only be used
      * when joining onto the data points table (the filtering happens there post-join).
@@ -39,6 +39,7 @@ import com.infiniteautomation.mango.spring.MangoRuntimeContextConfiguration;
 import com.infiniteautomation.mango.spring.db.DataSourceTableDefinition;
 import com.infiniteautomation.mango.spring.db.EventHandlerTableDefinition;
 import com.infiniteautomation.mango.spring.db.RoleTableDefinition;
+import com.infiniteautomation.mango.spring.events.DaoEvent;
 import com.infiniteautomation.mango.spring.events.DaoEventType;
 import com.infiniteautomation.mango.spring.service.PermissionService;
 import com.infiniteautomation.mango.util.LazyInitSupplier;
@@ -147,6 +148,13 @@ public class DataSourceDao extends AbstractVoDao<DataSourceVO, DataSourceTableDe
         return false;
     }
 
+    @Override
+    protected void publishEvent(DaoEvent<DataSourceVO> event) {
+        //The events are delivered on another thread so the tag index is updated from here
+        DataPointTagsDao.getInstance().dataSourceChanged(event.getVo().getId());
+        super.publishEvent(event);
+    }
+
     private class DataSourceDeletionResult {
         private List<DataPointVO> points;
         private Integer deleted;
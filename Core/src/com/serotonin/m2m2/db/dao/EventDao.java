@@ -51,8 +51,10 @@ public class EventDao extends BaseDao {
         return new EventDao();
     });
 
-    private EventDao(){
+    private volatile EventJournal journal;
 
+    private EventDao(){
+        journal = Common.envProps.getBoolean("db.eventJournal.enabled", false) ? new EventJournal(this) : null;
     }
 
     public static EventDao getInstance() {
@@ -89,6 +91,39 @@ public class EventDao extends BaseDao {
         }
     }
 
+    /**
+     * Save the event and return once it is committed, for callers that read the row back or need it to be written
+     * before continuing. Anything journaled before the event is written too.
+     *
+     * @param event
+     */
+    public void saveEventAndWait(EventInstance event) {
+        saveEvent(event);
+        flush();
+    }
+
+    /**
+     * Write the events that are waiting in the journal
+     */
+    public void flush() {
+        if (journal != null)
+            journal.flush();
+    }
+
+    /**
+     * Replace the journal, null to write events directly. For tests.
+     */
+    void setJournal(EventJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * @return the number of inserts and updates waiting in the journal
+     */
+    public int getJournalSize() {
+        return journal == null ? 0 : journal.size();
+    }
+
     private static final String EVENT_INSERT = //
             "insert into events (typeName, subtypeName, typeRef1, typeRef2, activeTs, rtnApplicable, rtnTs, rtnCause, " //
             + "  alarmLevel, message, ackTs) " //
@@ -97,6 +132,11 @@ public class EventDao extends BaseDao {
             Types.BIGINT, Types.CHAR, Types.BIGINT, Types.INTEGER, Types.INTEGER, Types.VARCHAR, Types.BIGINT };
 
     private void insertEvent(EventInstance event) {
+        if (journal != null) {
+            journal.insert(event);
+            return;
+        }
+
         EventType type = event.getEventType();
 
         Object[] args = new Object[11];
@@ -119,6 +159,10 @@ public class EventDao extends BaseDao {
 
     private void updateEvent(EventInstance event) {
         if (event.isRtnApplicable()) {
+            if (journal != null) {
+                journal.returnToNormal(event.getId(), event.getRtnTimestamp(), event.getRtnCause().value());
+                return;
+            }
             ejt.update(EVENT_UPDATE, new Object[] { event.getRtnTimestamp(), event.getRtnCause().value(), event.getId() });
         }
     }
@@ -127,6 +171,11 @@ public class EventDao extends BaseDao {
     public void returnEventsToNormal(List<Integer> eventIds, long timestamp, ReturnCause cause){
         if(eventIds.size() == 0)
             throw new ShouldNeverHappenException("Not enough Ids!");
+        if (journal != null) {
+            for (Integer eventId : eventIds)
+                journal.returnToNormal(eventId, timestamp, cause.value());
+            return;
+        }
         StringBuilder inClause = new StringBuilder();
         inClause.append("(");
         final String comma = ",";
@@ -143,6 +192,7 @@ public class EventDao extends BaseDao {
     private static final String EVENT_ACK = "update events set ackTs=?, ackUserId=?, alternateAckSource=? where id=? and ackTs is null";
 
     public boolean ackEvent(int eventId, long time, int userId, TranslatableMessage alternateAckSource) {
+        awaitWritten(eventId);
         // Ack the event
         int count = ejt.update(EVENT_ACK,
                 new Object[] { time, userId == 0 ? null : userId, writeTranslatableMessage(alternateAckSource), eventId },
@@ -159,6 +209,7 @@ public class EventDao extends BaseDao {
             + "  left join users u on e.ackUserId=u.id ";
 
     public List<EventInstance> getActiveEvents() {
+        flush();
         List<EventInstance> results = query(BASIC_EVENT_SELECT + "where e.rtnApplicable=? and e.rtnTs is null",
                 new Object[] { boolToChar(true) }, new EventInstanceRowMapper());
         attachRelationalInfo(results);
@@ -166,14 +217,27 @@ public class EventDao extends BaseDao {
     }
 
     public EventInstance get(int eventId){
+        awaitWritten(eventId);
         return queryForObject(BASIC_EVENT_SELECT + " where e.id = ?", new Object[]{ eventId }, new EventInstanceRowMapper(), null);
     }
 
     private EventInstance getEventInstance(int eventId) {
+        awaitWritten(eventId);
         return queryForObject(BASIC_EVENT_SELECT + "where e.id=?", new Object[] { eventId },
                 new EventInstanceRowMapper());
     }
 
+    /**
+     * Wait for the insert of an event to be written if it is in the journal, for readers of the events table that
+     * look up an event by its id
+     *
+     * @param eventId
+     */
+    public void awaitWritten(int eventId) {
+        if (journal != null)
+            journal.awaitWritten(eventId);
+    }
+
     public static class EventInstanceRowMapper implements RowMapper<EventInstance> {
         @Override
         public EventInstance mapRow(ResultSet rs, int rowNum) throws SQLException {
@@ -267,6 +331,8 @@ public class EventDao extends BaseDao {
      * @return
      */
     public int purgeAllEvents(){
+        // Journaled events must not be inserted after the purge
+        flush();
         final ExtendedJdbcTemplate ejt2 = ejt;
         int count = getTransactionTemplate().execute(new TransactionCallback<Integer>() {
             @Override
@@ -286,6 +352,8 @@ public class EventDao extends BaseDao {
      */
     public int purgeEventsBefore(final long time, final AlarmLevels alarmLevel) {
         // Find a list of event ids with no remaining acknowledgments pending.
+        // Journaled events must not be inserted after the purge
+        flush();
         final ExtendedJdbcTemplate ejt2 = ejt;
         int count = getTransactionTemplate().execute(new TransactionCallback<Integer>() {
             @Override
@@ -313,6 +381,8 @@ public class EventDao extends BaseDao {
      */
     public int purgeEventsBefore(final long time, final String typeName) {
         // Find a list of event ids with no remaining acknowledgments pending.
+        // Journaled events must not be inserted after the purge
+        flush();
         final ExtendedJdbcTemplate ejt2 = ejt;
         int count = getTransactionTemplate().execute(new TransactionCallback<Integer>() {
             @Override
@@ -335,6 +405,8 @@ public class EventDao extends BaseDao {
 
     public int purgeEventsBefore(final long time) {
         // Find a list of event ids with no remaining acknowledgments pending.
+        // Journaled events must not be inserted after the purge
+        flush();
         final ExtendedJdbcTemplate ejt2 = ejt;
         int count = getTransactionTemplate().execute(new TransactionCallback<Integer>() {
             @Override
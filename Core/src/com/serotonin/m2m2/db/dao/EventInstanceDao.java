@@ -15,10 +15,13 @@ import java.util.function.Function;
 import org.jooq.Condition;
 import org.jooq.Field;
 import org.jooq.Record;
+import org.jooq.Record1;
+import org.jooq.Select;
 import org.jooq.SelectJoinStep;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
 
@@ -31,6 +34,7 @@ import com.infiniteautomation.mango.spring.db.UserCommentTableDefinition;
 import com.infiniteautomation.mango.spring.db.UserTableDefinition;
 import com.infiniteautomation.mango.util.LazyInitSupplier;
 import com.serotonin.ShouldNeverHappenException;
+import com.serotonin.db.MappedRowCallback;
 import com.serotonin.m2m2.Common;
 import com.serotonin.m2m2.i18n.TranslatableMessage;
 import com.serotonin.m2m2.module.EventTypeDefinition;
@@ -200,11 +204,42 @@ public class EventInstanceDao extends AbstractVoDao<EventInstanceVO, EventInstan
         return type;
     }
 
+    /**
+     * The event may still be in the event journal
+     */
+    @Override
+    public EventInstanceVO get(int id) {
+        EventDao.getInstance().awaitWritten(id);
+        return super.get(id);
+    }
+
+    @Override
+    public void getAll(MappedRowCallback<EventInstanceVO> callback) {
+        EventDao.getInstance().flush();
+        super.getAll(callback);
+    }
+
+    /**
+     * Queries, including those from RQL, see the events waiting in the event journal
+     */
+    @Override
+    public <TYPE> TYPE customizedQuery(Select<Record> select, ResultSetExtractor<TYPE> callback) {
+        EventDao.getInstance().flush();
+        return super.customizedQuery(select, callback);
+    }
+
+    @Override
+    public int customizedCount(SelectJoinStep<Record1<Integer>> input, Condition condition) {
+        EventDao.getInstance().flush();
+        return super.customizedCount(input, condition);
+    }
+
     /**
      * @param lifeSafety
      * @return
      */
     public int countUnsilencedEvents(int userId, AlarmLevels level) {
+        EventDao.getInstance().flush();
         return ejt.queryForInt(getCountQuery().getSQL() + " where ue.silenced=? and ue.userId=? and evt.alarmLevel=?", new Object[] { boolToChar(false), userId, level.value() }, 0);
     }
 
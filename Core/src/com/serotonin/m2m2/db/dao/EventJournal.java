@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2020 Infinite Automation Software. All rights reserved.
+ */
+package com.serotonin.m2m2.db.dao;
+
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+
+import com.infiniteautomation.mango.monitor.ValueMonitor;
+import com.serotonin.m2m2.Common;
+import com.serotonin.m2m2.db.DatabaseProxy.DatabaseType;
+import com.serotonin.m2m2.i18n.TranslatableMessage;
+import com.serotonin.m2m2.rt.event.EventInstance;
+import com.serotonin.m2m2.rt.event.type.EventType;
+import com.serotonin.m2m2.rt.maint.work.WorkItem;
+import com.serotonin.timer.RejectedTaskReason;
+
+/**
+ * Write behind journal for the events table. The event manager raises and returns events to normal on the
+ * thread of the detector or data source, so rather than a round trip to the database for each event the
+ * inserts and return to normal updates are queued and written in JDBC batches by one background writer.
+ *
+ * The ids of new events are assigned when they are queued, from a sequence that starts after the highest id in
+ * the table. This is the only writer of the events table so the rows are inserted with these ids. Entries are
+ * written in the order they were queued, a return to normal written in the same batch as the insert of its event
+ * is folded into the insert.
+ *
+ * @author Terry Packer
+ */
+class EventJournal {
+    private static final Log LOG = LogFactory.getLog(EventJournal.class);
+
+    public static final String PENDING_MONITOR_ID = "com.serotonin.m2m2.db.dao.EventJournal.PENDING_MONITOR";
+
+    private static final int MAX_ROWS = 1000;
+    private static final int RETRIES = 10;
+
+    private static final String EVENT_INSERT = //
+            "insert into events (id, typeName, subtypeName, typeRef1, typeRef2, activeTs, rtnApplicable, rtnTs, rtnCause, " //
+            + "  alarmLevel, message, ackTs) " //
+            + "values (?,?,?,?,?,?,?,?,?,?,?,?)";
+    private static final int[] EVENT_INSERT_TYPES = { Types.INTEGER, Types.VARCHAR, Types.VARCHAR, Types.INTEGER,
+            Types.INTEGER, Types.BIGINT, Types.CHAR, Types.BIGINT, Types.INTEGER, Types.INTEGER, Types.VARCHAR,
+            Types.BIGINT };
+    private static final int INSERT_RTN_TS = 7;
+    private static final int INSERT_RTN_CAUSE = 8;
+
+    private static final String EVENT_UPDATE = "update events set rtnTs=?, rtnCause=? where id=?";
+    private static final int[] EVENT_UPDATE_TYPES = { Types.BIGINT, Types.INTEGER, Types.INTEGER };
+
+    private final ValueMonitor<Integer> pendingMonitor = Common.MONITORED_VALUES.<Integer>create(PENDING_MONITOR_ID)
+            .name(new TranslatableMessage("internal.monitor.EVENT_JOURNAL_PENDING"))
+            .value(0)
+            .build();
+
+    private final EventDao dao;
+    private final Queue<Entry> entries = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    // Ids of the queued inserts
+    private final Set<Integer> unwritten = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    // Held while writing so entries reach the database in order
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    // Guarded by this
+    private int nextId;
+
+    EventJournal(EventDao dao) {
+        this.dao = dao;
+    }
+
+    /**
+     * Assign an id and queue the insert of a new event
+     */
+    void insert(EventInstance event) {
+        // The ids are queued in order so the last id of a batch is the highest
+        synchronized (this) {
+            event.setId(nextId());
+            entries.add(new Entry(true, event.getId(), insertArgs(event)));
+            unwritten.add(event.getId());
+        }
+        queued();
+    }
+
+    private Object[] insertArgs(EventInstance event) {
+        EventType type = event.getEventType();
+        Object[] args = new Object[12];
+        args[0] = event.getId();
+        args[1] = type.getEventType();
+        args[2] = type.getEventSubtype();
+        args[3] = type.getReferenceId1();
+        args[4] = type.getReferenceId2();
+        args[5] = event.getActiveTimestamp();
+        args[6] = BaseDao.boolToChar(event.isRtnApplicable());
+        if (event.isRtnApplicable() && !event.isActive()) {
+            args[INSERT_RTN_TS] = event.getRtnTimestamp();
+            args[INSERT_RTN_CAUSE] = event.getRtnCause().value();
+        }
+        args[9] = event.getAlarmLevel().value();
+        args[10] = BaseDao.writeTranslatableMessage(event.getMessage());
+        return args;
+    }
+
+    void returnToNormal(int eventId, long time, int cause) {
+        entries.add(new Entry(false, eventId, new Object[] { time, cause, eventId }));
+        queued();
+    }
+
+    /**
+     * Write everything queued so far in the calling thread, for callers that need the rows committed
+     *
+     * @throws RuntimeException if a batch could not be written, its entries are lost
+     */
+    void flush() {
+        write(true);
+    }
+
+    /**
+     * Write the queue if the insert of this event has not been written yet
+     */
+    void awaitWritten(int eventId) {
+        if (unwritten.contains(eventId))
+            flush();
+    }
+
+    int size() {
+        return pending.get();
+    }
+
+    // Called holding the lock on this
+    private int nextId() {
+        if (nextId == 0)
+            nextId = dao.ejt.queryForInt("select max(id) from events", null, 0) + 1;
+        return nextId++;
+    }
+
+    private void queued() {
+        pendingMonitor.setValue(pending.incrementAndGet());
+        schedule();
+    }
+
+    private void schedule() {
+        if (!scheduled.compareAndSet(false, true))
+            return;
+        try {
+            if (Common.backgroundProcessing == null)
+                throw new RejectedExecutionException("No background processing");
+            Common.backgroundProcessing.addWorkItem(new Writer());
+        } catch (RejectedExecutionException e) {
+            // Starting up or shutting down, write in this thread
+            scheduled.set(false);
+            write(false);
+        }
+    }
+
+    private void write(boolean rethrow) {
+        writeLock.lock();
+        try {
+            List<Entry> batch;
+            while (!(batch = poll()).isEmpty()) {
+                try {
+                    writeWithRetries(batch);
+                } catch (RuntimeException e) {
+                    LOG.error("Error saving " + batch.size() + " journaled events. Data lost.", e);
+                    if (rethrow)
+                        throw e;
+                } finally {
+                    for (Entry entry : batch) {
+                        if (entry.insert)
+                            unwritten.remove(entry.eventId);
+                    }
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private List<Entry> poll() {
+        List<Entry> batch = new ArrayList<>();
+        Entry entry;
+        while (batch.size() < MAX_ROWS && (entry = entries.poll()) != null)
+            batch.add(entry);
+        if (!batch.isEmpty())
+            pendingMonitor.setValue(pending.addAndGet(-batch.size()));
+        return batch;
+    }
+
+    private void writeWithRetries(List<Entry> batch) {
+        for (int attempt = 1;; attempt++) {
+            try {
+                writeBatch(batch);
+                return;
+            } catch (TransientDataAccessException | RecoverableDataAccessException | CannotGetJdbcConnectionException e) {
+                if (attempt >= RETRIES)
+                    throw e;
+                try {
+                    Thread.sleep(attempt * 100);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private void writeBatch(List<Entry> batch) {
+        List<Object[]> inserts = new ArrayList<>();
+        Map<Integer, Object[]> insertsById = new HashMap<>();
+        List<Object[]> updates = new ArrayList<>();
+        int lastId = 0;
+        for (Entry entry : batch) {
+            if (entry.insert) {
+                inserts.add(entry.args);
+                insertsById.put(entry.eventId, entry.args);
+                lastId = entry.eventId;
+            } else {
+                Object[] insert = insertsById.get(entry.eventId);
+                if (insert != null) {
+                    insert[INSERT_RTN_TS] = entry.args[0];
+                    insert[INSERT_RTN_CAUSE] = entry.args[1];
+                } else {
+                    // The event was inserted by an earlier batch
+                    updates.add(entry.args);
+                }
+            }
+        }
+
+        int serial = lastId;
+        dao.doInTransaction(txStatus -> {
+            if (!inserts.isEmpty()) {
+                DatabaseType type = dao.databaseType;
+                if (type == DatabaseType.MSSQL)
+                    dao.ejt.execute("SET IDENTITY_INSERT events ON");
+                dao.ejt.batchUpdate(EVENT_INSERT, inserts, EVENT_INSERT_TYPES);
+                if (type == DatabaseType.MSSQL)
+                    dao.ejt.execute("SET IDENTITY_INSERT events OFF");
+                else if (type == DatabaseType.POSTGRES)
+                    // Keep the serial in step with the ids used
+                    dao.ejt.queryForLong("select setval(pg_get_serial_sequence('events', 'id'), ?)",
+                            new Object[] { serial }, 0);
+            }
+            if (!updates.isEmpty())
+                dao.ejt.batchUpdate(EVENT_UPDATE, updates, EVENT_UPDATE_TYPES);
+        });
+    }
+
+    private static class Entry {
+        final boolean insert;
+        final int eventId;
+        final Object[] args;
+
+        Entry(boolean insert, int eventId, Object[] args) {
+            this.insert = insert;
+            this.eventId = eventId;
+            this.args = args;
+        }
+    }
+
+    private class Writer implements WorkItem {
+
+        @Override
+        public void execute() {
+            try {
+                write(false);
+            } finally {
+                scheduled.set(false);
+                // An entry may have been added after our last poll while we were still scheduled
+                if (!entries.isEmpty())
+                    schedule();
+            }
+        }
+
+        @Override
+        public int getPriority() {
+            return WorkItem.PRIORITY_HIGH;
+        }
+
+        @Override
+        public String getDescription() {
+            return "Writing " + pending.get() + " journaled events";
+        }
+
+        @Override
+        public String getTaskId() {
+            return "EVENT_JOURNAL";
+        }
+
+        @Override
+        public void rejected(RejectedTaskReason reason) {
+            scheduled.set(false);
+            write(false);
+        }
+    }
+}
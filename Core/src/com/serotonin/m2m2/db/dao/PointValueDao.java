@@ -18,10 +18,16 @@
  */
 package com.serotonin.m2m2.db.dao;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.LongConsumer;
 
 import com.infiniteautomation.mango.db.query.BookendQueryCallback;
 import com.infiniteautomation.mango.db.query.PVTQueryCallback;
+import com.infiniteautomation.mango.db.query.PrimitiveBookendQueryCallback;
+import com.infiniteautomation.mango.db.query.PrimitivePVTQueryCallback;
+import com.infiniteautomation.mango.db.query.PrimitiveQueryCallbackAdapter;
 import com.serotonin.db.MappedRowCallback;
 import com.serotonin.db.WideQueryCallback;
 import com.serotonin.m2m2.rt.dataImage.IdPointValueTime;
@@ -97,6 +103,26 @@ public interface PointValueDao {
      */
     public void getLatestPointValues(List<DataPointVO> vos, long before, boolean orderById, Integer limit, final PVTQueryCallback<IdPointValueTime> callback);
 
+    /**
+     * Get the latest point values < before for many points at once, used to fill the point value caches at startup.
+     *  The number of values returned for each point is limited to that point's default cache size.
+     *
+     * @param vos
+     * @param before
+     * @return map of data point id to values in reverse time order, points without values are not in the map
+     */
+    public default Map<Integer, List<PointValueTime>> getLatestPointValuesForCache(List<DataPointVO> vos, long before) {
+        Map<Integer, List<PointValueTime>> values = new HashMap<>(vos.size());
+        for (DataPointVO vo : vos) {
+            if (vo.getDefaultCacheSize() <= 0)
+                continue;
+            List<PointValueTime> latest = getLatestPointValues(vo, vo.getDefaultCacheSize(), before);
+            if (!latest.isEmpty())
+                values.put(vo.getId(), latest);
+        }
+        return values;
+    }
+
     /**
      * Get the latest point value for this point
      * @param vo
@@ -203,6 +229,36 @@ public interface PointValueDao {
      */
     public void wideBookendQuery(List<DataPointVO> vos, long from, long to, boolean orderById, Integer limit, final BookendQueryCallback<IdPointValueTime> callback);
 
+    /**
+     * Same as getPointValuesBetween(vos, from, to, orderById, limit, callback) but the values are passed to the
+     *  callback as primitives, annotations are not read.
+     *
+     * @param vos
+     * @param from
+     * @param to
+     * @param orderById - return the list in time order per data point
+     * @param limit - optional limit.  If orderById = true then limit is per id, else limit is on total results
+     * @param callback
+     */
+    public default void getPointValuesBetweenPrimitive(List<DataPointVO> vos, long from, long to, boolean orderById, Integer limit, PrimitivePVTQueryCallback callback) {
+        getPointValuesBetween(vos, from, to, orderById, limit, new PrimitiveQueryCallbackAdapter(callback));
+    }
+
+    /**
+     * Same as wideBookendQuery(vos, from, to, orderById, limit, callback) but the values are passed to the
+     *  callback as primitives, annotations are not read.
+     *
+     * @param vos
+     * @param from
+     * @param to
+     * @param orderById
+     * @param limit
+     * @param callback
+     */
+    public default void wideBookendQueryPrimitive(List<DataPointVO> vos, long from, long to, boolean orderById, Integer limit, PrimitiveBookendQueryCallback callback) {
+        wideBookendQuery(vos, from, to, orderById, limit, new PrimitiveQueryCallbackAdapter(callback));
+    }
+
     /**
      * Delete startTime <= values < endTime
      * @param vo
@@ -219,6 +275,25 @@ public interface PointValueDao {
      */
     public long deletePointValuesBefore(DataPointVO vo, long time);
 
+    /**
+     * Delete values < time of many points in chunks, used by the data purge to delete the values of all
+     *  points that share the same cutoff together
+     * @param vos
+     * @param time
+     * @param chunkSize - maximum number of values deleted at once
+     * @param chunkDeleted - receives the number of values deleted by each chunk, it may block to throttle the delete
+     * @return number of values deleted
+     */
+    public default long deletePointValuesBefore(List<DataPointVO> vos, long time, int chunkSize, LongConsumer chunkDeleted) {
+        long count = 0;
+        for (DataPointVO vo : vos) {
+            long deleted = deletePointValuesBefore(vo, time);
+            chunkDeleted.accept(deleted);
+            count += deleted;
+        }
+        return count;
+    }
+
     /**
      * Delete values < time and don't count what was deleted
      * @param vo
@@ -5,9 +5,13 @@
 package com.serotonin.m2m2.db.dao;
 
 import java.util.List;
+import java.util.Map;
+import java.util.function.LongConsumer;
 
 import com.infiniteautomation.mango.db.query.BookendQueryCallback;
 import com.infiniteautomation.mango.db.query.PVTQueryCallback;
+import com.infiniteautomation.mango.db.query.PrimitiveBookendQueryCallback;
+import com.infiniteautomation.mango.db.query.PrimitivePVTQueryCallback;
 import com.serotonin.db.MappedRowCallback;
 import com.serotonin.db.WideQueryCallback;
 import com.serotonin.log.LogStopWatch;
@@ -108,6 +112,14 @@ public class PointValueDaoMetrics implements PointValueDao {
         LogStopWatch.stop("getLatestPointValues(vos,limit,before, orderById, callback) (" + vos +", " + limit + ", " + before + "," + orderById + ", callback)", this.metricsThreshold);
     }
 
+    @Override
+    public Map<Integer, List<PointValueTime>> getLatestPointValuesForCache(List<DataPointVO> vos, long before) {
+        LogStopWatch LogStopWatch = new LogStopWatch();
+        Map<Integer, List<PointValueTime>> values = dao.getLatestPointValuesForCache(vos, before);
+        LogStopWatch.stop("getLatestPointValuesForCache(vos,before) (" + vos.size() + ", " + before + "){" + values.size() +"}", this.metricsThreshold);
+        return values;
+    }
+
     @Override
     public PointValueTime getLatestPointValue(DataPointVO vo) {
         LogStopWatch LogStopWatch = new LogStopWatch();
@@ -180,6 +192,14 @@ public class PointValueDaoMetrics implements PointValueDao {
 
     }
 
+    @Override
+    public long deletePointValuesBefore(List<DataPointVO> vos, long time, int chunkSize, LongConsumer chunkDeleted) {
+        LogStopWatch LogStopWatch = new LogStopWatch();
+        long value = dao.deletePointValuesBefore(vos, time, chunkSize, chunkDeleted);
+        LogStopWatch.stop("deletePointValuesBefore(vos,time,chunkSize,chunkDeleted) (" + vos.size() + " points, " + time + ", " + chunkSize + ")", this.metricsThreshold);
+        return value;
+    }
+
     @Override
     public boolean deletePointValuesBeforeWithoutCount(DataPointVO vo, long time){
         LogStopWatch LogStopWatch = new LogStopWatch();
@@ -347,4 +367,20 @@ public class PointValueDaoMetrics implements PointValueDao {
         logStopWatch.stop("getPointValuesBetween(vos, from, to, orderById, limit, callback) + (" + vos + ", " + to + ", " + from + ", " + limit + "callback)", this.metricsThreshold);
     }
 
+    @Override
+    public void getPointValuesBetweenPrimitive(List<DataPointVO> vos, long from, long to, boolean orderById,
+            Integer limit, PrimitivePVTQueryCallback callback) {
+        LogStopWatch logStopWatch = new LogStopWatch();
+        dao.getPointValuesBetweenPrimitive(vos, from, to, orderById, limit, callback);
+        logStopWatch.stop("getPointValuesBetweenPrimitive(vos, from, to, orderById, limit, callback) + (" + vos + ", " + to + ", " + from + ", " + limit + "callback)", this.metricsThreshold);
+    }
+
+    @Override
+    public void wideBookendQueryPrimitive(List<DataPointVO> vos, long from, long to, boolean orderById, Integer limit,
+            PrimitiveBookendQueryCallback callback) {
+        LogStopWatch logStopWatch = new LogStopWatch();
+        dao.wideBookendQueryPrimitive(vos, from, to, orderById, limit, callback);
+        logStopWatch.stop("wideBookendQueryPrimitive(dataPointIds, from, to, orderById, limit, callback) + (" + vos + ", " + to + ", " + from + ", " + limit + "callback)", this.metricsThreshold);
+    }
+
 }
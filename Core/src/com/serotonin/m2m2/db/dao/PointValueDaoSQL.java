@@ -10,17 +10,24 @@ import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.mutable.MutableInt;
@@ -33,14 +40,19 @@ import org.springframework.dao.TransientDataAccessException;
 import org.springframework.dao.TransientDataAccessResourceException;
 import org.springframework.jdbc.CannotGetJdbcConnectionException;
 import org.springframework.jdbc.core.ArgumentPreparedStatementSetter;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.PreparedStatementCallback;
 import org.springframework.jdbc.core.PreparedStatementCreator;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.support.JdbcUtils;
 
+import com.google.common.collect.Lists;
 import com.infiniteautomation.mango.db.query.BookendQueryCallback;
 import com.infiniteautomation.mango.db.query.PVTQueryCallback;
+import com.infiniteautomation.mango.db.query.PrimitiveBookendQueryCallback;
+import com.infiniteautomation.mango.db.query.PrimitivePVTQueryCallback;
 import com.infiniteautomation.mango.db.query.QueryCancelledException;
+import com.infiniteautomation.mango.monitor.AtomicIntegerMonitor;
 import com.infiniteautomation.mango.monitor.ValueMonitor;
 import com.serotonin.ShouldNeverHappenException;
 import com.serotonin.db.MappedRowCallback;
@@ -69,7 +81,6 @@ import com.serotonin.m2m2.vo.pair.LongPair;
 import com.serotonin.metrics.EventHistogram;
 import com.serotonin.timer.RejectedTaskReason;
 import com.serotonin.util.CollectionUtils;
-import com.serotonin.util.queue.ObjectQueue;
 
 public class PointValueDaoSQL extends BaseDao implements PointValueDao {
 
@@ -190,7 +201,7 @@ public class PointValueDaoSQL extends BaseDao implements PointValueDao {
         dvalue = Common.databaseProxy.applyBounds(dvalue);
 
         if (async) {
-            BatchWriteBehind.add(new BatchWriteBehindEntry(vo, dataType, dvalue, time), ejt);
+            BatchWriteBehind.add(new BatchWriteBehindEntry(vo.getId(), dataType, dvalue, time), ejt);
             return -1;
         }
 
@@ -213,6 +224,8 @@ public class PointValueDaoSQL extends BaseDao implements PointValueDao {
     private long savePointValueImpl(DataPointVO vo, int dataType, double dvalue, long time, String svalue,
             SetPointSource source) {
         long id = doInsertLong(POINT_VALUE_INSERT, new Object[] { vo.getId(), dataType, dvalue, time });
+        if (dataType == DataTypes.NUMERIC)
+            rollupValueSaved(vo.getId(), dvalue, time);
 
         if (svalue == null && dataType == DataTypes.IMAGE)
             svalue = Long.toString(id);
@@ -244,6 +257,21 @@ public class PointValueDaoSQL extends BaseDao implements PointValueDao {
     //
     // Queries
     //
+    /**
+     * Update the rollup tiers with a numeric value that was inserted, a failure is only logged as the tiers
+     * will be re-aggregated from the raw values
+     */
+    private static void rollupValueSaved(int dataPointId, double value, long time) {
+        PointValueRollupStore store = PointValueRollupStore.getInstance();
+        if (store == null)
+            return;
+        try {
+            store.valueSaved(dataPointId, value, time);
+        } catch (RuntimeException e) {
+            LOG.error("Failed to update point value rollups for point " + dataPointId, e);
+        }
+    }
+
     private static final String POINT_VALUE_SELECT = //
             "select pv.dataType, pv.pointValue, pva.textPointValueShort, pva.textPointValueLong, pv.ts, pva.sourceMessage " //
             + "from pointValues pv " //
@@ -482,6 +510,82 @@ public class PointValueDaoSQL extends BaseDao implements PointValueDao {
         }
     }
 
+    private static final int CACHE_PRELOAD_CHUNK_SIZE = 500;
+    // MariaDB reports versions such as 5.5.5-10.3.22-MariaDB
+    private static final Pattern MARIADB_VERSION = Pattern.compile("(\\d+)\\.(\\d+)\\.\\d+-MariaDB");
+    /**
+     * If the database has ROW_NUMBER(), checked on first use
+     */
+    private static volatile Boolean windowFunctions;
+
+    /**
+     * Uses a window function to limit the values per point so that one query can fill the
+     *  caches of many points. Points are grouped by cache size and queried in chunks.
+     */
+    @Override
+    public Map<Integer, List<PointValueTime>> getLatestPointValuesForCache(List<DataPointVO> vos, long before) {
+        if (!supportsWindowFunctions())
+            return PointValueDao.super.getLatestPointValuesForCache(vos, before);
+
+        // Grouped by cache size so each point's values are limited to its own cache size in the query
+        Map<Integer, List<DataPointVO>> bySize = new HashMap<>();
+        for (DataPointVO vo : vos) {
+            if (vo.getDefaultCacheSize() > 0)
+                bySize.computeIfAbsent(vo.getDefaultCacheSize(), k -> new ArrayList<>()).add(vo);
+        }
+
+        Map<Integer, List<PointValueTime>> values = new HashMap<>(vos.size());
+        AnnotatedIdPointValueRowMapper mapper = new AnnotatedIdPointValueRowMapper();
+        for (Map.Entry<Integer, List<DataPointVO>> entry : bySize.entrySet()) {
+            int cacheSize = entry.getKey();
+            for (List<DataPointVO> chunk : Lists.partition(entry.getValue(), CACHE_PRELOAD_CHUNK_SIZE)) {
+                List<Integer> dataPointIds = chunk.stream().map(vo -> vo.getId()).collect(Collectors.toList());
+                String sql = "select t.dataPointId, t.dataType, t.pointValue, t.textPointValueShort, t.textPointValueLong, t.ts, t.sourceMessage from ("
+                        + "select pv.dataPointId, pv.dataType, pv.pointValue, pva.textPointValueShort, pva.textPointValueLong, pv.ts, pva.sourceMessage, "
+                        + "ROW_NUMBER() OVER (PARTITION BY pv.dataPointId ORDER BY pv.ts DESC) AS rn "
+                        + "from pointValues pv left join pointValueAnnotations pva on pv.id = pva.pointValueId "
+                        + "where pv.dataPointId in (" + createDelimitedList(dataPointIds, ",", null) + ") and pv.ts < ?) t "
+                        + "where t.rn <= ? order by t.dataPointId, t.ts desc";
+                query(sql, new Object[] { before, cacheSize }, mapper, (value, index) -> {
+                    PointValueTime pvt;
+                    if (value instanceof AnnotatedIdPointValueTime)
+                        pvt = new AnnotatedPointValueTime(value.getValue(), value.getTime(), ((AnnotatedIdPointValueTime) value).getSourceMessage());
+                    else
+                        pvt = new PointValueTime(value.getValue(), value.getTime());
+                    values.computeIfAbsent(value.getId(), k -> new ArrayList<>(cacheSize)).add(pvt);
+                });
+            }
+        }
+        return values;
+    }
+
+    /**
+     * ROW_NUMBER() is not available on Derby, on MySQL before 8.0 or on MariaDB before 10.2
+     */
+    private boolean supportsWindowFunctions() {
+        Boolean supported = windowFunctions;
+        if (supported == null) {
+            DatabaseType type = Common.databaseProxy.getType();
+            if (type == DatabaseType.DERBY)
+                supported = false;
+            else if (type == DatabaseType.MYSQL)
+                supported = ejt.execute((ConnectionCallback<Boolean>) con -> {
+                    DatabaseMetaData dmd = con.getMetaData();
+                    String version = dmd.getDatabaseProductVersion();
+                    if (version != null && version.contains("MariaDB")) {
+                        Matcher m = MARIADB_VERSION.matcher(version);
+                        return m.find() && (Integer.parseInt(m.group(1)) > 10
+                                || Integer.parseInt(m.group(1)) == 10 && Integer.parseInt(m.group(2)) >= 2);
+                    }
+                    return dmd.getDatabaseMajorVersion() >= 8;
+                });
+            else
+                supported = true;
+            windowFunctions = supported;
+        }
+        return supported;
+    }
+
     //
     //
     // Query with callback
@@ -860,6 +964,259 @@ public class PointValueDaoSQL extends BaseDao implements PointValueDao {
         }
     }
 
+    private static final String PRIMITIVE_POINT_ID_VALUE_SELECT = "select pv.dataPointId, pv.dataType, pv.pointValue, pv.ts from pointValues pv";
+
+    /**
+     * Time range query that passes the values to the callback as primitives, annotations are not read
+     *
+     * @author Terry Packer
+     */
+    class PrimitiveTimeRangePreparedStatementCreator implements PreparedStatementCreator, PreparedStatementCallback<Integer> {
+
+        final List<DataPointVO> vos;
+        final long from;
+        final long to;
+        final Integer limit;
+        final PrimitivePVTQueryCallback callback;
+        final MutableInt counter;
+
+        public PrimitiveTimeRangePreparedStatementCreator(List<DataPointVO> vos, long from, long to, Integer limit, PrimitivePVTQueryCallback callback, MutableInt counter) {
+            this.vos = vos;
+            this.from = from;
+            this.to = to;
+            this.limit = limit;
+            this.callback = callback;
+            this.counter = counter;
+        }
+
+        @Override
+        public PreparedStatement createPreparedStatement(Connection con) throws SQLException {
+            List<Object> args = new ArrayList<>();
+            String sql = PRIMITIVE_POINT_ID_VALUE_SELECT + " where " + dataPointIdCondition(args) + " and pv.ts >= ? and pv.ts<? order by pv.ts asc";
+            args.add(from);
+            args.add(to);
+            if(limit != null) {
+                sql += " limit ?";
+                args.add(limit);
+            }
+
+            PreparedStatement stmt = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ArgumentPreparedStatementSetter setter = new ArgumentPreparedStatementSetter(args.toArray(new Object[args.size()]));
+            setter.setValues(stmt);
+            return stmt;
+        }
+
+        @Override
+        public Integer doInPreparedStatement(PreparedStatement ps) throws SQLException, DataAccessException {
+            ResultSet rs = null;
+            try {
+                ps.execute();
+                rs = ps.getResultSet();
+                while(rs.next()) {
+                    int dataType = rs.getInt(2);
+                    callback.row(rs.getInt(1), dataType, readPrimitiveValue(rs, dataType, 3), rs.getLong(4), counter.getAndIncrement());
+                }
+            }catch(QueryCancelledException e) {
+                LOG.warn("Cancelling Time Range Point Value Query.", e);
+                ps.cancel();
+                throw e;
+            }finally {
+                JdbcUtils.closeResultSet(rs);
+            }
+            return counter.getValue();
+        }
+
+        String dataPointIdCondition(List<Object> args) {
+            if(vos.size() == 1) {
+                args.add(vos.get(0).getId());
+                return "pv.dataPointId = ?";
+            }
+            List<Integer> ids = vos.stream().map(vo -> vo.getId()).collect(Collectors.toList());
+            return "pv.dataPointId in (" + createDelimitedList(ids, ",", null) + ")";
+        }
+    }
+
+    /**
+     * Bookend query that passes the values to the callback as primitives, annotations are not read. The latest
+     *  value of each point is kept in arrays indexed by the position of the point id in a sorted array.
+     *
+     * @author Terry Packer
+     */
+    class PrimitiveBookendPreparedStatementCreator extends PrimitiveTimeRangePreparedStatementCreator {
+
+        final PrimitiveBookendQueryCallback bookendCallback;
+        final int[] ids;
+        final int[] dataTypes;
+        final double[] values;
+        PreparedStatement firstValuesSelect;
+
+        public PrimitiveBookendPreparedStatementCreator(List<DataPointVO> vos, long from, long to, Integer limit, PrimitiveBookendQueryCallback callback, MutableInt counter) {
+            super(vos, from, to, limit, callback, counter);
+            this.bookendCallback = callback;
+            this.ids = vos.stream().mapToInt(vo -> vo.getId()).sorted().toArray();
+            this.dataTypes = new int[ids.length];
+            this.values = new double[ids.length];
+        }
+
+        @Override
+        public PreparedStatement createPreparedStatement(Connection con) throws SQLException {
+            String startValueSql = "";
+            List<Object> startValueArgs = new ArrayList<>(vos.size()*2);
+            if(vos.size() == 1) {
+                startValueSql = PRIMITIVE_POINT_ID_VALUE_SELECT + " where pv.dataPointId=? AND pv.ts <= ? ORDER BY ts DESC LIMIT 1";
+                startValueArgs.add(vos.get(0).getId());
+                startValueArgs.add(from);
+            }else {
+                boolean first = true;
+                for(DataPointVO vo : vos) {
+                    if(first)
+                        first = false;
+                    else
+                        startValueSql += " UNION ";
+                    startValueSql = startValueSql + "(" + PRIMITIVE_POINT_ID_VALUE_SELECT + " where pv.dataPointId=? AND pv.ts <= ? ORDER BY ts DESC LIMIT 1) ";
+                    startValueArgs.add(vo.getId());
+                    startValueArgs.add(from);
+                }
+            }
+
+            firstValuesSelect = con.prepareStatement(startValueSql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ArgumentPreparedStatementSetter setter = new ArgumentPreparedStatementSetter(startValueArgs.toArray(new Object[startValueArgs.size()]));
+            setter.setValues(firstValuesSelect);
+
+            List<Object> args = new ArrayList<>(3); //pv.ts > ? because firstValueSelect is special
+            String sql = PRIMITIVE_POINT_ID_VALUE_SELECT + " where " + dataPointIdCondition(args) + " and pv.ts > ? and pv.ts<? order by pv.ts asc";
+            args.add(from);
+            args.add(to);
+            if(limit != null) {
+                sql += " limit ?";
+                args.add(limit);
+            }
+
+            PreparedStatement stmt = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            setter = new ArgumentPreparedStatementSetter(args.toArray(new Object[args.size()]));
+            setter.setValues(stmt);
+            return stmt;
+        }
+
+        @Override
+        public Integer doInPreparedStatement(PreparedStatement ps) throws SQLException, DataAccessException {
+            ResultSet rs = null;
+            int realSamples = 0;
+            try {
+                firstValuesSelect.execute();
+                rs = firstValuesSelect.getResultSet();
+                while(rs.next()) {
+                    int id = rs.getInt(1);
+                    int dataType = rs.getInt(2);
+                    double value = readPrimitiveValue(rs, dataType, 3);
+                    boolean bookend = rs.getLong(4) != from;
+                    bookendCallback.firstValue(id, dataType, value, from, counter.getAndIncrement(), bookend);
+                    if(!bookend)
+                        realSamples++;
+                    update(id, dataType, value);
+                }
+
+                for(int i = 0; i < ids.length; i++)
+                    if(dataTypes[i] == DataTypes.UNKNOWN)
+                        bookendCallback.firstValue(ids[i], DataTypes.UNKNOWN, Double.NaN, from, counter.getAndIncrement(), true);
+            } catch(QueryCancelledException e) {
+                LOG.warn("Cancelling Time Range Point Value Query.", e);
+                firstValuesSelect.cancel();
+                ps.cancel();
+                throw e;
+            } finally {
+                JdbcUtils.closeResultSet(rs);
+            }
+            try {
+                ps.execute();
+                rs = ps.getResultSet();
+
+                //Process the data in time order, saving the current value for use in the lastValue callback at the end.
+                while(rs.next()) {
+                    int id = rs.getInt(1);
+                    int dataType = rs.getInt(2);
+                    double value = readPrimitiveValue(rs, dataType, 3);
+                    update(id, dataType, value);
+                    bookendCallback.row(id, dataType, value, rs.getLong(4), counter.getAndIncrement());
+                    if(limit != null && ++realSamples == limit)
+                        break;
+                }
+
+                for(int i = 0; i < ids.length; i++)
+                    if(dataTypes[i] != DataTypes.UNKNOWN)
+                        bookendCallback.lastValue(ids[i], dataTypes[i], values[i], to, counter.getAndIncrement(), true);
+                for(int i = 0; i < ids.length; i++)
+                    if(dataTypes[i] == DataTypes.UNKNOWN)
+                        bookendCallback.lastValue(ids[i], DataTypes.UNKNOWN, Double.NaN, to, counter.getAndIncrement(), true);
+            }catch(QueryCancelledException e) {
+                LOG.warn("Cancelling Time Range Point Value Query.", e);
+                ps.cancel();
+                throw e;
+            }finally {
+                JdbcUtils.closeResultSet(rs);
+            }
+            return counter.getValue();
+        }
+
+        private void update(int id, int dataType, double value) {
+            int index = Arrays.binarySearch(ids, id);
+            dataTypes[index] = dataType;
+            values[index] = value;
+        }
+    }
+
+    @Override
+    public void getPointValuesBetweenPrimitive(List<DataPointVO> vos, long from, long to, boolean orderById, Integer limit, PrimitivePVTQueryCallback callback) {
+        if(vos.size() == 0)
+            return;
+        MutableInt counter = new MutableInt(0);
+        if(orderById) {
+            for(DataPointVO vo: vos) {
+                PrimitiveTimeRangePreparedStatementCreator c =
+                        new PrimitiveTimeRangePreparedStatementCreator(Collections.singletonList(vo), from, to, limit, callback, counter);
+                ejt.execute(c, c);
+            }
+        }else {
+            PrimitiveTimeRangePreparedStatementCreator c =
+                    new PrimitiveTimeRangePreparedStatementCreator(vos, from, to, limit, callback, counter);
+            ejt.execute(c, c);
+        }
+    }
+
+    @Override
+    public void wideBookendQueryPrimitive(List<DataPointVO> vos, long from, long to, boolean orderById, Integer limit, PrimitiveBookendQueryCallback callback) {
+        if(vos.size() == 0)
+            return;
+        MutableInt counter = new MutableInt(0);
+        if(orderById) {
+            for(DataPointVO vo: vos) {
+                PrimitiveBookendPreparedStatementCreator c =
+                        new PrimitiveBookendPreparedStatementCreator(Collections.singletonList(vo), from, to, limit, callback, counter);
+                ejt.execute(c, c);
+            }
+        }else {
+            PrimitiveBookendPreparedStatementCreator c =
+                    new PrimitiveBookendPreparedStatementCreator(vos, from, to, limit, callback, counter);
+            ejt.execute(c, c);
+        }
+    }
+
+    /**
+     * Read the value of a numeric, binary or multistate point, NaN for other types
+     */
+    static double readPrimitiveValue(ResultSet rs, int dataType, int column) throws SQLException {
+        switch (dataType) {
+            case (DataTypes.NUMERIC):
+                return rs.getDouble(column);
+            case (DataTypes.BINARY):
+                return rs.getDouble(column) == 1 ? 1 : 0;
+            case (DataTypes.MULTISTATE):
+                return rs.getInt(column);
+            default:
+                return Double.NaN;
+        }
+    }
+
     class PointValueRowMapper implements RowMapper<PointValueTime> {
         @Override
         public PointValueTime mapRow(ResultSet rs, int rowNum) throws SQLException {
@@ -942,25 +1299,66 @@ public class PointValueDaoSQL extends BaseDao implements PointValueDao {
     //
 
     public long deletePointValue(int pointValueId) {
-        return deletePointValues("delete from pointValues where id = ?", new Object[] { pointValueId }, 0, 0);
+        PointValueRollupStore store = PointValueRollupStore.getInstance();
+        Integer dataPointId = null;
+        long ts = 0;
+        if (store != null) {
+            PointValueRollupDao rollupDao = new PointValueRollupDao();
+            dataPointId = rollupDao.getRawValuePoint(pointValueId);
+            ts = rollupDao.getRawValueTime(pointValueId);
+        }
+        long count = deletePointValues("delete from pointValues where id = ?", new Object[] { pointValueId }, 0, 0);
+        if (dataPointId != null)
+            store.valuesDeleted(dataPointId, ts, ts + 1);
+        return count;
     }
 
     @Override
     public long deletePointValue(DataPointVO vo, long ts) {
-        return deletePointValues("delete from pointValues where dataPointId = ? AND ts = ?", new Object[] {
+        long count = deletePointValues("delete from pointValues where dataPointId = ? AND ts = ?", new Object[] {
                 vo.getId(), ts }, 0, 0);
+        rollupValuesDeleted(vo, ts, ts + 1);
+        return count;
     }
 
     @Override
     public long deletePointValuesBefore(DataPointVO vo, long time) {
-        return deletePointValues("delete from pointValues where dataPointId=? and ts<?", new Object[] { vo.getId(),
+        long count = deletePointValues("delete from pointValues where dataPointId=? and ts<?", new Object[] { vo.getId(),
                 time }, 0, 0);
+        rollupValuesDeleted(vo, Long.MIN_VALUE, time);
+        return count;
+    }
+
+    @Override
+    public long deletePointValuesBefore(List<DataPointVO> vos, long time, int chunkSize, LongConsumer chunkDeleted) {
+        if (vos.isEmpty())
+            return 0;
+        List<Integer> ids = new ArrayList<>(vos.size());
+        for (DataPointVO vo : vos)
+            ids.add(vo.getId());
+        String sql = "delete from pointValues where dataPointId in (" + createDelimitedList(ids, ",", null) + ") and ts<?";
+
+        long count = 0;
+        while (true) {
+            // One limited delete per call
+            long deleted = Common.databaseProxy.doLimitDelete(ejt, sql, new Object[] { time }, chunkSize, 0, chunkSize);
+            count += deleted;
+            chunkDeleted.accept(deleted);
+            if (deleted < chunkSize)
+                break;
+        }
+        clearUnsavedPointValues();
+        for (DataPointVO vo : vos)
+            rollupValuesDeleted(vo, Long.MIN_VALUE, time);
+        return count;
     }
 
     @Override
     public long deletePointValuesBetween(DataPointVO vo, long startTime, long endTime) {
-        return deletePointValues("delete from pointValues where dataPointId=? and ts>=? and ts<?", new Object[] { vo.getId(),
+        long count = deletePointValues("delete from pointValues where dataPointId=? and ts>=? and ts<?", new Object[] { vo.getId(),
                 startTime, endTime }, 0, 0);
+        rollupValuesDeleted(vo, startTime, endTime);
+        return count;
     }
 
     @Override
@@ -970,34 +1368,45 @@ public class PointValueDaoSQL extends BaseDao implements PointValueDao {
 
     @Override
     public long deletePointValues(DataPointVO vo) {
-        return deletePointValues("delete from pointValues where dataPointId=?", new Object[] { vo.getId() }, 0, 0);
+        long count = deletePointValues("delete from pointValues where dataPointId=?", new Object[] { vo.getId() }, 0, 0);
+        PointValueRollupStore store = PointValueRollupStore.getInstance();
+        if (store != null)
+            store.allValuesDeleted(vo.getId());
+        return count;
     }
 
     @Override
     public boolean deletePointValuesWithoutCount(DataPointVO vo) {
-        return deletePointValues("delete from pointValues where dataPointId=?", new Object[] { vo.getId() }, 0, 0) > 0;
+        return deletePointValues(vo) > 0;
     }
 
     @Override
     public long deleteAllPointData() {
-        return deletePointValues("delete from pointValues", null, 0, 0);
+        long count = deletePointValues("delete from pointValues", null, 0, 0);
+        PointValueRollupStore store = PointValueRollupStore.getInstance();
+        if (store != null)
+            store.allPointsDeleted();
+        return count;
     }
 
     @Override
     public void deleteAllPointDataWithoutCount() {
-        deletePointValues("delete from pointValues", null, 0, 0);
+        deleteAllPointData();
     }
 
     @Override
     public long deleteOrphanedPointValues() {
-        return deletePointValues("DELETE FROM pointValues WHERE dataPointId NOT IN (SELECT ID FROM dataPoints)", null,
+        long count = deletePointValues("DELETE FROM pointValues WHERE dataPointId NOT IN (SELECT ID FROM dataPoints)", null,
                 5000, 100000);
+        PointValueRollupStore store = PointValueRollupStore.getInstance();
+        if (store != null)
+            store.orphansDeleted();
+        return count;
     }
 
     @Override
     public void deleteOrphanedPointValuesWithoutCount() {
-        deletePointValues("DELETE FROM pointValues WHERE dataPointId NOT IN (SELECT ID FROM dataPoints)", null,
-                5000, 100000);
+        deleteOrphanedPointValues();
     }
 
     @Override
@@ -1024,6 +1433,17 @@ public class PointValueDaoSQL extends BaseDao implements PointValueDao {
         }
     }
 
+    /**
+     * Keep the rollup tiers of a numeric point consistent with deleted values
+     */
+    private void rollupValuesDeleted(DataPointVO vo, long from, long to) {
+        if (vo.getPointLocator() != null && vo.getPointLocator().getDataTypeId() != DataTypes.NUMERIC)
+            return;
+        PointValueRollupStore store = PointValueRollupStore.getInstance();
+        if (store != null)
+            store.valuesDeleted(vo.getId(), from, to);
+    }
+
     private long deletePointValues(String sql, Object[] params, int chunkWait, int limit) {
         long cnt = Common.databaseProxy.doLimitDelete(ejt, sql, params, 1000, chunkWait, limit);
         clearUnsavedPointValues();
@@ -1154,22 +1574,31 @@ public class PointValueDaoSQL extends BaseDao implements PointValueDao {
         }
     }
 
-    class BatchWriteBehindEntry {
-        private final DataPointVO vo;
+    static class BatchWriteBehindEntry {
+        private final int dataPointId;
         private final int dataType;
         private final double dvalue;
         private final long time;
+        /**
+         * The spill log segment this value was replayed from, if any
+         */
+        private final WriteBehindSpillLog.ReplayedSegment segment;
 
-        public BatchWriteBehindEntry(DataPointVO vo, int dataType, double dvalue, long time) {
-            this.vo = vo;
+        public BatchWriteBehindEntry(int dataPointId, int dataType, double dvalue, long time) {
+            this(dataPointId, dataType, dvalue, time, null);
+        }
+
+        BatchWriteBehindEntry(int dataPointId, int dataType, double dvalue, long time, WriteBehindSpillLog.ReplayedSegment segment) {
+            this.dataPointId = dataPointId;
             this.dataType = dataType;
             this.dvalue = dvalue;
             this.time = time;
+            this.segment = segment;
         }
 
         public void writeInto(Object[] params, int index) {
             index *= POINT_VALUE_INSERT_VALUES_COUNT;
-            params[index++] = vo.getId();
+            params[index++] = dataPointId;
             params[index++] = dataType;
             params[index++] = dvalue;
             params[index++] = time;
@@ -1179,15 +1608,29 @@ public class PointValueDaoSQL extends BaseDao implements PointValueDao {
     public static final String ENTRIES_MONITOR_ID = "com.serotonin.m2m2.db.dao.PointValueDao$BatchWriteBehind.ENTRIES_MONITOR";
     public static final String INSTANCES_MONITOR_ID = "com.serotonin.m2m2.db.dao.PointValueDao$BatchWriteBehind.INSTANCES_MONITOR";
     public static final String BATCH_WRITE_SPEED_MONITOR_ID = "com.serotonin.m2m2.db.dao.PointValueDao$BatchWriteBehind.BATCH_WRITE_SPEED_MONITOR";
+    public static final String SHARD_DEPTH_MONITOR_ID_PREFIX = "com.serotonin.m2m2.db.dao.PointValueDao$BatchWriteBehind.SHARD_DEPTH_MONITOR.";
+    public static final String SHARD_FLUSH_LATENCY_MONITOR_ID_PREFIX = "com.serotonin.m2m2.db.dao.PointValueDao$BatchWriteBehind.SHARD_FLUSH_LATENCY_MONITOR.";
     final static EventHistogram writesPerSecond = new EventHistogram(5000, 2);
 
+    /**
+     * Write behind for async point values. Entries are sharded by data point id into lock free queues,
+     * each shard is drained by one or more workers. Workers are spawned when the estimated time to drain
+     * a shard (based on the measured flush latency of that shard) exceeds the target drain time.
+     */
     static class BatchWriteBehind implements WorkItem {
-        private static final ObjectQueue<BatchWriteBehindEntry> ENTRIES = new ObjectQueue<PointValueDaoSQL.BatchWriteBehindEntry>();
-        private static final CopyOnWriteArrayList<BatchWriteBehind> instances = new CopyOnWriteArrayList<BatchWriteBehind>();
         private static Log LOG = LogFactory.getLog(BatchWriteBehind.class);
-        private static final int SPAWN_THRESHOLD = 10000;
-        private static final int MAX_INSTANCES = 5;
         private static int MAX_ROWS = 1000;
+        private static final int SHARD_COUNT = Math.max(1, Common.envProps.getInt("db.writeBehind.shards", 4));
+        private static final int MAX_INSTANCES_PER_SHARD = Math.max(1, Common.envProps.getInt("db.writeBehind.maxInstancesPerShard", 2));
+        private static final long TARGET_DRAIN_TIME = Common.envProps.getLong("db.writeBehind.targetDrainTime", 1000);
+        private static final int MAX_ENTRIES = Common.envProps.getInt("db.writeBehind.maxEntries", 1000000);
+        private static final AtomicBoolean REPLAYING = new AtomicBoolean();
+        private static final WriteBehindSpillLog SPILL_LOG;
+
+        private static final AtomicInteger ENTRY_COUNT = new AtomicInteger();
+        private static final AtomicInteger INSTANCE_COUNT = new AtomicInteger();
+        private static final Shard[] SHARDS;
+
         private static final ValueMonitor<Integer> ENTRIES_MONITOR = Common.MONITORED_VALUES.<Integer>create(ENTRIES_MONITOR_ID)
                 .name(new TranslatableMessage("internal.monitor.BATCH_ENTRIES"))
                 .value(0)
@@ -1229,48 +1672,209 @@ public class PointValueDaoSQL extends BaseDao implements PointValueDao {
             retriedExceptions.add(TransientDataAccessException.class);
             retriedExceptions.add(TransientDataAccessResourceException.class);
             retriedExceptions.add(CannotGetJdbcConnectionException.class);
+
+            SHARDS = new Shard[SHARD_COUNT];
+            for (int i = 0; i < SHARD_COUNT; i++)
+                SHARDS[i] = new Shard(i);
+
+            WriteBehindSpillLog spillLog = null;
+            if (MAX_ENTRIES > 0) {
+                Path spillPath = Common.MA_HOME_PATH.resolve(Common.envProps.getString("db.writeBehind.spillLocation", "databases/writeBehindSpill")).normalize();
+                try {
+                    spillLog = new WriteBehindSpillLog(spillPath, Common.envProps.getInt("db.writeBehind.spillSegmentSize", 100000),
+                            Common.envProps.getInt("db.writeBehind.spillForceInterval", WriteBehindSpillLog.DEFAULT_FORCE_INTERVAL));
+                    if (!spillLog.isEmpty())
+                        LOG.warn("Found " + spillLog.size() + " point values spilled to disk in " + spillPath + ", they will be written to the database.");
+                }
+                catch (IOException e) {
+                    LOG.error("Unable to open write behind spill log at " + spillPath + ", the write behind queue will not be bounded", e);
+                }
+            }
+            SPILL_LOG = spillLog;
         }
 
         static void add(BatchWriteBehindEntry e, ExtendedJdbcTemplate ejt) {
-            synchronized (ENTRIES) {
-                ENTRIES.push(e);
-                ENTRIES_MONITOR.setValue(ENTRIES.size());
-                if (ENTRIES.size() > instances.size() * SPAWN_THRESHOLD) {
-                    if (instances.size() < MAX_INSTANCES) {
-                        BatchWriteBehind bwb = new BatchWriteBehind(ejt);
-                        instances.add(bwb);
-                        INSTANCES_MONITOR.setValue(instances.size());
-                        try {
-                            Common.backgroundProcessing.addWorkItem(bwb);
-                        }
-                        catch (RejectedExecutionException ree) {
-                            instances.remove(bwb);
-                            INSTANCES_MONITOR.setValue(instances.size());
-                            throw ree;
-                        }
-                    }
+            if (SPILL_LOG != null && ENTRY_COUNT.get() >= MAX_ENTRIES) {
+                try {
+                    SPILL_LOG.append(e.dataPointId, e.dataType, e.dvalue, e.time);
+                    return;
+                }
+                catch (IOException ex) {
+                    LOG.error("Unable to spill point value to disk, keeping it in memory", ex);
                 }
             }
+            enqueue(e, ejt);
+        }
+
+        private static void enqueue(BatchWriteBehindEntry e, ExtendedJdbcTemplate ejt) {
+            Shard shard = SHARDS[Math.floorMod(e.dataPointId, SHARD_COUNT)];
+            shard.entries.offer(e);
+            shard.depth.incrementAndGet();
+            ENTRIES_MONITOR.setValue(ENTRY_COUNT.incrementAndGet());
+            shard.spawnIfRequired(ejt);
+        }
+
+        /**
+         * Move spilled values back into memory once the queue has drained to below half of its ceiling,
+         * one segment at a time so the ceiling is never exceeded.
+         */
+        private static void replaySpilled(ExtendedJdbcTemplate ejt) {
+            if (SPILL_LOG == null || SPILL_LOG.isEmpty() || !REPLAYING.compareAndSet(false, true))
+                return;
+
+            try {
+                while (!SPILL_LOG.isEmpty()) {
+                    int queued = ENTRY_COUNT.get();
+                    if (queued > MAX_ENTRIES / 2 || queued + SPILL_LOG.peekSegmentSize() > MAX_ENTRIES)
+                        break;
+                    SPILL_LOG.replaySegment((dataPointId, dataType, value, time, segment) -> enqueue(new BatchWriteBehindEntry(dataPointId, dataType, value, time, segment), ejt));
+                }
+            }
+            catch (IOException | RejectedExecutionException e) {
+                LOG.error("Error replaying point values spilled to disk, will retry", e);
+            }
+            finally {
+                REPLAYING.set(false);
+            }
         }
 
+        /**
+         * Tell the spill log which replayed values have been written, or lost, so their segments can be deleted
+         */
+        private static void spilledValuesWritten(BatchWriteBehindEntry[] inserts, boolean committed) {
+            WriteBehindSpillLog.ReplayedSegment segment = null;
+            int count = 0;
+            for (BatchWriteBehindEntry e : inserts) {
+                if (e.segment != segment) {
+                    if (segment != null)
+                        acknowledge(segment, count, committed);
+                    segment = e.segment;
+                    count = 0;
+                }
+                count++;
+            }
+            if (segment != null)
+                acknowledge(segment, count, committed);
+        }
+
+        private static void acknowledge(WriteBehindSpillLog.ReplayedSegment segment, int count, boolean committed) {
+            if (committed)
+                segment.committed(count);
+            else
+                segment.failed(count);
+        }
+
+        /**
+         * A single partition of the write behind queue
+         */
+        static class Shard {
+            private final int index;
+            private final ConcurrentLinkedQueue<BatchWriteBehindEntry> entries = new ConcurrentLinkedQueue<>();
+            private final AtomicInteger depth = new AtomicInteger();
+            private final AtomicInteger instances = new AtomicInteger();
+            private final AtomicIntegerMonitor depthMonitor;
+            private final ValueMonitor<Integer> flushLatencyMonitor;
+
+            /**
+             * Moving average of the time taken to write one batch, in ms
+             */
+            private volatile double flushLatency;
+
+            Shard(int index) {
+                this.index = index;
+                this.depthMonitor = Common.MONITORED_VALUES.<Integer>create(SHARD_DEPTH_MONITOR_ID_PREFIX + index)
+                        .name(new TranslatableMessage("internal.monitor.BATCH_SHARD_DEPTH", index))
+                        .value(0)
+                        .buildAtomic();
+                this.flushLatencyMonitor = Common.MONITORED_VALUES.<Integer>create(SHARD_FLUSH_LATENCY_MONITOR_ID_PREFIX + index)
+                        .name(new TranslatableMessage("internal.monitor.BATCH_SHARD_FLUSH_LATENCY", index))
+                        .value(0)
+                        .build();
+            }
+
+            /**
+             * Start a new worker if there are none, or if the current workers can't drain the
+             * queue within the target drain time at the measured flush latency.
+             */
+            void spawnIfRequired(ExtendedJdbcTemplate ejt) {
+                int running = instances.get();
+                if (running >= MAX_INSTANCES_PER_SHARD)
+                    return;
+
+                if (running > 0) {
+                    int queued = depth.get();
+                    double batches = (double) queued / (MAX_ROWS * running);
+                    if (queued < MAX_ROWS || batches * flushLatency < TARGET_DRAIN_TIME)
+                        return;
+                }
+
+                if (!instances.compareAndSet(running, running + 1))
+                    return;
+
+                INSTANCES_MONITOR.setValue(INSTANCE_COUNT.incrementAndGet());
+                BatchWriteBehind bwb = new BatchWriteBehind(this, ejt);
+                try {
+                    Common.backgroundProcessing.addWorkItem(bwb);
+                }
+                catch (RejectedExecutionException ree) {
+                    bwb.removeInstance();
+                    throw ree;
+                }
+            }
+
+            /**
+             * Remove up to MAX_ROWS entries from this shard
+             * @return the entries or null if the shard is empty
+             */
+            BatchWriteBehindEntry[] poll() {
+                int size = Math.min(depth.get(), MAX_ROWS);
+                if (size <= 0)
+                    return null;
+
+                BatchWriteBehindEntry[] inserts = new BatchWriteBehindEntry[size];
+                int count = 0;
+                while (count < size) {
+                    BatchWriteBehindEntry e = entries.poll();
+                    if (e == null)
+                        break;
+                    inserts[count++] = e;
+                }
+
+                if (count == 0)
+                    return null;
+                if (count < size)
+                    inserts = Arrays.copyOf(inserts, count);
+
+                depth.addAndGet(-count);
+                ENTRIES_MONITOR.setValue(ENTRY_COUNT.addAndGet(-count));
+                return inserts;
+            }
+
+            void recordFlush(long duration) {
+                double current = flushLatency;
+                flushLatency = current == 0 ? duration : current * 0.8 + duration * 0.2;
+                flushLatencyMonitor.setValue((int) flushLatency);
+                depthMonitor.setValue(depth.get());
+            }
+        }
+
+        private final Shard shard;
         private final ExtendedJdbcTemplate ejt;
 
-        public BatchWriteBehind(ExtendedJdbcTemplate ejt) {
+        public BatchWriteBehind(Shard shard, ExtendedJdbcTemplate ejt) {
+            this.shard = shard;
             this.ejt = ejt;
         }
 
         @Override
         public void execute() {
             try {
-                BatchWriteBehindEntry[] inserts;
                 while (true) {
-                    synchronized (ENTRIES) {
-                        if (ENTRIES.size() == 0)
-                            break;
-
-                        inserts = new BatchWriteBehindEntry[ENTRIES.size() < MAX_ROWS ? ENTRIES.size() : MAX_ROWS];
-                        ENTRIES.pop(inserts);
-                        ENTRIES_MONITOR.setValue(ENTRIES.size());
+                    replaySpilled(ejt);
+                    BatchWriteBehindEntry[] inserts = shard.poll();
+                    if (inserts == null) {
+                        shard.depthMonitor.setValue(0);
+                        break;
                     }
 
                     // Create the sql and parameters
@@ -1286,11 +1890,16 @@ public class PointValueDaoSQL extends BaseDao implements PointValueDao {
 
                     // Insert the data
                     int retries = 10;
+                    long start = System.currentTimeMillis();
                     while (true) {
                         try {
                             ejt.update(sb.toString(), params);
                             writesPerSecond.hitMultiple(inserts.length);
                             BATCH_WRITE_SPEED_MONITOR.setValue(writesPerSecond.getEventCounts()[0] / 5);
+                            for (BatchWriteBehindEntry e : inserts)
+                                if (e.dataType == DataTypes.NUMERIC)
+                                    rollupValueSaved(e.dataPointId, e.dvalue, e.time);
+                            spilledValuesWritten(inserts, true);
                             break;
                         }
                         catch (RuntimeException e) {
@@ -1298,6 +1907,7 @@ public class PointValueDaoSQL extends BaseDao implements PointValueDao {
                                 if (retries <= 0) {
                                     LOG.error("Concurrency failure saving " + inserts.length
                                             + " batch inserts after 10 tries. Data lost.");
+                                    spilledValuesWritten(inserts, false);
                                     break;
                                 }
 
@@ -1317,18 +1927,33 @@ public class PointValueDaoSQL extends BaseDao implements PointValueDao {
                             }
                             else {
                                 LOG.error("Error saving " + inserts.length + " batch inserts. Data lost.", e);
+                                spilledValuesWritten(inserts, false);
                                 break;
                             }
                         }
                     }
+                    shard.recordFlush(System.currentTimeMillis() - start);
                 }
             }
             finally {
-                instances.remove(this);
-                INSTANCES_MONITOR.setValue(instances.size());
+                removeInstance();
+                // An entry may have been added after our last poll while we were still counted as running
+                if (shard.depth.get() > 0) {
+                    try {
+                        shard.spawnIfRequired(ejt);
+                    }
+                    catch (RejectedExecutionException ree) {
+                        LOG.error("Unable to restart batch writer for shard " + shard.index, ree);
+                    }
+                }
             }
         }
 
+        private void removeInstance() {
+            shard.instances.decrementAndGet();
+            INSTANCES_MONITOR.setValue(INSTANCE_COUNT.decrementAndGet());
+        }
+
         @Override
         public int getPriority() {
             return WorkItem.PRIORITY_HIGH;
@@ -1336,7 +1961,7 @@ public class PointValueDaoSQL extends BaseDao implements PointValueDao {
 
         @Override
         public String getDescription() {
-            return "Batch Writing from batch of size: " + ENTRIES.size();
+            return "Batch Writing from shard " + shard.index + " of size: " + shard.depth.get();
         }
 
         @Override
@@ -1351,8 +1976,7 @@ public class PointValueDaoSQL extends BaseDao implements PointValueDao {
 
         @Override
         public void rejected(RejectedTaskReason reason) {
-            instances.remove(this);
-            INSTANCES_MONITOR.setValue(instances.size());
+            removeInstance();
         }
     }
 
@@ -0,0 +1,178 @@
+/**
+ * Copyright (C) 2020 Infinite Automation Software. All rights reserved.
+ */
+package com.serotonin.m2m2.db.dao;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import com.infiniteautomation.mango.statistics.AnalogStatisticsBucket;
+import com.serotonin.m2m2.DataTypes;
+
+/**
+ * Access to the pointValueRollups table, each row is an AnalogStatisticsBucket of one point in one tier. The
+ * tier is the length of the bucket in ms and ts is the start of the bucket.
+ *
+ * Only PointValueRollupStore should modify the table.
+ *
+ * @author Terry Packer
+ */
+public class PointValueRollupDao extends BaseDao {
+
+    private static final String COLUMNS = "valueCount, valueSum, minimumValue, minimumTs, maximumValue, maximumTs, firstValue, firstTs, lastValue, lastTs, integral";
+    private static final String INSERT = "INSERT INTO pointValueRollups (dataPointId, tier, ts, " + COLUMNS + ") VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+    private static final String UPDATE = "UPDATE pointValueRollups SET valueCount=?, valueSum=?, minimumValue=?, minimumTs=?, maximumValue=?, maximumTs=?, "
+            + "firstValue=?, firstTs=?, lastValue=?, lastTs=?, integral=? WHERE dataPointId=? AND tier=? AND ts=?";
+    private static final String SELECT = "SELECT ts, " + COLUMNS + " FROM pointValueRollups WHERE dataPointId=? AND tier=? AND ts>=? AND ts<? ORDER BY ts";
+
+    /**
+     * Receives the raw numeric values of a point
+     */
+    @FunctionalInterface
+    public interface RawValueCallback {
+        void value(double value, long time);
+    }
+
+    /**
+     * Insert or replace a bucket
+     */
+    public void save(int dataPointId, AnalogStatisticsBucket bucket) {
+        Object[] values = values(bucket);
+        Object[] params = new Object[values.length + 3];
+        System.arraycopy(values, 0, params, 0, values.length);
+        params[values.length] = dataPointId;
+        params[values.length + 1] = bucket.getPeriod();
+        params[values.length + 2] = bucket.getPeriodStart();
+        if (ejt.update(UPDATE, params) == 0)
+            insert(dataPointId, bucket);
+    }
+
+    /**
+     * Insert buckets that are known not to exist
+     */
+    public void insert(int dataPointId, List<AnalogStatisticsBucket> buckets) {
+        if (buckets.isEmpty())
+            return;
+        Object[][] params = new Object[buckets.size()][];
+        for (int i = 0; i < params.length; i++)
+            params[i] = insertParams(dataPointId, buckets.get(i));
+        batchUpdate(INSERT, params);
+    }
+
+    private void insert(int dataPointId, AnalogStatisticsBucket bucket) {
+        ejt.update(INSERT, insertParams(dataPointId, bucket));
+    }
+
+    /**
+     * Read the buckets of a tier that start in the range
+     * @param dataPointId
+     * @param tier
+     * @param from - inclusive
+     * @param to - exclusive
+     * @param callback - receives the buckets in time order
+     */
+    public void query(int dataPointId, long tier, long from, long to, Consumer<AnalogStatisticsBucket> callback) {
+        ejt.query(SELECT, new Object[] { dataPointId, tier, from, to }, rs -> {
+            callback.accept(new AnalogStatisticsBucket(rs.getLong(1), tier, rs.getInt(2), rs.getDouble(3),
+                    rs.getDouble(4), rs.getLong(5), rs.getDouble(6), rs.getLong(7),
+                    rs.getDouble(8), rs.getLong(9), rs.getDouble(10), rs.getLong(11), rs.getDouble(12)));
+        });
+    }
+
+    /**
+     * Start of the latest bucket of a tier
+     * @return the start or Long.MIN_VALUE if there are none
+     */
+    public long getLatestStart(int dataPointId, long tier) {
+        return ejt.queryForLong("SELECT max(ts) FROM pointValueRollups WHERE dataPointId=? AND tier=?",
+                new Object[] { dataPointId, tier }, Long.MIN_VALUE);
+    }
+
+    /**
+     * Delete the buckets of all tiers that start in the range
+     */
+    public void deleteStartingBetween(int dataPointId, long from, long to) {
+        ejt.update("DELETE FROM pointValueRollups WHERE dataPointId=? AND ts>=? AND ts<?", dataPointId, from, to);
+    }
+
+    /**
+     * Delete the buckets of all tiers that are entirely inside the range
+     */
+    public void deleteContainedIn(int dataPointId, long from, long to) {
+        ejt.update("DELETE FROM pointValueRollups WHERE dataPointId=? AND ts>=? AND ts+tier<=?", dataPointId, from, to);
+    }
+
+    public void delete(int dataPointId) {
+        ejt.update("DELETE FROM pointValueRollups WHERE dataPointId=?", dataPointId);
+    }
+
+    public void deleteAll() {
+        ejt.update("DELETE FROM pointValueRollups");
+    }
+
+    public void deleteOrphaned() {
+        ejt.update("DELETE FROM pointValueRollups WHERE dataPointId NOT IN (SELECT ID FROM dataPoints)");
+    }
+
+    public List<Integer> getNumericDataPointIds() {
+        return queryForList("SELECT id FROM dataPoints WHERE dataTypeId=?", new Object[] { DataTypes.NUMERIC }, Integer.class);
+    }
+
+    /**
+     * Read the raw numeric values of a point in time order
+     * @param from - inclusive
+     * @param to - exclusive
+     */
+    public void getRawValues(int dataPointId, long from, long to, RawValueCallback callback) {
+        ejt.query("SELECT pointValue, ts FROM pointValues WHERE dataPointId=? AND dataType=? AND ts>=? AND ts<? ORDER BY ts",
+                new Object[] { dataPointId, DataTypes.NUMERIC, from, to }, rs -> {
+                    callback.value(rs.getDouble(1), rs.getLong(2));
+                });
+    }
+
+    /**
+     * @return time of the first raw numeric value at or after the time, Long.MIN_VALUE if there is none
+     */
+    public long getFirstRawTime(int dataPointId, long from) {
+        return ejt.queryForLong("SELECT min(ts) FROM pointValues WHERE dataPointId=? AND dataType=? AND ts>=?",
+                new Object[] { dataPointId, DataTypes.NUMERIC, from }, Long.MIN_VALUE);
+    }
+
+    /**
+     * @return time of the latest raw numeric value, Long.MIN_VALUE if there is none
+     */
+    public long getLatestRawTime(int dataPointId) {
+        return ejt.queryForLong("SELECT max(ts) FROM pointValues WHERE dataPointId=? AND dataType=?",
+                new Object[] { dataPointId, DataTypes.NUMERIC }, Long.MIN_VALUE);
+    }
+
+    /**
+     * @return the point of a raw value, null if it does not exist
+     */
+    public Integer getRawValuePoint(long pointValueId) {
+        return queryForObject("SELECT dataPointId FROM pointValues WHERE id=?", new Object[] { pointValueId }, Integer.class, null);
+    }
+
+    /**
+     * @return the time of a raw value, Long.MIN_VALUE if it does not exist
+     */
+    public long getRawValueTime(long pointValueId) {
+        return ejt.queryForLong("SELECT ts FROM pointValues WHERE id=?", new Object[] { pointValueId }, Long.MIN_VALUE);
+    }
+
+    private static Object[] insertParams(int dataPointId, AnalogStatisticsBucket bucket) {
+        Object[] values = values(bucket);
+        Object[] params = new Object[values.length + 3];
+        params[0] = dataPointId;
+        params[1] = bucket.getPeriod();
+        params[2] = bucket.getPeriodStart();
+        System.arraycopy(values, 0, params, 3, values.length);
+        return params;
+    }
+
+    private static Object[] values(AnalogStatisticsBucket bucket) {
+        return new Object[] { bucket.getCount(), bucket.getSum(),
+                bucket.getMinimumValue(), bucket.getMinimumTime(), bucket.getMaximumValue(), bucket.getMaximumTime(),
+                bucket.getFirstValue(), bucket.getFirstTime(), bucket.getLastValue(), bucket.getLastTime(), bucket.getIntegral() };
+    }
+}
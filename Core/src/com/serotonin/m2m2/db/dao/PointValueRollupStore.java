@@ -0,0 +1,447 @@
+/**
+ * Copyright (C) 2020 Infinite Automation Software. All rights reserved.
+ */
+package com.serotonin.m2m2.db.dao;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.infiniteautomation.mango.statistics.AnalogStatisticsBucket;
+import com.infiniteautomation.mango.util.LazyInitSupplier;
+import com.serotonin.m2m2.Common;
+import com.serotonin.timer.FixedRateTrigger;
+import com.serotonin.timer.TimerTask;
+
+/**
+ * Pre-aggregated statistics of numeric point values in tiers of fixed, epoch aligned buckets, e.g. 1 minute,
+ * 1 hour and 1 day. Each tier must divide the next so a bucket of the coarsest tier contains whole buckets of
+ * every other tier, that bucket is the unit that is re-aggregated from the raw values.
+ *
+ * The tiers are maintained from the SQL point value write path. For each point the coarse bucket containing
+ * its latest value is live, the open bucket of each tier is updated in memory as values arrive in order and is
+ * written when a value for the next bucket arrives or before a query. A value that is late, backdated or not in
+ * the live bucket marks its coarse bucket dirty, dirty buckets are re-aggregated from the raw values by a
+ * periodic task or before a query of the point. The first time a value is saved after a restart the live bucket
+ * is marked dirty, so the values saved before are loaded by the task and not on the thread writing the value.
+ *
+ * The buckets are aligned to the epoch, i.e. to UTC. A rollup period is answered from the coarsest tier that its
+ * boundaries line up with, so a day tier only serves daily rollups in a time zone without an offset from UTC.
+ * In other time zones daily rollups are answered from the hour tier, or the minute tier where the offset is not
+ * whole hours.
+ *
+ * Deleting values deletes the buckets inside the range and marks the coarse buckets at the edges dirty.
+ *
+ * When the store starts it back fills each numeric point from its latest coarse bucket, or its first value if
+ * it has none, to its latest value. Until a point has been back filled the tiers don't cover it. Values that
+ * were backdated while the store was disabled are not found by the back fill.
+ *
+ * @author Terry Packer
+ */
+public class PointValueRollupStore {
+    private static final Log LOG = LogFactory.getLog(PointValueRollupStore.class);
+
+    private static final long TASK_PERIOD = 5000;
+    /**
+     * Time each run of the task may spend back filling
+     */
+    private static final long BACKFILL_TIME = 2000;
+    /**
+     * Number of coarse buckets back filled under one lock of a point
+     */
+    private static final int BACKFILL_BUCKETS = 31;
+
+    private static final LazyInitSupplier<Optional<PointValueRollupStore>> instance = new LazyInitSupplier<>(() -> {
+        if (!Common.envProps.getBoolean("db.rollups.enabled", false) || Common.databaseProxy.getNoSQLProxy() != null)
+            return Optional.empty();
+        PointValueRollupStore store = new PointValueRollupStore(parseTiers(Common.envProps.getString("db.rollups.tiers", "60000,3600000,86400000")));
+        store.start();
+        return Optional.of(store);
+    });
+
+    /**
+     * @return the store or null if rollups are disabled
+     */
+    public static PointValueRollupStore getInstance() {
+        return instance.get().orElse(null);
+    }
+
+    private final PointValueRollupDao dao = new PointValueRollupDao();
+    private final long[] tiers;
+    private final long coarsest;
+    private final ConcurrentMap<Integer, PointState> states = new ConcurrentHashMap<>();
+
+    private final Deque<Integer> backfillQueue = new ArrayDeque<>();
+    private final Set<Integer> backfillPending = ConcurrentHashMap.newKeySet();
+    private volatile boolean backfillStarted;
+    /**
+     * Next coarse bucket to back fill for the point at the head of the queue
+     */
+    private long backfillFrom = Long.MIN_VALUE;
+
+    /**
+     * @param tiers - sorted, each divides the next
+     */
+    PointValueRollupStore(long[] tiers) {
+        this.tiers = tiers;
+        this.coarsest = tiers[tiers.length - 1];
+    }
+
+    private void start() {
+        LOG.info("Point value rollups enabled for tiers " + Arrays.toString(tiers) + " ms");
+        if (Common.backgroundProcessing != null)
+            Common.backgroundProcessing.schedule(new RollupTask());
+    }
+
+    /**
+     * @return the tiers in ms, finest first
+     */
+    public long[] getTiers() {
+        return Arrays.copyOf(tiers, tiers.length);
+    }
+
+    /**
+     * A numeric value was inserted into the pointValues table
+     */
+    public void valueSaved(int dataPointId, double value, long time) {
+        PointState state = getState(dataPointId);
+        synchronized (state) {
+            long coarseStart = floor(time, coarsest);
+            if (!state.loaded) {
+                // Values may have been saved before a restart, the live bucket is loaded from the raw values by
+                // the task rather than on the writing thread
+                long latest = dao.getLatestRawTime(dataPointId);
+                state.loaded = true;
+                state.liveStart = floor(Math.max(latest, time), coarsest);
+                state.dirty.add(state.liveStart);
+                state.dirty.add(coarseStart);
+                return;
+            }
+
+            if (coarseStart > state.liveStart) {
+                flush(dataPointId, state);
+                state.liveStart = coarseStart;
+                Arrays.fill(state.open, null);
+            }
+
+            // While the live bucket is dirty its open buckets are not complete, they are reloaded when it is
+            // re-aggregated
+            if (coarseStart == state.liveStart && time > state.lastTime && !state.dirty.contains(coarseStart)) {
+                for (int i = 0; i < tiers.length; i++) {
+                    AnalogStatisticsBucket bucket = state.open[i];
+                    if (bucket == null || !bucket.contains(time)) {
+                        if (bucket != null && state.changed[i])
+                            dao.save(dataPointId, bucket);
+                        bucket = state.open[i] = new AnalogStatisticsBucket(floor(time, tiers[i]), tiers[i]);
+                    }
+                    bucket.addValue(value, time);
+                    state.changed[i] = true;
+                }
+                state.lastTime = time;
+            } else {
+                state.dirty.add(coarseStart);
+            }
+        }
+    }
+
+    /**
+     * Raw values of a point were deleted
+     * @param from - inclusive, Long.MIN_VALUE for no lower bound
+     * @param to - exclusive
+     */
+    public void valuesDeleted(int dataPointId, long from, long to) {
+        PointState state = getState(dataPointId);
+        synchronized (state) {
+            dao.deleteContainedIn(dataPointId, from, to);
+            if (from != Long.MIN_VALUE)
+                state.dirty.add(floor(from, coarsest));
+            state.dirty.add(floor(to - 1, coarsest));
+        }
+    }
+
+    /**
+     * All raw values of a point were deleted
+     */
+    public void allValuesDeleted(int dataPointId) {
+        PointState state = getState(dataPointId);
+        synchronized (state) {
+            dao.delete(dataPointId);
+            state.reset();
+        }
+    }
+
+    /**
+     * The raw values of every point were deleted
+     */
+    public void allPointsDeleted() {
+        dao.deleteAll();
+        for (PointState state : states.values()) {
+            synchronized (state) {
+                state.reset();
+            }
+        }
+    }
+
+    /**
+     * The raw values of deleted points were deleted
+     */
+    public void orphansDeleted() {
+        dao.deleteOrphaned();
+    }
+
+    /**
+     * Bring the stored buckets of a point up to date before they are read
+     *
+     * @return true if the tiers cover all of the point's values
+     */
+    public boolean prepare(int dataPointId) {
+        if (!backfillStarted || backfillPending.contains(dataPointId))
+            return false;
+        PointState state = states.get(dataPointId);
+        if (state != null) {
+            synchronized (state) {
+                processDirty(dataPointId, state);
+                flush(dataPointId, state);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the coarsest tier whose buckets line up with every period boundary
+     * @param boundaries - epoch ms
+     * @return the tier in ms or -1 if none do
+     */
+    public long getCoveringTier(long... boundaries) {
+        for (int i = tiers.length - 1; i >= 0; i--) {
+            long tier = tiers[i];
+            boolean aligned = true;
+            for (long boundary : boundaries) {
+                if (Math.floorMod(boundary, tier) != 0) {
+                    aligned = false;
+                    break;
+                }
+            }
+            if (aligned)
+                return tier;
+        }
+        return -1;
+    }
+
+    /**
+     * Read the stored buckets of a tier, call prepare() first
+     * @param from - inclusive
+     * @param to - exclusive
+     */
+    public void query(int dataPointId, long tier, long from, long to, Consumer<AnalogStatisticsBucket> callback) {
+        dao.query(dataPointId, tier, from, to, callback);
+    }
+
+    /**
+     * Re-aggregate the dirty buckets of every point and continue the back fill
+     */
+    void process() {
+        for (ConcurrentMap.Entry<Integer, PointState> entry : states.entrySet()) {
+            PointState state = entry.getValue();
+            synchronized (state) {
+                processDirty(entry.getKey(), state);
+            }
+        }
+        backfill(System.currentTimeMillis() + BACKFILL_TIME);
+    }
+
+    private PointState getState(int dataPointId) {
+        return states.computeIfAbsent(dataPointId, k -> new PointState(tiers.length));
+    }
+
+    private void processDirty(int dataPointId, PointState state) {
+        while (!state.dirty.isEmpty()) {
+            long from = state.dirty.first();
+            long to = from + coarsest;
+            // Re-aggregate consecutive buckets together
+            while (state.dirty.contains(to))
+                to += coarsest;
+            reaggregate(dataPointId, state, from, to);
+        }
+    }
+
+    /**
+     * Write the open buckets that have changed
+     */
+    private void flush(int dataPointId, PointState state) {
+        for (int i = 0; i < tiers.length; i++) {
+            if (state.open[i] != null && state.changed[i]) {
+                dao.save(dataPointId, state.open[i]);
+                state.changed[i] = false;
+            }
+        }
+    }
+
+    /**
+     * Replace the buckets of every tier in a range of coarse buckets with buckets computed from the raw values,
+     * the open buckets are reloaded if the live bucket is in the range. Must hold the lock of the state.
+     */
+    private void reaggregate(int dataPointId, PointState state, long from, long to) {
+        state.dirty.subSet(from, to).clear();
+        List<AnalogStatisticsBucket> buckets = new ArrayList<>();
+        AnalogStatisticsBucket[] current = new AnalogStatisticsBucket[tiers.length];
+        long[] lastTime = { Long.MIN_VALUE };
+        dao.getRawValues(dataPointId, from, to, (value, time) -> {
+            for (int i = 0; i < tiers.length; i++) {
+                AnalogStatisticsBucket bucket = current[i];
+                if (bucket == null || !bucket.contains(time)) {
+                    if (bucket != null)
+                        buckets.add(bucket);
+                    bucket = current[i] = new AnalogStatisticsBucket(floor(time, tiers[i]), tiers[i]);
+                }
+                bucket.addValue(value, time);
+            }
+            lastTime[0] = time;
+        });
+        for (AnalogStatisticsBucket bucket : current)
+            if (bucket != null)
+                buckets.add(bucket);
+
+        dao.doInTransaction(status -> {
+            dao.deleteStartingBetween(dataPointId, from, to);
+            dao.insert(dataPointId, buckets);
+        });
+
+        if (state.loaded && state.liveStart >= from && state.liveStart < to) {
+            boolean inLive = lastTime[0] >= state.liveStart;
+            for (int i = 0; i < tiers.length; i++) {
+                state.open[i] = inLive && current[i] != null && current[i].getPeriodStart() >= state.liveStart ? current[i] : null;
+                state.changed[i] = false;
+            }
+            state.lastTime = inLive ? lastTime[0] : Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Back fill points in chunks of coarse buckets until the deadline
+     */
+    private void backfill(long deadline) {
+        if (!backfillStarted) {
+            List<Integer> ids = dao.getNumericDataPointIds();
+            backfillPending.addAll(ids);
+            backfillQueue.addAll(ids);
+            backfillStarted = true;
+            LOG.info("Back filling point value rollups for " + ids.size() + " points");
+        }
+
+        while (!backfillQueue.isEmpty() && System.currentTimeMillis() < deadline) {
+            int dataPointId = backfillQueue.peek();
+            if (backfillFrom == Long.MIN_VALUE) {
+                long latestStart = dao.getLatestStart(dataPointId, coarsest);
+                long first = dao.getFirstRawTime(dataPointId, latestStart);
+                backfillFrom = first == Long.MIN_VALUE ? Long.MAX_VALUE : floor(first, coarsest);
+            }
+
+            if (backfillFrom != Long.MAX_VALUE) {
+                long to = backfillFrom + coarsest * BACKFILL_BUCKETS;
+                PointState state = getState(dataPointId);
+                synchronized (state) {
+                    reaggregate(dataPointId, state, backfillFrom, to);
+                }
+                // Skip over gaps in the data
+                long next = dao.getFirstRawTime(dataPointId, to);
+                backfillFrom = next == Long.MIN_VALUE ? Long.MAX_VALUE : floor(next, coarsest);
+            }
+
+            if (backfillFrom == Long.MAX_VALUE) {
+                backfillQueue.poll();
+                backfillPending.remove(dataPointId);
+                backfillFrom = Long.MIN_VALUE;
+                if (backfillQueue.isEmpty())
+                    LOG.info("Point value rollups back filled");
+            }
+        }
+    }
+
+    private static long floor(long time, long period) {
+        return time - Math.floorMod(time, period);
+    }
+
+    /**
+     * Parse the tiers in ms, a tier that is not a multiple of the previous tier is ignored
+     */
+    static long[] parseTiers(String value) {
+        long[] parsed = Arrays.stream(value.split("\\s*,\\s*")).filter(s -> !s.isEmpty()).mapToLong(Long::parseLong).sorted().toArray();
+        long[] tiers = new long[parsed.length];
+        int count = 0;
+        for (long tier : parsed) {
+            if (tier <= 0 || (count > 0 && (tier == tiers[count - 1] || tier % tiers[count - 1] != 0))) {
+                LOG.warn("Ignoring point value rollup tier " + tier + ", it must be a multiple of the previous tier");
+                continue;
+            }
+            tiers[count++] = tier;
+        }
+        if (count == 0)
+            throw new IllegalArgumentException("No valid point value rollup tiers in '" + value + "'");
+        return Arrays.copyOf(tiers, count);
+    }
+
+    /**
+     * Rollup state of one point, guarded by itself
+     */
+    private static class PointState {
+        /**
+         * False until the live bucket has been loaded from the raw values
+         */
+        boolean loaded;
+        long liveStart;
+        /**
+         * Time of the latest value in the live bucket
+         */
+        long lastTime = Long.MIN_VALUE;
+        final AnalogStatisticsBucket[] open;
+        final boolean[] changed;
+        /**
+         * Starts of the coarse buckets to re-aggregate
+         */
+        final TreeSet<Long> dirty = new TreeSet<>();
+
+        PointState(int tiers) {
+            open = new AnalogStatisticsBucket[tiers];
+            changed = new boolean[tiers];
+        }
+
+        void reset() {
+            loaded = false;
+            lastTime = Long.MIN_VALUE;
+            Arrays.fill(open, null);
+            Arrays.fill(changed, false);
+            dirty.clear();
+        }
+    }
+
+    /**
+     * Re-aggregates dirty buckets and back fills
+     */
+    private class RollupTask extends TimerTask {
+
+        RollupTask() {
+            super(new FixedRateTrigger(TASK_PERIOD, TASK_PERIOD), "Point value rollups", "PVRollups", 0);
+        }
+
+        @Override
+        public void run(long runtime) {
+            try {
+                process();
+            } catch (Exception e) {
+                LOG.error("Error processing point value rollups", e);
+            }
+        }
+    }
+}
@@ -33,6 +33,8 @@ import com.infiniteautomation.mango.db.query.ConditionSortLimit;
 import com.infiniteautomation.mango.spring.MangoRuntimeContextConfiguration;
 import com.infiniteautomation.mango.spring.db.RoleTableDefinition;
 import com.infiniteautomation.mango.spring.eventMulticaster.PropagatingEvent;
+import com.infiniteautomation.mango.spring.events.DaoEvent;
+import com.infiniteautomation.mango.spring.events.DaoEventType;
 import com.serotonin.m2m2.i18n.TranslatableMessage;
 import com.serotonin.m2m2.rt.event.type.AuditEventType;
 import com.serotonin.m2m2.vo.role.Role;
@@ -70,6 +72,14 @@ public class RoleDao extends AbstractVoDao<RoleVO, RoleTableDefinition> {
         }
     }
 
+    @Override
+    protected void publishEvent(DaoEvent<RoleVO> event) {
+        //The events are delivered on another thread so the tag index is updated from here
+        if (event.getType() != DaoEventType.CREATE)
+            DataPointTagsDao.getInstance().permissionsChanged();
+        super.publishEvent(event);
+    }
+
     @Override
     public void deletePostRelationalData(RoleVO vo) {
         permissionDao.roleUnlinked();
@@ -0,0 +1,269 @@
+/**
+ * Copyright (C) 2020 Infinite Automation Software. All rights reserved.
+ */
+package com.serotonin.m2m2.db.dao;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Append only, segmented on-disk log of point values that could not be held in memory
+ * by the write behind queue. Values are stored as fixed size records and are replayed a
+ * segment at a time, oldest segment first and sorted by timestamp within the segment.
+ *
+ * Appends are forced to disk every few records and when a segment is sealed. A replayed segment is
+ * only deleted once every value in it has been committed to the database, so values that were spilled
+ * or replayed before a crash are found again when the log is re-opened. Values may then be written twice,
+ * but are not lost.
+ *
+ * @author Terry Packer
+ */
+public class WriteBehindSpillLog {
+    private static final Log LOG = LogFactory.getLog(WriteBehindSpillLog.class);
+
+    static final String FILE_PREFIX = "spill.";
+    static final String FILE_SUFFIX = ".bin";
+
+    /**
+     * dataPointId(int), dataType(int), value(double), time(long)
+     */
+    static final int RECORD_SIZE = 4 + 4 + 8 + 8;
+
+    static final int DEFAULT_FORCE_INTERVAL = 1000;
+
+    /**
+     * Receives replayed records, each value must be passed to {@link ReplayedSegment#committed(int)}
+     * once it is in the database
+     */
+    public interface SpilledValueConsumer {
+        void accept(int dataPointId, int dataType, double value, long time, ReplayedSegment segment);
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int forceInterval;
+    private final ByteBuffer writeBuffer = ByteBuffer.allocate(RECORD_SIZE);
+
+    /**
+     * Sealed segments by sequence number and their record counts
+     */
+    private final TreeMap<Long, Integer> segments = new TreeMap<>();
+    private long nextSequence;
+    private FileChannel current;
+    private long currentSequence;
+    private int currentCount;
+    private int unforced;
+    private volatile long size;
+
+    /**
+     * @param directory - where to store the segments
+     * @param segmentSize - number of records per segment
+     * @throws IOException
+     */
+    public WriteBehindSpillLog(Path directory, int segmentSize) throws IOException {
+        this(directory, segmentSize, DEFAULT_FORCE_INTERVAL);
+    }
+
+    /**
+     * @param directory - where to store the segments
+     * @param segmentSize - number of records per segment
+     * @param forceInterval - number of records appended between forcing the segment to disk
+     * @throws IOException
+     */
+    public WriteBehindSpillLog(Path directory, int segmentSize, int forceInterval) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.forceInterval = Math.max(1, forceInterval);
+        Files.createDirectories(directory);
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                long sequence = Long.parseLong(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()));
+                // A record may have been partially written during a crash, it is ignored
+                int count = (int) (Files.size(file) / RECORD_SIZE);
+                if (count == 0) {
+                    Files.delete(file);
+                    continue;
+                }
+                segments.put(sequence, count);
+                size += count;
+                nextSequence = Math.max(nextSequence, sequence + 1);
+            }
+        }
+    }
+
+    /**
+     * @return the number of values in the log
+     */
+    public long size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Append a value to the end of the log
+     * @throws IOException
+     */
+    public synchronized void append(int dataPointId, int dataType, double value, long time) throws IOException {
+        if (current == null) {
+            currentSequence = nextSequence++;
+            current = FileChannel.open(segmentPath(currentSequence), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            currentCount = 0;
+        }
+
+        writeBuffer.clear();
+        writeBuffer.putInt(dataPointId).putInt(dataType).putDouble(value).putLong(time);
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining())
+            current.write(writeBuffer);
+        currentCount++;
+        size++;
+
+        if (currentCount >= segmentSize)
+            seal();
+        else if (++unforced >= forceInterval) {
+            current.force(false);
+            unforced = 0;
+        }
+    }
+
+    /**
+     * @return the number of values in the segment that would be replayed next, 0 if the log is empty
+     */
+    public synchronized int peekSegmentSize() {
+        if (segments.isEmpty())
+            return currentCount;
+        return segments.firstEntry().getValue();
+    }
+
+    /**
+     * Replay the oldest segment in timestamp order and remove it from the log. The file is deleted once all of
+     * its values have been committed. If the only data is in the segment currently being appended to, it is sealed first.
+     *
+     * @return the number of values replayed
+     * @throws IOException
+     */
+    public synchronized int replaySegment(SpilledValueConsumer consumer) throws IOException {
+        if (segments.isEmpty()) {
+            if (currentCount == 0)
+                return 0;
+            seal();
+        }
+
+        long sequence = segments.firstKey();
+        Path file = segmentPath(sequence);
+        int count = segments.get(sequence);
+
+        ByteBuffer buffer = ByteBuffer.allocate(count * RECORD_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // keep reading
+            }
+        }
+        buffer.flip();
+
+        // Sort record positions by timestamp, keeping the append order for equal timestamps
+        long[] times = new long[count];
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            times[i] = buffer.getLong(i * RECORD_SIZE + 16);
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(times[a], times[b]));
+
+        segments.remove(sequence);
+        size -= count;
+
+        ReplayedSegment segment = new ReplayedSegment(file, count);
+        for (int i : order) {
+            int position = i * RECORD_SIZE;
+            consumer.accept(buffer.getInt(position), buffer.getInt(position + 4),
+                    buffer.getDouble(position + 8), buffer.getLong(position + 16), segment);
+        }
+        return count;
+    }
+
+    /**
+     * Close the segment being appended to, the data remains on disk
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+        if (current != null)
+            seal();
+    }
+
+    private void seal() throws IOException {
+        current.force(false);
+        current.close();
+        current = null;
+        unforced = 0;
+        if (currentCount > 0)
+            segments.put(currentSequence, currentCount);
+        else
+            Files.deleteIfExists(segmentPath(currentSequence));
+        currentCount = 0;
+    }
+
+    private Path segmentPath(long sequence) {
+        return directory.resolve(FILE_PREFIX + sequence + FILE_SUFFIX);
+    }
+
+    /**
+     * A segment that has been replayed into memory, its file is kept until all of its values are committed
+     */
+    public static class ReplayedSegment {
+        private final Path file;
+        private final AtomicInteger uncommitted;
+        private volatile boolean failed;
+
+        ReplayedSegment(Path file, int count) {
+            this.file = file;
+            this.uncommitted = new AtomicInteger(count);
+        }
+
+        /**
+         * Some values of this segment are in the database
+         */
+        public void committed(int count) {
+            if (uncommitted.addAndGet(-count) == 0 && !failed) {
+                try {
+                    Files.deleteIfExists(file);
+                }
+                catch (IOException e) {
+                    LOG.warn("Unable to delete replayed spill file " + file + ", it will be replayed again on restart", e);
+                }
+            }
+        }
+
+        /**
+         * Some values of this segment could not be written, the file is kept and replayed again on restart
+         */
+        public void failed(int count) {
+            failed = true;
+            committed(count);
+        }
+
+        /**
+         * @return the number of values not yet committed
+         */
+        public int getUncommitted() {
+            return uncommitted.get();
+        }
+    }
+}
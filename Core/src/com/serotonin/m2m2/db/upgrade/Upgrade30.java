@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 2020 Infinite Automation Software. All rights reserved.
+ */
+package com.serotonin.m2m2.db.upgrade;
+
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.serotonin.m2m2.db.DatabaseProxy;
+
+/**
+ * Add the pointValueRollups table for pre-aggregated numeric point values
+ *
+ * @author Terry Packer
+ */
+public class Upgrade30 extends DBUpgrade {
+
+    private final Log LOG = LogFactory.getLog(Upgrade30.class);
+
+    @Override
+    protected void upgrade() throws Exception {
+        try (OutputStream out = createUpdateLogOutputStream()) {
+            Map<String, String[]> scripts = new HashMap<>();
+            scripts.put(DatabaseProxy.DatabaseType.MYSQL.name(), pointValueRollupsMySQL);
+            scripts.put(DatabaseProxy.DatabaseType.H2.name(), pointValueRollupsSQL);
+            scripts.put(DatabaseProxy.DatabaseType.MSSQL.name(), pointValueRollupsMSSQL);
+            scripts.put(DatabaseProxy.DatabaseType.POSTGRES.name(), pointValueRollupsPostgres);
+            runScript(scripts, out);
+        } catch(Exception e) {
+            LOG.error("Upgrade 30 failed.", e);
+            throw e;
+        }
+    }
+
+    private String[] pointValueRollupsMySQL = new String[] {
+            "CREATE TABLE pointValueRollups (dataPointId INT NOT NULL, tier BIGINT NOT NULL, ts BIGINT NOT NULL, valueCount INT NOT NULL, valueSum DOUBLE, minimumValue DOUBLE, minimumTs BIGINT, maximumValue DOUBLE, maximumTs BIGINT, firstValue DOUBLE, firstTs BIGINT, lastValue DOUBLE, lastTs BIGINT, integral DOUBLE, PRIMARY KEY (dataPointId, tier, ts))engine=InnoDB;"
+    };
+
+    private String[] pointValueRollupsSQL = new String[] {
+            "CREATE TABLE pointValueRollups (dataPointId INT NOT NULL, tier BIGINT NOT NULL, ts BIGINT NOT NULL, valueCount INT NOT NULL, valueSum DOUBLE, minimumValue DOUBLE, minimumTs BIGINT, maximumValue DOUBLE, maximumTs BIGINT, firstValue DOUBLE, firstTs BIGINT, lastValue DOUBLE, lastTs BIGINT, integral DOUBLE, PRIMARY KEY (dataPointId, tier, ts));"
+    };
+
+    private String[] pointValueRollupsMSSQL = new String[] {
+            "CREATE TABLE pointValueRollups (dataPointId INT NOT NULL, tier BIGINT NOT NULL, ts BIGINT NOT NULL, valueCount INT NOT NULL, valueSum FLOAT, minimumValue FLOAT, minimumTs BIGINT, maximumValue FLOAT, maximumTs BIGINT, firstValue FLOAT, firstTs BIGINT, lastValue FLOAT, lastTs BIGINT, integral FLOAT, PRIMARY KEY (dataPointId, tier, ts));"
+    };
+
+    private String[] pointValueRollupsPostgres = new String[] {
+            "CREATE TABLE pointValueRollups (dataPointId INTEGER NOT NULL, tier BIGINT NOT NULL, ts BIGINT NOT NULL, valueCount INTEGER NOT NULL, valueSum DOUBLE PRECISION, minimumValue DOUBLE PRECISION, minimumTs BIGINT, maximumValue DOUBLE PRECISION, maximumTs BIGINT, firstValue DOUBLE PRECISION, firstTs BIGINT, lastValue DOUBLE PRECISION, lastTs BIGINT, integral DOUBLE PRECISION, PRIMARY KEY (dataPointId, tier, ts));"
+    };
+
+    @Override
+    protected String getNewSchemaVersion() {
+        return "31";
+    }
+}
@@ -5,16 +5,21 @@
 package com.serotonin.m2m2.rt;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.infiniteautomation.mango.spring.components.executors.MangoForkJoinWorkerThreadFactory;
 import com.serotonin.m2m2.Common;
+import com.serotonin.m2m2.db.dao.DataPointDao;
+import com.serotonin.m2m2.i18n.TranslatableMessage;
 import com.serotonin.m2m2.module.DataSourceDefinition.StartPriority;
-import com.serotonin.m2m2.util.timeout.HighPriorityTask;
 import com.serotonin.m2m2.vo.dataSource.DataSourceVO;
-import com.serotonin.timer.RejectedTaskReason;
 
 /**
  * This class is used at startup to initialize data sources in parallel.
@@ -22,16 +27,20 @@ import com.serotonin.timer.RejectedTaskReason;
  * The group is generally a list of all data sources with the same priority level.
  * The group is not initalized until all data sources have either started or failed to start.
  * 
+ * Each data source is a separate task on a work stealing pool and the data sources with the most points
+ * are started first, so one large data source does not hold up the group after the others have started.
+ * The time each data source took to start is kept as a monitored value.
+ * 
  * @author Terry Packer
  *
  */
 public class DataSourceGroupInitializer {
 	private final Log LOG = LogFactory.getLog(DataSourceGroupInitializer.class);
+
+	public static final String INIT_TIME_MONITOR_ID_PREFIX = "com.serotonin.m2m2.rt.DataSourceGroupInitializer.INIT_TIME.";
 			
 	private List<DataSourceVO> group;
 	private int threadPoolSize;
-	private List<DataSourceSubGroupInitializer> runningTasks;
-	private List<DataSourceVO> polling;
 	private boolean useMetrics;
 	private StartPriority startPriority;
 
@@ -46,7 +55,6 @@ public class DataSourceGroupInitializer {
 		this.group = group;
 		this.useMetrics = logMetrics;
 		this.threadPoolSize = threadPoolSize;
-		this.polling = new ArrayList<DataSourceVO>();
 	}
 
 	/**
@@ -56,53 +64,39 @@ public class DataSourceGroupInitializer {
 	public List<DataSourceVO> initialize() {
 		
 		long startTs = Common.timer.currentTimeMillis();
-		if(this.group == null){
+		List<DataSourceVO> polling = new ArrayList<DataSourceVO>();
+		if(this.group == null || this.group.isEmpty()){
 			if(this.useMetrics)
 				LOG.info("Initialization of 0 " + this.startPriority.name() +  " priority data sources took " + (Common.timer.currentTimeMillis() - startTs));
 			return polling;
 		}
 		
-		//Compute the size of the subGroup that each thread will use.
-		int subGroupSize = this.group.size() / this.threadPoolSize;
-		int lastGroup;
-		if(subGroupSize == 0){
-			subGroupSize = 1;
-			lastGroup = this.group.size() - 1;
-		}else{
-			lastGroup = this.threadPoolSize - 1;
-		}
-				
+		//Largest first, the pool takes the submitted tasks in order
+		Map<Integer, Integer> pointCounts = DataPointDao.getInstance().countEnabledPointsByDataSource();
+		List<DataSourceVO> ordered = new ArrayList<DataSourceVO>(this.group);
+		ordered.sort(Comparator.comparingInt((DataSourceVO vo) -> pointCounts.getOrDefault(vo.getId(), 0)).reversed());
 		
+		int threads = Math.max(1, Math.min(this.threadPoolSize, ordered.size()));
 		if(useMetrics)
-			LOG.info("Initializing " + this.group.size() + " " + this.startPriority.name() + " priority data sources in " + this.threadPoolSize + " threads.");
+			LOG.info("Initializing " + this.group.size() + " " + this.startPriority.name() + " priority data sources in " + threads + " threads.");
 		
-		this.runningTasks = new ArrayList<DataSourceSubGroupInitializer>(this.threadPoolSize);
-		//Add and Start the tasks 
-		int endPos;
-		for(int i=0; i<this.threadPoolSize; i++){
-			
-			if(i==lastGroup){
-				//Last group may be larger
-				endPos = this.group.size();
-			}else{
-				endPos = (i*subGroupSize) + subGroupSize;
+		ForkJoinPool pool = new ForkJoinPool(threads, new MangoForkJoinWorkerThreadFactory(), null, true);
+		try{
+			List<CompletableFuture<Boolean>> tasks = new ArrayList<CompletableFuture<Boolean>>(ordered.size());
+			for(DataSourceVO config : ordered){
+				int pointCount = pointCounts.getOrDefault(config.getId(), 0);
+				tasks.add(CompletableFuture.supplyAsync(() -> initialize(config, pointCount), pool));
 			}
 			
-			DataSourceSubGroupInitializer currentSubgroup = new DataSourceSubGroupInitializer(this.group.subList(i*subGroupSize, endPos), this);
+			//Wait here until all data sources have started or failed
+			CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[tasks.size()])).join();
 			
-			synchronized(this.runningTasks){
-				this.runningTasks.add(currentSubgroup);
+			for(int i=0; i<ordered.size(); i++){
+				if(tasks.get(i).join())
+					polling.add(ordered.get(i));
 			}
-			Common.backgroundProcessing.execute(currentSubgroup);
-			
-			//When we have more threads than groups
-			if(i >= this.group.size() -1)
-				break;
-		}
-		
-		//Wait here until all threads are finished
-		while(runningTasks.size() > 0){
-			try { Thread.sleep(100); } catch (InterruptedException e) { }
+		}finally{
+			pool.shutdown();
 		}
 		
 		if(this.useMetrics)
@@ -111,76 +105,28 @@ public class DataSourceGroupInitializer {
 		return polling;
 	}
 
-	public void addPollingDataSources(List<DataSourceVO> vos){
-		synchronized(this.polling){
-			this.polling.addAll(vos);
-		}
-	}
-	
-	public void removeRunningTask(DataSourceSubGroupInitializer task){
-		synchronized(this.runningTasks){
-			this.runningTasks.remove(task);
-		}
-	}
 	/**
-	 * Initialize a sub group of the data sources in one thread.
-	 * @author Terry Packer
-	 *
+	 * Initialize one data source, failures are logged so they do not stop the others
+	 * @param config
+	 * @param pointCount
+	 * @return true if the data source needs to begin polling
 	 */
-	class DataSourceSubGroupInitializer extends HighPriorityTask{
-		
-		private final Log LOG = LogFactory.getLog(DataSourceSubGroupInitializer.class);
-		
-		private List<DataSourceVO> subgroup;
-		private DataSourceGroupInitializer parent;
-		
-		public DataSourceSubGroupInitializer(List<DataSourceVO> subgroup, DataSourceGroupInitializer parent){
-			super("Datasource subgroup initializer");
-			this.subgroup = subgroup;
-			this.parent = parent;
-		}
-
-		/* (non-Javadoc)
-		 * @see com.serotonin.timer.TimerTask#run(long)
-		 */
-		@Override
-		public void run(long runtime) {
-			try{
-				List<DataSourceVO> polling = new ArrayList<DataSourceVO>();
-				for(DataSourceVO config : subgroup){
-					try{
-						if(Common.runtimeManager.initializeDataSourceStartup(config))
-							polling.add(config);
-					}catch(Exception e){
-						//Ensure only 1 can fail at a time
-						LOG.error(e.getMessage(), e);
-					}
-				}
-				this.parent.addPollingDataSources(polling);
-			}catch(Exception e){
-				LOG.error(e.getMessage(), e);
-			}finally{
-				this.parent.removeRunningTask(this);
-			}
-		}
-		
-		/* (non-Javadoc)
-		 * @see com.serotonin.timer.TimerTask#cancel()
-		 */
-		@Override
-		public boolean cancel() {
-			this.parent.removeRunningTask(this);
-			return super.cancel();
-		}
-		
-		/* (non-Javadoc)
-		 * @see com.serotonin.m2m2.util.timeout.HighPriorityTask#rejected(com.serotonin.timer.RejectedTaskReason)
-		 */
-		@Override
-		public void rejected(RejectedTaskReason reason) {
-			this.parent.removeRunningTask(this);
-			super.rejected(reason);
+	private boolean initialize(DataSourceVO config, int pointCount) {
+		long start = System.nanoTime();
+		boolean poll = false;
+		try{
+			poll = Common.runtimeManager.initializeDataSourceStartup(config);
+		}catch(Exception e){
+			LOG.error(e.getMessage(), e);
 		}
+		int took = (int)((System.nanoTime() - start) / 1000000);
+		Common.MONITORED_VALUES.<Integer>create(INIT_TIME_MONITOR_ID_PREFIX + config.getXid())
+			.name(new TranslatableMessage("internal.monitor.DATA_SOURCE_INIT_TIME", config.getName()))
+			.value(took)
+			.build();
+		if(this.useMetrics)
+			LOG.info("Data source " + config.getName() + " with " + pointCount + " points initialized in " + took + "ms");
+		return poll;
 	}
 	
 }
@@ -9,28 +9,26 @@ import java.util.Date;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.infiniteautomation.mango.spring.components.EventSubscriptionIndex;
+import com.infiniteautomation.mango.spring.components.EventSubscriptionIndex.Subscription;
 import com.infiniteautomation.mango.spring.service.MailingListService;
 import com.infiniteautomation.mango.spring.service.PermissionService;
 import com.serotonin.m2m2.Common;
 import com.serotonin.m2m2.db.dao.AuditEventDao;
 import com.serotonin.m2m2.db.dao.EventDao;
 import com.serotonin.m2m2.db.dao.EventHandlerDao;
-import com.serotonin.m2m2.db.dao.UserDao;
 import com.serotonin.m2m2.i18n.TranslatableMessage;
 import com.serotonin.m2m2.module.EventManagerListenerDefinition;
 import com.serotonin.m2m2.rt.event.AlarmLevels;
 import com.serotonin.m2m2.rt.event.EventInstance;
+import com.serotonin.m2m2.rt.event.EventInstanceIndex;
 import com.serotonin.m2m2.rt.event.ReturnCause;
 import com.serotonin.m2m2.rt.event.UserEventListener;
 import com.serotonin.m2m2.rt.event.UserEventMulticaster;
@@ -56,12 +54,10 @@ public class EventManagerImpl implements EventManager {
     // minutes.
 
     private final List<EventManagerListenerDefinition> listeners = new CopyOnWriteArrayList<EventManagerListenerDefinition>();
-    private final ReadWriteLock activeEventsLock = new ReentrantReadWriteLock();
-    private final List<EventInstance> activeEvents = new ArrayList<EventInstance>();
-    private final ReadWriteLock recentEventsLock = new ReentrantReadWriteLock();
-    private final List<EventInstance> recentEvents = new ArrayList<EventInstance>();
+    private final EventInstanceIndex activeEvents = new EventInstanceIndex(1000 * 60 * 60);
+    private final EventInstanceIndex recentEvents = new EventInstanceIndex(1000 * 60);
     private EventDao eventDao;
-    private UserDao userDao;
+    private EventSubscriptionIndex eventSubscriptionIndex;
     private long lastAlarmTimestamp = 0;
     private int highestActiveAlarmLevel = 0;
     private UserEventListener userEventMulticaster = null;
@@ -172,24 +168,32 @@ public class EventManagerImpl implements EventManager {
         List<Integer> userIdsToNotify = new ArrayList<Integer>();
         UserEventListener multicaster = userEventMulticaster;
 
-        for (User user : userDao.getActiveUsers()) {
+        Subscription subscription = eventSubscriptionIndex.getSubscription(type);
+        boolean excluded = false;
+        for (User user : subscription.getUsers()) {
             // Do not create an event for this user if the event type says the
             // user should be skipped.
-            if (type.excludeUser(user))
+            if (type.excludeUser(user)) {
+                excluded = true;
                 continue;
+            }
 
-            if (permissionService.hasEventTypePermission(user, type)) {
-                eventUserIds.add(user.getId());
-                // add email addresses for users which have been configured to receive events over a certain level
-                if (user.getReceiveAlarmEmails().value() > AlarmLevels.IGNORE.value() && alarmLevel.value() >= user.getReceiveAlarmEmails().value() && !StringUtils.isEmpty(user.getEmail()))
-                    emailUsers.add(user.getEmail());
+            eventUserIds.add(user.getId());
 
-                //Notify All User Event Listeners of the new event
-                if((alarmLevel != AlarmLevels.DO_NOT_LOG)&&(!evt.getEventType().getEventType().equals(EventType.EventTypeNames.AUDIT))){
-                    userIdsToNotify.add(user.getId());
-                }
+            //Notify All User Event Listeners of the new event
+            if((alarmLevel != AlarmLevels.DO_NOT_LOG)&&(!evt.getEventType().getEventType().equals(EventType.EventTypeNames.AUDIT))){
+                userIdsToNotify.add(user.getId());
             }
         }
+        // add email addresses for users which have been configured to receive events over a certain level
+        if (excluded) {
+            for (User user : subscription.getUsers()) {
+                if (!type.excludeUser(user) && Subscription.receivesEmail(user, alarmLevel))
+                    emailUsers.add(user.getEmail());
+            }
+        } else {
+            emailUsers.addAll(subscription.getEmailAddresses(alarmLevel));
+        }
 
         if(multicaster != null)
             Common.backgroundProcessing.addWorkItem(new EventNotifyWorkItem(userIdsToNotify, multicaster, evt, true, false, false, false));
@@ -207,19 +211,9 @@ public class EventManagerImpl implements EventManager {
         }
 
         if (evt.isRtnApplicable()){
-            activeEventsLock.writeLock().lock();
-            try{
-                activeEvents.add(evt);
-            }finally{
-                activeEventsLock.writeLock().unlock();
-            }
+            activeEvents.add(evt);
         }else if (evt.getEventType().isRateLimited()) {
-            recentEventsLock.writeLock().lock();
-            try{
-                recentEvents.add(evt);
-            }finally{
-                recentEventsLock.writeLock().unlock();
-            }
+            recentEvents.add(evt);
         }
 
         if ((autoAckMessage != null)&&(alarmLevel != AlarmLevels.DO_NOT_LOG)&&(!evt.getEventType().getEventType().equals(EventType.EventTypeNames.AUDIT)))
@@ -277,20 +271,11 @@ public class EventManagerImpl implements EventManager {
     private boolean isRecent(EventType type, TranslatableMessage message) {
         long cutoff = Common.timer.currentTimeMillis() - RECENT_EVENT_PERIOD;
 
-        recentEventsLock.writeLock().lock();
-        try{
-            for (int i = recentEvents.size() - 1; i >= 0; i--) {
-                EventInstance evt = recentEvents.get(i);
-                // This method also purges the list, so we need to check if the
-                // event instance has expired or not.
-                if (cutoff > evt.getActiveTimestamp())
-                    recentEvents.remove(i);
-                else if (evt.getEventType().equals(type)
-                        && evt.getMessage().equals(message))
-                    return true;
-            }
-        }finally{
-            recentEventsLock.writeLock().unlock();
+        // Expire events that are no longer recent
+        recentEvents.removeBefore(cutoff, e -> true);
+        for (EventInstance evt : recentEvents.getAll(type)) {
+            if (evt.getMessage().equals(message))
+                return true;
         }
 
         return false;
@@ -317,7 +302,7 @@ public class EventManagerImpl implements EventManager {
                     );
         }
 
-        List<User> activeUsers = userDao.getActiveUsers();
+        List<User> subscribedUsers = eventSubscriptionIndex.getSubscription(type).getUsers();
         UserEventListener multicaster = userEventMulticaster;
 
         // Loop in case of multiples
@@ -326,17 +311,15 @@ public class EventManagerImpl implements EventManager {
 
             List<Integer> userIdsToNotify = new ArrayList<Integer>();
             Set<Integer> userIdsForCache = new HashSet<Integer>();
-            for (User user : activeUsers) {
+            for (User user : subscribedUsers) {
                 // Do not create an event for this user if the event type says the
                 // user should be skipped.
                 if (type.excludeUser(user))
                     continue;
 
                 if(evt.getAlarmLevel() != AlarmLevels.DO_NOT_LOG){
-                    if (permissionService.hasEventTypePermission(user, type)) {
-                        userIdsToNotify.add(user.getId());
-                        userIdsForCache.add(user.getId());
-                    }
+                    userIdsToNotify.add(user.getId());
+                    userIdsForCache.add(user.getId());
                 }
 
             }
@@ -367,8 +350,6 @@ public class EventManagerImpl implements EventManager {
      * @param inactiveCause
      */
     private void deactivateEvents(List<EventInstance> evts, long time, ReturnCause inactiveCause) {
-        List<User> activeUsers = userDao.getActiveUsers();
-
         List<Integer> eventIds = new ArrayList<Integer>();
         UserEventListener multicaster = userEventMulticaster;
 
@@ -380,16 +361,14 @@ public class EventManagerImpl implements EventManager {
 
             List<Integer> userIdsToNotify = new ArrayList<Integer>();
             Set<Integer> userIdsForCache = new HashSet<Integer>();
-            for (User user : activeUsers) {
+            for (User user : eventSubscriptionIndex.getSubscription(evt.getEventType()).getUsers()) {
                 // Do not create an event for this user if the event type says the
                 // user should be skipped.
                 if (evt.getEventType().excludeUser(user))
                     continue;
 
-                if (permissionService.hasEventTypePermission(user, evt.getEventType())) {
-                    userIdsToNotify.add(user.getId());
-                    userIdsForCache.add(user.getId());
-                }
+                userIdsToNotify.add(user.getId());
+                userIdsForCache.add(user.getId());
             }
 
             if(multicaster != null)
@@ -434,16 +413,14 @@ public class EventManagerImpl implements EventManager {
         List<Integer> userIdsToNotify = new ArrayList<Integer>();
         UserEventListener multicaster = userEventMulticaster;
 
-        for (User user : userDao.getActiveUsers()) {
+        for (User user : eventSubscriptionIndex.getSubscription(evt.getEventType()).getUsers()) {
             // Do not create an event for this user if the event type says the
             // user should be skipped.
             if (evt.getEventType().excludeUser(user))
                 continue;
 
-            if (permissionService.hasEventTypePermission(user, evt.getEventType())) {
-                //Notify All User Event Listeners of the new event
-                userIdsToNotify.add(user.getId());
-            }
+            //Notify All User Event Listeners of the new event
+            userIdsToNotify.add(user.getId());
         }
 
         if(multicaster != null)
@@ -504,19 +481,8 @@ public class EventManagerImpl implements EventManager {
     @Override
     public int purgeAllEvents(){
 
-        activeEventsLock.writeLock().lock();
-        try{
-            activeEvents.clear();
-        }finally{
-            activeEventsLock.writeLock().unlock();
-        }
-
-        recentEventsLock.writeLock().lock();
-        try{
-            recentEvents.clear();
-        }finally{
-            recentEventsLock.writeLock().unlock();
-        }
+        activeEvents.clear();
+        recentEvents.clear();
 
         int auditEventCount = AuditEventDao.getInstance().purgeAllEvents();
         return auditEventCount + eventDao.purgeAllEvents();
@@ -530,29 +496,8 @@ public class EventManagerImpl implements EventManager {
     @Override
     public int purgeEventsBefore(final long time){
 
-        activeEventsLock.writeLock().lock();
-        try{
-            ListIterator<EventInstance> it = activeEvents.listIterator();
-            while(it.hasNext()){
-                EventInstance e = it.next();
-                if(e.getActiveTimestamp() < time)
-                    it.remove();
-            }
-        }finally{
-            activeEventsLock.writeLock().unlock();
-        }
-
-        recentEventsLock.writeLock().lock();
-        try{
-            ListIterator<EventInstance> it = recentEvents.listIterator();
-            while(it.hasNext()){
-                EventInstance e = it.next();
-                if(e.getActiveTimestamp() < time)
-                    it.remove();
-            }
-        }finally{
-            recentEventsLock.writeLock().unlock();
-        }
+        activeEvents.removeBefore(time, e -> true);
+        recentEvents.removeBefore(time, e -> true);
 
         int auditCount = AuditEventDao.getInstance().purgeEventsBefore(time);
         return auditCount + eventDao.purgeEventsBefore(time);
@@ -567,29 +512,8 @@ public class EventManagerImpl implements EventManager {
     @Override
     public int purgeEventsBefore(final long time, final String typeName){
 
-        activeEventsLock.writeLock().lock();
-        try{
-            ListIterator<EventInstance> it = activeEvents.listIterator();
-            while(it.hasNext()){
-                EventInstance e = it.next();
-                if((e.getActiveTimestamp() < time)&&(e.getEventType().getEventType().equals(typeName)))
-                    it.remove();
-            }
-        }finally{
-            activeEventsLock.writeLock().unlock();
-        }
-
-        recentEventsLock.writeLock().lock();
-        try{
-            ListIterator<EventInstance> it = recentEvents.listIterator();
-            while(it.hasNext()){
-                EventInstance e = it.next();
-                if((e.getActiveTimestamp() < time)&&(e.getEventType().getEventType().equals(typeName)))
-                    it.remove();
-            }
-        }finally{
-            recentEventsLock.writeLock().unlock();
-        }
+        activeEvents.removeBefore(time, e -> e.getEventType().getEventType().equals(typeName));
+        recentEvents.removeBefore(time, e -> e.getEventType().getEventType().equals(typeName));
 
         if(EventType.EventTypeNames.AUDIT.equals(typeName)) {
             return AuditEventDao.getInstance().purgeEventsBefore(time);
@@ -607,29 +531,8 @@ public class EventManagerImpl implements EventManager {
     @Override
     public int purgeEventsBefore(final long time, final AlarmLevels alarmLevel){
 
-        activeEventsLock.writeLock().lock();
-        try{
-            ListIterator<EventInstance> it = activeEvents.listIterator();
-            while(it.hasNext()){
-                EventInstance e = it.next();
-                if((e.getActiveTimestamp() < time)&&(e.getAlarmLevel() == alarmLevel))
-                    it.remove();
-            }
-        }finally{
-            activeEventsLock.writeLock().unlock();
-        }
-
-        recentEventsLock.writeLock().lock();
-        try{
-            ListIterator<EventInstance> it = recentEvents.listIterator();
-            while(it.hasNext()){
-                EventInstance e = it.next();
-                if((e.getActiveTimestamp() < time)&&(e.getAlarmLevel() == alarmLevel))
-                    it.remove();
-            }
-        }finally{
-            recentEventsLock.writeLock().unlock();
-        }
+        activeEvents.removeBefore(time, e -> e.getAlarmLevel() == alarmLevel);
+        recentEvents.removeBefore(time, e -> e.getAlarmLevel() == alarmLevel);
 
         int auditEventCount = AuditEventDao.getInstance().purgeEventsBefore(time, alarmLevel);
         return auditEventCount + eventDao.purgeEventsBefore(time, alarmLevel);
@@ -641,35 +544,9 @@ public class EventManagerImpl implements EventManager {
     //
     @Override
     public void cancelEventsForDataPoint(int dataPointId) {
-
-        List<EventInstance> dataPointEvents = new ArrayList<EventInstance>();
-        activeEventsLock.writeLock().lock();
-        try{
-            ListIterator<EventInstance> it = activeEvents.listIterator();
-            while(it.hasNext()){
-                EventInstance e = it.next();
-                if (e.getEventType().getDataPointId() == dataPointId){
-                    it.remove();
-                    dataPointEvents.add(e);
-                }
-            }
-        }finally{
-            activeEventsLock.writeLock().unlock();
-        }
-
+        List<EventInstance> dataPointEvents = activeEvents.removeForDataPoint(dataPointId);
         deactivateEvents(dataPointEvents, Common.timer.currentTimeMillis(), ReturnCause.SOURCE_DISABLED);
-
-        recentEventsLock.writeLock().lock();
-        try{
-            ListIterator<EventInstance> it = recentEvents.listIterator();
-            while(it.hasNext()){
-                EventInstance e = it.next();
-                if (e.getEventType().getDataPointId() == dataPointId)
-                    it.remove();
-            }
-        }finally{
-            recentEventsLock.writeLock().unlock();
-        }
+        recentEvents.removeForDataPoint(dataPointId);
     }
 
     /**
@@ -678,35 +555,9 @@ public class EventManagerImpl implements EventManager {
      */
     @Override
     public void cancelEventsForDataSource(int dataSourceId) {
-
-        List<EventInstance> dataSourceEvents = new ArrayList<EventInstance>();
-        activeEventsLock.writeLock().lock();
-        try{
-            ListIterator<EventInstance> it = activeEvents.listIterator();
-            while(it.hasNext()){
-                EventInstance e = it.next();
-                if(e.getEventType().getDataSourceId() == dataSourceId){
-                    it.remove();
-                    dataSourceEvents.add(e);
-                }
-            }
-        }finally{
-            activeEventsLock.writeLock().unlock();
-        }
-
+        List<EventInstance> dataSourceEvents = activeEvents.removeForDataSource(dataSourceId);
         deactivateEvents(dataSourceEvents, Common.timer.currentTimeMillis(), ReturnCause.SOURCE_DISABLED);
-
-        recentEventsLock.writeLock().lock();
-        try{
-            ListIterator<EventInstance> it = recentEvents.listIterator();
-            while(it.hasNext()){
-                EventInstance e = it.next();
-                if(e.getEventType().getDataSourceId() == dataSourceId)
-                    it.remove();
-            }
-        }finally{
-            recentEventsLock.writeLock().unlock();
-        }
+        recentEvents.removeForDataSource(dataSourceId);
     }
 
     /**
@@ -715,53 +566,14 @@ public class EventManagerImpl implements EventManager {
      */
     @Override
     public void cancelEventsForPublisher(int publisherId) {
-
-        List<EventInstance> publisherEvents = new ArrayList<EventInstance>();
-        activeEventsLock.writeLock().lock();
-        try{
-            ListIterator<EventInstance> it = activeEvents.listIterator();
-            while(it.hasNext()){
-                EventInstance e = it.next();
-                if(e.getEventType().getPublisherId() == publisherId){
-                    it.remove();
-                    publisherEvents.add(e);
-                }
-            }
-        }finally{
-            activeEventsLock.writeLock().unlock();
-        }
-
+        List<EventInstance> publisherEvents = activeEvents.removeForPublisher(publisherId);
         deactivateEvents(publisherEvents, Common.timer.currentTimeMillis(), ReturnCause.SOURCE_DISABLED);
-
-        recentEventsLock.writeLock().lock();
-        try{
-            ListIterator<EventInstance> it = recentEvents.listIterator();
-            while(it.hasNext()){
-                EventInstance e = it.next();
-                if(e.getEventType().getPublisherId() == publisherId)
-                    it.remove();
-            }
-        }finally{
-            recentEventsLock.writeLock().unlock();
-        }
+        recentEvents.removeForPublisher(publisherId);
     }
 
     private void resetHighestAlarmLevel(long time) {
 
-        int max = 0;
-        activeEventsLock.readLock().lock();
-        try{
-            ListIterator<EventInstance> it = activeEvents.listIterator();
-            while(it.hasNext()){
-                EventInstance e = it.next();
-                if (e.getAlarmLevel().value() > max)
-                    max = e.getAlarmLevel().value();
-            }
-        }finally{
-            activeEventsLock.readLock().unlock();
-        }
-
-
+        int max = activeEvents.getHighestAlarmLevel();
 
         if (max > highestActiveAlarmLevel) {
             int oldValue = highestActiveAlarmLevel;
@@ -805,16 +617,12 @@ public class EventManagerImpl implements EventManager {
 
         permissionService = Common.getBean(PermissionService.class);
         eventDao = EventDao.getInstance();
-        userDao = UserDao.getInstance();
+        eventSubscriptionIndex = Common.getBean(EventSubscriptionIndex.class);
         mailingListService = Common.getBean(MailingListService.class);
 
         // Get all active events from the database.
-        activeEventsLock.writeLock().lock();
-        try{
-            activeEvents.addAll(eventDao.getActiveEvents());
-        }finally{
-            activeEventsLock.writeLock().unlock();
-        }
+        for (EventInstance evt : eventDao.getActiveEvents())
+            activeEvents.add(evt);
 
         lastAlarmTimestamp = Common.timer.currentTimeMillis();
         resetHighestAlarmLevel(lastAlarmTimestamp);
@@ -832,6 +640,12 @@ public class EventManagerImpl implements EventManager {
     public void joinTermination() {
         if(state != TERMINATE)
             return;
+        // Write the journaled events before the database is shut down
+        try {
+            eventDao.flush();
+        } catch (RuntimeException e) {
+            log.error("Failed to write journaled events", e);
+        }
         state = TERMINATED;
     }
 
@@ -862,13 +676,7 @@ public class EventManagerImpl implements EventManager {
     //
     @Override
     public List<EventInstance> getAllActiveUserEvents(PermissionHolder user) {
-        List<EventInstance> userEvents;
-        activeEventsLock.readLock().lock();
-        try{
-            userEvents = new ArrayList<>(activeEvents);
-        }finally{
-            activeEventsLock.readLock().unlock();
-        }
+        List<EventInstance> userEvents = activeEvents.getAll();
 
         //Prune for user
         Iterator<EventInstance> it = userEvents.iterator();
@@ -890,21 +698,7 @@ public class EventManagerImpl implements EventManager {
      * Gets an event from the activeEvents list/cache by its id
      */
     private EventInstance getById(int id) {
-        EventInstance e;
-
-        activeEventsLock.readLock().lock();
-        try{
-            ListIterator<EventInstance> it = activeEvents.listIterator();
-            while(it.hasNext()){
-                e = it.next();
-                if (e.getId() == id)
-                    return e;
-            }
-        }finally{
-            activeEventsLock.readLock().unlock();
-        }
-
-        return null;
+        return activeEvents.getById(id);
     }
 
     /**
@@ -912,34 +706,11 @@ public class EventManagerImpl implements EventManager {
      * none.
      */
     private EventInstance get(EventType type) {
-
-        activeEventsLock.readLock().lock();
-        try{
-            ListIterator<EventInstance> it = activeEvents.listIterator();
-            while(it.hasNext()){
-                EventInstance e = it.next();
-                if (e.getEventType().equals(type))
-                    return e;
-            }
-        }finally{
-            activeEventsLock.readLock().unlock();
-        }
-
-        return null;
+        return activeEvents.get(type);
     }
 
     private List<EventInstance> getAll(EventType type) {
-        List<EventInstance> result = new ArrayList<EventInstance>();
-        activeEventsLock.readLock().lock();
-        try{
-            ListIterator<EventInstance> it = activeEvents.listIterator();
-            while(it.hasNext()){
-                result.add(it.next());
-            }
-        }finally{
-            activeEventsLock.readLock().unlock();
-        }
-        return result;
+        return activeEvents.getAll(type);
     }
 
     /**
@@ -949,17 +720,7 @@ public class EventManagerImpl implements EventManager {
      */
     @Override
     public List<EventInstance> getAllActive() {
-        List<EventInstance> result = new ArrayList<EventInstance>();
-        activeEventsLock.readLock().lock();
-        try{
-            ListIterator<EventInstance> it = activeEvents.listIterator();
-            while(it.hasNext()){
-                result.add(it.next());
-            }
-        }finally{
-            activeEventsLock.readLock().unlock();
-        }
-        return result;
+        return activeEvents.getAll();
     }
 
     /**
@@ -970,21 +731,7 @@ public class EventManagerImpl implements EventManager {
      * @return
      */
     private EventInstance remove(EventType type) {
-        activeEventsLock.writeLock().lock();
-        try{
-            ListIterator<EventInstance> it = activeEvents.listIterator();
-            while(it.hasNext()){
-                EventInstance e = it.next();
-                if (e.getEventType().equals(type)) {
-                    it.remove();
-                    return e;
-                }
-            }
-        }finally{
-            activeEventsLock.writeLock().unlock();
-        }
-
-        return null;
+        return activeEvents.remove(type);
     }
 
     private void setHandlers(EventInstance evt) {
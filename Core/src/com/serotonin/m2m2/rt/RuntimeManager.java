@@ -5,6 +5,7 @@
 package com.serotonin.m2m2.rt;
 
 import java.util.List;
+import java.util.function.LongConsumer;
 
 import com.serotonin.m2m2.db.dao.PointValueDao;
 import com.serotonin.m2m2.i18n.TranslatableMessage;
@@ -168,6 +169,16 @@ public interface RuntimeManager extends ILifecycle {
 
     long purgeDataPointValues(DataPointVO vo, long before);
 
+    /**
+     * Purge values before a given time for many points at once
+     * @param vos
+     * @param before
+     * @param chunkSize - maximum number of values deleted at once
+     * @param chunkDeleted - receives the number of values deleted by each chunk, it may block to throttle the purge
+     * @return number of values deleted
+     */
+    long purgeDataPointValues(List<DataPointVO> vos, long before, int chunkSize, LongConsumer chunkDeleted);
+
     long purgeDataPointValuesBetween(DataPointVO vo, long startTime, long endTime);
 
     /**
@@ -14,6 +14,7 @@ import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongConsumer;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -52,6 +53,7 @@ import com.serotonin.m2m2.vo.publish.PublisherVO;
 
 public class RuntimeManagerImpl implements RuntimeManager {
     private static final Log LOG = LogFactory.getLog(RuntimeManagerImpl.class);
+    public static final String CACHE_PRELOAD_TIME_MONITOR_ID_PREFIX = "com.serotonin.m2m2.rt.RuntimeManagerImpl.CACHE_PRELOAD_TIME.";
 
     private final ConcurrentMap<Integer, DataSourceRT<? extends DataSourceVO>> runningDataSources = new ConcurrentHashMap<>();
 
@@ -265,6 +267,7 @@ public class RuntimeManagerImpl implements RuntimeManager {
                 LOG.error("Error stopping data source " + dataSource.getId(), e);
             }
         }
+        DataPointRT.terminateEventDispatcher();
         state = TERMINATED;
     }
 
@@ -310,6 +313,9 @@ public class RuntimeManagerImpl implements RuntimeManager {
     @Override
     public void deleteDataSource(int dataSourceId) {
         stopDataSource(dataSourceId);
+        DataSourceVO vo = DataSourceDao.getInstance().get(dataSourceId);
+        if (vo != null)
+            Common.MONITORED_VALUES.remove(DataSourceGroupInitializer.INIT_TIME_MONITOR_ID_PREFIX + vo.getXid());
         DataSourceDao.getInstance().delete(dataSourceId);
         Common.eventManager.cancelEventsForDataSource(dataSourceId);
     }
@@ -331,6 +337,8 @@ public class RuntimeManagerImpl implements RuntimeManager {
     public void updateDataSource(DataSourceVO existing, DataSourceVO vo) {
         // If the data source is running, stop it.
         stopDataSource(vo.getId());
+        if (!existing.getXid().equals(vo.getXid()))
+            Common.MONITORED_VALUES.remove(DataSourceGroupInitializer.INIT_TIME_MONITOR_ID_PREFIX + existing.getXid());
 
         DataSourceDao.getInstance().update(existing, vo);
 
@@ -378,6 +386,7 @@ public class RuntimeManagerImpl implements RuntimeManager {
 
         Map<Integer, List<PointValueTime>> latestValuesMap = null;
         PointValueDao pvDao = Common.databaseProxy.newPointValueDao();
+        long preloadStart = System.nanoTime();
         if (pvDao instanceof EnhancedPointValueDao) {
 
             // Find the maximum cache size for all point in the datasource
@@ -394,7 +403,24 @@ public class RuntimeManagerImpl implements RuntimeManager {
             } catch (Exception e) {
                 LOG.error("Failed to get latest point values for datasource " + vo.getXid() + ". Mango will try to retrieve latest point values per point which will take longer.", e);
             }
+        } else {
+            List<DataPointVO> enabledPoints = new ArrayList<>(dataSourcePoints.size());
+            for (DataPointWithEventDetectors dataPoint : dataSourcePoints) {
+                if (dataPoint.getDataPoint().isEnabled())
+                    enabledPoints.add(dataPoint.getDataPoint());
+            }
+
+            try {
+                latestValuesMap = pvDao.getLatestPointValuesForCache(enabledPoints, Common.timer.currentTimeMillis() + 1);
+            } catch (Exception e) {
+                LOG.error("Failed to get latest point values for datasource " + vo.getXid() + ". Mango will try to retrieve latest point values per point which will take longer.", e);
+            }
         }
+        int preloadTook = (int)((System.nanoTime() - preloadStart) / 1000000);
+        Common.MONITORED_VALUES.<Integer>create(CACHE_PRELOAD_TIME_MONITOR_ID_PREFIX + vo.getXid())
+            .name(new TranslatableMessage("internal.monitor.DATA_SOURCE_CACHE_PRELOAD_TIME", vo.getName()))
+            .value(preloadTook)
+            .build();
 
         for (DataPointWithEventDetectors dataPoint : dataSourcePoints) {
             if (dataPoint.getDataPoint().isEnabled()) {
@@ -403,6 +429,8 @@ public class RuntimeManagerImpl implements RuntimeManager {
                     latestValuesForPoint = latestValuesMap.get(dataPoint.getDataPoint().getId());
                     if (latestValuesForPoint == null) {
                         latestValuesForPoint = new ArrayList<>();
+                    } else if (latestValuesForPoint.size() > dataPoint.getDataPoint().getDefaultCacheSize()) {
+                        latestValuesForPoint = new ArrayList<>(latestValuesForPoint.subList(0, dataPoint.getDataPoint().getDefaultCacheSize()));
                     }
                 }
                 try {
@@ -455,6 +483,7 @@ public class RuntimeManagerImpl implements RuntimeManager {
             }
 
             dataSource.terminate();
+            Common.MONITORED_VALUES.remove(CACHE_PRELOAD_TIME_MONITOR_ID_PREFIX + dataSource.getVo().getXid());
 
             dataSource.joinTermination();
             LOG.info("Data source '" + dataSource.getName() + "' stopped");
@@ -776,6 +805,16 @@ public class RuntimeManagerImpl implements RuntimeManager {
         return count;
     }
 
+    @Override
+    public long purgeDataPointValues(List<DataPointVO> vos, long before, int chunkSize, LongConsumer chunkDeleted) {
+        long count = Common.databaseProxy.newPointValueDao().deletePointValuesBefore(vos, before, chunkSize, chunkDeleted);
+        if (count > 0) {
+            for (DataPointVO vo : vos)
+                updateDataPointValuesRT(vo.getId(), before);
+        }
+        return count;
+    }
+
     @Override
     public long purgeDataPointValuesBetween(DataPointVO vo, long startTime, long endTime) {
         long count = Common.databaseProxy.newPointValueDao().deletePointValuesBetween(vo, startTime, endTime);
@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2020 Infinite Automation Software. All rights reserved.
+ */
+package com.serotonin.m2m2.rt.dataImage;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.infiniteautomation.mango.monitor.AtomicIntegerMonitor;
+import com.serotonin.m2m2.Common;
+import com.serotonin.m2m2.i18n.TranslatableMessage;
+
+/**
+ * Delivers data point listener notifications on a fixed set of threads instead of submitting a work item
+ * to the medium priority pool for every value. Points are assigned to a shard by id and each shard has a
+ * single consumer thread reading from a bounded ring, so notifications for a point are delivered in order.
+ *
+ * Producers never wait, they queue notifications while holding the point's notify lock and a listener on a
+ * dispatcher thread may set another point on the same shard. When a ring is full the notification is
+ * submitted to the medium priority pool as it would be without the dispatcher, it may then be delivered
+ * out of order with the notifications for its point that are still in the ring.
+ *
+ * @author Terry Packer
+ */
+public class DataPointEventDispatcher {
+
+    private static final Log LOG = LogFactory.getLog(DataPointEventDispatcher.class);
+
+    public static final String QUEUE_DEPTH_MONITOR_ID_PREFIX = "com.serotonin.m2m2.rt.dataImage.DataPointEventDispatcher.QUEUE_DEPTH.";
+    public static final String COALESCED_MONITOR_ID = "com.serotonin.m2m2.rt.dataImage.DataPointEventDispatcher.COALESCED";
+
+    private final Shard[] shards;
+    private final AtomicIntegerMonitor coalescedMonitor;
+    private volatile boolean running = true;
+
+    /**
+     * @param shardCount - number of rings and threads
+     * @param capacity - size of each ring
+     */
+    public DataPointEventDispatcher(int shardCount, int capacity) {
+        this.coalescedMonitor = Common.MONITORED_VALUES.<Integer>create(COALESCED_MONITOR_ID)
+                .name(new TranslatableMessage("internal.monitor.POINT_EVENT_COALESCED"))
+                .value(0)
+                .buildAtomic();
+        this.shards = new Shard[Math.max(1, shardCount)];
+        for (int i = 0; i < shards.length; i++)
+            shards[i] = new Shard(i, capacity);
+    }
+
+    /**
+     * Queue a notification for a point, does not block
+     */
+    void dispatch(int dataPointId, DataPointRT.EventNotifyWorkItem item) {
+        Shard shard = shards[Math.floorMod(dataPointId, shards.length)];
+        shard.depthMonitor.increment();
+        if (running && shard.ring.offer(item))
+            return;
+
+        shard.depthMonitor.decrement();
+        Common.backgroundProcessing.addWorkItem(item);
+    }
+
+    /**
+     * Record that a notification was merged into one that was already queued
+     */
+    void coalesced() {
+        coalescedMonitor.increment();
+    }
+
+    /**
+     * Stop the dispatcher threads once they have delivered what is queued, later notifications are
+     * submitted to the medium priority pool
+     */
+    public void terminate() {
+        running = false;
+        for (Shard shard : shards)
+            shard.thread.interrupt();
+        for (Shard shard : shards) {
+            try {
+                shard.thread.join(10000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (shard.thread.isAlive())
+                LOG.warn("Timed out waiting for " + shard.thread.getName() + " to stop");
+        }
+    }
+
+    private static class Shard implements Runnable {
+        private final BlockingQueue<DataPointRT.EventNotifyWorkItem> ring;
+        private final AtomicIntegerMonitor depthMonitor;
+        private final Thread thread;
+
+        Shard(int index, int capacity) {
+            this.ring = new ArrayBlockingQueue<>(capacity);
+            this.depthMonitor = Common.MONITORED_VALUES.<Integer>create(QUEUE_DEPTH_MONITOR_ID_PREFIX + index)
+                    .name(new TranslatableMessage("internal.monitor.POINT_EVENT_QUEUE_DEPTH", index))
+                    .value(0)
+                    .buildAtomic();
+            this.thread = new Thread(this, "Data point event dispatcher " + index);
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                DataPointRT.EventNotifyWorkItem item;
+                try {
+                    item = ring.take();
+                } catch (InterruptedException e) {
+                    // Terminated, deliver what was queued before stopping
+                    while ((item = ring.poll()) != null)
+                        deliver(item);
+                    return;
+                }
+                deliver(item);
+            }
+        }
+
+        private void deliver(DataPointRT.EventNotifyWorkItem item) {
+            depthMonitor.decrement();
+            try {
+                item.execute();
+            } catch (Throwable t) {
+                LOG.error("Error notifying data point listener " + item.getDescription(), t);
+            }
+        }
+    }
+}
@@ -72,6 +72,14 @@ public class DataPointEventMulticaster implements DataPointListener {
         return index;
     }
 
+    /**
+     * Only coalesce when every listener accepts it
+     */
+    @Override
+    public boolean isCoalescing() {
+        return a.isCoalescing() && b.isCoalescing();
+    }
+
     public static DataPointListener[] getListeners(DataPointListener l) {
         int n = getListenerCount(l);
         DataPointListener[] result = new DataPointListener[n];
@@ -70,4 +70,15 @@ public interface DataPointListener {
      * @param attributes
      */
     default void attributeChanged(Map<String, Object> attributes) { }
+
+    /**
+     * When notifications are delivered by the sharded dispatcher and this listener falls behind, consecutive
+     * updates that are not sets or backdates may be merged into one. The listener then only receives the latest
+     * value via pointUpdated and pointLogged, and pointChanged compares the oldest and latest values.
+     *
+     * @return true if this listener only needs the latest value
+     */
+    default boolean isCoalescing() {
+        return false;
+    }
 }
@@ -54,6 +54,10 @@ public class DataPointRT implements IDataPointValueSource, ILifecycle {
     private static final PvtTimeComparator pvtTimeComparator = new PvtTimeComparator();
     private static final String prefix = "INTVL_LOG-";
     private static final boolean enhanced = Common.databaseProxy.newPointValueDao() instanceof EnhancedPointValueDao;
+    private static final boolean numericRingCache = Common.envProps.getBoolean("runtime.pointValueCache.numericRing", false);
+    private static final DataPointEventDispatcher dispatcher = Common.envProps.getBoolean("runtime.dataPointEvents.sharded", false) ?
+            new DataPointEventDispatcher(Common.envProps.getInt("runtime.dataPointEvents.shards", 4),
+                    Common.envProps.getInt("runtime.dataPointEvents.shardCapacity", 65536)) : null;
 
     // Configuration data.
     private final DataPointVO vo;
@@ -71,6 +75,12 @@ public class DataPointRT implements IDataPointValueSource, ILifecycle {
     private long intervalStartTime = -1;
     private List<IValueTime> averagingValues;
     private final Object intervalLoggingLock = new Object();
+    private final Object notifyLock = new Object();
+    /**
+     * The last notification sent to the dispatcher
+     */
+    private EventNotifyWorkItem lastNotify;
+
     private TimerTask intervalLoggingTask;
 
     //Simulation Timer, or any timer implementation
@@ -98,6 +108,8 @@ public class DataPointRT implements IDataPointValueSource, ILifecycle {
         this.pointLocator = pointLocator;
         if (enhanced) {
             valueCache = new EnhancedPointValueCache(vo, dsVo, vo.getDefaultCacheSize(), initialCache);
+        } else if (numericRingCache && vo.getPointLocator().getDataTypeId() == DataTypes.NUMERIC) {
+            valueCache = new NumericPointValueCache(vo, vo.getDefaultCacheSize(), initialCache);
         } else {
             valueCache = new PointValueCache(vo, vo.getDefaultCacheSize(), initialCache);
         }
@@ -754,24 +766,52 @@ public class DataPointRT implements IDataPointValueSource, ILifecycle {
     protected void fireEvents(PointValueTime oldValue, PointValueTime newValue, Map<String, Object> attributes, boolean set,
             boolean backdate, boolean logged, boolean updated, boolean attributesChanged) {
         DataPointListener l = Common.runtimeManager.getDataPointListeners(vo.getId());
-        if (l != null)
-            Common.backgroundProcessing.addWorkItem(new EventNotifyWorkItem(vo.getXid(), l, oldValue, newValue,
-                    attributes, set, backdate, logged, updated, attributesChanged));
+        if (l == null)
+            return;
+
+        EventNotifyWorkItem item = new EventNotifyWorkItem(vo.getXid(), l, oldValue, newValue,
+                attributes, set, backdate, logged, updated, attributesChanged);
+        if (dispatcher == null) {
+            Common.backgroundProcessing.addWorkItem(item);
+            return;
+        }
+
+        synchronized (notifyLock) {
+            // Merge into the last queued notification if it has not been delivered yet
+            if (lastNotify != null && lastNotify.coalesce(item)) {
+                dispatcher.coalesced();
+                return;
+            }
+            lastNotify = item;
+            dispatcher.dispatch(vo.getId(), item);
+        }
     }
 
-    class EventNotifyWorkItem implements WorkItem {
+    /**
+     * Stop the threads delivering listener notifications, if they are in use
+     */
+    public static void terminateEventDispatcher() {
+        if (dispatcher != null)
+            dispatcher.terminate();
+    }
+
+    static class EventNotifyWorkItem implements WorkItem {
         private static final String descriptionPrefix = "Point event for: ";
         private static final String prefix = "EN-";
         private final String sourceXid;
         private final DataPointListener listener;
         private final PointValueTime oldValue;
-        private final PointValueTime newValue;
+        private PointValueTime newValue;
         private final Map<String, Object> attributes;
         private final boolean set;
         private final boolean backdate;
-        private final boolean logged;
+        private boolean logged;
         private final boolean updated;
         private final boolean attributesChanged;
+        /**
+         * Set once delivery has started, after which nothing can be merged into this
+         */
+        private boolean claimed;
 
         EventNotifyWorkItem(String xid, DataPointListener listener, PointValueTime oldValue, PointValueTime newValue, Map<String, Object> attributes, boolean set,
                 boolean backdate, boolean logged, boolean updated, boolean attributesChanged) {
@@ -787,8 +827,31 @@ public class DataPointRT implements IDataPointValueSource, ILifecycle {
             this.attributesChanged = attributesChanged;
         }
 
+        /**
+         * Merge a newer notification into this one if both are plain updates, this has not been delivered
+         * yet and the listener accepts coalesced notifications
+         * @return true if the newer notification was merged
+         */
+        synchronized boolean coalesce(EventNotifyWorkItem newer) {
+            if (claimed || listener != newer.listener || !isCoalescable() || !newer.isCoalescable()
+                    || !listener.isCoalescing())
+                return false;
+            newValue = newer.newValue;
+            logged |= newer.logged;
+            return true;
+        }
+
+        private boolean isCoalescable() {
+            return updated && !set && !backdate && !attributesChanged;
+        }
+
+        private synchronized void claim() {
+            claimed = true;
+        }
+
         @Override
         public void execute() {
+            claim();
             try {
                 if (attributesChanged) {
                     listener.attributeChanged(attributes);
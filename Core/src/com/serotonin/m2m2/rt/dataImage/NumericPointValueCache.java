@@ -0,0 +1,375 @@
+/**
+ * Copyright (C) 2020 Infinite Automation Software. All rights reserved.
+ */
+package com.serotonin.m2m2.rt.dataImage;
+
+import java.lang.ref.WeakReference;
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.locks.StampedLock;
+
+import com.serotonin.m2m2.vo.DataPointVO;
+
+/**
+ * Point value cache for numeric points that keeps the values in a fixed capacity ring of primitive
+ * timestamps and values so that saving a value does not copy the cache.
+ *
+ * There must only be one writer (the data point's runtime), readers do not block unless a write happens
+ * while they are reading. Values that arrive in time order are appended at the head, backdated values are
+ * inserted at the position found by a binary search.
+ *
+ * Annotated values are kept by reference in a parallel array so their annotations are not lost.
+ *
+ * The list returned by getCacheContents() reads from the ring rather than a copy of it. The ring has room for
+ * twice the cache size so appending does not overwrite the values in a view until the cache size number of
+ * values have been appended after it, only then is a view that is still referenced given its own copy. A
+ * backdated value moves values within the ring so all views are copied first.
+ *
+ * @author Terry Packer
+ */
+public class NumericPointValueCache extends PointValueCache {
+
+    private final StampedLock lock = new StampedLock();
+    // Set by setCacheContents()
+    private long[] times;
+    private double[] values;
+    private PointValueTime[] annotated;
+    /**
+     * Maximum number of values kept, half the length of the ring
+     */
+    private int capacity;
+    /**
+     * Index of the newest value in the ring
+     */
+    private int head;
+    private int size;
+    /**
+     * Number of values appended since setCacheContents(), the position of the newest value. The value at a
+     * position is in the ring at the position modulo its length.
+     */
+    private long appended;
+    /**
+     * Incremented on every modification, used to re-use the view returned to readers
+     */
+    private long modCount;
+    private volatile RingView view;
+    /**
+     * Views that may still read from the ring ordered by their oldest position, guarded by the write lock
+     */
+    private final ArrayDeque<WeakReference<RingView>> views = new ArrayDeque<>();
+
+    public NumericPointValueCache(DataPointVO vo, int defaultSize, List<PointValueTime> cache) {
+        super(vo, defaultSize);
+        initialize(cache);
+    }
+
+    @Override
+    public void savePointValue(PointValueTime pvt, SetPointSource source, boolean logValue, boolean async) {
+        if (logValue) {
+            if (async)
+                savePointValueAsync(pvt, source);
+            else
+                pvt = savePointValueSync(pvt, source);
+        }
+
+        int capacity = getMaxSize();
+        if (capacity == 0)
+            return;
+        if (this.capacity < capacity)
+            setCacheContents(getCacheContents());
+
+        long stamp = lock.writeLock();
+        try {
+            insert(pvt);
+            modCount++;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public PointValueTime getLatestPointValue() {
+        if (getMaxSize() == 0)
+            refreshCache(1);
+
+        long stamp = lock.tryOptimisticRead();
+        PointValueTime latest = readLatest();
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                latest = readLatest();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * The returned list is a read only view
+     */
+    @Override
+    public List<PointValueTime> getLatestPointValues(int limit) {
+        if (getMaxSize() < limit)
+            refreshCache(limit);
+
+        List<PointValueTime> c = getCacheContents();
+        if (limit >= c.size())
+            return c;
+        return c.subList(0, limit);
+    }
+
+    /**
+     * Returns an immutable view of the values at the time of the call, the same view is returned until the
+     * cache is modified. Creating the view does not copy the values.
+     */
+    @Override
+    public List<PointValueTime> getCacheContents() {
+        long stamp = lock.tryOptimisticRead();
+        RingView current = view;
+        if (current != null && current.modCount == modCount && lock.validate(stamp))
+            return current;
+
+        stamp = lock.writeLock();
+        try {
+            current = view;
+            if (current == null || current.modCount != modCount) {
+                current = new RingView(modCount, new Slots(times, values, annotated, head), size, appended - size + 1);
+                if (size > 0)
+                    views.add(new WeakReference<>(current));
+                view = current;
+            }
+            return current;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    protected void setCacheContents(List<PointValueTime> cache) {
+        int capacity = Math.max(1, Math.max(getMaxSize(), cache.size()));
+        long stamp = lock.writeLock();
+        try {
+            // Existing views keep reading the old arrays, nothing writes to them again
+            views.clear();
+            this.capacity = capacity;
+            times = new long[capacity * 2];
+            values = new double[capacity * 2];
+            annotated = new PointValueTime[capacity * 2];
+            size = 0;
+            head = 0;
+            appended = 0;
+            // Fill oldest first so the newest value ends up at the head
+            for (int i = cache.size() - 1; i >= 0; i--)
+                append(cache.get(i));
+            modCount++;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * May be called without holding the lock, so guard against the arrays being replaced mid read.
+     * The result is discarded if the stamp does not validate.
+     */
+    private PointValueTime readLatest() {
+        long[] t = times;
+        double[] v = values;
+        PointValueTime[] a = annotated;
+        int h = head;
+        if (size == 0 || h >= t.length || h >= v.length || h >= a.length)
+            return null;
+        return toPointValueTime(t[h], v[h], a[h]);
+    }
+
+    /**
+     * Physical index of the i-th newest value
+     */
+    private int index(int i) {
+        int index = head - i;
+        return index < 0 ? index + times.length : index;
+    }
+
+    private void insert(PointValueTime pvt) {
+        if (size == 0 || pvt.getTime() >= times[head]) {
+            // Overwrites the position one ring length before the new value
+            detachViews(appended + 1 - times.length);
+            append(pvt);
+            return;
+        }
+        detachViews(Long.MAX_VALUE);
+
+        // Backdated, find the first position (newest first) with a time less than or equal to the new value
+        int low = 0;
+        int high = size;
+        long time = pvt.getTime();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (times[index(mid)] > time)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+
+        if (low >= capacity)
+            return;
+
+        // Shift the older values down by one, dropping the oldest if full
+        int last = size < capacity ? size : capacity - 1;
+        for (int i = last; i > low; i--) {
+            int to = index(i);
+            int from = index(i - 1);
+            times[to] = times[from];
+            values[to] = values[from];
+            annotated[to] = annotated[from];
+        }
+        set(index(low), pvt);
+        if (size < capacity)
+            size++;
+    }
+
+    private void append(PointValueTime pvt) {
+        head = head + 1 == times.length ? 0 : head + 1;
+        appended++;
+        set(head, pvt);
+        if (size < capacity)
+            size++;
+    }
+
+    /**
+     * Give the views that read the value at a position, or any older one, their own copy of their values
+     */
+    private void detachViews(long position) {
+        WeakReference<RingView> ref;
+        while ((ref = views.peek()) != null) {
+            RingView v = ref.get();
+            if (v != null && v.oldest > position)
+                break;
+            views.poll();
+            if (v != null)
+                v.detach();
+        }
+    }
+
+    private void set(int index, PointValueTime pvt) {
+        times[index] = pvt.getTime();
+        values[index] = pvt.getDoubleValue();
+        annotated[index] = pvt instanceof IAnnotated ? pvt : null;
+    }
+
+    private static PointValueTime toPointValueTime(long time, double value, PointValueTime annotated) {
+        if (annotated != null)
+            return annotated;
+        return new PointValueTime(value, time);
+    }
+
+    /**
+     * Arrays holding values newest first from the head backwards, either the ring or a copy of part of it
+     */
+    private static class Slots {
+        private final long[] times;
+        private final double[] values;
+        private final PointValueTime[] annotated;
+        private final int head;
+
+        Slots(long[] times, double[] values, PointValueTime[] annotated, int head) {
+            this.times = times;
+            this.values = values;
+            this.annotated = annotated;
+            this.head = head;
+        }
+
+        PointValueTime get(int i) {
+            int index = head - i;
+            if (index < 0)
+                index += times.length;
+            return toPointValueTime(times[index], values[index], annotated[index]);
+        }
+    }
+
+    /**
+     * Read only list of the values in the ring when it was created, newest first. The PointValueTime of an
+     * element is created the first time it is read and then kept, so reading the same view repeatedly does not
+     * allocate.
+     */
+    private class RingView extends AbstractList<PointValueTime> implements RandomAccess {
+        private final long modCount;
+        private final int size;
+        /**
+         * Position of the oldest value
+         */
+        private final long oldest;
+        /**
+         * The ring until the writer is about to change it, then a copy
+         */
+        private volatile Slots slots;
+        /**
+         * PointValueTime is immutable so a racing reader at worst creates an equal instance
+         */
+        private final PointValueTime[] objects;
+
+        RingView(long modCount, Slots slots, int size, long oldest) {
+            this.modCount = modCount;
+            this.slots = slots;
+            this.size = size;
+            this.oldest = oldest;
+            this.objects = new PointValueTime[size];
+        }
+
+        @Override
+        public PointValueTime get(int index) {
+            if (index < 0 || index >= size)
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            PointValueTime pvt = objects[index];
+            if (pvt == null) {
+                // The writer copies the values before changing them in the ring, read again if it did
+                long stamp = lock.tryOptimisticRead();
+                pvt = slots.get(index);
+                if (!lock.validate(stamp)) {
+                    stamp = lock.readLock();
+                    try {
+                        pvt = slots.get(index);
+                    } finally {
+                        lock.unlockRead(stamp);
+                    }
+                }
+                objects[index] = pvt;
+            }
+            return pvt;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public List<PointValueTime> subList(int fromIndex, int toIndex) {
+            if (fromIndex == 0 && toIndex == size)
+                return this;
+            return Collections.unmodifiableList(super.subList(fromIndex, toIndex));
+        }
+
+        /**
+         * Copy the values out of the ring, called by the writer holding the write lock
+         */
+        void detach() {
+            Slots ring = slots;
+            long[] t = new long[size];
+            double[] v = new double[size];
+            PointValueTime[] a = new PointValueTime[size];
+            for (int i = 0; i < size; i++) {
+                int index = ring.head - i;
+                if (index < 0)
+                    index += ring.times.length;
+                t[size - 1 - i] = ring.times[index];
+                v[size - 1 - i] = ring.values[index];
+                a[size - 1 - i] = ring.annotated[index];
+            }
+            slots = new Slots(t, v, a, size - 1);
+        }
+    }
+}
@@ -39,22 +39,36 @@ public class PointValueCache {
     private List<PointValueTime> cache;
 
     public PointValueCache(DataPointVO vo, int defaultSize, List<PointValueTime> cache) {
+        this(vo, defaultSize);
+        initialize(cache);
+    }
+
+    /**
+     * For subclasses that hold the values themselves, they must call {@link #initialize(List)} once their own
+     * fields are set.
+     */
+    protected PointValueCache(DataPointVO vo, int defaultSize) {
         this.vo = vo;
         this.defaultSize = defaultSize;
+    }
 
+    /**
+     * Fill the cache from the initial values, or from the database if there are none
+     */
+    protected final void initialize(List<PointValueTime> cache) {
         if (cache == null) {
-            this.cache = new ArrayList<>();
+            setCacheContents(new ArrayList<>());
             if (defaultSize > 0) {
                 refreshCache(defaultSize);
             }
         } else {
+            this.maxSize = defaultSize;
             if (cache.size() > defaultSize) {
                 // dont keep excess point values hanging around
-                this.cache = new ArrayList<>(cache.subList(0, defaultSize));
+                setCacheContents(new ArrayList<>(cache.subList(0, defaultSize)));
             } else {
-                this.cache = cache;
+                setCacheContents(cache);
             }
-            this.maxSize = defaultSize;
         }
     }
 
@@ -108,7 +122,7 @@ public class PointValueCache {
         if (maxSize == 0)
             refreshCache(1);
 
-        List<PointValueTime> c = cache;
+        List<PointValueTime> c = getCacheContents();
         if (c.size() > 0)
             return c.get(0);
 
@@ -119,7 +133,7 @@ public class PointValueCache {
         if (maxSize < limit)
             refreshCache(limit);
 
-        List<PointValueTime> c = cache;
+        List<PointValueTime> c = getCacheContents();
         if (limit == c.size())
             return new ArrayList<PointValueTime>(c);
 
@@ -132,7 +146,7 @@ public class PointValueCache {
      * Refresh the cache, keeping existing cached values if they are not already logged.
      * @param size
      */
-    private void refreshCache(int size) {
+    protected void refreshCache(int size) {
         if (size > maxSize) {
             maxSize = size;
             if (size == 1) {
@@ -141,14 +155,14 @@ public class PointValueCache {
                 if (pvt != null) {
                     List<PointValueTime> c = new ArrayList<PointValueTime>();
                     c.add(pvt);
-                    cache = c;
+                    setCacheContents(c);
                 }
             }
             else {
                 List<DataPointVO> vos = new ArrayList<>();
                 vos.add(vo);
                 List<PointValueTime> cc = new ArrayList<>();
-                cc.addAll(cache);
+                cc.addAll(getCacheContents());
                 List<PointValueTime> nc = new ArrayList<PointValueTime>(size);
                 dao.getLatestPointValues(vos, Common.timer.currentTimeMillis() + 1, false, size, (value, index) -> {
                     //Cache is in same order as rows
@@ -166,7 +180,7 @@ public class PointValueCache {
                             nc.add(value);
                     }
                 });
-                cache = nc;
+                setCacheContents(nc);
             }
         }
     }
@@ -178,15 +192,31 @@ public class PointValueCache {
         return cache;
     }
 
+    /**
+     * Replace the contents of the cache, the list must be ordered newest first and must not be modified afterwards.
+     * Note this is called from {@link #initialize(List)}.
+     */
+    protected void setCacheContents(List<PointValueTime> cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * @return the number of values currently being kept in the cache
+     */
+    protected int getMaxSize() {
+        return maxSize;
+    }
+
     public void reset() {
         List<PointValueTime> nc = dao.getLatestPointValues(vo, defaultSize);
         maxSize = defaultSize;
-        cache = nc;
+        setCacheContents(nc);
     }
 
     public void reset(long before) {
-        List<PointValueTime> nc = new ArrayList<PointValueTime>(cache.size());
-        nc.addAll(cache);
+        List<PointValueTime> c = getCacheContents();
+        List<PointValueTime> nc = new ArrayList<PointValueTime>(c.size());
+        nc.addAll(c);
         Iterator<PointValueTime> iter = nc.iterator();
         while(iter.hasNext())
             if(iter.next().getTime() < before)
@@ -194,9 +224,9 @@ public class PointValueCache {
 
         if(nc.size() < defaultSize) {
             maxSize = 0;
-            cache = nc;
+            setCacheContents(nc);
             refreshCache(defaultSize);
         } else
-            cache = nc;
+            setCacheContents(nc);
     }
 }
@@ -0,0 +1,248 @@
+/**
+ * Copyright (C) 2020 Infinite Automation Software. All rights reserved.
+ */
+package com.serotonin.m2m2.rt.event;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import com.serotonin.m2m2.rt.event.type.EventType;
+import com.serotonin.m2m2.rt.event.type.EventTypeKey;
+
+/**
+ * Concurrent index of event instances by event type, with secondary indexes by data point, data source,
+ * publisher, id and activation time. Used by the event manager for the active and recent events.
+ *
+ * An event is a member of the index while it is in the map of all events, removal first claims the event by
+ * removing it from that map so only one caller can remove a given event. The secondary indexes are
+ * cleaned up afterwards and lookups ignore events that have already been claimed. Each event is given a
+ * sequence number when it is added so all events can be listed in the order they were raised.
+ *
+ * @author Terry Packer
+ */
+public class EventInstanceIndex {
+
+    private final long bucketSize;
+    private final AtomicLong sequence = new AtomicLong();
+    // Event to its sequence number
+    private final ConcurrentMap<EventInstance, Long> all = new ConcurrentHashMap<>();
+    private final ConcurrentNavigableMap<Long, EventInstance> bySequence = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<EventTypeKey, Queue<EventInstance>> byType = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, Set<EventInstance>> byDataPoint = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, Set<EventInstance>> byDataSource = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, Set<EventInstance>> byPublisher = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, EventInstance> byId = new ConcurrentHashMap<>();
+    private final ConcurrentNavigableMap<Long, Set<EventInstance>> byTime = new ConcurrentSkipListMap<>();
+    private final Map<AlarmLevels, AtomicInteger> levelCounts = new EnumMap<>(AlarmLevels.class);
+
+    /**
+     * @param bucketSize - size in ms of the buckets events are grouped in by active timestamp
+     */
+    public EventInstanceIndex(long bucketSize) {
+        this.bucketSize = bucketSize;
+        for (AlarmLevels level : AlarmLevels.values())
+            levelCounts.put(level, new AtomicInteger());
+    }
+
+    public void add(EventInstance evt) {
+        if (all.containsKey(evt))
+            return;
+
+        EventType type = evt.getEventType();
+        byType.compute(new EventTypeKey(type), (k, q) -> {
+            if (q == null)
+                q = new ConcurrentLinkedQueue<>();
+            q.add(evt);
+            return q;
+        });
+        addTo(byDataPoint, type.getDataPointId(), evt);
+        addTo(byDataSource, type.getDataSourceId(), evt);
+        addTo(byPublisher, type.getPublisherId(), evt);
+        addTo(byTime, bucket(evt.getActiveTimestamp()), evt);
+        if (evt.getId() > 0)
+            byId.put(evt.getId(), evt);
+        levelCounts.get(evt.getAlarmLevel()).incrementAndGet();
+        long seq = sequence.incrementAndGet();
+        bySequence.put(seq, evt);
+        // Added last so the event is not visible or removable until it is fully indexed
+        all.put(evt, seq);
+    }
+
+    /**
+     * @return the first (oldest) event of this type or null
+     */
+    public EventInstance get(EventType type) {
+        Queue<EventInstance> q = byType.get(new EventTypeKey(type));
+        if (q != null) {
+            for (EventInstance e : q) {
+                if (all.containsKey(e) && e.getEventType().equals(type))
+                    return e;
+            }
+        }
+        return null;
+    }
+
+    public List<EventInstance> getAll(EventType type) {
+        List<EventInstance> result = new ArrayList<>();
+        Queue<EventInstance> q = byType.get(new EventTypeKey(type));
+        if (q != null) {
+            for (EventInstance e : q) {
+                if (all.containsKey(e) && e.getEventType().equals(type))
+                    result.add(e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Events are indexed by id when they are added, so the id must be assigned before then
+     */
+    public EventInstance getById(int id) {
+        EventInstance e = byId.get(id);
+        if (e != null && all.containsKey(e))
+            return e;
+        return null;
+    }
+
+    /**
+     * @return a copy of all events in the index, in the order they were added
+     */
+    public List<EventInstance> getAll() {
+        List<EventInstance> result = new ArrayList<>(all.size());
+        for (EventInstance e : bySequence.values()) {
+            if (all.containsKey(e))
+                result.add(e);
+        }
+        return result;
+    }
+
+    public int size() {
+        return all.size();
+    }
+
+    /**
+     * Find and remove the first (oldest) event of this type
+     * @return the removed event or null if there is none
+     */
+    public EventInstance remove(EventType type) {
+        Queue<EventInstance> q = byType.get(new EventTypeKey(type));
+        if (q != null) {
+            for (EventInstance e : q) {
+                if (e.getEventType().equals(type) && claim(e))
+                    return e;
+            }
+        }
+        return null;
+    }
+
+    public List<EventInstance> removeForDataPoint(int dataPointId) {
+        return removeAll(byDataPoint.get(dataPointId), e -> e.getEventType().getDataPointId() == dataPointId);
+    }
+
+    public List<EventInstance> removeForDataSource(int dataSourceId) {
+        return removeAll(byDataSource.get(dataSourceId), e -> e.getEventType().getDataSourceId() == dataSourceId);
+    }
+
+    public List<EventInstance> removeForPublisher(int publisherId) {
+        return removeAll(byPublisher.get(publisherId), e -> e.getEventType().getPublisherId() == publisherId);
+    }
+
+    /**
+     * Remove all events that were activated before the time and match the filter
+     */
+    public List<EventInstance> removeBefore(long time, Predicate<EventInstance> filter) {
+        List<EventInstance> removed = new ArrayList<>();
+        // The bucket containing time may also hold events before it
+        for (Set<EventInstance> bucket : byTime.headMap(bucket(time), true).values()) {
+            for (EventInstance e : bucket) {
+                if (e.getActiveTimestamp() < time && filter.test(e) && claim(e))
+                    removed.add(e);
+            }
+        }
+        return removed;
+    }
+
+    public void clear() {
+        for (EventInstance e : all.keySet())
+            claim(e);
+    }
+
+    /**
+     * @return the highest alarm level of any event in the index, 0 if there are none
+     */
+    public int getHighestAlarmLevel() {
+        int max = 0;
+        for (Map.Entry<AlarmLevels, AtomicInteger> entry : levelCounts.entrySet()) {
+            if (entry.getValue().get() > 0 && entry.getKey().value() > max)
+                max = entry.getKey().value();
+        }
+        return max;
+    }
+
+    private List<EventInstance> removeAll(Set<EventInstance> candidates, Predicate<EventInstance> filter) {
+        List<EventInstance> removed = new ArrayList<>();
+        if (candidates != null) {
+            for (EventInstance e : candidates) {
+                if (filter.test(e) && claim(e))
+                    removed.add(e);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Remove the event from the index
+     * @return true if this call removed it
+     */
+    private boolean claim(EventInstance evt) {
+        Long seq = all.remove(evt);
+        if (seq == null)
+            return false;
+        bySequence.remove(seq);
+
+        EventType type = evt.getEventType();
+        byType.computeIfPresent(new EventTypeKey(type), (k, q) -> {
+            q.remove(evt);
+            return q.isEmpty() ? null : q;
+        });
+        removeFrom(byDataPoint, type.getDataPointId(), evt);
+        removeFrom(byDataSource, type.getDataSourceId(), evt);
+        removeFrom(byPublisher, type.getPublisherId(), evt);
+        removeFrom(byTime, bucket(evt.getActiveTimestamp()), evt);
+        byId.remove(evt.getId(), evt);
+        levelCounts.get(evt.getAlarmLevel()).decrementAndGet();
+        return true;
+    }
+
+    private long bucket(long time) {
+        return Math.floorDiv(time, bucketSize);
+    }
+
+    private static <K> void addTo(ConcurrentMap<K, Set<EventInstance>> index, K key, EventInstance evt) {
+        index.compute(key, (k, set) -> {
+            if (set == null)
+                set = ConcurrentHashMap.newKeySet();
+            set.add(evt);
+            return set;
+        });
+    }
+
+    private static <K> void removeFrom(ConcurrentMap<K, Set<EventInstance>> index, K key, EventInstance evt) {
+        index.computeIfPresent(key, (k, set) -> {
+            set.remove(evt);
+            return set.isEmpty() ? null : set;
+        });
+    }
+}
@@ -26,6 +26,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.commons.text.StringEscapeUtils;
 
+import com.infiniteautomation.mango.spring.components.EventHandlerScriptCache;
 import com.infiniteautomation.mango.spring.service.MailingListService;
 import com.infiniteautomation.mango.spring.service.MangoJavaScriptService;
 import com.infiniteautomation.mango.util.ConfigurationExportData;
@@ -434,9 +435,11 @@ public class EmailHandlerRT extends EventHandlerRT<EmailEventHandlerVO> implemen
                             service,
                             permissions
                             );
-                    compiledScript.compile(script, true);
-                    compiledScript.initialize(context);
-                    MangoJavaScriptResult r = compiledScript.execute(Common.timer.currentTimeMillis(), time, DataTypes.ALPHANUMERIC);
+                    MangoJavaScriptResult r;
+                    try (EventHandlerScriptCache.Lease lease = Common.getBean(EventHandlerScriptCache.class).lease(handlerXid, script, compiledScript)) {
+                        compiledScript.initialize(context);
+                        r = compiledScript.execute(Common.timer.currentTimeMillis(), time, DataTypes.ALPHANUMERIC);
+                    }
 
                     PointValueTime result = (PointValueTime)r.getResult();
                     if(result != null && result.getValue() == MangoJavaScriptService.UNCHANGED) //The script cancelled the email
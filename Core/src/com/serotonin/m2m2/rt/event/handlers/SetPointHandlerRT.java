@@ -12,6 +12,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.infiniteautomation.mango.spring.components.EventHandlerScriptCache;
 import com.infiniteautomation.mango.spring.service.MangoJavaScriptService;
 import com.infiniteautomation.mango.util.ConfigurationExportData;
 import com.infiniteautomation.mango.util.script.CompiledMangoJavaScript;
@@ -47,10 +48,12 @@ public class SetPointHandlerRT extends EventHandlerRT<SetPointEventHandlerVO> im
     private static final Log LOG = LogFactory.getLog(SetPointHandlerRT.class);
  
     private MangoJavaScriptService service;
+    private EventHandlerScriptCache scriptCache;
 
     public SetPointHandlerRT(SetPointEventHandlerVO vo) {
         super(vo);
         this.service = Common.getBean(MangoJavaScriptService.class);
+        this.scriptCache = Common.getBean(EventHandlerScriptCache.class);
     }
 
     @Override
@@ -128,10 +131,11 @@ public class SetPointHandlerRT extends EventHandlerRT<SetPointEventHandlerVO> im
                         false,
                         service,
                         vo.getScriptRoles());
-                activeScript.compile(vo.getActiveScript(), true);
-                activeScript.initialize(context);
-                
-                MangoJavaScriptResult result = activeScript.execute(Common.timer.currentTimeMillis(), evt.getActiveTimestamp(), targetPoint.getDataTypeId());
+                MangoJavaScriptResult result;
+                try (EventHandlerScriptCache.Lease lease = scriptCache.lease(vo.getXid(), vo.getActiveScript(), activeScript)) {
+                    activeScript.initialize(context);
+                    result = activeScript.execute(Common.timer.currentTimeMillis(), evt.getActiveTimestamp(), targetPoint.getDataTypeId());
+                }
 	        	PointValueTime pvt = (PointValueTime)result.getResult();
 	        	if(pvt != null)
 	        	    value = pvt.getValue();
@@ -228,10 +232,11 @@ public class SetPointHandlerRT extends EventHandlerRT<SetPointEventHandlerVO> im
                         false,
                         service,
                         vo.getScriptRoles());
-                inactiveScript.compile(vo.getInactiveScript(), true);
-                inactiveScript.initialize(context);
-                
-                MangoJavaScriptResult result = inactiveScript.execute(Common.timer.currentTimeMillis(), evt.getRtnTimestamp(), targetPoint.getDataTypeId());
+                MangoJavaScriptResult result;
+                try (EventHandlerScriptCache.Lease lease = scriptCache.lease(vo.getXid(), vo.getInactiveScript(), inactiveScript)) {
+                    inactiveScript.initialize(context);
+                    result = inactiveScript.execute(Common.timer.currentTimeMillis(), evt.getRtnTimestamp(), targetPoint.getDataTypeId());
+                }
 
 	        	PointValueTime pvt = (PointValueTime)result.getResult();
 	        	if(pvt != null)
@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) 2020 Infinite Automation Software. All rights reserved.
+ */
+package com.serotonin.m2m2.rt.event.type;
+
+import java.util.Objects;
+
+/**
+ * Hash key for an event type, made of the same fields used by {@link EventType#equals(Object)} as not all
+ * event types implement hashCode().
+ *
+ * @author Terry Packer
+ */
+public final class EventTypeKey {
+    private final String type;
+    private final String subtype;
+    private final int ref1;
+    private final int ref2;
+
+    public EventTypeKey(EventType eventType) {
+        this(eventType.getEventType(), eventType.getEventSubtype(), eventType.getReferenceId1(), eventType.getReferenceId2());
+    }
+
+    public EventTypeKey(String type, String subtype, int ref1, int ref2) {
+        this.type = type;
+        this.subtype = subtype;
+        this.ref1 = ref1;
+        this.ref2 = ref2;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, subtype, ref1, ref2);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof EventTypeKey))
+            return false;
+        EventTypeKey other = (EventTypeKey) obj;
+        return ref1 == other.ref1 && ref2 == other.ref2 && Objects.equals(type, other.type)
+                && Objects.equals(subtype, other.subtype);
+    }
+}
@@ -8,7 +8,9 @@ import java.io.File;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -34,11 +36,16 @@ import com.serotonin.m2m2.util.DateUtils;
 import com.serotonin.m2m2.vo.DataPointVO;
 import com.serotonin.m2m2.vo.dataSource.DataSourceVO;
 import com.serotonin.timer.CronTimerTrigger;
+import com.serotonin.timer.OneTimeTrigger;
 import com.serotonin.timer.TimerTask;
 
 public class DataPurge {
 
     public static final String ENABLE_POINT_DATA_PURGE = "enablePurgePointValues";
+    public static final String ROWS_PER_SECOND_MONITOR_ID = "com.serotonin.m2m2.rt.maint.DataPurge.ROWS_PER_SECOND";
+    public static final String REMAINING_POINTS_MONITOR_ID = "com.serotonin.m2m2.rt.maint.DataPurge.REMAINING_POINTS";
+    //Delay before resuming a purge that was interrupted by a shutdown
+    private static final long RESUME_DELAY = 5 * 60 * 1000;
 
     private static final Log log = LogFactory.getLog(DataPurge.class);
     private long runtime;
@@ -49,6 +56,7 @@ public class DataPurge {
     private long deletedFiles;
     private long deletedEvents;
     private final List<Long> fileIds = new ArrayList<Long>();
+    private final Map<Integer, DataSourceVO> dataSources = new HashMap<>();
 
     public static void schedule() {
         try {
@@ -57,6 +65,12 @@ public class DataPurge {
         catch (ParseException e) {
             throw new ShouldNeverHappenException(e);
         }
+
+        if (Common.envProps.getInt("db.purge.parallelism", 0) > 0) {
+            Long interrupted = ParallelPointValuePurge.getInterruptedRuntime();
+            if (interrupted != null)
+                Common.backgroundProcessing.schedule(new DataPurgeTask(interrupted));
+        }
     }
 
     synchronized public void execute(long runtime) {
@@ -78,8 +92,13 @@ public class DataPurge {
 
             // Get the data point information.
             List<DataPointVO> dataPoints = dataPointDao.getAll();
-            for (DataPointVO dataPoint : dataPoints)
-                purgePoint(dataPoint, countPointValues, purgeFilters);
+            int parallelism = Common.envProps.getInt("db.purge.parallelism", 0);
+            if (parallelism > 0)
+                purgePointsInParallel(dataPoints, purgeFilters, parallelism);
+            else {
+                for (DataPointVO dataPoint : dataPoints)
+                    purgePoint(dataPoint, countPointValues, purgeFilters);
+            }
 
             if(countPointValues)
                 deletedSamples += pointValueDao.deleteOrphanedPointValues();
@@ -121,32 +140,7 @@ public class DataPurge {
             }
         }
         else {
-            // Determine the purging properties to use.
-            int purgeType;
-            int purgePeriod;
-
-            if (dataPoint.isPurgeOverride()) {
-                purgeType = dataPoint.getPurgeType();
-                purgePeriod = dataPoint.getPurgePeriod();
-            }
-            else {
-                // Check the data source level.
-                DataSourceVO ds = DataSourceDao.getInstance().get(dataPoint.getDataSourceId());
-                if (ds.isPurgeOverride()) {
-                    purgeType = ds.getPurgeType();
-                    purgePeriod = ds.getPurgePeriod();
-                }
-                else {
-                    // Use the system settings.
-                    purgeType = SystemSettingsDao.instance.getIntValue(SystemSettingsDao.POINT_DATA_PURGE_PERIOD_TYPE);
-                    purgePeriod = SystemSettingsDao.instance.getIntValue(SystemSettingsDao.POINT_DATA_PURGE_PERIODS);
-                }
-            }
-
-            // No matter when this purge actually runs, we want it to act like it's midnight.
-            DateTime cutoff = new DateTime(runtime);
-            cutoff = DateUtils.truncateDateTime(cutoff, Common.TimePeriods.DAYS);
-            cutoff = DateUtils.minus(cutoff, purgeType, purgePeriod);
+            DateTime cutoff = getCutoff(dataPoint);
             if (Common.runtimeManager.getState() == RuntimeManager.RUNNING) {
                 long millis = cutoff.getMillis();
                 for(PurgeFilter pf : purgeFilters)
@@ -167,6 +161,78 @@ public class DataPurge {
         }
     }
 
+    /**
+     * Purge the points with set based deletes of the points that share a cutoff, a bounded number of deletes
+     * at once. Points with logging type NONE have all of their values deleted.
+     */
+    private void purgePointsInParallel(List<DataPointVO> dataPoints, List<PurgeFilter> purgeFilters, int parallelism) {
+        Map<Long, List<DataPointVO>> groups = new HashMap<>();
+        int purgeAll = 0;
+        for (DataPointVO dataPoint : dataPoints) {
+            long millis;
+            if (dataPoint.getLoggingType() == DataPointVO.LoggingTypes.NONE) {
+                millis = Long.MAX_VALUE;
+                purgeAll++;
+            }
+            else {
+                millis = getCutoff(dataPoint).getMillis();
+                for(PurgeFilter pf : purgeFilters)
+                    millis = pf.adjustPurgeTime(dataPoint, millis);
+
+                // If this is an image data type, get the point value ids.
+                if (dataPoint.getPointLocator().getDataTypeId() == DataTypes.IMAGE)
+                    fileIds.addAll(pointValueDao.getFiledataIds(dataPoint));
+            }
+            groups.computeIfAbsent(millis, k -> new ArrayList<>()).add(dataPoint);
+        }
+
+        if (Common.runtimeManager.getState() != RuntimeManager.RUNNING)
+            return;
+        if (purgeAll > 0)
+            log.info("Purging all data for " + purgeAll + " data points because they are set to logging type NONE.");
+
+        ParallelPointValuePurge purge = new ParallelPointValuePurge(runtime, parallelism,
+                Common.envProps.getInt("db.purge.batchPoints", 500),
+                Common.envProps.getInt("db.purge.chunkSize", 10000),
+                Common.envProps.getLong("db.purge.chunkLatencyTarget", 1000));
+        long deleted = purge.purge(groups);
+        deletedSamples += deleted;
+        if (deleted > 0)
+            anyDeletedSamples = true;
+    }
+
+    /**
+     * Determine the purge cutoff of a point from its own, its data source's or the system purge settings
+     */
+    private DateTime getCutoff(DataPointVO dataPoint) {
+        // Determine the purging properties to use.
+        int purgeType;
+        int purgePeriod;
+
+        if (dataPoint.isPurgeOverride()) {
+            purgeType = dataPoint.getPurgeType();
+            purgePeriod = dataPoint.getPurgePeriod();
+        }
+        else {
+            // Check the data source level.
+            DataSourceVO ds = dataSources.computeIfAbsent(dataPoint.getDataSourceId(), id -> DataSourceDao.getInstance().get(id));
+            if (ds.isPurgeOverride()) {
+                purgeType = ds.getPurgeType();
+                purgePeriod = ds.getPurgePeriod();
+            }
+            else {
+                // Use the system settings.
+                purgeType = SystemSettingsDao.instance.getIntValue(SystemSettingsDao.POINT_DATA_PURGE_PERIOD_TYPE);
+                purgePeriod = SystemSettingsDao.instance.getIntValue(SystemSettingsDao.POINT_DATA_PURGE_PERIODS);
+            }
+        }
+
+        // No matter when this purge actually runs, we want it to act like it's midnight.
+        DateTime cutoff = new DateTime(runtime);
+        cutoff = DateUtils.truncateDateTime(cutoff, Common.TimePeriods.DAYS);
+        return DateUtils.minus(cutoff, purgeType, purgePeriod);
+    }
+
     private void filedataPurge() {
         // The file ids for points will have been filled in by the purge point method calls. Now get the ids from
         // elsewhere.
@@ -310,17 +376,29 @@ public class DataPurge {
 
 
     static class DataPurgeTask extends TimerTask {
+        private final Long resumeRuntime;
+
         DataPurgeTask() throws ParseException {
             // Test trigger for running every 5 minutes.
             //super(new CronTimerTrigger("0 0/5 * * * ?"));
             // Trigger to run at 3:05am every day
             super(new CronTimerTrigger("0 5 3 * * ?"), "Data purge task", "DataPurge", 0);
+            this.resumeRuntime = null;
+        }
+
+        /**
+         * Resume a purge that was interrupted, it runs with the same runtime so it has the same cutoffs
+         * @param resumeRuntime
+         */
+        DataPurgeTask(long resumeRuntime) {
+            super(new OneTimeTrigger(RESUME_DELAY), "Resume data purge task", "DataPurgeResume", 0);
+            this.resumeRuntime = resumeRuntime;
         }
 
         @Override
         public void run(long runtime) {
             try {
-                new DataPurge().execute(runtime);
+                new DataPurge().execute(resumeRuntime != null ? resumeRuntime : runtime);
             }catch(Exception e) {
                 log.error(e.getMessage(), e);
             }
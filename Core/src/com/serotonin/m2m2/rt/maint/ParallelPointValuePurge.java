@@ -0,0 +1,271 @@
+/**
+ * Copyright (C) 2020 Infinite Automation Software. All rights reserved.
+ */
+package com.serotonin.m2m2.rt.maint;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.infiniteautomation.mango.monitor.ValueMonitor;
+import com.infiniteautomation.mango.spring.components.executors.MangoForkJoinWorkerThreadFactory;
+import com.serotonin.m2m2.Common;
+import com.serotonin.m2m2.db.dao.SystemSettingsDao;
+import com.serotonin.m2m2.i18n.TranslatableMessage;
+import com.serotonin.m2m2.rt.RuntimeManager;
+import com.serotonin.m2m2.vo.DataPointVO;
+
+/**
+ * Purges the point values of many points with a bounded number of deletes running at once. The points that
+ * share a cutoff are split into batches and each batch is deleted with one statement per chunk of values
+ * instead of one statement per point.
+ *
+ * The database load throttles the purge, when a chunk takes longer than the latency target the number of
+ * deletes allowed to run at once is halved, otherwise it grows by one up to the parallelism.
+ *
+ * Batches are ordered by cutoff then point id and the progress is checkpointed in the system settings, a purge
+ * that is interrupted is resumed with the same runtime and skips the batches that were done.
+ *
+ * @author Terry Packer
+ */
+class ParallelPointValuePurge {
+
+    private static final Log LOG = LogFactory.getLog(ParallelPointValuePurge.class);
+
+    /**
+     * runtime;cutoff;id of the last point of the completed batches
+     */
+    static final String CHECKPOINT = "dataPurgeCheckpoint";
+
+    private static final ValueMonitor<Integer> ROWS_PER_SECOND_MONITOR = Common.MONITORED_VALUES.<Integer>create(DataPurge.ROWS_PER_SECOND_MONITOR_ID)
+            .name(new TranslatableMessage("internal.monitor.DATA_PURGE_ROWS_PER_SECOND"))
+            .value(0)
+            .build();
+    private static final ValueMonitor<Integer> REMAINING_POINTS_MONITOR = Common.MONITORED_VALUES.<Integer>create(DataPurge.REMAINING_POINTS_MONITOR_ID)
+            .name(new TranslatableMessage("internal.monitor.DATA_PURGE_REMAINING_POINTS"))
+            .value(0)
+            .build();
+
+    private final long runtime;
+    private final int parallelism;
+    private final int batchSize;
+    private final int chunkSize;
+    private final long latencyTarget;
+
+    // Guarded by this
+    private int limit;
+    private int active;
+    private long deleted;
+    private long start;
+    private int remaining;
+    private boolean[] completed;
+    private int completedBatches;
+
+    /**
+     * @param runtime - runtime of the purge, the checkpoint is only used by a purge with the same runtime
+     * @param parallelism - maximum number of deletes at once
+     * @param batchSize - maximum number of points deleted together
+     * @param chunkSize - maximum number of values deleted by one statement
+     * @param latencyTarget - ms a chunk can take before fewer deletes are allowed at once
+     */
+    ParallelPointValuePurge(long runtime, int parallelism, int batchSize, int chunkSize, long latencyTarget) {
+        this.runtime = runtime;
+        this.parallelism = parallelism;
+        this.batchSize = batchSize;
+        this.chunkSize = chunkSize;
+        this.latencyTarget = latencyTarget;
+        this.limit = parallelism;
+    }
+
+    /**
+     * Purge the points, blocks until all of them are done
+     * @param groups - points to purge by the time to purge values before
+     * @return number of values deleted
+     */
+    long purge(Map<Long, List<DataPointVO>> groups) {
+        List<Batch> batches = createBatches(groups, readCheckpoint());
+        if (batches.isEmpty()) {
+            SystemSettingsDao.instance.setValue(CHECKPOINT, null);
+            return 0;
+        }
+
+        synchronized (this) {
+            completed = new boolean[batches.size()];
+            for (Batch batch : batches)
+                remaining += batch.points.size();
+            REMAINING_POINTS_MONITOR.setValue(remaining);
+            start = System.nanoTime();
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism, new MangoForkJoinWorkerThreadFactory(), null, true);
+        try {
+            List<CompletableFuture<Void>> tasks = new ArrayList<>(batches.size());
+            for (int i = 0; i < batches.size(); i++) {
+                int index = i;
+                tasks.add(CompletableFuture.runAsync(() -> purge(batches, index), pool));
+            }
+            CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[tasks.size()])).join();
+        } finally {
+            pool.shutdown();
+        }
+
+        synchronized (this) {
+            // Leave the checkpoint if a batch failed or the runtime is stopping so the purge resumes
+            if (completedBatches == batches.size())
+                SystemSettingsDao.instance.setValue(CHECKPOINT, null);
+            return deleted;
+        }
+    }
+
+    private void purge(List<Batch> batches, int index) {
+        // Stopping, the rest is purged when the checkpoint is resumed
+        if (Common.runtimeManager.getState() != RuntimeManager.RUNNING)
+            return;
+
+        Batch batch = batches.get(index);
+        long[] chunkStart = new long[1];
+        acquire();
+        try {
+            chunkStart[0] = System.nanoTime();
+            Common.runtimeManager.purgeDataPointValues(batch.points, batch.cutoff, chunkSize, count -> {
+                chunkDeleted(count, (System.nanoTime() - chunkStart[0]) / 1000000);
+                // Wait here if the database is too busy for the next chunk
+                release();
+                acquire();
+                chunkStart[0] = System.nanoTime();
+            });
+        } catch (Exception e) {
+            LOG.error("Failed to purge point values before " + batch.cutoff + " for " + batch.points.size() + " data points", e);
+            return;
+        } finally {
+            release();
+        }
+        batchCompleted(batches, index);
+    }
+
+    private synchronized void acquire() {
+        while (active >= limit) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        active++;
+    }
+
+    private synchronized void release() {
+        active--;
+        notifyAll();
+    }
+
+    /**
+     * Adjust the number of deletes allowed at once from the latency of a chunk
+     */
+    synchronized void chunkDeleted(long count, long latency) {
+        if (latency > latencyTarget)
+            limit = Math.max(1, limit / 2);
+        else if (limit < parallelism)
+            limit++;
+
+        deleted += count;
+        long elapsed = Math.max(1, (System.nanoTime() - start) / 1000000);
+        ROWS_PER_SECOND_MONITOR.setValue((int) Math.min(Integer.MAX_VALUE, deleted * 1000 / elapsed));
+        notifyAll();
+    }
+
+    /**
+     * @return the number of deletes currently allowed at once
+     */
+    synchronized int getLimit() {
+        return limit;
+    }
+
+    private synchronized void batchCompleted(List<Batch> batches, int index) {
+        completed[index] = true;
+        remaining -= batches.get(index).points.size();
+        REMAINING_POINTS_MONITOR.setValue(remaining);
+
+        int previous = completedBatches;
+        while (completedBatches < completed.length && completed[completedBatches])
+            completedBatches++;
+        if (completedBatches > previous) {
+            Batch last = batches.get(completedBatches - 1);
+            DataPointVO lastPoint = last.points.get(last.points.size() - 1);
+            SystemSettingsDao.instance.setValue(CHECKPOINT, runtime + ";" + last.cutoff + ";" + lastPoint.getId());
+        }
+    }
+
+    /**
+     * Split the groups into batches ordered by cutoff then point id, skipping the points before the checkpoint
+     */
+    private List<Batch> createBatches(Map<Long, List<DataPointVO>> groups, long[] checkpoint) {
+        List<Long> cutoffs = new ArrayList<>(groups.keySet());
+        cutoffs.sort(null);
+        List<Batch> batches = new ArrayList<>();
+        for (Long cutoff : cutoffs) {
+            List<DataPointVO> points = new ArrayList<>(groups.get(cutoff));
+            points.sort(Comparator.comparingInt(DataPointVO::getId));
+            Batch batch = null;
+            for (DataPointVO point : points) {
+                if (checkpoint != null && (cutoff < checkpoint[0] || (cutoff == checkpoint[0] && point.getId() <= checkpoint[1])))
+                    continue;
+                if (batch == null || batch.points.size() >= batchSize) {
+                    batch = new Batch(cutoff);
+                    batches.add(batch);
+                }
+                batch.points.add(point);
+            }
+        }
+        return batches;
+    }
+
+    /**
+     * @return cutoff and point id of the checkpoint if it was written by a purge with the same runtime
+     */
+    private long[] readCheckpoint() {
+        String value = SystemSettingsDao.instance.getValue(CHECKPOINT);
+        if (value == null)
+            return null;
+        try {
+            String[] parts = value.split(";");
+            if (Long.parseLong(parts[0]) != runtime)
+                return null;
+            LOG.info("Resuming interrupted data purge");
+            return new long[] { Long.parseLong(parts[1]), Long.parseLong(parts[2]) };
+        } catch (RuntimeException e) {
+            LOG.warn("Ignoring invalid data purge checkpoint " + value);
+            return null;
+        }
+    }
+
+    /**
+     * @return runtime of a purge that did not complete, null if there is none
+     */
+    static Long getInterruptedRuntime() {
+        String value = SystemSettingsDao.instance.getValue(CHECKPOINT);
+        if (value == null)
+            return null;
+        try {
+            return Long.parseLong(value.split(";")[0]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static class Batch {
+        final long cutoff;
+        final List<DataPointVO> points = new ArrayList<>();
+
+        Batch(long cutoff) {
+            this.cutoff = cutoff;
+        }
+    }
+}
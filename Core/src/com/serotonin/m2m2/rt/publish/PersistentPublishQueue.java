@@ -0,0 +1,195 @@
+/**
+ * Copyright (C) 2020 Infinite Automation Software. All rights reserved.
+ */
+package com.serotonin.m2m2.rt.publish;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.serotonin.m2m2.rt.dataImage.PointValueTime;
+import com.serotonin.m2m2.vo.publish.PublishedPointVO;
+import com.serotonin.m2m2.vo.publish.PublisherVO;
+
+/**
+ * Publish queue stored on disk in a PublishQueueLog so values that have not been sent survive a restart.
+ * Values are appended straight into the log without creating queue entries, entries are only created for
+ * the batch returned by get(max).
+ *
+ * The log can only be acknowledged from its head, so an entry removed while entries before it are still
+ * queued is remembered and the head moves over it once they are removed too. Until then it is not returned
+ * again or counted in the size. Values for points that are no longer published are skipped and removed
+ * the same way.
+ *
+ * @author Terry Packer
+ */
+public class PersistentPublishQueue<T extends PublishedPointVO> extends PublishQueue<T, PointValueTime> {
+    private static final Log LOG = LogFactory.getLog(PersistentPublishQueue.class);
+
+    private final PublishQueueLog log;
+    private final Map<Integer, T> points = new HashMap<>();
+    /**
+     * Number of values that have ever been removed from the head of the log, used to turn an entry
+     * into a count of values to acknowledge
+     */
+    private long headIndex;
+    /**
+     * Indexes after the head of the values that have been removed but not yet acknowledged in the log
+     */
+    private final TreeSet<Long> removed = new TreeSet<>();
+
+    public PersistentPublishQueue(PublisherRT<T> owner, PublisherVO<T> vo, Path directory, int segmentSize, int forceInterval) throws IOException {
+        super(owner, vo.getCacheWarningSize(), vo.getCacheDiscardSize());
+        for (T point : vo.getPoints())
+            points.put(point.getDataPointId(), point);
+        this.log = new PublishQueueLog(directory, segmentSize, forceInterval);
+        if (!log.isEmpty())
+            LOG.info("Publisher " + vo.getName() + " has " + log.size() + " values queued from " + directory);
+    }
+
+    @Override
+    public void add(T vo, PointValueTime pvt) {
+        append(vo, pvt);
+        sizeCheck();
+    }
+
+    @Override
+    public void add(T vo, List<PointValueTime> pvts) {
+        for (PointValueTime pvt : pvts)
+            append(vo, pvt);
+        sizeCheck();
+    }
+
+    @Override
+    public PublishQueueEntry<T, PointValueTime> next() {
+        List<PublishQueueEntry<T, PointValueTime>> entries = get(1);
+        return entries == null ? null : entries.get(0);
+    }
+
+    @Override
+    public synchronized List<PublishQueueEntry<T, PointValueTime>> get(int max) {
+        List<PublishQueueEntry<T, PointValueTime>> result = new ArrayList<>(max);
+        while (!log.isEmpty()) {
+            long first = headIndex;
+            int[] index = new int[1];
+            // Every removed value is after the head so this reads at least max values that are still queued
+            int read = log.peek(max + removed.size(), (dataPointId, value) -> {
+                long i = first + index[0]++;
+                if (removed.contains(i) || result.size() == max)
+                    return;
+                T vo = points.get(dataPointId);
+                if (vo != null)
+                    result.add(new LogEntry<>(vo, value, i));
+                else
+                    removed.add(i);
+            });
+            ackRemoved();
+            if (read == 0 || !result.isEmpty())
+                break;
+        }
+        return result.isEmpty() ? null : result;
+    }
+
+    @Override
+    public void remove(PublishQueueEntry<T, PointValueTime> e) {
+        synchronized (this) {
+            markRemoved(e);
+            ackRemoved();
+        }
+        sizeCheck();
+    }
+
+    @Override
+    public void removeAll(List<PublishQueueEntry<T, PointValueTime>> list) {
+        synchronized (this) {
+            for (PublishQueueEntry<T, PointValueTime> e : list)
+                markRemoved(e);
+            ackRemoved();
+        }
+        sizeCheck();
+    }
+
+    @Override
+    public synchronized void removeAll() {
+        try {
+            log.clear();
+            headIndex = 0;
+            removed.clear();
+        } catch (IOException e) {
+            LOG.error("Failed to clear publish queue", e);
+        }
+    }
+
+    @Override
+    public synchronized int getSize() {
+        return (int) Math.min(Integer.MAX_VALUE, log.size() - removed.size());
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            log.close();
+        } catch (IOException e) {
+            LOG.error("Failed to close publish queue", e);
+        }
+    }
+
+    @Override
+    protected synchronized void discard(int count) {
+        try {
+            int acked = (int) Math.min(count, log.size());
+            log.ack(acked);
+            headIndex += acked;
+            removed.headSet(headIndex).clear();
+        } catch (IOException e) {
+            LOG.error("Failed to remove values from publish queue", e);
+        }
+    }
+
+    private void append(T vo, PointValueTime pvt) {
+        try {
+            if (!log.append(vo.getDataPointId(), pvt))
+                LOG.warn("Value for point " + vo.getDataPointId() + " is too large for the publish queue, it will not be published");
+        } catch (IOException e) {
+            LOG.error("Failed to queue value for point " + vo.getDataPointId(), e);
+        }
+    }
+
+    /**
+     * Remember that an entry was removed, nothing is done if it was already discarded
+     */
+    private void markRemoved(PublishQueueEntry<T, PointValueTime> e) {
+        if (e instanceof LogEntry) {
+            long index = ((LogEntry<T>) e).index;
+            if (index >= headIndex)
+                removed.add(index);
+        }
+    }
+
+    /**
+     * Acknowledge the removed values at the head of the log
+     */
+    private void ackRemoved() {
+        int count = 0;
+        while (removed.remove(headIndex + count))
+            count++;
+        if (count > 0)
+            discard(count);
+    }
+
+    private static class LogEntry<T extends PublishedPointVO> extends PublishQueueEntry<T, PointValueTime> {
+        private final long index;
+
+        LogEntry(T vo, PointValueTime pvt, long index) {
+            super(vo, pvt);
+            this.index = index;
+        }
+    }
+}
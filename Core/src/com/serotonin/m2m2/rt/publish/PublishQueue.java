@@ -80,25 +80,48 @@ public class PublishQueue<T extends PublishedPointVO, V> {
     	queue.clear();
     }
 
+    /**
+     * Remove the first count entries, typically after the entries returned by get(max) have been sent
+     * @param count
+     */
+    public void ack(int count) {
+        discard(count);
+        sizeCheck();
+    }
+
     public int getSize() {
         return queue.size();
     }
 
-    private void sizeCheck() {
+    /**
+     * Release any resources held by the queue, called when the publisher is terminated
+     */
+    public void close() {
+    }
+
+    /**
+     * Remove the oldest entries from the queue
+     * @param count
+     */
+    protected void discard(int count) {
+        try {
+            for (int i = 0; i < count; i++)
+                queue.remove();
+        } catch(NoSuchElementException e) {
+            //Queue is emptied, nothing to do
+        }
+    }
+
+    protected void sizeCheck() {
         long now = Common.timer.currentTimeMillis();
         if (lastSizeCheck + SIZE_CHECK_DELAY < now) {
             lastSizeCheck = now;
-            int size = queue.size();
+            int size = getSize();
 
             synchronized (owner) {
                 if (size > discardSize) {
-                	try {
-                		for (int i = discardSize; i < size; i++)
-                			queue.remove();
-                	} catch(NoSuchElementException e) {
-                		//Queue is emptied, nothing to do
-                	}
-                	
+                    discard(size - discardSize);
+
                     LOG.warn("Publisher queue " + owner.getVo().getName() + " discarded " + (size - discardSize)
                             + " entries");
                 }
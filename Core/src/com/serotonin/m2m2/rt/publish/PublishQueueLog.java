@@ -0,0 +1,438 @@
+/**
+ * Copyright (C) 2020 Infinite Automation Software. All rights reserved.
+ */
+package com.serotonin.m2m2.rt.publish;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.serotonin.m2m2.DataTypes;
+import com.serotonin.m2m2.rt.dataImage.PointValueTime;
+import com.serotonin.m2m2.rt.dataImage.types.BinaryValue;
+import com.serotonin.m2m2.rt.dataImage.types.DataValue;
+import com.serotonin.m2m2.rt.dataImage.types.ImageValue;
+import com.serotonin.m2m2.rt.dataImage.types.MultistateValue;
+import com.serotonin.m2m2.rt.dataImage.types.NumericValue;
+
+/**
+ * Persistent FIFO of point values for a publisher, stored in fixed size memory mapped segment files. Values
+ * are appended directly into the mapped segment and read back a batch at a time from the head cursor, which
+ * is itself kept in a small mapped file so the queue survives a restart. The segment size is stored with the
+ * cursor and existing segments are always opened at the size they were created with, a new size only takes
+ * effect once the log is empty.
+ *
+ * After a batch is read with peek() the first N values of it can be acknowledged without reading them again,
+ * segments are deleted once every value in them has been acknowledged.
+ *
+ * The tail segment is forced to disk every few appends and when it is full, the cursor whenever it moves. A
+ * segment file can't be deleted on some platforms (Windows) while it is still mapped and the mapping is only
+ * released once the buffer is garbage collected, so failed deletes are retried as the head moves.
+ *
+ * Annotations are not stored, values are read back as plain point values.
+ *
+ * @author Terry Packer
+ */
+public class PublishQueueLog {
+    private static final Log LOG = LogFactory.getLog(PublishQueueLog.class);
+
+    static final String FILE_PREFIX = "segment.";
+    static final String FILE_SUFFIX = ".dat";
+    static final String CURSOR_FILE = "cursor";
+    static final int DEFAULT_FORCE_INTERVAL = 1000;
+    /**
+     * Head position(long) then segment size(int), a cursor written before the size was stored reads it as 0
+     */
+    private static final int CURSOR_SIZE = 8 + 4;
+
+    /**
+     * Length of a record after its length header, written last so a partially written record is not read.
+     * length(int), dataPointId(int), dataType(byte), time(long), then value(double) or length(int) and UTF-8 bytes
+     */
+    private static final int HEADER_SIZE = 4;
+    private static final int FIXED_SIZE = 4 + 1 + 8;
+    /**
+     * Marks the rest of a segment as unused
+     */
+    private static final int END_OF_SEGMENT = -1;
+
+    /**
+     * Receives the values read from the log
+     */
+    public interface PublishQueueLogConsumer {
+        void accept(int dataPointId, PointValueTime value);
+    }
+
+    private final Path directory;
+    private int segmentSize;
+    private final int forceInterval;
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    /**
+     * Files of deleted segments that could not be removed yet
+     */
+    private final List<Path> undeleted = new ArrayList<>();
+    private final FileChannel cursorChannel;
+    private final MappedByteBuffer cursor;
+
+    private long headSequence;
+    private int headOffset;
+    /**
+     * Position used while scanning records, see nextRecord()
+     */
+    private long scanSequence;
+    private int scanOffset;
+    private Segment tail;
+    private int writeOffset;
+    private int unforced;
+    private volatile long size;
+
+    /**
+     * Position after each value returned by the last peek, packed as sequence and offset
+     */
+    private long[] peeked = new long[0];
+    private int peekedCount;
+
+    /**
+     * @param directory - where to store the segments
+     * @param segmentSize - size in bytes of each segment file
+     * @throws IOException
+     */
+    public PublishQueueLog(Path directory, int segmentSize) throws IOException {
+        this(directory, segmentSize, DEFAULT_FORCE_INTERVAL);
+    }
+
+    /**
+     * @param directory - where to store the segments
+     * @param segmentSize - size in bytes of new segment files, existing segments keep the size they were created with
+     * @param forceInterval - number of values appended between forcing the tail segment to disk
+     * @throws IOException
+     */
+    public PublishQueueLog(Path directory, int segmentSize, int forceInterval) throws IOException {
+        this.directory = directory;
+        this.forceInterval = Math.max(1, forceInterval);
+        Files.createDirectories(directory);
+
+        cursorChannel = FileChannel.open(directory.resolve(CURSOR_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        cursor = cursorChannel.map(MapMode.READ_WRITE, 0, CURSOR_SIZE);
+        long head = cursor.getLong(0);
+        headSequence = head >>> 32;
+        headOffset = (int) head;
+        int storedSegmentSize = cursor.getInt(8);
+        this.segmentSize = storedSegmentSize > 0 ? storedSegmentSize : segmentSize;
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                long sequence = Long.parseLong(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()));
+                if (sequence < headSequence)
+                    Files.delete(file);
+                else
+                    segments.put(sequence, new Segment(sequence, file));
+            }
+        }
+
+        if (segments.isEmpty()) {
+            headSequence = 0;
+            headOffset = 0;
+            tail = openSegment(0);
+            writeCursor();
+        } else {
+            if (segments.firstKey() > headSequence) {
+                headSequence = segments.firstKey();
+                headOffset = 0;
+                writeCursor();
+            }
+            tail = segments.lastEntry().getValue();
+            recover();
+            if (size == 0 && this.segmentSize != segmentSize) {
+                LOG.info("Changing the segment size of " + directory + " from " + this.segmentSize + " to " + segmentSize);
+                this.segmentSize = segmentSize;
+                clear();
+            }
+        }
+    }
+
+    /**
+     * @return the number of values in the log that have not been acknowledged
+     */
+    public long size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Append a value to the end of the log
+     * @return false if the value is too large to store
+     * @throws IOException
+     */
+    public synchronized boolean append(int dataPointId, PointValueTime pvt) throws IOException {
+        DataValue value = pvt.getValue();
+        byte[] text = null;
+        int length = FIXED_SIZE;
+        if (value.hasDoubleRepresentation()) {
+            length += 8;
+        } else {
+            String str = value instanceof ImageValue ? ((ImageValue) value).getFilename() : value.getStringValue();
+            text = str.getBytes(StandardCharsets.UTF_8);
+            length += 4 + text.length;
+        }
+
+        // Always leave room for an end of segment marker
+        if (HEADER_SIZE + length + HEADER_SIZE > segmentSize)
+            return false;
+        if (writeOffset + HEADER_SIZE + length + HEADER_SIZE > segmentSize) {
+            tail.buffer.putInt(writeOffset, END_OF_SEGMENT);
+            tail.buffer.force();
+            unforced = 0;
+            tail = openSegment(tail.sequence + 1);
+            writeOffset = 0;
+        }
+
+        MappedByteBuffer buffer = tail.buffer;
+        int position = writeOffset + HEADER_SIZE;
+        buffer.putInt(position, dataPointId);
+        buffer.put(position + 4, (byte) value.getDataType());
+        buffer.putLong(position + 5, pvt.getTime());
+        if (text == null) {
+            buffer.putDouble(position + 13, value.getDoubleValue());
+        } else {
+            buffer.putInt(position + 13, text.length);
+            for (int i = 0; i < text.length; i++)
+                buffer.put(position + 17 + i, text[i]);
+        }
+        buffer.putInt(writeOffset, length);
+        writeOffset += HEADER_SIZE + length;
+        size++;
+        if (++unforced >= forceInterval) {
+            buffer.force();
+            unforced = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Read up to max values from the head of the log without removing them
+     * @return the number of values read
+     */
+    public synchronized int peek(int max, PublishQueueLogConsumer consumer) {
+        if (peeked.length < max)
+            peeked = new long[max];
+        peekedCount = 0;
+
+        scanSequence = headSequence;
+        scanOffset = headOffset;
+        while (peekedCount < max) {
+            int length = nextRecord();
+            if (length == 0)
+                break;
+
+            MappedByteBuffer buffer = segments.get(scanSequence).buffer;
+            consumer.accept(buffer.getInt(scanOffset + HEADER_SIZE), read(buffer, scanOffset + HEADER_SIZE));
+            scanOffset += HEADER_SIZE + length;
+            peeked[peekedCount++] = (scanSequence << 32) | scanOffset;
+        }
+        return peekedCount;
+    }
+
+    /**
+     * Remove the first count values from the log, this is constant time if they were all read by the last peek
+     * @throws IOException
+     */
+    public synchronized void ack(int count) throws IOException {
+        if (count <= 0)
+            return;
+
+        if (count <= peekedCount) {
+            long position = peeked[count - 1];
+            moveHead(position >>> 32, (int) position, count);
+        } else {
+            skip(count);
+        }
+        peekedCount = 0;
+    }
+
+    /**
+     * Remove everything from the log
+     * @throws IOException
+     */
+    public synchronized void clear() throws IOException {
+        for (Segment segment : segments.values())
+            segment.delete();
+        segments.clear();
+        tail = openSegment(tail.sequence + 1);
+        headSequence = tail.sequence;
+        headOffset = 0;
+        writeOffset = 0;
+        size = 0;
+        peekedCount = 0;
+        writeCursor();
+    }
+
+    /**
+     * Flush the mapped files and close them, the data remains on disk
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+        for (Segment segment : segments.values()) {
+            segment.buffer.force();
+            segment.channel.close();
+        }
+        cursor.force();
+        cursorChannel.close();
+        deleteUndeleted();
+    }
+
+    private void skip(int count) throws IOException {
+        scanSequence = headSequence;
+        scanOffset = headOffset;
+        int skipped = 0;
+        while (skipped < count) {
+            int length = nextRecord();
+            if (length == 0)
+                break;
+            scanOffset += HEADER_SIZE + length;
+            skipped++;
+        }
+        moveHead(scanSequence, scanOffset, skipped);
+    }
+
+    private void moveHead(long sequence, int offset, int count) throws IOException {
+        // Drop segments that are now fully acknowledged
+        Iterator<Map.Entry<Long, Segment>> it = segments.headMap(sequence, false).entrySet().iterator();
+        while (it.hasNext()) {
+            it.next().getValue().delete();
+            it.remove();
+        }
+        headSequence = sequence;
+        headOffset = offset;
+        size -= count;
+        writeCursor();
+        deleteUndeleted();
+    }
+
+    private void deleteUndeleted() {
+        Iterator<Path> it = undeleted.iterator();
+        while (it.hasNext()) {
+            try {
+                Files.deleteIfExists(it.next());
+                it.remove();
+            } catch (IOException e) {
+                // Still mapped, try again later
+            }
+        }
+    }
+
+    /**
+     * Count the values from the head and find the end of the data in the tail segment
+     */
+    private void recover() throws IOException {
+        long count = 0;
+        scanSequence = headSequence;
+        scanOffset = headOffset;
+        int length;
+        while ((length = nextRecord()) > 0) {
+            scanOffset += HEADER_SIZE + length;
+            count++;
+        }
+        size = count;
+        writeOffset = scanSequence == tail.sequence ? scanOffset : 0;
+        if (writeOffset == 0 && tail.buffer.getInt(0) != 0) {
+            // The data ended before the tail, don't write over what is in it
+            tail = openSegment(tail.sequence + 1);
+        }
+    }
+
+    /**
+     * Move the scan position to the next record, following end of segment markers. An unwritten or
+     * partially written record is treated as the end of its segment so a crash can't block the queue.
+     *
+     * @return the length of the record at the scan position or 0 if there are no more records
+     */
+    private int nextRecord() {
+        while (true) {
+            Segment segment = segments.get(scanSequence);
+            if (segment == null)
+                return 0;
+            int length = scanOffset + HEADER_SIZE > segmentSize ? END_OF_SEGMENT : segment.buffer.getInt(scanOffset);
+            if (length > 0 && scanOffset + HEADER_SIZE + length <= segmentSize)
+                return length;
+            if (segment == tail)
+                return 0;
+            scanSequence++;
+            scanOffset = 0;
+        }
+    }
+
+    private PointValueTime read(MappedByteBuffer buffer, int position) {
+        int dataType = buffer.get(position + 4);
+        long time = buffer.getLong(position + 5);
+        switch (dataType) {
+            case DataTypes.NUMERIC:
+                return new PointValueTime(new NumericValue(buffer.getDouble(position + 13)), time);
+            case DataTypes.BINARY:
+                return new PointValueTime(new BinaryValue(buffer.getDouble(position + 13) != 0), time);
+            case DataTypes.MULTISTATE:
+                return new PointValueTime(new MultistateValue((int) buffer.getDouble(position + 13)), time);
+            default:
+                byte[] text = new byte[buffer.getInt(position + 13)];
+                for (int i = 0; i < text.length; i++)
+                    text[i] = buffer.get(position + 17 + i);
+                return new PointValueTime(DataValue.stringToValue(new String(text, StandardCharsets.UTF_8), dataType), time);
+        }
+    }
+
+    private Segment openSegment(long sequence) throws IOException {
+        Segment segment = new Segment(sequence, directory.resolve(FILE_PREFIX + sequence + FILE_SUFFIX));
+        segments.put(sequence, segment);
+        return segment;
+    }
+
+    private void writeCursor() {
+        cursor.putLong(0, (headSequence << 32) | (headOffset & 0xFFFFFFFFL));
+        cursor.putInt(8, segmentSize);
+        cursor.force();
+    }
+
+    private class Segment {
+        private final long sequence;
+        private final Path file;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+
+        Segment(long sequence, Path file) throws IOException {
+            this.sequence = sequence;
+            this.file = file;
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            this.buffer = channel.map(MapMode.READ_WRITE, 0, segmentSize);
+        }
+
+        void delete() throws IOException {
+            channel.close();
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                LOG.debug("Unable to delete " + file + " while it is mapped, will retry", e);
+                undeleted.add(file);
+            }
+        }
+    }
+}
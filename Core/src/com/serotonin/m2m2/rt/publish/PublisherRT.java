@@ -4,11 +4,16 @@
  */
 package com.serotonin.m2m2.rt.publish;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
 import com.serotonin.ShouldNeverHappenException;
 import com.serotonin.m2m2.Common;
 import com.serotonin.m2m2.db.dao.DataPointDao;
@@ -31,6 +36,8 @@ import com.serotonin.timer.TimerTask;
  * @author Matthew Lohbihler
  */
 abstract public class PublisherRT<T extends PublishedPointVO> extends TimeoutClient {
+    private static final Log LOG = LogFactory.getLog(PublisherRT.class);
+
     public static final int POINT_DISABLED_EVENT = 1;
     public static final int QUEUE_SIZE_WARNING_EVENT = 2;
 
@@ -61,6 +68,16 @@ abstract public class PublisherRT<T extends PublishedPointVO> extends TimeoutCli
     }
 
     protected PublishQueue<T, PointValueTime> createPublishQueue(PublisherVO<T> vo) {
+        if (Common.envProps.getBoolean("runtime.publisher.persistentQueue", false)) {
+            Path location = Common.MA_HOME_PATH.resolve(Common.envProps.getString("runtime.publisher.queueLocation", "databases/publishQueue"))
+                    .resolve(Integer.toString(vo.getId())).normalize();
+            try {
+                return new PersistentPublishQueue<T>(this, vo, location, Common.envProps.getInt("runtime.publisher.queueSegmentSize", 8388608),
+                        Common.envProps.getInt("runtime.publisher.queueForceInterval", PublishQueueLog.DEFAULT_FORCE_INTERVAL));
+            } catch (IOException e) {
+                LOG.error("Unable to open publish queue at " + location + ", values will be queued in memory", e);
+            }
+        }
         return new PublishQueue<T, PointValueTime>(this, vo.getCacheWarningSize(), vo.getCacheDiscardSize());
     }
 
@@ -229,6 +246,8 @@ abstract public class PublisherRT<T extends PublishedPointVO> extends TimeoutCli
         for (PublishedPointRT<T> rt : pointRTs)
             rt.terminate();
 
+        queue.close();
+
         // Remove any outstanding events.
         Common.eventManager.cancelEventsForPublisher(getId());
     }
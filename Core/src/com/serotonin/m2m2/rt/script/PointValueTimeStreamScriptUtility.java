@@ -13,16 +13,20 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.stream.Collectors;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import com.infiniteautomation.mango.db.query.BookendQueryCallback;
+import com.infiniteautomation.mango.db.query.PrimitiveBookendQueryCallback;
 import com.infiniteautomation.mango.db.query.QueryCancelledException;
 import com.infiniteautomation.mango.quantize.AbstractPointValueTimeQuantizer;
 import com.infiniteautomation.mango.quantize.AnalogStatisticsQuantizer;
 import com.infiniteautomation.mango.quantize.BucketCalculator;
+import com.infiniteautomation.mango.quantize.ParallelRollupEngine;
+import com.infiniteautomation.mango.quantize.RollupTierQuantizer;
 import com.infiniteautomation.mango.quantize.StartsAndRuntimeListQuantizer;
 import com.infiniteautomation.mango.quantize.StatisticsGeneratorQuantizerCallback;
 import com.infiniteautomation.mango.quantize.TimePeriodBucketCalculator;
@@ -37,6 +41,7 @@ import com.infiniteautomation.mango.util.script.ScriptUtility;
 import com.serotonin.m2m2.Common;
 import com.serotonin.m2m2.Common.Rollups;
 import com.serotonin.m2m2.DataTypes;
+import com.serotonin.m2m2.db.dao.PointValueRollupStore;
 import com.serotonin.m2m2.rt.dataImage.IdPointValueTime;
 import com.serotonin.m2m2.view.stats.StatisticsGenerator;
 import com.serotonin.m2m2.vo.DataPointVO;
@@ -162,7 +167,7 @@ public class PointValueTimeStreamScriptUtility extends ScriptUtility {
         }
     }
 
-    class RollupsStream implements BookendQueryCallback<IdPointValueTime> {
+    class RollupsStream implements BookendQueryCallback<IdPointValueTime>, PrimitiveBookendQueryCallback {
         final List<DataPointVO> vos;
         Integer limit = null;
         final ScriptPointValueRollupCallback callback;
@@ -189,14 +194,45 @@ public class PointValueTimeStreamScriptUtility extends ScriptUtility {
         }
 
         public void execute() throws QueryCancelledException, ScriptPermissionsException {
-            createQuantizerMap();
-            Common.databaseProxy.newPointValueDao().wideBookendQuery(vos, from.toInstant().toEpochMilli(), to.toInstant().toEpochMilli(), false, null, this);
+            if(Common.envProps.getBoolean("runtime.rollup.parallel", false)) {
+                executeParallel();
+                return;
+            }
+            //A single numeric point can be answered from the rollup tiers without changing the order of the results
+            if(vos.size() == 1 && vos.get(0) != null && vos.get(0).getPointLocator().getDataTypeId() == DataTypes.NUMERIC) {
+                PointValueRollupStore store = PointValueRollupStore.getInstance();
+                if(store != null && new RollupTierQuantizer(store, Common.databaseProxy.newPointValueDao()).quantize(vos.get(0), getBucketCalculator(), this::quantizedStatistics))
+                    return;
+            }
+            boolean primitive = createQuantizerMap();
+            //Values of alphanumeric and image points can't be read as primitives
+            if(primitive)
+                Common.databaseProxy.newPointValueDao().wideBookendQueryPrimitive(vos, from.toInstant().toEpochMilli(), to.toInstant().toEpochMilli(), false, null, this);
+            else
+                Common.databaseProxy.newPointValueDao().wideBookendQuery(vos, from.toInstant().toEpochMilli(), to.toInstant().toEpochMilli(), false, null, this);
             //Fast forward to end to fill any gaps at the end
             for(DataPointStatisticsQuantizer<?> quant : this.quantizerMap.values())
                 if(!quant.isDone())
                     quant.done();
         }
 
+        /**
+         * Rollup each point and slice of periods in parallel, the statistics are delivered in time order
+         */
+        private void executeParallel() throws QueryCancelledException {
+            List<DataPointVO> points = vos.stream().filter(vo -> vo != null).collect(Collectors.toList());
+            ParallelRollupEngine engine = new ParallelRollupEngine(Common.databaseProxy.newPointValueDao(),
+                    ParallelRollupEngine.getSharedPool(), Common.envProps.getInt("runtime.rollup.minPeriodsPerSlice", 10));
+            engine.execute(points, getBucketCalculator(), (vo, statistics) -> {
+                if(statistics instanceof AnalogStatistics)
+                    quantizedStatistics((AnalogStatistics)statistics);
+                else if(statistics instanceof StartsAndRuntimeList)
+                    quantizedStatistics((StartsAndRuntimeList)statistics);
+                else
+                    quantizedStatistics((ValueChangeCounter)statistics);
+            });
+        }
+
         @Override
         public void firstValue(IdPointValueTime value, int index, boolean bookend) throws QueryCancelledException {
             DataPointStatisticsQuantizer<?> quantizer = this.quantizerMap.get(value.getId());
@@ -216,6 +252,21 @@ public class PointValueTimeStreamScriptUtility extends ScriptUtility {
             quantizer.lastValue(value, index, bookend);
         }
 
+        @Override
+        public void firstValue(int dataPointId, int dataType, double value, long time, int index, boolean bookend) throws QueryCancelledException {
+            this.quantizerMap.get(dataPointId).firstValue(dataPointId, dataType, value, time, index, bookend);
+        }
+
+        @Override
+        public void row(int dataPointId, int dataType, double value, long time, int index) throws QueryCancelledException {
+            this.quantizerMap.get(dataPointId).row(dataPointId, dataType, value, time, index);
+        }
+
+        @Override
+        public void lastValue(int dataPointId, int dataType, double value, long time, int index, boolean bookend) throws QueryCancelledException {
+            this.quantizerMap.get(dataPointId).lastValue(dataPointId, dataType, value, time, index, bookend);
+        }
+
         public void quantizedStatistics(AnalogStatistics statisticsGenerator) {
             switch(rollup) {
                 case Rollups.ALL :
@@ -325,7 +376,11 @@ public class PointValueTimeStreamScriptUtility extends ScriptUtility {
             }
         }
 
-        private void createQuantizerMap() throws ScriptPermissionsException {
+        /**
+         * @return true if all the values can be read as primitives
+         */
+        private boolean createQuantizerMap() throws ScriptPermissionsException {
+            boolean primitive = true;
             for(DataPointVO vo : vos) {
                 if(vo == null)
                     continue;
@@ -335,6 +390,7 @@ public class PointValueTimeStreamScriptUtility extends ScriptUtility {
                     case DataTypes.ALPHANUMERIC:
                     case DataTypes.IMAGE:
                         quantizer = new ValueChangeCounterDataPointQuantizer(vo, getBucketCalculator(), this);
+                        primitive = false;
                         break;
                     case DataTypes.BINARY:
                     case DataTypes.MULTISTATE:
@@ -349,6 +405,7 @@ public class PointValueTimeStreamScriptUtility extends ScriptUtility {
 
                 this.quantizerMap.put(vo.getId(), quantizer);
             }
+            return primitive;
         }
 
         BucketCalculator getBucketCalculator(){
@@ -356,7 +413,7 @@ public class PointValueTimeStreamScriptUtility extends ScriptUtility {
         }
     }
 
-    abstract class DataPointStatisticsQuantizer<T extends StatisticsGenerator> implements StatisticsGeneratorQuantizerCallback<T>, BookendQueryCallback<IdPointValueTime>{
+    abstract class DataPointStatisticsQuantizer<T extends StatisticsGenerator> implements StatisticsGeneratorQuantizerCallback<T>, BookendQueryCallback<IdPointValueTime>, PrimitiveBookendQueryCallback {
 
         protected final RollupsStream callback;
         protected AbstractPointValueTimeQuantizer<T> quantizer;
@@ -389,6 +446,24 @@ public class PointValueTimeStreamScriptUtility extends ScriptUtility {
             this.done = true;
         }
 
+        @Override
+        public void firstValue(int dataPointId, int dataType, double value, long time, int index, boolean bookend) throws QueryCancelledException {
+            quantizer.firstValue(dataPointId, dataType, value, time, index, bookend);
+            open = true;
+        }
+
+        @Override
+        public void row(int dataPointId, int dataType, double value, long time, int index) throws QueryCancelledException {
+            quantizer.row(dataPointId, dataType, value, time, index);
+        }
+
+        @Override
+        public void lastValue(int dataPointId, int dataType, double value, long time, int index, boolean bookend) throws QueryCancelledException {
+            quantizer.lastValue(dataPointId, dataType, value, time, index, bookend);
+            quantizer.done();
+            this.done = true;
+        }
+
         public boolean isDone() {
             return done;
         }
@@ -0,0 +1,26 @@
+/*
+ * Copyright (C) 2020 Infinite Automation Software. All rights reserved.
+ */
+package com.serotonin.messaging;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A consumer that transports can read into directly.
+ *
+ * @author Terry Packer
+ */
+public interface BufferDataConsumer extends DataConsumer {
+    /**
+     * Get the buffer to read into, in write mode with space remaining. Only valid until data(int) is called.
+     */
+    ByteBuffer getInputBuffer();
+
+    /**
+     * Notifies the consumer that data was read into its buffer
+     *
+     * @param len
+     *            number of bytes read, the buffer's position was advanced past them
+     */
+    void data(int len);
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2020 Infinite Automation Software. All rights reserved.
+ */
+package com.serotonin.messaging;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.serotonin.io.StreamUtils;
+import com.serotonin.log.BaseIOLog;
+
+/**
+ * A message control that receives into a pooled direct buffer and parses with a {@link BufferMessageParser}. Once
+ * the length of the next frame is known the parser is not called again until all of it has arrived, and complete
+ * frames are parsed in place. A transport that supports it, such as the {@link ChannelTransport}, reads straight into
+ * the buffer.
+ *
+ * Writes are queued and the thread that finds the queue idle writes everything in it, so senders do not take turns
+ * on a lock for the transport. Each sender still waits for its own data to be written and gets its own exception
+ * if that write fails, a failed write does not stop the rest of the queue from being written.
+ *
+ * @author Terry Packer
+ */
+public class BufferMessageControl extends MessageControl implements BufferDataConsumer {
+
+    private final ByteBufferPool bufferPool;
+    private BufferMessageParser messageParser;
+
+    // In write mode, guarded by this
+    private ByteBuffer input;
+    // Length of the frame at the start of the input once the parser knows it, 0 if not known yet
+    private int frameLength;
+    private long lastDataTimestamp;
+
+    private final Queue<PendingWrite> writeQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean writing = new AtomicBoolean();
+
+    public BufferMessageControl() {
+        this(ByteBufferPool.getDefault());
+    }
+
+    /**
+     * @param bufferPool - the input buffer is taken from this pool, a frame must fit in one of its buffers
+     */
+    public BufferMessageControl(ByteBufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    public void start(Transport transport, BufferMessageParser messageParser, RequestHandler handler,
+            WaitingRoomKeyFactory waitingRoomKeyFactory) throws IOException {
+        this.messageParser = messageParser;
+        synchronized (this) {
+            input = bufferPool.acquire();
+            frameLength = 0;
+        }
+        super.start(transport, null, handler, waitingRoomKeyFactory);
+    }
+
+    /**
+     * The transport is stopped before the input is returned to the pool. A {@link ChannelTransport} reads into the
+     * input outside of this control's lock, removing its channel from the epoll waits for a read in progress.
+     */
+    @Override
+    public void close() {
+        super.close();
+        synchronized (this) {
+            if (input != null) {
+                bufferPool.release(input);
+                input = null;
+            }
+        }
+    }
+
+    @Override
+    public synchronized ByteBuffer getInputBuffer() {
+        if (input == null)
+            // Closed, somewhere to put what is read before the transport stops
+            return ByteBuffer.allocate(1024);
+        if (!input.hasRemaining())
+            overflow();
+        return input;
+    }
+
+    /**
+     * Data that the transport read into the input buffer. Single-threaded.
+     */
+    @Override
+    public synchronized void data(int len) {
+        if (input == null)
+            return;
+
+        if (DEBUG || getIoLog() != null) {
+            byte[] b = new byte[len];
+            ByteBuffer read = input.duplicate();
+            read.position(read.position() - len);
+            read.get(b);
+            log(b, len);
+        }
+
+        if (isStale()) {
+            // Keep only what was just read
+            input.flip();
+            input.position(input.limit() - len);
+            input.compact();
+            frameLength = 0;
+        }
+
+        parse();
+    }
+
+    /**
+     * Incoming data from the transport. Single-threaded.
+     */
+    @Override
+    public synchronized void data(byte[] b, int len) {
+        if (input == null)
+            return;
+
+        log(b, len);
+
+        if (isStale()) {
+            input.clear();
+            frameLength = 0;
+        }
+
+        int offset = 0;
+        while (offset < len) {
+            if (!input.hasRemaining())
+                overflow();
+            int count = Math.min(len - offset, input.remaining());
+            input.put(b, offset, count);
+            offset += count;
+            parse();
+        }
+    }
+
+    /**
+     * Parse the frames in the input, leaving a partial frame at the start of the buffer
+     */
+    private void parse() {
+        input.flip();
+        try {
+            // There may be multiple messages in the data, so enter a loop.
+            while (input.hasRemaining()) {
+                if (frameLength == 0) {
+                    int start = input.position();
+                    try {
+                        frameLength = messageParser.frameLength(input);
+                    }
+                    catch (Exception e) {
+                        receivedException(e);
+                        if (input.position() == start)
+                            input.position(start + 1);
+                        frameLength = 0;
+                        continue;
+                    }
+
+                    if (frameLength == 0)
+                        break;
+                    if (frameLength > input.capacity()) {
+                        receivedException(new IOException("Frame length " + frameLength + " exceeds buffer capacity "
+                                + input.capacity()));
+                        input.position(input.position() + 1);
+                        frameLength = 0;
+                        continue;
+                    }
+                }
+
+                if (input.remaining() < frameLength)
+                    break;
+
+                ByteBuffer frame = input.slice();
+                frame.limit(frameLength);
+                input.position(input.position() + frameLength);
+                frameLength = 0;
+
+                try {
+                    IncomingMessage message = messageParser.parseMessage(frame);
+                    if (message != null)
+                        received(message);
+                }
+                catch (Exception e) {
+                    receivedException(e);
+                }
+            }
+        }
+        finally {
+            input.compact();
+        }
+    }
+
+    /**
+     * The buffer is full without a complete frame, it can never be parsed so drop it
+     */
+    private void overflow() {
+        input.clear();
+        frameLength = 0;
+        receivedException(new BufferOverflowException());
+    }
+
+    private boolean isStale() {
+        if (getDiscardDataDelay() > 0) {
+            long now = getTimeSource().currentTimeMillis();
+            boolean stale = now - lastDataTimestamp > getDiscardDataDelay();
+            lastDataTimestamp = now;
+            return stale;
+        }
+        return false;
+    }
+
+    private void log(byte[] b, int len) {
+        if (DEBUG)
+            System.out.println("BufferMessageControl.read: " + StreamUtils.dumpHex(b, 0, len));
+        BaseIOLog ioLog = getIoLog();
+        if (ioLog != null)
+            ioLog.input(b, 0, len);
+    }
+
+    /**
+     * Queue the data, write the queue if no other thread is and wait until the data has been written
+     */
+    @Override
+    protected void write(byte[] data) throws IOException {
+        PendingWrite pending = new PendingWrite(data);
+        writeQueue.add(pending);
+        while (!writeQueue.isEmpty() && writing.compareAndSet(false, true)) {
+            try {
+                PendingWrite next;
+                while ((next = writeQueue.poll()) != null)
+                    next.write();
+            }
+            finally {
+                writing.set(false);
+            }
+        }
+
+        try {
+            pending.result.join();
+        }
+        catch (CompletionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private class PendingWrite {
+        final byte[] data;
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        PendingWrite(byte[] data) {
+            this.data = data;
+        }
+
+        void write() {
+            try {
+                BaseIOLog ioLog = getIoLog();
+                if (ioLog != null)
+                    ioLog.output(data);
+                getTransport().write(data);
+                result.complete(null);
+            }
+            catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+}
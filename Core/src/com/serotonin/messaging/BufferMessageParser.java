@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2020 Infinite Automation Software. All rights reserved.
+ */
+package com.serotonin.messaging;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Parses messages from a buffer in two steps so a partial message is not parsed again each time data arrives.
+ * First the length of the frame at the start of the data is found, which usually needs only a header. The frame is
+ * parsed once all of it has arrived.
+ *
+ * @author Terry Packer
+ */
+public interface BufferMessageParser {
+    /**
+     * Find the length of the frame that starts at the buffer's position. The position may be advanced to discard
+     * unusable data (i.e. up to a start indicator), otherwise it must be left where it is. If the length cannot be
+     * known yet the method is called again when more data arrives.
+     *
+     * @param buffer
+     *            the data received, from its position to its limit
+     * @return the length of the frame, or 0 if more data is needed to tell
+     * @throws Exception
+     *             if the data cannot be the start of a frame and was not discarded, one byte is then discarded
+     */
+    int frameLength(ByteBuffer buffer) throws Exception;
+
+    /**
+     * Parse a complete frame. The buffer is only valid during the call, it shares its content with the input buffer.
+     *
+     * @param frame
+     *            the frame, from position 0 to its limit
+     * @return the message, or null if the frame is to be ignored
+     * @throws Exception
+     *             if the frame is invalid, it is discarded
+     */
+    IncomingMessage parseMessage(ByteBuffer frame) throws Exception;
+}
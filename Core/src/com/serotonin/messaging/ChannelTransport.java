@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2020 Infinite Automation Software. All rights reserved.
+ */
+package com.serotonin.messaging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.locks.LockSupport;
+
+import com.serotonin.epoll.ByteBufferCallback;
+import com.serotonin.epoll.InputStreamCallback;
+import com.serotonin.epoll.InputStreamEPoll;
+
+/**
+ * A transport for a socket channel that is read by the selector of an epoll. A {@link BufferDataConsumer}, such as
+ * the {@link BufferMessageControl}, has the channel read straight into its buffer. Stop the transport by stopping the
+ * message control, the channel is not closed.
+ *
+ * @author Terry Packer
+ */
+public class ChannelTransport implements Transport {
+
+    // The channel is non-blocking, how long to wait when the socket's send buffer is full
+    private static final long WRITE_WAIT_NANOS = 100000;
+
+    private final SocketChannel channel;
+    private final InputStreamEPoll epoll;
+
+    public ChannelTransport(SocketChannel channel, InputStreamEPoll epoll) {
+        this.channel = channel;
+        this.epoll = epoll;
+    }
+
+    @Override
+    public void setConsumer(DataConsumer consumer) {
+        if (consumer instanceof BufferDataConsumer)
+            epoll.add(channel, new BufferCallback((BufferDataConsumer) consumer));
+        else
+            epoll.add(channel, new Callback(consumer));
+    }
+
+    @Override
+    public void removeConsumer() {
+        epoll.remove(channel);
+    }
+
+    @Override
+    public void write(byte[] data) throws IOException {
+        write(ByteBuffer.wrap(data));
+    }
+
+    @Override
+    public void write(byte[] data, int len) throws IOException {
+        write(ByteBuffer.wrap(data, 0, len));
+    }
+
+    public void write(ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            if (channel.write(data) == 0)
+                LockSupport.parkNanos(WRITE_WAIT_NANOS);
+        }
+    }
+
+    private class Callback implements InputStreamCallback {
+        private final DataConsumer consumer;
+
+        Callback(DataConsumer consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void input(byte[] buf, int len) {
+            consumer.data(buf, len);
+        }
+
+        @Override
+        public void closed() {
+            removeConsumer();
+        }
+
+        @Override
+        public void ioException(IOException e) {
+            consumer.handleIOException(e);
+        }
+
+        @Override
+        public void terminated() {
+            removeConsumer();
+        }
+    }
+
+    private class BufferCallback extends Callback implements ByteBufferCallback {
+        private final BufferDataConsumer consumer;
+
+        BufferCallback(BufferDataConsumer consumer) {
+            super(consumer);
+            this.consumer = consumer;
+        }
+
+        @Override
+        public ByteBuffer getInputBuffer() {
+            return consumer.getInputBuffer();
+        }
+
+        @Override
+        public void input(int len) {
+            consumer.data(len);
+        }
+    }
+}
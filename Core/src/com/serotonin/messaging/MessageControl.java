@@ -1,11 +1,21 @@
 package com.serotonin.messaging;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.serotonin.io.StreamUtils;
 import com.serotonin.log.BaseIOLog;
+import com.serotonin.provider.Providers;
+import com.serotonin.provider.TimerProvider;
+import com.serotonin.timer.AbstractTimer;
+import com.serotonin.timer.FixedRateTrigger;
 import com.serotonin.timer.SystemTimeSource;
 import com.serotonin.timer.TimeSource;
+import com.serotonin.timer.TimerTask;
 import com.serotonin.util.queue.ByteQueue;
 
 /**
@@ -16,11 +26,17 @@ import com.serotonin.util.queue.ByteQueue;
  * <li>Listen for unsolicited requests.</li>
  * </ol>
  * 
+ * Requests can also be sent asynchronously so several are outstanding at once, i.e. Modbus TCP transactions, the
+ * responses are matched by their waiting room keys. Timeouts and retries of asynchronous requests are handled by a
+ * periodic sweep on the timer. The number of requests outstanding on the transport can be limited with the in-flight
+ * window.
+ * 
  * @author Matthew Lohbihler
  */
 public class MessageControl implements DataConsumer {
     private static int DEFAULT_RETRIES = 2;
     private static int DEFAULT_TIMEOUT = 500;
+    private static int DEFAULT_SWEEP_PERIOD = 50;
 
     public boolean DEBUG = false;
 
@@ -40,6 +56,15 @@ public class MessageControl implements DataConsumer {
     private final WaitingRoom waitingRoom = new WaitingRoom();
     private final ByteQueue dataBuffer = new ByteQueue();
 
+    // Limits the requests awaiting a response, null if there is no limit
+    private Semaphore inFlight;
+    private int maxInFlight;
+    private AbstractTimer timer;
+    private int sweepPeriod = DEFAULT_SWEEP_PERIOD;
+    private final AtomicInteger pendingAsync = new AtomicInteger();
+    private final AtomicReference<TimerTask> sweepTask = new AtomicReference<>();
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+
     public void start(Transport transport, MessageParser messageParser, RequestHandler handler,
             WaitingRoomKeyFactory waitingRoomKeyFactory) throws IOException {
         this.transport = transport;
@@ -52,6 +77,13 @@ public class MessageControl implements DataConsumer {
 
     public void close() {
         transport.removeConsumer();
+
+        TimerTask task = sweepTask.getAndSet(null);
+        if (task != null)
+            task.cancel();
+        // Nothing will answer the outstanding asynchronous requests now
+        waitingRoom.sweep(Long.MAX_VALUE, member -> member.response.completeExceptionally(
+                new IOException("Message control closed, request=" + member.request)));
     }
 
     public void setExceptionHandler(MessagingExceptionHandler exceptionHandler) {
@@ -85,6 +117,48 @@ public class MessageControl implements DataConsumer {
         this.discardDataDelay = discardDataDelay;
     }
 
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Limit the number of requests that are awaiting their responses at once, senders wait for a request to be
+     * answered or time out when the limit is reached. Set before requests are sent.
+     * 
+     * @param maxInFlight
+     *            the limit, 0 for no limit
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+        this.inFlight = maxInFlight > 0 ? new Semaphore(maxInFlight) : null;
+    }
+
+    public int getSweepPeriod() {
+        return sweepPeriod;
+    }
+
+    /**
+     * @param sweepPeriod
+     *            how often in ms the asynchronous requests are checked for timeouts, the timeouts are only as
+     *            accurate as this
+     */
+    public void setSweepPeriod(int sweepPeriod) {
+        this.sweepPeriod = sweepPeriod;
+    }
+
+    /**
+     * @return the timer the timeout sweep runs on, the provided timer if none was set
+     */
+    public AbstractTimer getTimer() {
+        if (timer == null)
+            timer = Providers.get(TimerProvider.class).getTimer();
+        return timer;
+    }
+
+    public void setTimer(AbstractTimer timer) {
+        this.timer = timer;
+    }
+
     public BaseIOLog getIoLog() {
         return ioLog;
     }
@@ -115,6 +189,10 @@ public class MessageControl implements DataConsumer {
         if (request.expectsResponse()) {
             WaitingRoomKey key = waitingRoomKeyFactory.createWaitingRoomKey(request);
 
+            Semaphore window = inFlight;
+            if (window != null)
+                window.acquireUninterruptibly();
+
             // Enter the waiting room
             waitingRoom.enter(key);
 
@@ -134,6 +212,8 @@ public class MessageControl implements DataConsumer {
             finally {
                 // Leave the waiting room.
                 waitingRoom.leave(key);
+                if (window != null)
+                    window.release();
             }
 
             if (response == null)
@@ -145,6 +225,125 @@ public class MessageControl implements DataConsumer {
         return response;
     }
 
+    public CompletableFuture<IncomingResponseMessage> sendAsync(OutgoingRequestMessage request) {
+        return sendAsync(request, timeout, retries);
+    }
+
+    /**
+     * Send a request without waiting for the response. The caller only waits if the in-flight window is full.
+     * 
+     * The future completes with the response, with null if the request does not expect one, or exceptionally with a
+     * {@link TimeoutException} when the retries are used up, a {@link WaitingRoomException} if a request with the same
+     * key is outstanding, or the IOException of a failed write. Stages added to the future without an executor run
+     * in the thread that receives the response, they must not block it.
+     */
+    public CompletableFuture<IncomingResponseMessage> sendAsync(OutgoingRequestMessage request, int timeout,
+            int retries) {
+        byte[] data = request.getMessageData();
+        if (DEBUG)
+            System.out.println("MessagingControl.sendAsync: " + StreamUtils.dumpHex(data));
+
+        if (!request.expectsResponse()) {
+            CompletableFuture<IncomingResponseMessage> sent = new CompletableFuture<>();
+            try {
+                write(data);
+                sent.complete(null);
+            }
+            catch (IOException e) {
+                sent.completeExceptionally(e);
+            }
+            return sent;
+        }
+
+        WaitingRoomKey key = waitingRoomKeyFactory.createWaitingRoomKey(request);
+
+        Semaphore window = inFlight;
+        if (window != null)
+            window.acquireUninterruptibly();
+
+        WaitingRoom.Member member;
+        try {
+            member = waitingRoom.enterAsync(key, request, data, timeSource.currentTimeMillis() + timeout, timeout,
+                    retries);
+        }
+        catch (WaitingRoomException e) {
+            if (window != null)
+                window.release();
+            CompletableFuture<IncomingResponseMessage> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+
+        pendingAsync.incrementAndGet();
+        member.response.whenComplete((response, e) -> {
+            waitingRoom.leave(member);
+            pendingAsync.decrementAndGet();
+            if (window != null)
+                window.release();
+        });
+        scheduleSweep();
+
+        try {
+            write(data);
+        }
+        catch (IOException e) {
+            member.response.completeExceptionally(e);
+        }
+        return member.response;
+    }
+
+    private void scheduleSweep() {
+        if (sweepTask.get() == null) {
+            TimerTask task = new TimerTask(new FixedRateTrigger(sweepPeriod, sweepPeriod), "Message control timeout sweep") {
+                @Override
+                public void run(long runtime) {
+                    sweep();
+                }
+            };
+            if (sweepTask.compareAndSet(null, task))
+                getTimer().schedule(task);
+        }
+    }
+
+    /**
+     * Resend the asynchronous requests that timed out or fail them if they are out of retries. The sweep stops when
+     * there are none outstanding.
+     */
+    private void sweep() {
+        if (!sweeping.compareAndSet(false, true))
+            return;
+        try {
+            long now = timeSource.currentTimeMillis();
+            waitingRoom.sweep(now, member -> {
+                if (member.retries-- > 0) {
+                    if (DEBUG)
+                        System.out.println("Timeout waiting for response, retrying");
+                    member.deadline = now + member.timeout;
+                    try {
+                        write(member.data);
+                    }
+                    catch (IOException e) {
+                        member.response.completeExceptionally(e);
+                    }
+                }
+                else
+                    member.response.completeExceptionally(new TimeoutException("request=" + member.request));
+            });
+        }
+        finally {
+            sweeping.set(false);
+        }
+
+        if (pendingAsync.get() == 0) {
+            TimerTask task = sweepTask.getAndSet(null);
+            if (task != null)
+                task.cancel();
+            // A request may have been sent while stopping
+            if (pendingAsync.get() > 0)
+                scheduleSweep();
+        }
+    }
+
     public void send(OutgoingResponseMessage response) throws IOException {
         write(response.getMessageData());
     }
@@ -183,19 +382,7 @@ public class MessageControl implements DataConsumer {
                     break;
                 }
 
-                if (message instanceof IncomingRequestMessage) {
-                    // Received a request. Give it to the request handler
-                    if (requestHandler != null) {
-                        OutgoingResponseMessage response = requestHandler
-                                .handleRequest((IncomingRequestMessage) message);
-
-                        if (response != null)
-                            send(response);
-                    }
-                }
-                else
-                    // Must be a response. Give it to the waiting room.
-                    waitingRoom.response((IncomingResponseMessage) message);
+                received(message);
             }
             catch (Exception e) {
                 exceptionHandler.receivedException(e);
@@ -205,7 +392,30 @@ public class MessageControl implements DataConsumer {
         }
     }
 
-    private void write(byte[] data) throws IOException {
+    /**
+     * Hand a parsed message to the request handler or the waiting room
+     */
+    protected void received(IncomingMessage message) throws Exception {
+        if (message instanceof IncomingRequestMessage) {
+            // Received a request. Give it to the request handler
+            if (requestHandler != null) {
+                OutgoingResponseMessage response = requestHandler
+                        .handleRequest((IncomingRequestMessage) message);
+
+                if (response != null)
+                    send(response);
+            }
+        }
+        else
+            // Must be a response. Give it to the waiting room.
+            waitingRoom.response((IncomingResponseMessage) message);
+    }
+
+    protected Transport getTransport() {
+        return transport;
+    }
+
+    protected void write(byte[] data) throws IOException {
         if (ioLog != null)
             ioLog.output(data);
 
@@ -217,4 +427,8 @@ public class MessageControl implements DataConsumer {
     public void handleIOException(IOException e) {
         exceptionHandler.receivedException(e);
     }
+
+    protected void receivedException(Exception e) {
+        exceptionHandler.receivedException(e);
+    }
 }
@@ -1,20 +1,26 @@
 package com.serotonin.messaging;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 /**
- * The waiting room is a place for request messages to hang out while awaiting their responses.
+ * The waiting room is a place for request messages to hang out while awaiting their responses. Members are kept in a
+ * concurrent map so that responses to many outstanding requests can be matched without a lock. A member that entered
+ * asynchronously has a deadline instead of a waiting thread, the sweep checks the deadlines.
  * 
  * @author Matthew Lohbihler
  */
 class WaitingRoom {
     private static final Log LOG = LogFactory.getLog(WaitingRoom.class);
 
-    private final Map<WaitingRoomKey, Member> waitHere = new HashMap<WaitingRoomKey, Member>();
+    private final ConcurrentMap<WaitingRoomKey, Member> waitHere = new ConcurrentHashMap<WaitingRoomKey, Member>();
 
     private WaitingRoomKeyFactory keyFactory;
 
@@ -30,33 +36,33 @@ class WaitingRoom {
      */
     void enter(WaitingRoomKey key) {
         Member member = new Member();
-        synchronized (this) {
-            while (waitHere.get(key) != null) {
-                if (LOG.isDebugEnabled())
-                    LOG.debug("Duplicate waiting room key found. Waiting for member to leave.");
-                try {
-                    wait();
-                }
-                catch (InterruptedException e) {
-                    // no op
-                }
-            }
-            //            Member dup = waitHere.get(key);
-            //            if (dup != null) {
-            //                
-            //                throw new WaitingRoomException("Waiting room too crowded. Already contains the key " + key);
-            //            }
-
-            waitHere.put(key, member);
+        Member existing;
+        while ((existing = waitHere.putIfAbsent(key, member)) != null) {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Duplicate waiting room key found. Waiting for member to leave.");
+            existing.awaitLeave();
         }
     }
 
+    /**
+     * Enter without waiting for a response, the member's future is completed with the response or by the sweep
+     * when it times out.
+     *
+     * @return the member
+     * @throws WaitingRoomException
+     *             if the key is already in the waiting room
+     */
+    Member enterAsync(WaitingRoomKey key, OutgoingRequestMessage request, byte[] data, long deadline, int timeout,
+            int retries) throws WaitingRoomException {
+        Member member = new Member(key, request, data, deadline, timeout, retries);
+        if (waitHere.putIfAbsent(key, member) != null)
+            throw new WaitingRoomException("Waiting room already contains the key " + key);
+        return member;
+    }
+
     IncomingResponseMessage getResponse(WaitingRoomKey key, long timeout) throws WaitingRoomException {
         // Get the member.
-        Member member;
-        synchronized (this) {
-            member = waitHere.get(key);
-        }
+        Member member = waitHere.get(key);
 
         if (member == null)
             throw new WaitingRoomException("No member for key " + key);
@@ -66,13 +72,19 @@ class WaitingRoom {
     }
 
     void leave(WaitingRoomKey key) {
-        // Leave the waiting room
-        synchronized (this) {
-            waitHere.remove(key);
+        // Leave the waiting room and let any threads that are waiting to get in try again.
+        Member member = waitHere.remove(key);
+        if (member != null)
+            member.left.complete(null);
+    }
 
-            // Notify any threads that are waiting to get in. This could probably be just a notify() call.
-            notifyAll();
-        }
+    void leave(Member member) {
+        if (waitHere.remove(member.key, member))
+            member.left.complete(null);
+    }
+
+    boolean isEmpty() {
+        return waitHere.isEmpty();
     }
 
     /**
@@ -88,50 +100,78 @@ class WaitingRoom {
             // The key factory can return a null key if the response should be ignored. 
             return;
 
-        Member member;
-
-        synchronized (this) {
-            member = waitHere.get(key);
-        }
+        Member member = waitHere.get(key);
 
         if (member != null)
-            member.setResponse(response);
+            member.response.complete(response);
         else
             throw new WaitingRoomException("No recipient was found waiting for response for key " + key);
     }
 
     /**
-     * This class is used by network message controllers to manage the blocking of threads sending confirmed messages.
-     * The instance itself serves as a monitor upon which the sending thread can wait (with a timeout). When a response
-     * is received, the message controller can set it in here, automatically notifying the sending thread that the
-     * response is available.
+     * Find the asynchronous members that are past their deadline
+     *
+     * @param now
+     * @param expired
+     *            called with each expired member
+     */
+    void sweep(long now, Consumer<Member> expired) {
+        for (Member member : waitHere.values()) {
+            if (member.deadline > 0 && member.deadline <= now && !member.response.isDone())
+                expired.accept(member);
+        }
+    }
+
+    /**
+     * A request waiting for its response. A thread sending a request waits on the response future with a timeout,
+     * a request sent asynchronously returns the future to the caller.
      * 
      * @author Matthew Lohbihler
      */
-    class Member {
-        private IncomingResponseMessage response;
-
-        synchronized void setResponse(IncomingResponseMessage response) {
-            this.response = response;
-            notify();
+    static class Member {
+        final CompletableFuture<IncomingResponseMessage> response = new CompletableFuture<>();
+        final CompletableFuture<Void> left = new CompletableFuture<>();
+
+        // Asynchronous members only
+        final WaitingRoomKey key;
+        final OutgoingRequestMessage request;
+        final byte[] data;
+        final int timeout;
+        volatile long deadline;
+        int retries;
+
+        Member() {
+            this(null, null, null, 0, 0, 0);
         }
 
-        synchronized IncomingResponseMessage getResponse(long timeout) {
-            // Check if there is a response object now.
-            if (response != null)
-                return response;
+        Member(WaitingRoomKey key, OutgoingRequestMessage request, byte[] data, long deadline, int timeout,
+                int retries) {
+            this.key = key;
+            this.request = request;
+            this.data = data;
+            this.deadline = deadline;
+            this.timeout = timeout;
+            this.retries = retries;
+        }
 
-            // If not, wait the timeout and then check again.
-            waitNoThrow(timeout);
-            return response;
+        IncomingResponseMessage getResponse(long timeout) {
+            try {
+                // Wait the timeout for a response.
+                if (timeout <= 0)
+                    return response.get();
+                return response.get(timeout, TimeUnit.MILLISECONDS);
+            }
+            catch (java.util.concurrent.TimeoutException | InterruptedException | ExecutionException e) {
+                return null;
+            }
         }
 
-        private void waitNoThrow(long timeout) {
+        void awaitLeave() {
             try {
-                wait(timeout);
+                left.get();
             }
-            catch (InterruptedException e) {
-                // Ignore
+            catch (InterruptedException | ExecutionException e) {
+                // no op
             }
         }
     }
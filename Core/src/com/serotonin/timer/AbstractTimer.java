@@ -36,6 +36,14 @@ abstract public class AbstractTimer {
 
     abstract protected void scheduleImpl(TimerTask task);
 
+    /**
+     * Called after a task scheduled on this timer was cancelled, cancelled tasks are otherwise
+     * dropped when they come due or on purge()
+     * @param task
+     */
+    void taskCancelled(TimerTask task) {
+    }
+
     abstract public List<TimerTask> cancel();
 
     abstract public int purge();
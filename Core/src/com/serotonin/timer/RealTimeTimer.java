@@ -26,8 +26,8 @@ public class RealTimeTimer extends AbstractTimer {
     protected TimerThread thread;
 
     // Do i own the executor?
-    private boolean ownsExecutor;
-    private Exception cancelStack;
+    protected boolean ownsExecutor;
+    protected Exception cancelStack;
 
     protected TimeSource timeSource = new SystemTimeSource();
 
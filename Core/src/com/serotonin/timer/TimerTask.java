@@ -5,6 +5,13 @@ import com.serotonin.m2m2.Common;
 public abstract class TimerTask extends Task {
     
 	TimerTrigger trigger;
+
+	/**
+	 * Position of the task in a TimingWheel, guarded by the timer
+	 */
+	TimerTask wheelNext;
+	TimerTask wheelPrev;
+	int wheelSlot = TimingWheel.NOT_QUEUED;
 	
 	public TimerTask(TimerTrigger trigger, String name){
 		super(name);
@@ -36,6 +43,15 @@ public abstract class TimerTask extends Task {
     AbstractTimer getTimer() {
         return trigger.getTimer();
     }
+
+    @Override
+    public boolean cancel() {
+        boolean result = super.cancel();
+        AbstractTimer timer = getTimer();
+        if (timer != null)
+            timer.taskCancelled(this);
+        return result;
+    }
     
 	@Override
 	public void rejected(RejectedTaskReason reason) {
@@ -0,0 +1,273 @@
+/**
+ * Copyright (C) 2020 Infinite Automation Software. All rights reserved.
+ */
+package com.serotonin.timer;
+
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel of timer tasks with a resolution of 1ms. Each level has 64 slots, a slot of level
+ * n covers 64^n ms. A task is placed in the level of the highest 6 bit group in which its execution time differs
+ * from the current time and is moved down a level each time the current time reaches the start of its slot, so
+ * adding and removing a task is constant time and each task is moved at most once per level.
+ *
+ * Tasks are linked into their slot through fields on the task so no nodes are allocated. The occupied slots of
+ * each level are kept in a bit mask to find the next time anything needs to be done without visiting empty slots.
+ *
+ * This class is not thread safe.
+ *
+ * @author Terry Packer
+ */
+class TimingWheel {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 7;
+    /**
+     * Tasks that are too far in the future for the top level
+     */
+    private static final int OVERFLOW = LEVELS * SLOTS;
+    /**
+     * Tasks added with a time that has already been processed
+     */
+    private static final int EXPIRED = OVERFLOW + 1;
+    static final int NOT_QUEUED = -1;
+
+    private final TimerTask[] slots = new TimerTask[EXPIRED + 1];
+    private final long[] occupied = new long[LEVELS];
+    /**
+     * The next time to be processed, every task due before this has been expired
+     */
+    private long now;
+    private long overflowTime = Long.MAX_VALUE;
+    private int size;
+
+    TimingWheel(long now) {
+        this.now = now;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Add a task to expire at its next execution time
+     */
+    void add(TimerTask task) {
+        place(task);
+        size++;
+    }
+
+    /**
+     * Remove a task before it expires
+     * @return false if the task is not in the wheel
+     */
+    boolean remove(TimerTask task) {
+        if (task.wheelSlot == NOT_QUEUED)
+            return false;
+        unlink(task);
+        size--;
+        return true;
+    }
+
+    /**
+     * Remove all tasks that are due at or before this time, in order of their execution time. If the time has
+     * gone backwards all tasks are placed again relative to it so nothing fires early.
+     *
+     * @param time
+     * @param due - the expired tasks are added to this
+     */
+    void expire(long time, List<TimerTask> due) {
+        if (time < now - 1)
+            rebase(time);
+
+        TimerTask task;
+        while ((task = slots[EXPIRED]) != null) {
+            unlink(task);
+            size--;
+            due.add(task);
+        }
+
+        while (size > 0) {
+            long next = nextTime();
+            if (next > time)
+                break;
+            now = next;
+
+            if (now >= overflowTime) {
+                overflowTime = Long.MAX_VALUE;
+                cascade(OVERFLOW);
+            }
+            // Move down the tasks of every slot that starts now, highest level first
+            for (int level = LEVELS - 1; level > 0; level--) {
+                int shift = level * SLOT_BITS;
+                if ((now & ((1L << shift) - 1)) == 0)
+                    cascade(level * SLOTS + digit(now, level));
+            }
+
+            int slot = digit(now, 0);
+            while ((task = slots[slot]) != null) {
+                unlink(task);
+                size--;
+                due.add(task);
+            }
+            now++;
+        }
+
+        if (time >= now)
+            now = time + 1;
+    }
+
+    /**
+     * @return the next time at which a task is due or tasks need to be moved down a level,
+     *  Long.MAX_VALUE if the wheel is empty
+     */
+    long nextExpiry() {
+        if (slots[EXPIRED] != null)
+            return now - 1;
+        return size == 0 ? Long.MAX_VALUE : nextTime();
+    }
+
+    /**
+     * Remove cancelled tasks
+     * @return the number removed
+     */
+    int purge() {
+        int removed = 0;
+        for (int i = 0; i < slots.length; i++) {
+            TimerTask task = slots[i];
+            while (task != null) {
+                TimerTask next = task.wheelNext;
+                if (task.state == Task.CANCELLED) {
+                    remove(task);
+                    removed++;
+                }
+                task = next;
+            }
+        }
+        return removed;
+    }
+
+    void getTasks(List<TimerTask> tasks) {
+        for (TimerTask task : slots) {
+            for (; task != null; task = task.wheelNext)
+                tasks.add(task);
+        }
+    }
+
+    void clear() {
+        for (int i = 0; i < slots.length; i++) {
+            TimerTask task = slots[i];
+            while (task != null) {
+                TimerTask next = task.wheelNext;
+                task.wheelNext = null;
+                task.wheelPrev = null;
+                task.wheelSlot = NOT_QUEUED;
+                task = next;
+            }
+            slots[i] = null;
+        }
+        for (int i = 0; i < occupied.length; i++)
+            occupied[i] = 0;
+        overflowTime = Long.MAX_VALUE;
+        size = 0;
+    }
+
+    private long nextTime() {
+        long next = overflowTime;
+        for (int level = 0; level < LEVELS; level++) {
+            long bits = occupied[level];
+            if (bits == 0)
+                continue;
+            int shift = level * SLOT_BITS;
+            int digit = digit(now, level);
+            // The slot of the current digit only still holds tasks if they have not yet been moved down
+            bits &= (now & ((1L << shift) - 1)) == 0 ? -1L << digit : -2L << digit;
+            if (bits == 0)
+                continue;
+            long start = (now & -(1L << (shift + SLOT_BITS))) + ((long) Long.numberOfTrailingZeros(bits) << shift);
+            if (start < next)
+                next = start;
+        }
+        return next;
+    }
+
+    private void place(TimerTask task) {
+        long time = task.trigger.nextExecutionTime;
+        if (time < now) {
+            link(task, EXPIRED);
+            return;
+        }
+
+        long diff = time ^ now;
+        int level = diff == 0 ? 0 : (63 - Long.numberOfLeadingZeros(diff)) / SLOT_BITS;
+        if (level >= LEVELS) {
+            overflowTime = Math.min(overflowTime, time & -(1L << (LEVELS * SLOT_BITS)));
+            link(task, OVERFLOW);
+        } else {
+            link(task, level * SLOTS + digit(time, level));
+        }
+    }
+
+    private void cascade(int slot) {
+        TimerTask task;
+        while ((task = slots[slot]) != null) {
+            unlink(task);
+            place(task);
+        }
+    }
+
+    private void rebase(long time) {
+        TimerTask head = null;
+        for (int i = 0; i < slots.length; i++) {
+            TimerTask task;
+            while ((task = slots[i]) != null) {
+                unlink(task);
+                task.wheelNext = head;
+                head = task;
+            }
+        }
+        now = time;
+        overflowTime = Long.MAX_VALUE;
+        while (head != null) {
+            TimerTask next = head.wheelNext;
+            place(head);
+            head = next;
+        }
+    }
+
+    private void link(TimerTask task, int slot) {
+        TimerTask head = slots[slot];
+        task.wheelSlot = slot;
+        task.wheelPrev = null;
+        task.wheelNext = head;
+        if (head != null)
+            head.wheelPrev = task;
+        slots[slot] = task;
+        if (slot < OVERFLOW)
+            occupied[slot >> SLOT_BITS] |= 1L << slot;
+    }
+
+    private void unlink(TimerTask task) {
+        int slot = task.wheelSlot;
+        if (task.wheelPrev != null)
+            task.wheelPrev.wheelNext = task.wheelNext;
+        else
+            slots[slot] = task.wheelNext;
+        if (task.wheelNext != null)
+            task.wheelNext.wheelPrev = task.wheelPrev;
+        task.wheelNext = null;
+        task.wheelPrev = null;
+        task.wheelSlot = NOT_QUEUED;
+        if (slot < OVERFLOW && slots[slot] == null)
+            occupied[slot >> SLOT_BITS] &= ~(1L << slot);
+    }
+
+    private static int digit(long time, int level) {
+        return (int) (time >>> (level * SLOT_BITS)) & (SLOTS - 1);
+    }
+}
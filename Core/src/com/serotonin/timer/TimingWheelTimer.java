@@ -0,0 +1,236 @@
+/**
+ * Copyright (C) 2020 Infinite Automation Software. All rights reserved.
+ */
+package com.serotonin.timer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Ordered real time timer that keeps its tasks in a TimingWheel instead of the binary heap of the TaskQueue,
+ * scheduling and cancelling a task are constant time so the lock shared with the timer thread is only held
+ * briefly. Cancelled tasks are removed from the wheel immediately.
+ *
+ * @author Terry Packer
+ */
+public class TimingWheelTimer extends OrderedRealTimeTimer {
+
+    private final TimingWheel wheel = new TimingWheel(0);
+
+    @Override
+    public void init(OrderedThreadPoolExecutor executorService, int threadPriority) {
+        TimingWheelThread timer = new TimingWheelThread(queue, wheel, executorService, timeSource);
+        timer.setName("Timing Wheel Timer");
+        timer.setDaemon(false);
+        timer.setPriority(threadPriority);
+        super.init(timer);
+    }
+
+    @Override
+    protected void finalize() {
+        synchronized (wheel) {
+            if (thread != null)
+                thread.newTasksMayBeScheduled = false;
+            if (cancelStack == null)
+                cancelStack = new Exception();
+            wheel.notify();
+        }
+    }
+
+    @Override
+    protected void scheduleImpl(TimerTask task) {
+        if (thread == null)
+            throw new IllegalStateException("Run init first");
+
+        if (task.state == TimerTask.CANCELLED || task.state == TimerTask.EXECUTED)
+            throw new IllegalStateException("Task already executed or cancelled");
+
+        synchronized (wheel) {
+            if (!thread.newTasksMayBeScheduled) {
+                if (cancelStack != null) {
+                    LOG.error("Timer already cancelled.");
+                    LOG.error("   Cancel stack:", cancelStack);
+                    LOG.error("   Current stack:", new Exception());
+                    throw new IllegalStateException("Timer already cancelled.", cancelStack);
+                }
+                throw new IllegalStateException("Timer already cancelled.");
+            }
+
+            synchronized (task.lock) {
+                if (task.state == TimerTask.VIRGIN) {
+                    long time = task.trigger.getFirstExecutionTime();
+
+                    if (time < 0)
+                        throw new IllegalArgumentException("Illegal execution time.");
+
+                    task.trigger.nextExecutionTime = time;
+                    task.state = TimerTask.SCHEDULED;
+                }
+            }
+
+            wheel.add(task);
+            // Only wake the timer thread if it would otherwise sleep past this task
+            if (task.trigger.nextExecutionTime < ((TimingWheelThread) thread).wakeup)
+                wheel.notify();
+        }
+    }
+
+    @Override
+    void taskCancelled(TimerTask task) {
+        synchronized (wheel) {
+            wheel.remove(task);
+        }
+    }
+
+    @Override
+    public List<TimerTask> cancel() {
+        List<TimerTask> tasks = new ArrayList<TimerTask>();
+        synchronized (wheel) {
+            thread.newTasksMayBeScheduled = false;
+            if (cancelStack == null)
+                cancelStack = new Exception();
+            wheel.getTasks(tasks);
+            wheel.clear();
+            wheel.notify(); // In case the wheel was already empty.
+        }
+
+        if (ownsExecutor)
+            getExecutorService().shutdown();
+
+        return tasks;
+    }
+
+    @Override
+    public int purge() {
+        synchronized (wheel) {
+            return wheel.purge();
+        }
+    }
+
+    @Override
+    public int size() {
+        synchronized (wheel) {
+            return wheel.size();
+        }
+    }
+
+    @Override
+    public List<TimerTask> getTasks() {
+        List<TimerTask> result = new ArrayList<TimerTask>();
+        synchronized (wheel) {
+            wheel.getTasks(result);
+        }
+        return result;
+    }
+
+    /**
+     * Expires the tasks in the wheel and runs them in the ordered executor, the wheel is used as the lock
+     * shared with the timer.
+     */
+    static class TimingWheelThread extends OrderedTimerThread {
+        private static final Log LOG = LogFactory.getLog(TimingWheelThread.class);
+
+        private final TimingWheel wheel;
+        private final TimeSource timeSource;
+        /**
+         * Time the thread will wake up if not notified, guarded by the wheel
+         */
+        long wakeup = Long.MAX_VALUE;
+
+        TimingWheelThread(TaskQueue queue, TimingWheel wheel, OrderedThreadPoolExecutor executorService, TimeSource timeSource) {
+            super(queue, executorService, timeSource);
+            this.wheel = wheel;
+            this.timeSource = timeSource;
+        }
+
+        @Override
+        public void run() {
+            try {
+                mainLoop();
+            }
+            catch (Throwable t) {
+                LOG.fatal("TimingWheelThread failed", t);
+            }
+            finally {
+                // Someone killed this Thread, behave as if Timer was cancelled
+                synchronized (wheel) {
+                    newTasksMayBeScheduled = false;
+                    wheel.clear(); // Eliminate obsolete references
+                }
+            }
+        }
+
+        private void mainLoop() {
+            List<TimerTask> due = new ArrayList<TimerTask>();
+            List<Long> executionTimes = new ArrayList<Long>();
+            while (true) {
+                try {
+                    synchronized (wheel) {
+                        // Wait for wheel to become non-empty
+                        while (wheel.isEmpty() && newTasksMayBeScheduled)
+                            wheel.wait();
+                        if (wheel.isEmpty())
+                            break; // Wheel is empty and will forever remain; die
+
+                        long now = timeSource.currentTimeMillis();
+                        wheel.expire(now, due);
+                        if (due.isEmpty()) {
+                            long wait = wheel.nextExpiry() - now;
+                            if (wait > 0) {
+                                wakeup = now + wait;
+                                wheel.wait(wait);
+                                wakeup = Long.MAX_VALUE;
+                            }
+                            continue;
+                        }
+
+                        for (int i = 0; i < due.size(); i++) {
+                            TimerTask task = due.get(i);
+                            synchronized (task.lock) {
+                                if (task.state == TimerTask.CANCELLED) {
+                                    executionTimes.add(null);
+                                    continue;
+                                }
+                                executionTimes.add(task.trigger.nextExecutionTime);
+                                long next = task.trigger.calculateNextExecutionTime();
+                                if (next <= 0) { // Non-repeating
+                                    task.state = TimerTask.EXECUTED;
+                                }
+                                else {
+                                    // Repeating task, reschedule
+                                    task.trigger.nextExecutionTime = next;
+                                    wheel.add(task);
+                                }
+                            }
+                        }
+                    }
+
+                    // Run the tasks, holding no locks
+                    for (int i = 0; i < due.size(); i++) {
+                        Long executionTime = executionTimes.get(i);
+                        if (executionTime == null)
+                            continue;
+                        TimerTask task = due.get(i);
+                        try {
+                            this.executeTask(new TaskWrapper(task, task.trigger.mostRecentExecutionTime()));
+                        }
+                        catch (RejectedExecutionException e) {
+                            this.taskRejected(executionTime, task, e);
+                        }
+                    }
+                }
+                catch (InterruptedException e) {
+                    // no op
+                }
+                finally {
+                    due.clear();
+                    executionTimes.clear();
+                }
+            }
+        }
+    }
+}